@@ -0,0 +1,56 @@
+package maxim.z;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Creates empty file system for benchmarks on one of storages: "memory" for {@link MemoryReaderWriter},
+ * "offHeap" for {@link SegmentedMemoryReaderWriter}, "file" for {@link RAFWrapper} over temporary file
+ * or "cachedFile" for the same file behind write-through {@link CachingReaderWriter}.
+ */
+class BenchmarkStorage {
+
+    final static String MEMORY = "memory";
+    final static String OFF_HEAP = "offHeap";
+    final static String FILE = "file";
+    final static String CACHED_FILE = "cachedFile";
+
+    private final File storageFile;
+    final VirtualFileSystem fs;
+
+    BenchmarkStorage(String backend) throws IOException {
+        this(backend, FormatOptions.defaults());
+    }
+
+    BenchmarkStorage(String backend, FormatOptions formatOptions) throws IOException {
+        switch (backend) {
+            case MEMORY:
+                storageFile = null;
+                fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0), formatOptions);
+                break;
+            case OFF_HEAP:
+                storageFile = null;
+                fs = FileSystemFactory.getFileSystem(new SegmentedMemoryReaderWriter(), formatOptions);
+                break;
+            case FILE:
+                storageFile = Files.createTempFile("fs-benchmark", ".fs").toFile();
+                fs = FileSystemFactory.getFileSystem(new RAFWrapper(storageFile), formatOptions);
+                break;
+            case CACHED_FILE:
+                storageFile = Files.createTempFile("fs-benchmark", ".fs").toFile();
+                fs = FileSystemFactory.getFileSystem(new CachingReaderWriter(new RAFWrapper(storageFile),
+                        CacheOptions.defaults()), formatOptions);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("unknown backend %s", backend));
+        }
+    }
+
+    void close() throws IOException {
+        fs.close();
+        if (storageFile != null) {
+            Files.deleteIfExists(storageFile.toPath());
+        }
+    }
+}
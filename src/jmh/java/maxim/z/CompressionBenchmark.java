@@ -0,0 +1,80 @@
+package maxim.z;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares throughput of compressed and uncompressed files with text content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private final static int CONTENT_SIZE = 2 * 1024 * 1024;
+    private final static int RANDOM_READ_SIZE = 4096;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private BenchmarkStorage storage;
+    private VirtualFile file;
+    private byte[] content;
+    private final Random random = new Random(1);
+
+    @Setup
+    public void setUp() throws IOException {
+        storage = new BenchmarkStorage(BenchmarkStorage.MEMORY);
+        file = storage.fs.createFile(storage.fs.getRootFile(), "benchmark");
+        storage.fs.setCompressed(file, compressed);
+        content = createTextContent();
+        storage.fs.write(file, content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        storage.fs.write(file, content);
+    }
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        return storage.fs.read(file);
+    }
+
+    @Benchmark
+    public byte[] randomRead() throws IOException {
+        return storage.fs.read(file, random.nextInt(CONTENT_SIZE - RANDOM_READ_SIZE), RANDOM_READ_SIZE);
+    }
+
+    private static byte[] createTextContent() {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(0);
+        String[] words = {"file", "system", "cluster", "chain", "directory", "content", "header", "table", "read", "write"};
+        while (text.length() < CONTENT_SIZE) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(100) == 0 ? "\n" : " ");
+        }
+        return text.substring(0, CONTENT_SIZE).getBytes(FSConstants.CHARSET);
+    }
+}
@@ -0,0 +1,76 @@
+package maxim.z;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of directory operations: lookup of file by path, listing, creation and removal of file
+ * in directory with specified count of files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryBenchmark {
+
+    @Param({BenchmarkStorage.MEMORY, BenchmarkStorage.OFF_HEAP, BenchmarkStorage.FILE, BenchmarkStorage.CACHED_FILE})
+    public String backend;
+
+    @Param({"16", "256", "768"})
+    public int directorySize;
+
+    private BenchmarkStorage storage;
+    private VirtualFile directory;
+    private VirtualFile lastFile;
+    private VirtualFile missingFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        storage = new BenchmarkStorage(backend);
+        directory = storage.fs.createDirectory(storage.fs.getRootFile(), "dir");
+        storage.fs.batch(batch -> {
+            for (int i = 0; i < directorySize; i++) {
+                batch.createFile(directory, "file" + i);
+            }
+        });
+        lastFile = directory.child("file" + (directorySize - 1));
+        missingFile = directory.child("missing");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Benchmark
+    public boolean lookup() throws IOException {
+        return storage.fs.exist(lastFile);
+    }
+
+    @Benchmark
+    public List<String> list() throws IOException {
+        return storage.fs.getFilesList(directory);
+    }
+
+    @Benchmark
+    public void createAndRemove() throws IOException {
+        storage.fs.createFile(directory, missingFile.getName());
+        storage.fs.removeFile(missingFile);
+    }
+}
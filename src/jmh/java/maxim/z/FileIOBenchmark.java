@@ -0,0 +1,81 @@
+package maxim.z;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of reading and writing of file with specified size: whole content, random blocks and
+ * overwriting of block in the middle of file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileIOBenchmark {
+
+    private final static int BLOCK_SIZE = 4096;
+
+    @Param({BenchmarkStorage.MEMORY, BenchmarkStorage.OFF_HEAP, BenchmarkStorage.FILE, BenchmarkStorage.CACHED_FILE})
+    public String backend;
+
+    @Param({"4096", "65536", "1048576"})
+    public int fileSize;
+
+    private BenchmarkStorage storage;
+    private VirtualFile file;
+    private byte[] content;
+    private byte[] block;
+    private final Random random = new Random(0);
+
+    @Setup
+    public void setUp() throws IOException {
+        storage = new BenchmarkStorage(backend);
+        file = storage.fs.createFile(storage.fs.getRootFile(), "file");
+        content = new byte[fileSize];
+        random.nextBytes(content);
+        block = new byte[BLOCK_SIZE];
+        random.nextBytes(block);
+        storage.fs.write(file, content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.close();
+    }
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        return storage.fs.read(file);
+    }
+
+    @Benchmark
+    public byte[] readRandomBlock() throws IOException {
+        return storage.fs.read(file, random.nextInt(fileSize - BLOCK_SIZE + 1), BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        storage.fs.write(file, content);
+    }
+
+    @Benchmark
+    public void writeRandomBlock() throws IOException {
+        storage.fs.write(file, random.nextInt(fileSize - BLOCK_SIZE + 1), block);
+    }
+}
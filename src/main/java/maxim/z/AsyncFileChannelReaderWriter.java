@@ -0,0 +1,218 @@
+package maxim.z;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implementation of bytes storage in real file, that additionally supports asynchronous reading by
+ * {@link AsynchronousFileChannel}. Synchronous operations are used by file system under it's lock and are
+ * performed by positional calls of {@link FileChannel}, so they never wait for threads of asynchronous channel.
+ * Asynchronous reads are performed by fixed count of threads, count of reads in flight is limited, other reads
+ * wait in queue without blocking of caller. Reads, that still wait in queue on closing, are completed exceptionally
+ * with {@link ClosedChannelException}.
+ */
+public class AsyncFileChannelReaderWriter implements BytesReaderWriter {
+
+    private final FileChannel channel;
+    private final AsynchronousFileChannel asyncChannel;
+    private final ExecutorService ioExecutor;
+    private final Semaphore inFlightReads;
+    private final Queue<PendingRead> pendingReads = new ConcurrentLinkedQueue<>();
+    private long position;
+    private volatile boolean closed;
+
+    /**
+     * @param file                  path of storage file, it is created if it doesn't exist
+     * @param threadsCount          count of threads, that perform asynchronous reads
+     * @param maxInFlightReadsCount max count of asynchronous reads, that are performed at the same time
+     * @throws IOException on any default IO error
+     */
+    public AsyncFileChannelReaderWriter(Path file, int threadsCount, int maxInFlightReadsCount) throws IOException {
+        if (threadsCount <= 0 || maxInFlightReadsCount <= 0) {
+            throw new IllegalArgumentException(String.format("Threads count and max in flight reads count must be " +
+                    "positive, but were %d and %d", threadsCount, maxInFlightReadsCount));
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(threadsCount, runnable -> {
+            Thread thread = new Thread(runnable, "fs-async-io-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.asyncChannel = AsynchronousFileChannel.open(file, EnumSet.of(StandardOpenOption.READ), ioExecutor);
+        } catch (IOException | RuntimeException e) {
+            ioExecutor.shutdown();
+            channel.close();
+            throw e;
+        }
+        this.inFlightReads = new Semaphore(maxInFlightReadsCount);
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        position += bytes.length;
+    }
+
+    @Override
+    public void readBytes(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        Arrays.fill(data, buffer.position(), data.length, (byte) 0);
+        position += data.length;
+    }
+
+    @Override
+    public void seekAndRead(byte[] data, long pos) throws IOException {
+        seek(pos);
+        readBytes(data);
+    }
+
+    @Override
+    public void seekAndWrite(byte[] bytes, long pos) throws IOException {
+        seek(pos);
+        write(bytes);
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        position = pos;
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        if (length < channel.size()) {
+            channel.truncate(length);
+        } else if (length > channel.size()) {
+            channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+        }
+    }
+
+    /**
+     * Bytes are copied by {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so operating system
+     * can copy them without copying into java heap.
+     */
+    @Override
+    public void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        long transferred = FSUtils.transferFully(channel, pos, count, target);
+        if (transferred < count) {
+            BytesReaderWriter.super.transferTo(pos + transferred, count - transferred, target);
+        }
+    }
+
+    /**
+     * Reads bytes of storage into part of array asynchronously. Bytes after the end of storage are not changed.
+     *
+     * @param data   array for read bytes
+     * @param offset offset of part in array
+     * @param length length of part
+     * @param pos    position in storage
+     * @return future, that is completed after reading, or completed exceptionally with
+     * {@link ClosedChannelException} if storage is closed before start of reading
+     */
+    public CompletableFuture<Void> readAsync(byte[] data, int offset, int length, long pos) {
+        PendingRead read = new PendingRead(ByteBuffer.wrap(data, offset, length), pos);
+        pendingReads.add(read);
+        if (closed) {
+            failPendingReads();
+        } else {
+            startPendingReads();
+        }
+        return read.result;
+    }
+
+    private void failPendingReads() {
+        PendingRead read;
+        while ((read = pendingReads.poll()) != null) {
+            read.result.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    private void startPendingReads() {
+        while (!pendingReads.isEmpty() && inFlightReads.tryAcquire()) {
+            PendingRead read = pendingReads.poll();
+            if (read == null) {
+                inFlightReads.release();
+                return;
+            }
+            read.start();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        failPendingReads();
+        try {
+            asyncChannel.close();
+            channel.close();
+        } finally {
+            ioExecutor.shutdown();
+        }
+    }
+
+    private class PendingRead implements CompletionHandler<Integer, Void> {
+
+        private final ByteBuffer buffer;
+        private final long startPosition;
+        private final int startOffset;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private PendingRead(ByteBuffer buffer, long startPosition) {
+            this.buffer = buffer;
+            this.startPosition = startPosition;
+            this.startOffset = buffer.position();
+        }
+
+        private void start() {
+            try {
+                asyncChannel.read(buffer, startPosition + buffer.position() - startOffset, null, this);
+            } catch (RuntimeException e) {
+                failed(e, null);
+            }
+        }
+
+        @Override
+        public void completed(Integer readBytesCount, Void attachment) {
+            if (readBytesCount >= 0 && buffer.hasRemaining()) {
+                start();
+                return;
+            }
+            inFlightReads.release();
+            result.complete(null);
+            startPendingReads();
+        }
+
+        @Override
+        public void failed(Throwable exception, Void attachment) {
+            inFlightReads.release();
+            result.completeExceptionally(exception);
+            startPendingReads();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package maxim.z;
+
+import maxim.z.exceptions.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of file system. Operations are performed by small pool of worker threads, caller thread
+ * is never blocked. If file system is stored by {@link AsyncFileChannelReaderWriter}, then file data is read
+ * outside of lock of file system: worker only resolves storage ranges of file (see {@link ReadPlan}) and
+ * ranges are read by asynchronous channel, so many reads are in flight at the same time without thread per read.
+ * If file system was changed during such reading, then file is read again by usual synchronous reading.
+ * Files of snapshots, compressed files and file systems with checksums are always read by worker threads.
+ */
+public class AsyncFileSystem implements Closeable {
+
+    private final static int DEFAULT_THREADS_COUNT = 2;
+    private final static int DEFAULT_MAX_IN_FLIGHT_READS_COUNT = 64;
+
+    private final VirtualFileSystem fileSystem;
+    /**
+     * storage of file system, if it supports asynchronous reading, otherwise null
+     */
+    private final AsyncFileChannelReaderWriter storage;
+    private final ExecutorService executor;
+
+    /**
+     * Wraps file system, which storage is not known, all operations are performed by worker threads.
+     *
+     * @param fileSystem   file system, it is closed with facade
+     * @param threadsCount count of worker threads
+     */
+    public AsyncFileSystem(VirtualFileSystem fileSystem, int threadsCount) {
+        this(fileSystem, null, threadsCount);
+    }
+
+    private AsyncFileSystem(VirtualFileSystem fileSystem, AsyncFileChannelReaderWriter storage, int threadsCount) {
+        this.fileSystem = fileSystem;
+        this.storage = storage;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threadsCount, runnable -> {
+            Thread thread = new Thread(runnable, "fs-async-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static AsyncFileSystem open(Path path) throws IOException {
+        return open(path, FormatOptions.defaults(), DEFAULT_THREADS_COUNT, DEFAULT_MAX_IN_FLIGHT_READS_COUNT);
+    }
+
+    /**
+     * Opens file system stored in real file, file is created if it doesn't exist.
+     *
+     * @param path                  path to file system storage
+     * @param formatOptions         options, that are used if file system storage doesn't exist yet
+     * @param threadsCount          count of worker threads and count of threads of asynchronous channel
+     * @param maxInFlightReadsCount max count of reads of storage, that are performed at the same time
+     */
+    public static AsyncFileSystem open(Path path, FormatOptions formatOptions, int threadsCount,
+                                       int maxInFlightReadsCount) throws IOException {
+        AsyncFileChannelReaderWriter storage = new AsyncFileChannelReaderWriter(path, threadsCount, maxInFlightReadsCount);
+        FileSystemImpl fileSystem;
+        try {
+            fileSystem = new FileSystemImpl(storage, formatOptions);
+        } catch (IOException | RuntimeException e) {
+            storage.close();
+            throw e;
+        }
+        return new AsyncFileSystem(fileSystem, storage, threadsCount);
+    }
+
+    /**
+     * @return wrapped file system for synchronous operations
+     */
+    public VirtualFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    /**
+     * Reads whole content of file.
+     *
+     * @param file file for reading data
+     * @return future of content, it is completed by {@link FileNotFoundException} if specified file was not found
+     * and by {@link ReadException} if specified file is not available for reading (e.g. file is a directory)
+     */
+    public CompletableFuture<byte[]> readAsync(VirtualFile file) {
+        return readAsync(file, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads part of file. If bytes count is more than rest of file after start index, then result size is
+     * equals to size of that rest.
+     *
+     * @param file  file for reading data
+     * @param from  start byte index for reading
+     * @param count count of bytes for reading
+     * @return future of read part, it is completed exceptionally like {@link #readAsync(VirtualFile)}
+     */
+    public CompletableFuture<byte[]> readAsync(VirtualFile file, int from, int count) {
+        if (storage == null) {
+            return supply(() -> fileSystem.read(file, from, count));
+        }
+        FileSystemImpl fileSystemImpl = (FileSystemImpl) fileSystem;
+        return supply(() -> fileSystemImpl.getReadPlan(file, from, count))
+                .thenCompose(plan -> plan == null ? supply(() -> fileSystem.read(file, from, count)) : readByPlan(plan)
+                        .thenCompose(content -> content != null ? CompletableFuture.completedFuture(content)
+                                : supply(() -> fileSystem.read(file, from, count))));
+    }
+
+    /**
+     * @return future of read data or of null, if file system was changed during reading
+     */
+    private CompletableFuture<byte[]> readByPlan(ReadPlan plan) {
+        byte[] result = new byte[plan.length];
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[plan.lengths.length];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = storage.readAsync(result, plan.partOffsets[i], plan.lengths[i], plan.storageOffsets[i]);
+        }
+        FileSystemImpl fileSystemImpl = (FileSystemImpl) fileSystem;
+        return CompletableFuture.allOf(reads)
+                .thenApplyAsync(ignored -> fileSystemImpl.isReadPlanValid(plan) ? result : null, executor);
+    }
+
+    /**
+     * Overrides data of specified file by specified content.
+     *
+     * @param file    file for writing data
+     * @param content bytes, that must written to file
+     * @return future, that is completed after writing, it is completed by {@link FileNotFoundException} if
+     * specified file was not found and by {@link WriteException} if specified file is not available for writing
+     */
+    public CompletableFuture<Void> writeAsync(VirtualFile file, byte[] content) {
+        return supply(() -> {
+            fileSystem.write(file, content);
+            return null;
+        });
+    }
+
+    /**
+     * Overrides data of specified file starting from offset by specified content.
+     *
+     * @param file    file for writing data
+     * @param offset  offset for writing bytes
+     * @param content bytes, that must written to file
+     * @return future, that is completed after writing, it is completed exceptionally like
+     * {@link #writeAsync(VirtualFile, byte[])}
+     */
+    public CompletableFuture<Void> writeAsync(VirtualFile file, int offset, byte[] content) {
+        return supply(() -> {
+            fileSystem.write(file, offset, content);
+            return null;
+        });
+    }
+
+    /**
+     * @param directory directory for get files list
+     * @return future of list of files and directories in specified directory, it is completed by
+     * {@link FileNotFoundException} if directory was not found
+     */
+    public CompletableFuture<List<String>> listAsync(VirtualFile directory) {
+        return supply(() -> fileSystem.getFilesList(directory));
+    }
+
+    /**
+     * Performs operation by worker thread, future is completed by exception of operation as is.
+     */
+    private <T> CompletableFuture<T> supply(IOOperation<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(operation.perform());
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Waits for started operations and closes file system
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fileSystem.close();
+    }
+
+    private interface IOOperation<T> {
+
+        T perform() throws IOException;
+    }
+}
@@ -0,0 +1,13 @@
+package maxim.z;
+
+import java.io.IOException;
+
+/**
+ * Changes of file system, that are collected by {@link FileSystemBatch} and applied together
+ * (see {@link VirtualFileSystem#batch(BatchAction)})
+ */
+@FunctionalInterface
+public interface BatchAction {
+
+    void run(FileSystemBatch batch) throws IOException;
+}
@@ -0,0 +1,144 @@
+package maxim.z;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes scripts of shell commands without prompts and reports time of every kind of command and throughput.
+ * Every script has it's own current directory, several scripts are executed against the same file system in parallel.
+ * Empty lines and lines starting with '#' are skipped, failed command is reported and doesn't stop script.
+ */
+class BatchRunner {
+
+    private final VirtualFileSystem fs;
+    private final int threadsCount;
+    private final PrintStream out;
+
+    /**
+     * @param fs           file system for scripts
+     * @param threadsCount count of scripts executed at the same time
+     * @param out          stream for output of commands and report
+     */
+    BatchRunner(VirtualFileSystem fs, int threadsCount, PrintStream out) {
+        this.fs = fs;
+        this.threadsCount = threadsCount;
+        this.out = out;
+    }
+
+    /**
+     * @param scripts lines of scripts by names of scripts
+     * @return count of failed commands
+     */
+    long run(Map<String, List<String>> scripts) throws InterruptedException {
+        long startTime = System.nanoTime();
+        List<ScriptResult> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadsCount, scripts.size())));
+        try {
+            List<Future<ScriptResult>> futures = new ArrayList<>();
+            for (Map.Entry<String, List<String>> script : scripts.entrySet()) {
+                futures.add(executor.submit(() -> runScript(script.getKey(), script.getValue())));
+            }
+            for (Future<ScriptResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("script execution failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        Map<CommandInterpreter.Commands, CommandStatistics> statistics = new EnumMap<>(CommandInterpreter.Commands.class);
+        long commandsCount = 0;
+        long failedCount = 0;
+        for (ScriptResult result : results) {
+            out.println(String.format("script %s: %d commands, %d failed, %.3f ms", result.name, result.commandsCount,
+                    result.failedCount, result.elapsedNanos / 1e6));
+            commandsCount += result.commandsCount;
+            failedCount += result.failedCount;
+            for (Map.Entry<CommandInterpreter.Commands, CommandStatistics> entry : result.statistics.entrySet()) {
+                statistics.computeIfAbsent(entry.getKey(), k -> new CommandStatistics()).add(entry.getValue());
+            }
+        }
+        for (Map.Entry<CommandInterpreter.Commands, CommandStatistics> entry : statistics.entrySet()) {
+            CommandStatistics commandStatistics = entry.getValue();
+            out.println(String.format("%-8s count %d, total %.3f ms, avg %.1f us, max %.1f us",
+                    entry.getKey().name().toLowerCase(), commandStatistics.count, commandStatistics.totalNanos / 1e6,
+                    commandStatistics.totalNanos / 1e3 / commandStatistics.count, commandStatistics.maxNanos / 1e3));
+        }
+        out.println(String.format("total: %d commands, %d failed, %d scripts, %d threads, %.3f ms, %.0f operations per second",
+                commandsCount, failedCount, scripts.size(), threadsCount, elapsedNanos / 1e6,
+                elapsedNanos == 0 ? 0 : commandsCount * 1e9 / elapsedNanos));
+        return failedCount;
+    }
+
+    private ScriptResult runScript(String name, List<String> lines) {
+        CommandInterpreter interpreter = new CommandInterpreter(fs, out);
+        ScriptResult result = new ScriptResult(name);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            result.commandsCount++;
+            String[] arg = line.split(" ");
+            CommandInterpreter.Commands command = interpreter.parse(arg);
+            if (command == null) {
+                out.println(String.format("%s:%d: %s", name, i + 1, line));
+                result.failedCount++;
+                continue;
+            }
+            long commandStartTime = System.nanoTime();
+            try {
+                interpreter.execute(command, arg);
+            } catch (Exception e) {
+                out.println(String.format("%s:%d: %s failed: %s", name, i + 1, line, e.getMessage()));
+                result.failedCount++;
+            }
+            long commandNanos = System.nanoTime() - commandStartTime;
+            result.statistics.computeIfAbsent(command, k -> new CommandStatistics()).add(commandNanos);
+        }
+        result.elapsedNanos = System.nanoTime() - startTime;
+        return result;
+    }
+
+    private static class ScriptResult {
+
+        private final String name;
+        private final Map<CommandInterpreter.Commands, CommandStatistics> statistics = new EnumMap<>(CommandInterpreter.Commands.class);
+        private int commandsCount;
+        private int failedCount;
+        private long elapsedNanos;
+
+        private ScriptResult(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class CommandStatistics {
+
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        private void add(CommandStatistics statistics) {
+            count += statistics.count;
+            totalNanos += statistics.totalNanos;
+            maxNanos = Math.max(maxNanos, statistics.maxNanos);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package maxim.z;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Interface for reading and writing bytes to any storage
@@ -50,4 +52,33 @@ public interface BytesReaderWriter extends Closeable {
      */
     void seek(long pos) throws IOException;
 
+    /**
+     * Truncates or extends storage to specified length. Storages, that can't change their length, ignore it.
+     *
+     * @param length new length of storage in bytes
+     * @throws IOException on any default IO error
+     */
+    default void setLength(long length) throws IOException {
+    }
+
+    /**
+     * Writes part of storage to channel. Storages, that can write their bytes to channel without copying into
+     * java heap, override it.
+     *
+     * @param pos    offset position in storage
+     * @param count  count of written bytes
+     * @param target channel for writing bytes
+     * @throws IOException on any default IO error
+     */
+    default void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(count, FSConstants.TRANSFER_BUFFER_SIZE)];
+        for (long transferred = 0; transferred < count; transferred += buffer.length) {
+            if (count - transferred < buffer.length) {
+                buffer = new byte[(int) (count - transferred)];
+            }
+            seekAndRead(buffer, pos + transferred);
+            FSUtils.writeFully(target, ByteBuffer.wrap(buffer));
+        }
+    }
+
 }
@@ -0,0 +1,70 @@
+package maxim.z;
+
+/**
+ * Options of {@link CachingReaderWriter}
+ */
+public class CacheOptions {
+
+    private final static long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private long capacity = DEFAULT_CAPACITY;
+    private int blockSize = FSConstants.DEFAULT_CLUSTER_SIZE;
+    private boolean isWriteBack;
+
+    private CacheOptions() {
+    }
+
+    /**
+     * @return options of write-through cache of 16 MB with blocks of default cluster size
+     */
+    public static CacheOptions defaults() {
+        return new CacheOptions();
+    }
+
+    /**
+     * @param capacity max size of cached data in bytes, at least one block is cached anyway
+     * @return current options instance
+     */
+    public CacheOptions withCapacity(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Cache capacity must be positive, but was %d", capacity));
+        }
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * @param blockSize size of cached blocks of storage in bytes
+     * @return current options instance
+     */
+    public CacheOptions withBlockSize(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException(String.format("Block size must be positive, but was %d", blockSize));
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * Enables write-back mode: changed blocks are written to storage on eviction, {@link CachingReaderWriter#flush()}
+     * and closing only. Changes, that are not flushed, are lost on crash.
+     *
+     * @return current options instance
+     */
+    public CacheOptions withWriteBack() {
+        isWriteBack = true;
+        return this;
+    }
+
+    int getMaxBlocksCount() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacity / blockSize));
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    boolean isWriteBack() {
+        return isWriteBack;
+    }
+}
@@ -0,0 +1,73 @@
+package maxim.z;
+
+/**
+ * Statistics of {@link CachingReaderWriter} since it's creation
+ */
+public class CacheStatistics {
+
+    private final long hitsCount;
+    private final long missesCount;
+    private final long evictedBlocksCount;
+    private final long writtenBackBlocksCount;
+    private final int cachedBlocksCount;
+    private final int dirtyBlocksCount;
+
+    CacheStatistics(long hitsCount, long missesCount, long evictedBlocksCount, long writtenBackBlocksCount,
+                    int cachedBlocksCount, int dirtyBlocksCount) {
+        this.hitsCount = hitsCount;
+        this.missesCount = missesCount;
+        this.evictedBlocksCount = evictedBlocksCount;
+        this.writtenBackBlocksCount = writtenBackBlocksCount;
+        this.cachedBlocksCount = cachedBlocksCount;
+        this.dirtyBlocksCount = dirtyBlocksCount;
+    }
+
+    /**
+     * @return count of accesses to blocks, that were found in cache
+     */
+    public long getHitsCount() {
+        return hitsCount;
+    }
+
+    /**
+     * @return count of accesses to blocks, that were not found in cache. Large requests, that bypass cache,
+     * are not counted.
+     */
+    public long getMissesCount() {
+        return missesCount;
+    }
+
+    public double getHitRatio() {
+        long accessesCount = hitsCount + missesCount;
+        return accessesCount == 0 ? 0 : (double) hitsCount / accessesCount;
+    }
+
+    public long getEvictedBlocksCount() {
+        return evictedBlocksCount;
+    }
+
+    /**
+     * @return count of changed blocks written to storage in write-back mode
+     */
+    public long getWrittenBackBlocksCount() {
+        return writtenBackBlocksCount;
+    }
+
+    public int getCachedBlocksCount() {
+        return cachedBlocksCount;
+    }
+
+    /**
+     * @return count of cached blocks with changes, that are not written to storage yet
+     */
+    public int getDirtyBlocksCount() {
+        return dirtyBlocksCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d, hit ratio: %.2f, evicted blocks: %d, written back blocks: %d, " +
+                        "cached blocks: %d, dirty blocks: %d", hitsCount, missesCount, getHitRatio(), evictedBlocksCount,
+                writtenBackBlocksCount, cachedBlocksCount, dirtyBlocksCount);
+    }
+}
@@ -0,0 +1,336 @@
+package maxim.z;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorator of storage, that caches fixed size blocks of it in memory. Eviction policy is 2Q: new blocks are placed
+ * into FIFO queue, block gets into main LRU queue only if it is accessed again after eviction from FIFO queue
+ * (ghost queue remembers indexes of recently evicted blocks), so one pass over large file doesn't evict hot
+ * metadata blocks. Requests, that are larger than FIFO queue, bypass cache.
+ * <p>
+ * In write-through mode changes are written to storage immediately and update cached blocks only. In write-back
+ * mode changed blocks are kept in cache and written on eviction, {@link #flush()} and {@link #close()}.
+ */
+public class CachingReaderWriter implements BytesReaderWriter {
+
+    private final BytesReaderWriter readerWriter;
+    private final int blockSize;
+    private final boolean isWriteBack;
+    private final int maxBlocksCount;
+    private final int maxInBlocksCount;
+    private final int maxOutBlocksCount;
+    /**
+     * blocks accessed once, in order of loading
+     */
+    private final LinkedHashMap<Long, Block> inQueue = new LinkedHashMap<>();
+    /**
+     * blocks accessed after eviction from {@link #inQueue}, in order of access
+     */
+    private final LinkedHashMap<Long, Block> mainQueue = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * indexes of blocks recently evicted from {@link #inQueue}
+     */
+    private final LinkedHashSet<Long> outQueue = new LinkedHashSet<>();
+    private long position;
+    private long hitsCount;
+    private long missesCount;
+    private long evictedBlocksCount;
+    private long writtenBackBlocksCount;
+
+    public CachingReaderWriter(BytesReaderWriter readerWriter, CacheOptions options) {
+        this.readerWriter = readerWriter;
+        this.blockSize = options.getBlockSize();
+        this.isWriteBack = options.isWriteBack();
+        this.maxBlocksCount = options.getMaxBlocksCount();
+        this.maxInBlocksCount = Math.max(1, maxBlocksCount / 4);
+        this.maxOutBlocksCount = Math.max(1, maxBlocksCount / 2);
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            return;
+        }
+        long firstBlock = position / blockSize;
+        long lastBlock = (position + bytes.length - 1) / blockSize;
+        boolean isBypassed = lastBlock - firstBlock + 1 > maxInBlocksCount;
+        if (!isWriteBack || isBypassed) {
+            readerWriter.seekAndWrite(bytes, position);
+        }
+        for (long index = firstBlock; index <= lastBlock; index++) {
+            long blockStart = index * blockSize;
+            long from = Math.max(position, blockStart);
+            long to = Math.min(position + bytes.length, blockStart + blockSize);
+            Block block;
+            if (!isWriteBack || isBypassed) {
+                block = getCachedBlock(index);
+                if (block == null) {
+                    continue;
+                }
+            } else {
+                block = getBlock(index, to - from < blockSize);
+                block.markDirty((int) (from - blockStart), (int) (to - blockStart));
+            }
+            System.arraycopy(bytes, (int) (from - position), block.data, (int) (from - blockStart), (int) (to - from));
+        }
+        position += bytes.length;
+    }
+
+    @Override
+    public synchronized void readBytes(byte[] data) throws IOException {
+        if (data.length == 0) {
+            return;
+        }
+        long firstBlock = position / blockSize;
+        long lastBlock = (position + data.length - 1) / blockSize;
+        if (lastBlock - firstBlock + 1 > maxInBlocksCount) {
+            flush(firstBlock, lastBlock);
+            readerWriter.seekAndRead(data, position);
+        } else {
+            for (long index = firstBlock; index <= lastBlock; index++) {
+                Block block = getBlock(index, true);
+                long blockStart = index * blockSize;
+                long from = Math.max(position, blockStart);
+                long to = Math.min(position + data.length, blockStart + blockSize);
+                System.arraycopy(block.data, (int) (from - blockStart), data, (int) (from - position), (int) (to - from));
+            }
+        }
+        position += data.length;
+    }
+
+    /**
+     * Changed blocks of transferred part are written before transfer, then bytes are transferred by storage,
+     * so they bypass cache.
+     */
+    @Override
+    public synchronized void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        flush(pos / blockSize, (pos + count - 1) / blockSize);
+        readerWriter.transferTo(pos, count, target);
+    }
+
+    @Override
+    public synchronized void seekAndRead(byte[] data, long pos) throws IOException {
+        seek(pos);
+        readBytes(data);
+    }
+
+    @Override
+    public synchronized void seekAndWrite(byte[] bytes, long pos) throws IOException {
+        seek(pos);
+        write(bytes);
+    }
+
+    @Override
+    public synchronized void seek(long pos) throws IOException {
+        position = pos;
+    }
+
+    /**
+     * Changed blocks are written before changing of length, cached blocks after the new end are dropped.
+     */
+    @Override
+    public synchronized void setLength(long length) throws IOException {
+        flush();
+        readerWriter.setLength(length);
+        long firstDroppedBlock = length / blockSize;
+        inQueue.keySet().removeIf(index -> index >= firstDroppedBlock);
+        mainQueue.keySet().removeIf(index -> index >= firstDroppedBlock);
+    }
+
+    private Block getCachedBlock(long index) {
+        Block block = mainQueue.get(index);
+        return block == null ? inQueue.get(index) : block;
+    }
+
+    /**
+     * Returns cached block or loads it into cache. Block isn't evicted until next call.
+     *
+     * @param load if false, then block isn't read from storage, because it will be overwritten completely
+     */
+    private Block getBlock(long index, boolean load) throws IOException {
+        Block block = getCachedBlock(index);
+        if (block != null) {
+            hitsCount++;
+            return block;
+        }
+        missesCount++;
+        boolean isRecentlyEvicted = outQueue.remove(index);
+        while (inQueue.size() + mainQueue.size() >= maxBlocksCount) {
+            evict();
+        }
+        block = new Block(index, new byte[blockSize]);
+        if (load) {
+            readerWriter.seekAndRead(block.data, index * blockSize);
+        }
+        if (isRecentlyEvicted) {
+            mainQueue.put(index, block);
+        } else {
+            inQueue.put(index, block);
+        }
+        return block;
+    }
+
+    private void evict() throws IOException {
+        Block evictedBlock;
+        if (inQueue.size() > maxInBlocksCount || mainQueue.isEmpty()) {
+            evictedBlock = removeEldest(inQueue);
+            outQueue.add(evictedBlock.index);
+            if (outQueue.size() > maxOutBlocksCount) {
+                Iterator<Long> iterator = outQueue.iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        } else {
+            evictedBlock = removeEldest(mainQueue);
+        }
+        evictedBlocksCount++;
+        if (evictedBlock.isDirty()) {
+            writeBack(evictedBlock);
+        }
+    }
+
+    private static Block removeEldest(Map<Long, Block> queue) {
+        Iterator<Block> iterator = queue.values().iterator();
+        Block result = iterator.next();
+        iterator.remove();
+        return result;
+    }
+
+    private void writeBack(Block block) throws IOException {
+        byte[] dirtyBytes = new byte[block.dirtyTo - block.dirtyFrom];
+        System.arraycopy(block.data, block.dirtyFrom, dirtyBytes, 0, dirtyBytes.length);
+        readerWriter.seekAndWrite(dirtyBytes, block.index * blockSize + block.dirtyFrom);
+        block.markClean();
+        writtenBackBlocksCount++;
+    }
+
+    /**
+     * Writes all changed blocks to storage. Blocks are written in order of offsets, adjacent changed parts
+     * are written by one call.
+     *
+     * @throws IOException on any default IO error
+     */
+    public synchronized void flush() throws IOException {
+        flush(0, Long.MAX_VALUE);
+    }
+
+    private void flush(long firstBlock, long lastBlock) throws IOException {
+        if (!isWriteBack) {
+            return;
+        }
+        List<Block> dirtyBlocks = new ArrayList<>();
+        for (Block block : inQueue.values()) {
+            if (block.isDirty() && block.index >= firstBlock && block.index <= lastBlock) {
+                dirtyBlocks.add(block);
+            }
+        }
+        for (Block block : mainQueue.values()) {
+            if (block.isDirty() && block.index >= firstBlock && block.index <= lastBlock) {
+                dirtyBlocks.add(block);
+            }
+        }
+        dirtyBlocks.sort(Comparator.comparingLong(block -> block.index));
+        int runStart = 0;
+        for (int i = 1; i <= dirtyBlocks.size(); i++) {
+            if (i == dirtyBlocks.size() || !isAdjacent(dirtyBlocks.get(i - 1), dirtyBlocks.get(i))) {
+                writeBack(dirtyBlocks.subList(runStart, i));
+                runStart = i;
+            }
+        }
+    }
+
+    private boolean isAdjacent(Block previous, Block next) {
+        return next.index == previous.index + 1 && previous.dirtyTo == blockSize && next.dirtyFrom == 0;
+    }
+
+    private void writeBack(List<Block> run) throws IOException {
+        if (run.size() == 1) {
+            writeBack(run.get(0));
+            return;
+        }
+        Block first = run.get(0);
+        Block last = run.get(run.size() - 1);
+        byte[] dirtyBytes = new byte[(run.size() - 1) * blockSize - first.dirtyFrom + last.dirtyTo];
+        long runOffset = first.index * blockSize + first.dirtyFrom;
+        int offset = 0;
+        for (Block block : run) {
+            System.arraycopy(block.data, block.dirtyFrom, dirtyBytes, offset, block.dirtyTo - block.dirtyFrom);
+            offset += block.dirtyTo - block.dirtyFrom;
+            block.markClean();
+        }
+        readerWriter.seekAndWrite(dirtyBytes, runOffset);
+        writtenBackBlocksCount += run.size();
+    }
+
+    /**
+     * @return statistics of cache since it's creation
+     */
+    public synchronized CacheStatistics getStatistics() {
+        int dirtyBlocksCount = 0;
+        for (Block block : inQueue.values()) {
+            dirtyBlocksCount += block.isDirty() ? 1 : 0;
+        }
+        for (Block block : mainQueue.values()) {
+            dirtyBlocksCount += block.isDirty() ? 1 : 0;
+        }
+        return new CacheStatistics(hitsCount, missesCount, evictedBlocksCount, writtenBackBlocksCount,
+                inQueue.size() + mainQueue.size(), dirtyBlocksCount);
+    }
+
+    /**
+     * Writes changed blocks and closes storage
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            inQueue.clear();
+            mainQueue.clear();
+            outQueue.clear();
+            readerWriter.close();
+        }
+    }
+
+    private static class Block {
+
+        private final long index;
+        private final byte[] data;
+        /**
+         * changed part of block, that isn't written to storage yet, it is empty, if dirtyFrom >= dirtyTo
+         */
+        private int dirtyFrom;
+        private int dirtyTo;
+
+        private Block(long index, byte[] data) {
+            this.index = index;
+            this.data = data;
+            markClean();
+        }
+
+        private boolean isDirty() {
+            return dirtyFrom < dirtyTo;
+        }
+
+        private void markDirty(int from, int to) {
+            dirtyFrom = Math.min(dirtyFrom, from);
+            dirtyTo = Math.max(dirtyTo, to);
+        }
+
+        private void markClean() {
+            dirtyFrom = data.length;
+            dirtyTo = 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package maxim.z;
+
+import java.io.IOException;
+
+/**
+ * Background thread, that frees clusters of removed files with limited rate, so removing of large files and
+ * directories doesn't stall other operations. Thread is started on first wake up and waits, while there is nothing
+ * to free.
+ */
+class ClusterReclaimer implements Runnable {
+
+    private final static int STEPS_PER_SECOND = 20;
+
+    /**
+     * Frees not more than specified count of clusters and returns count of actually freed clusters.
+     */
+    @FunctionalInterface
+    interface Step {
+        int reclaim(int maxClustersCount) throws IOException;
+    }
+
+    private final Step step;
+    private final int clustersPerSecond;
+    private Thread thread;
+    private boolean isWokenUp;
+    private boolean isStopped;
+    private IOException failure;
+
+    ClusterReclaimer(Step step, int clustersPerSecond) {
+        this.step = step;
+        this.clustersPerSecond = clustersPerSecond;
+    }
+
+    synchronized void wakeUp() {
+        if (isStopped) {
+            return;
+        }
+        if (thread == null) {
+            thread = new Thread(this, "fs-cluster-reclaimer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        isWokenUp = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops background thread and waits for it's end.
+     *
+     * @throws IOException if background thread was stopped by IO error
+     */
+    void stop() throws IOException {
+        Thread stoppedThread;
+        synchronized (this) {
+            isStopped = true;
+            notifyAll();
+            stoppedThread = thread;
+        }
+        if (stoppedThread != null) {
+            try {
+                stoppedThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        int stepClustersCount = Math.max(1, clustersPerSecond / STEPS_PER_SECOND);
+        try {
+            while (waitForWork()) {
+                int reclaimedClustersCount;
+                do {
+                    long stepStart = System.nanoTime();
+                    reclaimedClustersCount = step.reclaim(stepClustersCount);
+                    long stepDurationNanos = reclaimedClustersCount * 1_000_000_000L / clustersPerSecond;
+                    pause(stepDurationNanos - (System.nanoTime() - stepStart));
+                } while (reclaimedClustersCount > 0 && !isStopped());
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean waitForWork() throws InterruptedException {
+        while (!isWokenUp && !isStopped) {
+            wait();
+        }
+        isWokenUp = false;
+        return !isStopped;
+    }
+
+    private synchronized boolean isStopped() {
+        return isStopped;
+    }
+
+    private synchronized void pause(long nanos) throws InterruptedException {
+        long end = System.nanoTime() + nanos;
+        long rest = nanos;
+        while (rest > 0 && !isStopped) {
+            wait(rest / 1_000_000, (int) (rest % 1_000_000));
+            rest = end - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package maxim.z;
+
+import maxim.z.exceptions.FileNotFoundException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Executes commands of shell against file system. Every interpreter has it's own current directory, interpreter must
+ * not be used by several threads at the same time, but several interpreters can share one file system.
+ */
+class CommandInterpreter {
+
+    private final static int DEFRAGMENTATION_CLUSTERS_PER_SECOND = 16384;
+    private final static int TRANSFER_THREADS_COUNT = 4;
+    private final static long PROGRESS_PRINT_INTERVAL_NANOS = 1_000_000_000L;
+    private final static Map<String, Commands> COMMANDS_MAP = new HashMap<>();
+
+    static {
+        COMMANDS_MAP.put("cd", Commands.CD);
+        COMMANDS_MAP.put("mkdir", Commands.MKDIR);
+        COMMANDS_MAP.put("mkfile", Commands.MKFILE);
+        COMMANDS_MAP.put("write", Commands.WRITE);
+        COMMANDS_MAP.put("read", Commands.READ);
+        COMMANDS_MAP.put("ls", Commands.LS);
+        COMMANDS_MAP.put("rm", Commands.RM);
+        COMMANDS_MAP.put("defrag", Commands.DEFRAG);
+        COMMANDS_MAP.put("import", Commands.IMPORT);
+        COMMANDS_MAP.put("export", Commands.EXPORT);
+        COMMANDS_MAP.put("tar", Commands.TAR);
+        COMMANDS_MAP.put("untar", Commands.UNTAR);
+    }
+
+    private final VirtualFileSystem fs;
+    private final PrintStream out;
+    private VirtualFile curFile;
+
+    /**
+     * @param fs  file system for commands
+     * @param out stream for output of commands
+     */
+    CommandInterpreter(VirtualFileSystem fs, PrintStream out) {
+        this.fs = fs;
+        this.out = out;
+        this.curFile = fs.getRootFile();
+    }
+
+    VirtualFile getCurrentDirectory() {
+        return curFile;
+    }
+
+    /**
+     * @param arg command and it's arguments
+     * @return command or null, if command is unsupported or count of arguments is incorrect, then message is printed
+     */
+    Commands parse(String[] arg) {
+        Commands command = COMMANDS_MAP.get(arg[0]);
+        if (command == null) {
+            out.println(String.format("unsupported command %s, type help", arg[0]));
+            return null;
+        }
+        if (!command.isCorrectArgsCount(arg.length)) {
+            out.println("incorrect args count, use --help for check commands parameters");
+            return null;
+        }
+        return command;
+    }
+
+    /**
+     * @param command parsed command
+     * @param arg     command and it's arguments
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if directory for cd command doesn't exist
+     */
+    void execute(Commands command, String[] arg) throws IOException {
+        switch (command) {
+            case CD:
+                String dir = arg[1];
+                VirtualFile newCurFile = dir.equals("..") ? curFile.parent() : curFile.child(dir);
+                if (!fs.isDirectoryExist(newCurFile)) {
+                    throw new FileNotFoundException(String.format("directory %s is not exist", newCurFile.getPath()));
+                }
+                curFile = newCurFile;
+                break;
+            case LS: {
+                out.println(String.join(" ", fs.getFilesList(curFile)));
+                break;
+            }
+            case MKDIR:
+                reserveClusters(0);
+                fs.createDirectory(curFile, arg[1]);
+                break;
+            case MKFILE:
+                reserveClusters(0);
+                fs.createFile(curFile, arg[1]);
+                break;
+            case READ:
+                out.println(fs.readAsString(curFile.child(arg[1])));
+                break;
+            case WRITE:
+                String content = Arrays.stream(arg).skip(2).reduce((s1, s2) -> s1 + " " + s2).orElse("");
+                reserveClusters(content.getBytes(FSConstants.CHARSET).length);
+                fs.write(curFile.child(arg[1]), content);
+                break;
+            case RM:
+                fs.removeRecursive(curFile.child(arg[1]));
+                break;
+            case DEFRAG:
+                out.println(fs.getFragmentationStatistics());
+                new Defragmenter(fs, DEFRAGMENTATION_CLUSTERS_PER_SECOND).run(out::println);
+                out.println(fs.getFragmentationStatistics());
+                break;
+            case IMPORT:
+                VirtualFile importTarget = curFile.child(arg[2]);
+                if (!fs.isDirectoryExist(importTarget)) {
+                    fs.createDirectory(curFile, arg[2]);
+                }
+                out.println(new HostTransfer(fs, TRANSFER_THREADS_COUNT)
+                        .importTree(Paths.get(arg[1]), importTarget, new ProgressPrinter()));
+                break;
+            case EXPORT:
+                out.println(new HostTransfer(fs, TRANSFER_THREADS_COUNT)
+                        .exportTree(curFile.child(arg[1]), Paths.get(arg[2]), new ProgressPrinter()));
+                break;
+            case TAR:
+                try (FileChannel archive = FileChannel.open(Paths.get(arg[2]), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    out.println(new TarArchive(fs).exportTree(curFile.child(arg[1]), archive));
+                }
+                break;
+            case UNTAR:
+                VirtualFile untarTarget = curFile.child(arg[2]);
+                if (!fs.isDirectoryExist(untarTarget)) {
+                    fs.createDirectory(curFile, arg[2]);
+                }
+                try (FileChannel archive = FileChannel.open(Paths.get(arg[1]), StandardOpenOption.READ)) {
+                    out.println(new TarArchive(fs).importTree(archive, untarTarget));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Grows storage, if it was shrunk, so file with content of specified length and one more cluster of current
+     * directory can be allocated
+     */
+    private void reserveClusters(int contentLength) throws IOException {
+        int clusterSize = fs.getClusterSize();
+        fs.reserveClusters((contentLength + FSConstants.FILE_HEADER_LENGTH + clusterSize - 1) / clusterSize + 1);
+    }
+
+    /**
+     * Prints progress of transfer not often than once per {@link #PROGRESS_PRINT_INTERVAL_NANOS}
+     */
+    private class ProgressPrinter implements Consumer<TransferProgress> {
+
+        private long lastPrintTime = System.nanoTime();
+
+        @Override
+        public void accept(TransferProgress progress) {
+            long now = System.nanoTime();
+            if (now - lastPrintTime >= PROGRESS_PRINT_INTERVAL_NANOS) {
+                lastPrintTime = now;
+                out.println(progress);
+            }
+        }
+    }
+
+    enum Commands {
+        CD,
+        MKDIR,
+        MKFILE,
+        LS,
+        WRITE,
+        READ,
+        RM,
+        DEFRAG,
+        IMPORT,
+        EXPORT,
+        TAR,
+        UNTAR;
+
+        boolean isCorrectArgsCount(int argsCount) {
+            if (this == LS || this == DEFRAG) {
+                return argsCount == 1;
+            }
+            if (this == WRITE) {
+                return argsCount >= 3;
+            }
+            if (this == IMPORT || this == EXPORT || this == TAR || this == UNTAR) {
+                return argsCount == 3;
+            }
+            return argsCount == 2;
+        }
+    }
+}
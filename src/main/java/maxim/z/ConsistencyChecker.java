@@ -0,0 +1,395 @@
+package maxim.z;
+
+import maxim.z.exceptions.ChecksumException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Checks consistency of file system structures, copied to memory. Tables are checked in parallel by cluster ranges,
+ * directories tree is walked in parallel by subtrees. Every link to cluster (from directory, snapshots table,
+ * FAT or queue of removed files) is counted, so for every used cluster count of links must be greater than it's
+ * references count by one, and every used cluster must be linked.
+ */
+class ConsistencyChecker {
+
+    private final static int BLOCK_CLUSTERS = 4096;
+
+    /**
+     * Reads part of cluster from storage.
+     */
+    interface ClusterReader {
+        byte[] read(int cluster, int offsetInCluster, int length) throws IOException;
+    }
+
+    private final int[] fat;
+    private final int[] references;
+    private final int[] gaps;
+    private final int clusterSize;
+    private final ClusterReader reader;
+    /**
+     * modification count of file system, when tables were read
+     */
+    final int modificationCount;
+    /**
+     * true, if file system is locked during the whole check, so clusters can't be changed by other threads
+     */
+    private final boolean isLocked;
+    /**
+     * true, if content read from clusters doesn't match tables, so file system was changed during check
+     */
+    private volatile boolean isChangeDetected;
+    private final AtomicIntegerArray linksCounts;
+    /**
+     * 1 for clusters, which links to next clusters are already counted
+     */
+    private final AtomicIntegerArray countedClusters;
+    /**
+     * 1 for first clusters of files, which headers and content are already checked
+     */
+    private final AtomicIntegerArray visitedFiles;
+    private final Set<Integer> rootClusters = new HashSet<>();
+    private final Queue<FsckProblem> problems = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger filesCount = new AtomicInteger();
+    private final AtomicInteger usedClustersCount = new AtomicInteger();
+
+    /**
+     * @param isLocked true, if file system is locked during the whole check, then check is sequential, because reader
+     *                 can't be used by other threads
+     */
+    ConsistencyChecker(int[] fat, int[] references, int[] gaps, int clusterSize, ClusterReader reader,
+                       int modificationCount, boolean isLocked) {
+        this.fat = fat;
+        this.references = references;
+        this.gaps = gaps;
+        this.clusterSize = clusterSize;
+        this.reader = reader;
+        this.modificationCount = modificationCount;
+        this.isLocked = isLocked;
+        this.linksCounts = new AtomicIntegerArray(fat.length);
+        this.countedClusters = new AtomicIntegerArray(fat.length);
+        this.visitedFiles = new AtomicIntegerArray(fat.length);
+    }
+
+    /**
+     * @param rootCluster       first cluster of live root directory
+     * @param snapshots         entries of snapshots table (empty entries are skipped)
+     * @param filesForReclaim   files removed recursively, but not freed yet
+     * @param chainsForReclaim  chains of removed files, that are freed partially
+     */
+    void check(int rootCluster, FSFileEntry[] snapshots, Collection<Integer> filesForReclaim,
+               Collection<Integer> chainsForReclaim) throws IOException {
+        int blocksCount = (fat.length + BLOCK_CLUSTERS - 1) / BLOCK_CLUSTERS;
+        range(blocksCount).forEach(this::checkFATBlock);
+        rootClusters.add(rootCluster);
+        for (FSFileEntry snapshot : snapshots) {
+            if (!snapshot.name.isEmpty()) {
+                rootClusters.add(snapshot.clusterNumber);
+            }
+        }
+        try {
+            visitRoot(rootCluster);
+            for (int i = 0; i < snapshots.length; i++) {
+                FSFileEntry snapshot = snapshots[i];
+                if (snapshot.name.isEmpty()) {
+                    continue;
+                }
+                if (!isUsed(snapshot.clusterNumber) || !visitRoot(snapshot.clusterNumber)) {
+                    problems.add(new FsckProblem(FsckProblem.Type.BAD_SNAPSHOT, snapshot.clusterNumber,
+                            String.format("snapshot %s points to cluster %s, that is not a directory", snapshot.name,
+                                    snapshot.clusterNumber), true, i, -1, 0));
+                }
+            }
+            for (int fileCluster : filesForReclaim) {
+                FSFileEntry file = isUsed(fileCluster) ? readHeader(fileCluster) : null;
+                if (file != null) {
+                    visitFile(fileCluster, file);
+                }
+            }
+            for (int chainCluster : chainsForReclaim) {
+                if (isUsed(chainCluster)) {
+                    linksCounts.incrementAndGet(chainCluster);
+                    walkChain(chainCluster, false, countedClusters.compareAndSet(chainCluster, 0, 1));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        range(blocksCount).forEach(this::checkReferencesBlock);
+    }
+
+    /**
+     * @return true, if file system was changed during check, so check must be repeated
+     */
+    boolean isChangeDetected() {
+        return isChangeDetected;
+    }
+
+    List<FsckProblem> getProblems() {
+        return problems.stream()
+                .sorted(Comparator.comparing(FsckProblem::getType).thenComparing(FsckProblem::getCluster))
+                .collect(Collectors.toList());
+    }
+
+    int getFilesCount() {
+        return filesCount.get();
+    }
+
+    int getUsedClustersCount() {
+        return usedClustersCount.get();
+    }
+
+    private boolean isUsed(int cluster) {
+        return cluster >= 0 && cluster < fat.length && fat[cluster] != 0;
+    }
+
+    private void checkFATBlock(int block) {
+        int lastCluster = Math.min(fat.length, (block + 1) * BLOCK_CLUSTERS);
+        int blockUsedClustersCount = 0;
+        for (int cluster = block * BLOCK_CLUSTERS; cluster < lastCluster; cluster++) {
+            int nextCluster = fat[cluster];
+            if (nextCluster == 0) {
+                continue;
+            }
+            blockUsedClustersCount++;
+            if (nextCluster != FSConstants.END_OF_CHAIN && !isUsed(nextCluster)) {
+                problems.add(new FsckProblem(FsckProblem.Type.INVALID_FAT_VALUE, cluster,
+                        String.format("cluster %s points to %s", cluster, nextCluster), true));
+            }
+        }
+        usedClustersCount.addAndGet(blockUsedClustersCount);
+    }
+
+    private void checkReferencesBlock(int block) {
+        int lastCluster = Math.min(fat.length, (block + 1) * BLOCK_CLUSTERS);
+        for (int cluster = block * BLOCK_CLUSTERS; cluster < lastCluster; cluster++) {
+            if (fat[cluster] == 0) {
+                if (references[cluster] != 0 || gaps[cluster] != 0) {
+                    problems.add(new FsckProblem(FsckProblem.Type.DIRTY_FREE_CLUSTER, cluster,
+                            String.format("free cluster %s has references %s and gap %s", cluster, references[cluster],
+                                    gaps[cluster]), true));
+                }
+                continue;
+            }
+            if (countedClusters.get(cluster) == 0) {
+                problems.add(new FsckProblem(FsckProblem.Type.ORPHANED_CLUSTER, cluster,
+                        String.format("cluster %s is used, but not linked", cluster), true));
+                continue;
+            }
+            int expectedReferences = linksCounts.get(cluster) - 1;
+            if (expectedReferences > references[cluster]) {
+                problems.add(new FsckProblem(FsckProblem.Type.CROSS_LINKED_CLUSTER, cluster,
+                        String.format("cluster %s is linked %s times, but has %s references", cluster,
+                                expectedReferences + 1, references[cluster]), true, -1, -1, expectedReferences));
+            } else if (expectedReferences < references[cluster]) {
+                problems.add(new FsckProblem(FsckProblem.Type.WRONG_REFERENCES, cluster,
+                        String.format("cluster %s is linked %s times, but has %s references", cluster,
+                                expectedReferences + 1, references[cluster]), true, -1, -1, expectedReferences));
+            }
+        }
+    }
+
+    /**
+     * @return false, if root is not a directory
+     */
+    private boolean visitRoot(int rootCluster) {
+        FSFileEntry root = readHeader(rootCluster);
+        if (root == null || !root.isDirectory) {
+            return false;
+        }
+        visitFile(rootCluster, root);
+        return true;
+    }
+
+    private void visitFile(int fileCluster, FSFileEntry file) {
+        linksCounts.incrementAndGet(fileCluster);
+        if (!visitedFiles.compareAndSet(fileCluster, 0, 1)) {
+            return;
+        }
+        filesCount.incrementAndGet();
+        if (file.clusterNumber != fileCluster) {
+            problems.add(new FsckProblem(FsckProblem.Type.WRONG_HEADER_CLUSTER, fileCluster,
+                    String.format("header of file %s in cluster %s contains cluster %s", file.name, fileCluster,
+                            file.clusterNumber), true));
+        }
+        List<int[]> chain = walkChain(fileCluster, file.isSparse, countedClusters.compareAndSet(fileCluster, 0, 1));
+        if (!file.isCompressed) {
+            checkChainLength(file, chain);
+        }
+        if (file.isDirectory) {
+            checkDirectory(fileCluster, file, chain);
+        }
+    }
+
+    /**
+     * Walks chain and counts links of it's clusters until cluster, which links are already counted.
+     * Walking stops on invalid FAT value or loop. Gaps are counted in positions only for sparse files, as file
+     * system reads them.
+     *
+     * @return pairs of cluster and it's position in file
+     */
+    private List<int[]> walkChain(int firstCluster, boolean isSparse, boolean isCounting) {
+        List<int[]> result = new ArrayList<>();
+        int cluster = firstCluster;
+        int position = 0;
+        while (true) {
+            result.add(new int[]{cluster, position});
+            int nextCluster = fat[cluster];
+            if (nextCluster == FSConstants.END_OF_CHAIN || !isUsed(nextCluster)) {
+                return result;
+            }
+            if (result.size() > fat.length) {
+                reportLoop(firstCluster);
+                return result;
+            }
+            if (isCounting) {
+                linksCounts.incrementAndGet(nextCluster);
+                isCounting = countedClusters.compareAndSet(nextCluster, 0, 1);
+            }
+            position += (isSparse ? gaps[cluster] : 0) + 1;
+            cluster = nextCluster;
+        }
+    }
+
+    private void reportLoop(int firstCluster) {
+        Set<Integer> chainClusters = new HashSet<>();
+        int cluster = firstCluster;
+        while (chainClusters.add(cluster)) {
+            if (chainClusters.contains(fat[cluster])) {
+                problems.add(new FsckProblem(FsckProblem.Type.CHAIN_LOOP, cluster,
+                        String.format("chain of cluster %s returns from cluster %s to cluster %s", firstCluster, cluster,
+                                fat[cluster]), references[cluster] == 0));
+                return;
+            }
+            cluster = fat[cluster];
+        }
+    }
+
+    private void checkChainLength(FSFileEntry file, List<int[]> chain) {
+        int lastPosition = (file.size + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize;
+        for (int i = 1; i < chain.size(); i++) {
+            if (chain.get(i)[1] > lastPosition) {
+                int lastCluster = chain.get(i - 1)[0];
+                problems.add(new FsckProblem(FsckProblem.Type.CHAIN_LONGER_THAN_FILE, lastCluster,
+                        String.format("chain of file %s (size %s) continues after cluster %s", file.name, file.size,
+                                lastCluster), references[lastCluster] == 0));
+                return;
+            }
+        }
+    }
+
+    private void checkDirectory(int directoryCluster, FSFileEntry directory, List<int[]> chain) {
+        if (directory.size % FSConstants.BYTE_DEPTH != 0) {
+            problems.add(new FsckProblem(FsckProblem.Type.INVALID_DIRECTORY_SIZE, directoryCluster,
+                    String.format("size of directory %s is %s", directory.name, directory.size), true));
+        }
+        int length = directory.size - directory.size % FSConstants.BYTE_DEPTH;
+        long chainLength = (long) (chain.get(chain.size() - 1)[1] + 1) * clusterSize;
+        if (length < 0 || length + FSConstants.FILE_HEADER_LENGTH > chainLength) {
+            if (isLocked) {
+                problems.add(new FsckProblem(FsckProblem.Type.DIRECTORY_LONGER_THAN_CHAIN, directoryCluster,
+                        String.format("size of directory %s is %s, but it's chain contains only %s bytes",
+                                directory.name, directory.size, chainLength - FSConstants.FILE_HEADER_LENGTH), false));
+            } else {
+                // header is read after tables were copied, so it may belong to file written later
+                isChangeDetected = true;
+            }
+            return;
+        }
+        byte[] content = readContent(chain, length);
+        if (content == null) {
+            return;
+        }
+        int[] links = new int[content.length / FSConstants.BYTE_DEPTH];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = FSUtils.intFromFourBytes(new byte[]{content[4 * i], content[4 * i + 1], content[4 * i + 2], content[4 * i + 3]});
+        }
+        FSFileEntry[] children = new FSFileEntry[links.length];
+        range(links.length)
+                .forEach(i -> children[i] = readLinkedFile(directoryCluster, directory, i, links[i]));
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < links.length; i++) {
+            if (children[i] != null && !names.add(children[i].name)) {
+                problems.add(new FsckProblem(FsckProblem.Type.DUPLICATE_NAME, links[i],
+                        String.format("directory %s contains several files %s", directory.name, children[i].name), false));
+            }
+        }
+        range(links.length)
+                .filter(i -> children[i] != null)
+                .forEach(i -> visitFile(links[i], children[i]));
+    }
+
+    private FSFileEntry readLinkedFile(int directoryCluster, FSFileEntry directory, int linkIndex, int fileCluster) {
+        if (!isUsed(fileCluster) || rootClusters.contains(fileCluster)) {
+            problems.add(new FsckProblem(FsckProblem.Type.BAD_DIRECTORY_LINK, fileCluster,
+                    String.format("link %s of directory %s points to cluster %s", linkIndex, directory.name, fileCluster),
+                    true, directoryCluster, linkIndex, 0));
+            return null;
+        }
+        FSFileEntry file = readHeader(fileCluster);
+        if (file != null && file.isRemoved()) {
+            problems.add(new FsckProblem(FsckProblem.Type.REMOVED_FILE_LINKED, fileCluster,
+                    String.format("directory %s contains removed file %s", directory.name, file.name),
+                    true, directoryCluster, linkIndex, 0));
+            return null;
+        }
+        return file;
+    }
+
+    private FSFileEntry readHeader(int fileCluster) {
+        byte[] header = readCluster(fileCluster, 0, FSConstants.FILE_HEADER_LENGTH);
+        return header == null ? null : FSFileEntry.fromByteArray(header);
+    }
+
+    /**
+     * Reads file content by clusters of chain, not allocated clusters are filled by zeros.
+     *
+     * @return content or null, if any cluster can't be read
+     */
+    private byte[] readContent(List<int[]> chain, int length) {
+        byte[] result = new byte[length];
+        for (int[] clusterAndPosition : chain) {
+            long clusterStart = (long) clusterAndPosition[1] * clusterSize;
+            long from = Math.max(clusterStart, FSConstants.FILE_HEADER_LENGTH);
+            long to = Math.min(clusterStart + clusterSize, (long) length + FSConstants.FILE_HEADER_LENGTH);
+            if (from >= to) {
+                continue;
+            }
+            byte[] data = readCluster(clusterAndPosition[0], (int) (from - clusterStart), (int) (to - from));
+            if (data == null) {
+                return null;
+            }
+            System.arraycopy(data, 0, result, (int) from - FSConstants.FILE_HEADER_LENGTH, data.length);
+        }
+        return result;
+    }
+
+    private IntStream range(int count) {
+        IntStream range = IntStream.range(0, count);
+        return isLocked ? range : range.parallel();
+    }
+
+    private byte[] readCluster(int cluster, int offsetInCluster, int length) {
+        try {
+            return reader.read(cluster, offsetInCluster, length);
+        } catch (ChecksumException e) {
+            problems.add(new FsckProblem(FsckProblem.Type.UNREADABLE_CLUSTER, cluster,
+                    String.format("cluster %s can't be read: %s", cluster, e.getMessage()), false));
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
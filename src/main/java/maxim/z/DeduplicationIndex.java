@@ -0,0 +1,54 @@
+package maxim.z;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of deduplicated clusters. Key of cluster is checksum of it's data together with index of next
+ * cluster in chain, because two chains can share a cluster only if rest of chains is shared too.
+ * Cluster must be removed from index before any change of it's data or FAT value.
+ */
+class DeduplicationIndex {
+
+    private final Map<Long, Integer> clustersByKey = new HashMap<>();
+    private final Map<Integer, Long> keysByCluster = new HashMap<>();
+    private long writtenClustersCount;
+    private long deduplicatedClustersCount;
+    private long hashingNanos;
+
+    static long key(int checksum, int nextCluster) {
+        return ((long) checksum << 32) | (nextCluster & 0xFFFFFFFFL);
+    }
+
+    Integer find(long key) {
+        return clustersByKey.get(key);
+    }
+
+    void put(long key, int cluster) {
+        remove(cluster);
+        if (!clustersByKey.containsKey(key)) {
+            clustersByKey.put(key, cluster);
+            keysByCluster.put(cluster, key);
+        }
+    }
+
+    void remove(int cluster) {
+        Long key = keysByCluster.remove(cluster);
+        if (key != null) {
+            clustersByKey.remove(key);
+        }
+    }
+
+    void registerWrite(boolean isDeduplicated, long clusterHashingNanos) {
+        writtenClustersCount++;
+        if (isDeduplicated) {
+            deduplicatedClustersCount++;
+        }
+        hashingNanos += clusterHashingNanos;
+    }
+
+    DeduplicationStatistics getStatistics(int clusterSize) {
+        return new DeduplicationStatistics(clustersByKey.size(), writtenClustersCount, deduplicatedClustersCount,
+                clusterSize, hashingNanos);
+    }
+}
@@ -0,0 +1,52 @@
+package maxim.z;
+
+/**
+ * Statistics of clusters deduplication since file system opening (see {@link VirtualFileSystem#getDeduplicationStatistics()})
+ */
+public class DeduplicationStatistics {
+
+    private final int indexedClustersCount;
+    private final long writtenClustersCount;
+    private final long deduplicatedClustersCount;
+    private final int clusterSize;
+    private final long hashingNanos;
+
+    DeduplicationStatistics(int indexedClustersCount, long writtenClustersCount, long deduplicatedClustersCount,
+                            int clusterSize, long hashingNanos) {
+        this.indexedClustersCount = indexedClustersCount;
+        this.writtenClustersCount = writtenClustersCount;
+        this.deduplicatedClustersCount = deduplicatedClustersCount;
+        this.clusterSize = clusterSize;
+        this.hashingNanos = hashingNanos;
+    }
+
+    /**
+     * @return count of clusters, that can be shared by following writes
+     */
+    public int getIndexedClustersCount() {
+        return indexedClustersCount;
+    }
+
+    public long getWrittenClustersCount() {
+        return writtenClustersCount;
+    }
+
+    /**
+     * @return count of written clusters, that were not stored, because the same cluster already exists
+     */
+    public long getDeduplicatedClustersCount() {
+        return deduplicatedClustersCount;
+    }
+
+    public long getSavedBytes() {
+        return deduplicatedClustersCount * clusterSize;
+    }
+
+    /**
+     * @return time of hashing and index lookups in nanoseconds per megabyte of written data
+     */
+    public double getHashingNanosPerMB() {
+        long writtenBytes = writtenClustersCount * clusterSize;
+        return writtenBytes == 0 ? 0 : hashingNanos * (1024.0 * 1024.0) / writtenBytes;
+    }
+}
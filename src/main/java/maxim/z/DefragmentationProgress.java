@@ -0,0 +1,44 @@
+package maxim.z;
+
+/**
+ * Progress of {@link Defragmenter}, that is reported after every step
+ */
+public class DefragmentationProgress {
+
+    private final int stepsCount;
+    private final long movedClustersCount;
+    private final int releasedClustersCount;
+    private final long elapsedNanos;
+
+    DefragmentationProgress(int stepsCount, long movedClustersCount, int releasedClustersCount, long elapsedNanos) {
+        this.stepsCount = stepsCount;
+        this.movedClustersCount = movedClustersCount;
+        this.releasedClustersCount = releasedClustersCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getStepsCount() {
+        return stepsCount;
+    }
+
+    public long getMovedClustersCount() {
+        return movedClustersCount;
+    }
+
+    /**
+     * @return count of clusters, that were cut from the end of storage after compaction (0 until the end)
+     */
+    public int getReleasedClustersCount() {
+        return releasedClustersCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("steps: %s, moved clusters: %s, released clusters: %s, elapsed: %s ms", stepsCount,
+                movedClustersCount, releasedClustersCount, elapsedNanos / 1_000_000);
+    }
+}
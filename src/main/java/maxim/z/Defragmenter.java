@@ -0,0 +1,65 @@
+package maxim.z;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Defragments file system online: files are moved by small steps (see {@link VirtualFileSystem#defragment(int)})
+ * with limited rate, so other operations are not stalled. After all files are moved, storage is shrunk.
+ */
+public class Defragmenter {
+
+    private final static int STEPS_PER_SECOND = 20;
+
+    private final VirtualFileSystem fs;
+    private final int movedClustersPerSecond;
+
+    /**
+     * @param fs                     file system for defragmentation
+     * @param movedClustersPerSecond limit of moved clusters per second
+     */
+    public Defragmenter(VirtualFileSystem fs, int movedClustersPerSecond) {
+        if (movedClustersPerSecond <= 0) {
+            throw new IllegalArgumentException(String.format("incorrect rate %s", movedClustersPerSecond));
+        }
+        this.fs = fs;
+        this.movedClustersPerSecond = movedClustersPerSecond;
+    }
+
+    /**
+     * Runs defragmentation in current thread until nothing can be improved or thread is interrupted.
+     *
+     * @param progressListener receives progress after every step
+     * @return final progress
+     * @throws IOException on any default IO error
+     */
+    public DefragmentationProgress run(Consumer<DefragmentationProgress> progressListener) throws IOException {
+        int stepClustersCount = Math.max(1, movedClustersPerSecond / STEPS_PER_SECOND);
+        long startTime = System.nanoTime();
+        int stepsCount = 0;
+        long movedClustersCount = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            long stepStart = System.nanoTime();
+            int stepMovedClustersCount = fs.defragment(stepClustersCount);
+            if (stepMovedClustersCount == 0) {
+                break;
+            }
+            stepsCount++;
+            movedClustersCount += stepMovedClustersCount;
+            progressListener.accept(new DefragmentationProgress(stepsCount, movedClustersCount, 0, System.nanoTime() - startTime));
+            long pauseNanos = stepMovedClustersCount * 1_000_000_000L / movedClustersPerSecond - (System.nanoTime() - stepStart);
+            if (pauseNanos > 0) {
+                try {
+                    Thread.sleep(pauseNanos / 1_000_000, (int) (pauseNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        int releasedClustersCount = Thread.currentThread().isInterrupted() ? 0 : fs.shrink();
+        DefragmentationProgress result = new DefragmentationProgress(stepsCount, movedClustersCount, releasedClustersCount,
+                System.nanoTime() - startTime);
+        progressListener.accept(result);
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+package maxim.z;
+
+import maxim.z.exceptions.FSFormatException;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of file chunks. Chunk is stored without compression, if compressed data is not smaller than source data,
+ * so chunk with stored length equals to uncompressed length is not compressed.
+ */
+class FSCompression {
+
+    static byte[] compressChunk(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] buffer = new byte[length];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < length) {
+                compressedLength += deflater.deflate(buffer, compressedLength, length - compressedLength);
+            }
+            if (!deflater.finished() || compressedLength == length) {
+                return Arrays.copyOfRange(data, offset, offset + length);
+            }
+            return Arrays.copyOf(buffer, compressedLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] decompressChunk(byte[] compressedChunk, int length) {
+        if (compressedChunk.length == length) {
+            return compressedChunk;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressedChunk);
+            byte[] result = new byte[length];
+            int decompressedLength = 0;
+            while (decompressedLength < length && !inflater.finished()) {
+                int count = inflater.inflate(result, decompressedLength, length - decompressedLength);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                decompressedLength += count;
+            }
+            if (decompressedLength != length) {
+                throw new FSFormatException("compressed chunk is corrupted");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new FSFormatException("compressed chunk is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
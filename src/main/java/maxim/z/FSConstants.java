@@ -11,6 +11,10 @@ public class FSConstants {
     final static int BYTE_DEPTH = 4;
     final static int FILE_HEADER_LENGTH = 32;
     final static int FILE_NAME_LENGTH = 20;
+    final static int MAX_SNAPSHOTS_COUNT = 16;
+    final static int COMPRESSION_CHUNK_SIZE = 16384;
+    final static int RECLAIMED_CLUSTERS_PER_SECOND = 8192;
+    final static int TRANSFER_BUFFER_SIZE = 65536;
     final static Charset CHARSET = StandardCharsets.UTF_8;
     final static String DIRECTORIES_SEPARATOR = "/";
 
@@ -18,8 +22,15 @@ public class FSConstants {
         final static int CLUSTERS_COUNT = 20;
         final static int LAST_USED_CLUSTER = 24;
         final static int CLUSTER_SIZE = 28;
+        final static int FEATURES = 32;
+        final static int MAX_CLUSTERS_COUNT = 36;
         final static int FAT_TABLE = 64;
     }
 
+    static class Features {
+        final static int CHECKSUMS = 0B00000001;
+        final static int DEDUPLICATION = 0B00000010;
+    }
+
 
 }
@@ -10,21 +10,31 @@ class FSFileEntry {
 
     private final static int DIRECTORY_ATTRIBUTE_BIT = 0B00000001;
     private final static int REMOVED_ATTRIBUTE_BIT = 0B00000010;
+    private final static int COMPRESSED_ATTRIBUTE_BIT = 0B00000100;
+    private final static int SPARSE_ATTRIBUTE_BIT = 0B00001000;
 
     String name;
     final boolean isDirectory;
     int size;
     final int clusterNumber;
     private boolean isRemoved;
+    boolean isCompressed;
+    /**
+     * true, if chain of file may contain gaps, only for such files gaps table is read
+     */
+    boolean isSparse;
 
-    static final FSFileEntry EMPTY_ROOT = new FSFileEntry("", true, 0, 0, false);
+    static final FSFileEntry EMPTY_ROOT = new FSFileEntry("", true, 0, 0, false, false, false);
 
-    private FSFileEntry(String name, boolean isDirectory, int size, int clusterNumber, boolean isRemoved) {
+    private FSFileEntry(String name, boolean isDirectory, int size, int clusterNumber, boolean isRemoved, boolean isCompressed,
+                        boolean isSparse) {
         this.name = name;
         this.isDirectory = isDirectory;
         this.size = size;
         this.clusterNumber = clusterNumber;
         this.isRemoved = isRemoved;
+        this.isCompressed = isCompressed;
+        this.isSparse = isSparse;
     }
 
     void remove() {
@@ -36,7 +46,11 @@ class FSFileEntry {
     }
 
     static FSFileEntry from(String name, boolean isDirectory, int clusterNumber) {
-        return new FSFileEntry(name, isDirectory, 0, clusterNumber, false);
+        return new FSFileEntry(name, isDirectory, 0, clusterNumber, false, false, false);
+    }
+
+    FSFileEntry withClusterNumber(int clusterNumber) {
+        return new FSFileEntry(name, isDirectory, size, clusterNumber, isRemoved, isCompressed, isSparse);
     }
 
     static FSFileEntry fromByteArray(byte[] array) {
@@ -45,7 +59,8 @@ class FSFileEntry {
         byte attributeByte = array[FILE_ATTRIBUTES_OFFSET];
         int clusterNumber = FSUtils.intFromFourBytes(Arrays.copyOfRange(array, FILE_CLUSTER_OFFSET, FILE_CLUSTER_OFFSET + FSConstants.BYTE_DEPTH));
         int fileSize = FSUtils.intFromFourBytes(Arrays.copyOfRange(array, FILE_SIZE_OFFSET, FILE_SIZE_OFFSET + FSConstants.BYTE_DEPTH));
-        return new FSFileEntry(name, getDirectoryBoolean(attributeByte), fileSize, clusterNumber, getRemovedAttribute(attributeByte));
+        return new FSFileEntry(name, getDirectoryBoolean(attributeByte), fileSize, clusterNumber,
+                getRemovedAttribute(attributeByte), getCompressedAttribute(attributeByte), getSparseAttribute(attributeByte));
     }
 
     private static boolean getDirectoryBoolean(byte attributeByte) {
@@ -60,6 +75,14 @@ class FSFileEntry {
         return attribyteByMask(attributeByte, REMOVED_ATTRIBUTE_BIT);
     }
 
+    private static boolean getCompressedAttribute(byte attributeByte) {
+        return attribyteByMask(attributeByte, COMPRESSED_ATTRIBUTE_BIT);
+    }
+
+    private static boolean getSparseAttribute(byte attributeByte) {
+        return attribyteByMask(attributeByte, SPARSE_ATTRIBUTE_BIT);
+    }
+
     byte[] toByteArray() {
         byte[] nameBytes = FSUtils.getNameWithSpaces(name).getBytes(FSConstants.CHARSET);
         byte attributes = getAttributeByte();
@@ -72,6 +95,7 @@ class FSFileEntry {
     }
 
     private byte getAttributeByte() {
-        return (byte) ((isDirectory ? DIRECTORY_ATTRIBUTE_BIT : 0) + (isRemoved ? REMOVED_ATTRIBUTE_BIT : 0));
+        return (byte) ((isDirectory ? DIRECTORY_ATTRIBUTE_BIT : 0) + (isRemoved ? REMOVED_ATTRIBUTE_BIT : 0)
+                + (isCompressed ? COMPRESSED_ATTRIBUTE_BIT : 0) + (isSparse ? SPARSE_ATTRIBUTE_BIT : 0));
     }
 }
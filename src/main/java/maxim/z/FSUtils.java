@@ -1,6 +1,9 @@
 package maxim.z;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.regex.Pattern;
 
@@ -29,6 +32,24 @@ class FSUtils {
         return nameWithSpaces.toString();
     }
 
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static long transferFully(FileChannel channel, long pos, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long transferredNow = channel.transferTo(pos + transferred, count - transferred, target);
+            if (transferredNow <= 0) {
+                break;
+            }
+            transferred += transferredNow;
+        }
+        return transferred;
+    }
+
     static boolean isCorrectName(String name) {
         return NAME_PATTERN.matcher(name).matches();
     }
@@ -0,0 +1,33 @@
+package maxim.z;
+
+/**
+ * Clusters of file chain, cached by {@link VirtualFileChannel} to avoid path resolving and walking chain
+ * from the beginning on every operation. Chain is valid until any FAT value, reference count or file header
+ * is changed in file system.
+ */
+class FileChain {
+
+    final FSFileEntry file;
+    /**
+     * clusters of chain by chain number, not allocated clusters are negative
+     */
+    final int[] clusters;
+    /**
+     * count of clusters at the beginning of chain, that can be changed in place (they are not shared with
+     * another file or snapshot)
+     */
+    final int notSharedClustersCount;
+    /**
+     * true, if shared directories on the path to file were copied, so file itself can be changed
+     */
+    final boolean isResolvedForWrite;
+    final int modificationCount;
+
+    FileChain(FSFileEntry file, int[] clusters, int notSharedClustersCount, boolean isResolvedForWrite, int modificationCount) {
+        this.file = file;
+        this.clusters = clusters;
+        this.notSharedClustersCount = notSharedClustersCount;
+        this.isResolvedForWrite = isResolvedForWrite;
+        this.modificationCount = modificationCount;
+    }
+}
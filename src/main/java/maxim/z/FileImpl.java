@@ -93,6 +93,11 @@ public class FileImpl implements VirtualFile {
         return new OutputStreamImpl(fs, this);
     }
 
+    @Override
+    public VirtualFileChannel openChannel() throws IOException {
+        return fs.openChannel(this);
+    }
+
     @Override
     public boolean exist() throws IOException {
         return fs.exist(this);
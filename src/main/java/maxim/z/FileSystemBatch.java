@@ -0,0 +1,119 @@
+package maxim.z;
+
+import maxim.z.exceptions.CreateFileException;
+import maxim.z.exceptions.IncorrectNameException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects creations of files and writes, that are applied to file system at once after the end of
+ * {@link BatchAction}. Nothing is changed in file system, until batch is applied.
+ */
+public class FileSystemBatch {
+
+    /**
+     * files and directories created in batch by path, parents are placed before their children
+     */
+    final Map<String, NewFile> newFiles = new LinkedHashMap<>();
+    /**
+     * files created in batch by path of existing parent directory
+     */
+    final Map<String, List<NewFile>> newFilesOfExistingDirectories = new LinkedHashMap<>();
+    final List<VirtualFile> writtenExistingFiles = new ArrayList<>();
+    final List<byte[]> writtenExistingFilesContent = new ArrayList<>();
+
+    FileSystemBatch() {
+    }
+
+    /**
+     * creates a new file in batch
+     *
+     * @param parent      existing directory or directory created in this batch
+     * @param newFileName name of new file
+     * @return File object of created file
+     * @throws IncorrectNameException if name contains forbidden symbols or file with this name is already created in batch
+     * @throws CreateFileException    if parent object is a file created in this batch
+     */
+    public VirtualFile createFile(VirtualFile parent, String newFileName) {
+        return create(parent, newFileName, false);
+    }
+
+    /**
+     * creates a new directory in batch
+     *
+     * @param parent           existing directory or directory created in this batch
+     * @param newDirectoryName name of new directory
+     * @return File object of created directory
+     * @throws IncorrectNameException if name contains forbidden symbols or file with this name is already created in batch
+     * @throws CreateFileException    if parent object is a file created in this batch
+     */
+    public VirtualFile createDirectory(VirtualFile parent, String newDirectoryName) {
+        return create(parent, newDirectoryName, true);
+    }
+
+    /**
+     * Overrides data of specified file by specified content. Content of files created in batch is written together
+     * with them, existing files are written after all files of batch are created.
+     *
+     * @param file    file for writing data
+     * @param content bytes, that must written to file
+     */
+    public void write(VirtualFile file, byte[] content) {
+        NewFile newFile = newFiles.get(file.getPath());
+        if (newFile != null && !newFile.isDirectory) {
+            newFile.content = content;
+        } else {
+            writtenExistingFiles.add(file);
+            writtenExistingFilesContent.add(content);
+        }
+    }
+
+    /**
+     * Overrides data of specified file by specified content.
+     *
+     * @param file    file for writing data
+     * @param content string (encoding specified in {@link FSConstants}), that must written to file
+     */
+    public void write(VirtualFile file, String content) {
+        write(file, content.getBytes(FSConstants.CHARSET));
+    }
+
+    private VirtualFile create(VirtualFile parent, String name, boolean isDirectory) {
+        if (!FSUtils.isCorrectName(name)) {
+            throw new IncorrectNameException(String.format("File name can contains only letters, numbers, hyphen and underscore. " +
+                    "Max length is %s symbols", String.valueOf(FSConstants.FILE_NAME_LENGTH)));
+        }
+        VirtualFile file = parent.child(name);
+        if (newFiles.containsKey(file.getPath())) {
+            throw new IncorrectNameException(String.format("file with name %s already exist", name));
+        }
+        NewFile newFile = new NewFile(name, isDirectory);
+        NewFile newParent = newFiles.get(parent.getPath());
+        if (newParent == null) {
+            newFilesOfExistingDirectories.computeIfAbsent(parent.getPath(), path -> new ArrayList<>()).add(newFile);
+        } else if (newParent.isDirectory) {
+            newParent.children.add(newFile);
+        } else {
+            throw new CreateFileException(String.format("parent file %s is a file", parent.getPath()));
+        }
+        newFiles.put(file.getPath(), newFile);
+        return file;
+    }
+
+    static class NewFile {
+
+        final String name;
+        final boolean isDirectory;
+        final List<NewFile> children = new ArrayList<>();
+        byte[] content = new byte[0];
+        int[] clusters;
+
+        NewFile(String name, boolean isDirectory) {
+            this.name = name;
+            this.isDirectory = isDirectory;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package maxim.z;
+
+import maxim.z.exceptions.RemoteCommandException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client of {@link FileSystemServer}. Every client is a separate connection with it's own current directory,
+ * client must not be used by several threads at the same time.
+ */
+public class FileSystemClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+
+    /**
+     * @param port port of server on loopback address
+     * @throws IOException if connection can't be established
+     */
+    public FileSystemClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * @param name directory name or ".." for parent directory
+     * @return path of new current directory
+     * @throws RemoteCommandException if directory doesn't exist
+     */
+    public String cd(String name) throws IOException {
+        sendCommand(ServerProtocol.CD, name);
+        return input.readUTF();
+    }
+
+    public void mkdir(String name) throws IOException {
+        sendCommand(ServerProtocol.MKDIR, name);
+    }
+
+    public void mkfile(String name) throws IOException {
+        sendCommand(ServerProtocol.MKFILE, name);
+    }
+
+    public void write(String name, byte[] content) throws IOException {
+        output.writeByte(ServerProtocol.WRITE);
+        output.writeUTF(name);
+        ServerProtocol.writeContent(output, content);
+        readStatus();
+    }
+
+    public byte[] read(String name) throws IOException {
+        sendCommand(ServerProtocol.READ, name);
+        return ServerProtocol.readContent(input);
+    }
+
+    /**
+     * @return names of files and directories in current directory
+     */
+    public List<String> ls() throws IOException {
+        output.writeByte(ServerProtocol.LS);
+        readStatus();
+        int count = input.readInt();
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(input.readUTF());
+        }
+        return result;
+    }
+
+    /**
+     * Removes file or directory with all content
+     */
+    public void rm(String name) throws IOException {
+        sendCommand(ServerProtocol.RM, name);
+    }
+
+    private void sendCommand(byte command, String name) throws IOException {
+        output.writeByte(command);
+        output.writeUTF(name);
+        readStatus();
+    }
+
+    /**
+     * Sends request and reads status of response
+     *
+     * @throws RemoteCommandException if command failed on server
+     */
+    private void readStatus() throws IOException {
+        output.flush();
+        byte status = input.readByte();
+        if (status != ServerProtocol.STATUS_OK) {
+            throw new RemoteCommandException(input.readUTF());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
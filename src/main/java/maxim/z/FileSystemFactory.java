@@ -1,22 +1,72 @@
 package maxim.z;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.UnaryOperator;
 
 public class FileSystemFactory {
 
     public static VirtualFileSystem getFileSystem(String pathToFile) throws IOException {
+        return getFileSystem(pathToFile, FormatOptions.defaults());
+    }
+
+    /**
+     * @param pathToFile    path to file system storage
+     * @param formatOptions options, that are used if file system storage doesn't exist yet
+     */
+    public static VirtualFileSystem getFileSystem(String pathToFile, FormatOptions formatOptions) throws IOException {
+        return getFileSystem(pathToFile, formatOptions, UnaryOperator.identity());
+    }
+
+    /**
+     * @param pathToFile       path to file system storage
+     * @param formatOptions    options, that are used if file system storage doesn't exist yet
+     * @param storageDecorator wraps storage of file, e.g. {@link InstrumentedReaderWriter#InstrumentedReaderWriter}
+     */
+    public static VirtualFileSystem getFileSystem(String pathToFile, FormatOptions formatOptions,
+                                                  UnaryOperator<BytesReaderWriter> storageDecorator) throws IOException {
         java.io.File fsFile = new java.io.File(pathToFile);
         if (!fsFile.exists()) {
             createFSFile(fsFile);
         }
-        BytesReaderWriter readerWriter = new RAFWrapper(fsFile);
-        return new FileSystemImpl(readerWriter);
+        BytesReaderWriter readerWriter = storageDecorator.apply(new RAFWrapper(fsFile));
+        return new FileSystemImpl(readerWriter, formatOptions);
     }
 
     public static VirtualFileSystem getFileSystem(BytesReaderWriter readerWriter) throws IOException {
         return new FileSystemImpl(readerWriter);
     }
 
+    /**
+     * @param readerWriter  file system storage
+     * @param formatOptions options, that are used if storage doesn't contain file system yet
+     */
+    public static VirtualFileSystem getFileSystem(BytesReaderWriter readerWriter, FormatOptions formatOptions) throws IOException {
+        return new FileSystemImpl(readerWriter, formatOptions);
+    }
+
+    /**
+     * Loads image saved by {@link VirtualFileSystem#saveImage(Path)} to new {@link SegmentedMemoryReaderWriter}
+     *
+     * @param image path of saved image
+     */
+    public static VirtualFileSystem loadImage(Path image) throws IOException {
+        return loadImage(image, new SegmentedMemoryReaderWriter());
+    }
+
+    /**
+     * @param image   path of saved image
+     * @param storage empty storage, to which image is copied
+     */
+    public static VirtualFileSystem loadImage(Path image, BytesReaderWriter storage) throws IOException {
+        ImageFile.load(image, storage);
+        return new FileSystemImpl(storage);
+    }
+
+    public static VirtualFileSystem getSnapshotFileSystem(VirtualFileSystem fileSystem, String snapshotName) throws IOException {
+        return fileSystem.openSnapshot(snapshotName);
+    }
+
     private static void createFSFile(java.io.File fsFile) throws IOException {
         boolean res = fsFile.createNewFile();
         if (!res) {
@@ -3,10 +3,25 @@ package maxim.z;
 import maxim.z.exceptions.*;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
 
 import static maxim.z.FSUtils.intAsFourBytes;
 import static maxim.z.FSUtils.parseFileNames;
@@ -29,35 +44,129 @@ import static maxim.z.FSUtils.parseFileNames;
  * 28-31 bytes is count of data bytes of current file.
  * for files ("is directory attribute - false") data it just file content. For directories each 4 bytes is
  * cluster index of child file.
+ * After data clusters file contains table of cluster references (4*clusterCount bytes). Value in table is count of
+ * additional chains, that pass through the cluster (0 for not shared clusters). Clusters of cloned files are shared
+ * this way and copied only when one of files is changed (see {@link #clone(VirtualFile, VirtualFile)}).
+ * Link from directory to child file is counted as reference to the first cluster of child file too.
+ * After references table file contains table of snapshots ({@link FSConstants#MAX_SNAPSHOTS_COUNT} entries
+ * of 32 bytes, format is the same as file header). Each snapshot is a frozen copy of root directory, all files in it
+ * are shared with live root and copied before changing (see {@link #createSnapshot(String)}).
+ * If checksums feature is enabled (bytes 32-35 of header contains features flags, see {@link FormatOptions}), then
+ * after snapshots table file contains CRC32C checksums of clusters (4*clusterCount bytes). Checksum is verified
+ * on every cluster reading and updated on every cluster writing.
+ * Data of files with compressed attribute is divided into chunks of {@link FSConstants#COMPRESSION_CHUNK_SIZE} bytes,
+ * each chunk is compressed independently. Content of such files starts from INT32 count of chunks, then INT32 end
+ * offset of each compressed chunk follows, then compressed chunks. Size in file header is size of uncompressed data.
+ * If deduplication feature is enabled, then clusters of files (except first cluster) with the same data and the same
+ * next cluster are stored once (see {@link DeduplicationIndex}).
+ * After checksums table file contains table of gaps (4*clusterCount bytes). Value in table is count of not allocated
+ * clusters of file between cluster and next cluster in chain. Not allocated clusters and clusters after the end of
+ * chain contain zeros, so sparse files don't use clusters for empty regions. Chain can contain gaps only if file has
+ * sparse attribute (set by {@link #punchHole(VirtualFile, int, int)} or write after the end of file), gaps table
+ * isn't read or written for chains of other files.
+ * Bytes 36-39 of header contain clusters count specified on formatting. Current clusters count can be smaller:
+ * storage can be shrunk after defragmentation (see {@link #defragment(int)}) and grows back only by
+ * {@link #reserveClusters(int)}, because resizing moves data area and isn't crash-safe.
+ * All operations are synchronized on storage, so file system and it's snapshots can be used from several threads.
+ * Clusters of files removed by {@link #removeRecursive(VirtualFile)} are freed by background {@link ClusterReclaimer}.
  */
 public class FileSystemImpl extends VirtualFileSystem {
 
+    private final static int SCRUB_BLOCK_CLUSTERS = 256;
+    private final static int HOLE_CLUSTER = -2;
+    private final static int STORAGE_BLOCK_SIZE = 1 << 20;
+    private final static int MAX_REPAIR_PASSES = 8;
+    private final static int MAX_CHECK_ATTEMPTS = 4;
+    private final static Set<FsckProblem.Type> LINKS_COUNT_PROBLEMS = EnumSet.of(FsckProblem.Type.ORPHANED_CLUSTER,
+            FsckProblem.Type.CROSS_LINKED_CLUSTER, FsckProblem.Type.WRONG_REFERENCES, FsckProblem.Type.DIRTY_FREE_CLUSTER);
+
     private final BytesReaderWriter readerWriter;
-    private final int clusterCount;
+    /**
+     * current clusters count of live file system, snapshots use value of live file system
+     */
+    private int clusterCount;
+    private final int maxClusterCount;
+    private final FileSystemImpl liveFileSystem;
     private final int clusterSize;
+    private final int rootCluster;
+    private final String snapshotName;
+    private final boolean checksumsEnabled;
+    private final DeduplicationIndex deduplicationIndex;
+    private int modificationCount;
+    /**
+     * count of writes into data clusters, data read without lock is valid only if it isn't changed
+     * (see {@link #getReadPlan(VirtualFile, int, int)})
+     */
+    private int dataModificationCount;
+    /**
+     * first clusters of removed files, which clusters are not freed yet
+     */
+    private final Deque<Integer> filesForReclaim = new ArrayDeque<>();
+    /**
+     * chains of removed files, which are freed now
+     */
+    private final Deque<Integer> chainsForReclaim = new ArrayDeque<>();
+    private final ClusterReclaimer reclaimer;
+    private volatile TraceRecorder traceRecorder;
 
     FileSystemImpl(BytesReaderWriter readerWriter) throws IOException {
+        this(readerWriter, FormatOptions.defaults());
+    }
+
+    /**
+     * @param readerWriter  storage of file system
+     * @param formatOptions options, that are used if storage doesn't contain file system yet
+     */
+    FileSystemImpl(BytesReaderWriter readerWriter, FormatOptions formatOptions) throws IOException {
         this.readerWriter = readerWriter;
+        this.rootCluster = 0;
+        this.snapshotName = null;
         int localClusterCount = readClusterCount(readerWriter);
         int localClusterSize = readClusterSize(readerWriter);
+        int localFeatures = readIntFromFsOnOffset(readerWriter, FSConstants.Offsets.FEATURES);
         boolean alreadyInitialized = (localClusterCount != 0 && localClusterSize != 0);
         if (!alreadyInitialized) {
             localClusterCount = FSConstants.DEFAULT_CLUSTER_COUNT;
             localClusterSize = FSConstants.DEFAULT_CLUSTER_SIZE;
+            localFeatures = formatOptions.getFeatures();
         }
+        int localMaxClusterCount = readIntFromFsOnOffset(readerWriter, FSConstants.Offsets.MAX_CLUSTERS_COUNT);
         this.clusterCount = localClusterCount;
+        this.maxClusterCount = Math.max(localClusterCount, localMaxClusterCount);
+        this.liveFileSystem = null;
         this.clusterSize = localClusterSize;
+        this.checksumsEnabled = (localFeatures & FSConstants.Features.CHECKSUMS) != 0;
+        boolean deduplicationEnabled = (localFeatures & FSConstants.Features.DEDUPLICATION) != 0;
+        this.deduplicationIndex = deduplicationEnabled ? new DeduplicationIndex() : null;
+        this.reclaimer = new ClusterReclaimer(this::reclaimClusters, FSConstants.RECLAIMED_CLUSTERS_PER_SECOND);
         if (alreadyInitialized) {
             checkThatRootFileAndFATChainExist();
+            if (deduplicationEnabled) {
+                rebuildDeduplicationIndex();
+            }
         } else {
             readerWriter.seekAndWrite(intAsFourBytes(localClusterCount), FSConstants.Offsets.CLUSTERS_COUNT);
             readerWriter.seekAndWrite(intAsFourBytes(0), FSConstants.Offsets.LAST_USED_CLUSTER);
             readerWriter.seekAndWrite(intAsFourBytes(localClusterSize), FSConstants.Offsets.CLUSTER_SIZE);
+            readerWriter.seekAndWrite(intAsFourBytes(localFeatures), FSConstants.Offsets.FEATURES);
+            readerWriter.seekAndWrite(intAsFourBytes(localClusterCount), FSConstants.Offsets.MAX_CLUSTERS_COUNT);
             readerWriter.seekAndWrite(intAsFourBytes(FSConstants.END_OF_CHAIN), FSConstants.Offsets.FAT_TABLE);
-            readerWriter.seekAndWrite(FSFileEntry.EMPTY_ROOT.toByteArray(), getClusterDataOffset(0));
+            writeClusterData(0, 0, FSFileEntry.EMPTY_ROOT.toByteArray());
         }
     }
 
+    private FileSystemImpl(FileSystemImpl liveFileSystem, String snapshotName, int snapshotRootCluster) {
+        this.readerWriter = liveFileSystem.readerWriter;
+        this.maxClusterCount = liveFileSystem.maxClusterCount;
+        this.liveFileSystem = liveFileSystem;
+        this.clusterSize = liveFileSystem.clusterSize;
+        this.rootCluster = snapshotRootCluster;
+        this.snapshotName = snapshotName;
+        this.checksumsEnabled = liveFileSystem.checksumsEnabled;
+        this.deduplicationIndex = liveFileSystem.deduplicationIndex;
+        this.reclaimer = null;
+    }
+
     private void checkThatRootFileAndFATChainExist() throws IOException {
         int rootFileClusterNumber = 0;
         int fatValue = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(rootFileClusterNumber));
@@ -86,377 +195,2207 @@ public class FileSystemImpl extends VirtualFileSystem {
         return FSUtils.intFromFourBytes(bytes);
     }
 
+    private int getClusterCount() {
+        return liveFileSystem == null ? clusterCount : liveFileSystem.clusterCount;
+    }
+
     private int getClusterFATOffset(int clusterIndex) {
         return FSConstants.Offsets.FAT_TABLE + clusterIndex * FSConstants.BYTE_DEPTH;
     }
 
-    private void clearFATChain(int firstCluster) throws IOException {
-        int clearedCluster = firstCluster;
-        int nextCluster;
-        do {
-            nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(clearedCluster));
-            setFATClusterValue(clearedCluster, 0);
-            clearedCluster = nextCluster;
-        } while (nextCluster != FSConstants.END_OF_CHAIN);
+    private int getClusterReferencesOffset(int clusterIndex) {
+        return getClusterDataOffset(getClusterCount()) + clusterIndex * FSConstants.BYTE_DEPTH;
     }
 
-    private void createFATChain(List<Integer> clusterIndexes) throws IOException {
-        for (int i = 0; i < clusterIndexes.size(); i++) {
-            int currentClusterIndex = clusterIndexes.get(i);
-            boolean isLastCluster = (i == clusterIndexes.size() - 1);
-            int nextClusterIndex = isLastCluster ? FSConstants.END_OF_CHAIN : clusterIndexes.get(i + 1);
-            setFATClusterValue(currentClusterIndex, nextClusterIndex);
-        }
+    private int getClusterReferences(int clusterIndex) throws IOException {
+        return readIntFromFsOnOffset(readerWriter, getClusterReferencesOffset(clusterIndex));
     }
 
-    /**
-     * Overrides data of specified file by specified content.
-     *
-     * @param file    file for writing data
-     * @param content string (encoding specified in {@link FSConstants}), that must written to file
-     * @throws IOException           on any default IO error
-     * @throws FileNotFoundException if specified file was not found
-     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
-     */
-    @Override
-    public void write(VirtualFile file, String content) throws IOException {
-        write(file, content.getBytes(FSConstants.CHARSET));
+    private void setClusterReferences(int clusterIndex, int references) throws IOException {
+        modificationCount++;
+        readerWriter.seekAndWrite(intAsFourBytes(references), getClusterReferencesOffset(clusterIndex));
     }
 
-    @Override
-    void write(VirtualFile file, int offset, byte[] content) throws IOException {
-        int fileCluster = findFileCluster(file);
-        FSFileEntry currentFile = getFileEntryFromCluster(fileCluster);
-        if (currentFile.isDirectory) {
-            throw new WriteException(String.format("file %s is a directory", file.getPath()));
-        }
-        write0(content, offset, currentFile);
+    private void addClusterReference(int clusterIndex) throws IOException {
+        setClusterReferences(clusterIndex, getClusterReferences(clusterIndex) + 1);
     }
 
     /**
-     * Overrides data of specified file by specified content.
-     *
-     * @param file    file for writing data
-     * @param content bytes, that must written to file
-     * @throws IOException           on any default IO error
-     * @throws FileNotFoundException if specified file was not found
-     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     * Releases one reference to file. If file is not shared, then it's clusters are freed.
+     * For directories all child files are released too.
      */
-    @Override
-    public void write(VirtualFile file, byte[] content) throws IOException {
-        write(file, 0, content);
+    private void releaseFile(int fileCluster) throws IOException {
+        int references = getClusterReferences(fileCluster);
+        if (references > 0) {
+            setClusterReferences(fileCluster, references - 1);
+            return;
+        }
+        FSFileEntry file = getFileEntryFromCluster(fileCluster);
+        if (file.isDirectory) {
+            // header of removed directory is already marked as removed
+            for (int childCluster : getChildClusters(readRawContent(file, 0, file.size))) {
+                releaseFile(childCluster);
+            }
+        }
+        releaseFATChain(fileCluster, file.isSparse);
     }
 
-    private void write0(byte[] content, int offset, FSFileEntry currentFile) throws IOException {
-        int firstClusterForWrite = getClusterNumberByChainNumber(currentFile, (offset + FSConstants.FILE_HEADER_LENGTH) / clusterSize);
-        int firstIndexForWrite = (offset + FSConstants.FILE_HEADER_LENGTH) % clusterSize;
-        currentFile.size = content.length + offset;
-        writeFileHeader(currentFile);
-        clearFATChain(firstClusterForWrite);
-        int writeBytes = 0;
-        List<Integer> usedClusterIndexes = new ArrayList<>();
-        int clusterForWrite = firstClusterForWrite;
-        do {
-            boolean isFirstIteration = (writeBytes == 0);
-            int writeBytesCount = Math.min(clusterSize - (isFirstIteration ? FSConstants.FILE_HEADER_LENGTH : 0), content.length - writeBytes);
-            int writeOffsetInCurrentCluster = isFirstIteration ? firstIndexForWrite : 0;
-            readerWriter.seekAndWrite(Arrays.copyOfRange(content, writeBytes, writeBytes + writeBytesCount), getClusterDataOffset(clusterForWrite) + writeOffsetInCurrentCluster);
-            usedClusterIndexes.add(clusterForWrite);
-            clusterForWrite = getFirstFreeCluster(clusterForWrite + 1);
-            writeBytes += writeBytesCount;
-        } while (writeBytes != content.length);
-        createFATChain(usedClusterIndexes);
+    /**
+     * Releases one reference to chain, that starts from specified cluster. Clusters are freed until first cluster,
+     * that is shared with another chain. Gaps of freed clusters are cleared only for chain of sparse file.
+     */
+    private void releaseFATChain(int firstCluster, boolean isSparse) throws IOException {
+        int releasedCluster = firstCluster;
+        int traversedClustersCount = 0;
+        while (releasedCluster != FSConstants.END_OF_CHAIN) {
+            int references = getClusterReferences(releasedCluster);
+            if (references > 0) {
+                setClusterReferences(releasedCluster, references - 1);
+                break;
+            }
+            int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(releasedCluster));
+            setFATClusterValue(releasedCluster, 0);
+            if (isSparse) {
+                setClusterGap(releasedCluster, 0);
+            }
+            releasedCluster = nextCluster;
+            traversedClustersCount++;
+        }
+        OperationScope.addTraversedChainClusters(traversedClustersCount);
     }
 
-    private void writeFileHeader(FSFileEntry file) throws IOException {
-        readerWriter.seekAndWrite(file.toByteArray(), getClusterDataOffset(file.clusterNumber));
+    private int getClusterGapOffset(int clusterIndex) {
+        return getClusterChecksumOffset(getClusterCount()) + clusterIndex * FSConstants.BYTE_DEPTH;
     }
 
-    /**
-     * Reads file content and return it
-     *
-     * @param file file for reading data
-     * @return data of specified file
-     * @throws IOException           on any default IO error
-     * @throws FileNotFoundException if specified file was not found
-     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
-     */
-    @Override
-    public byte[] read(VirtualFile file) throws IOException {
-        int fileCluster = findFileCluster(file);
-        FSFileEntry fileEntry = getFileEntryFromCluster(fileCluster);
-        if (fileEntry.isDirectory) {
-            throw new ReadException(String.format("file %s is a directory", file.getPath()));
-        }
-        return read(file, 0, fileEntry.size);
+    private int getClusterGap(int clusterIndex) throws IOException {
+        return readIntFromFsOnOffset(readerWriter, getClusterGapOffset(clusterIndex));
     }
 
-    @Override
-    byte[] read(VirtualFile file, int from, int count) throws IOException {
-        FSFileEntry fileEntry = getFileEntryFromCluster(findFileCluster(file));
-        return getFileContent(fileEntry, from, count);
+    private void setClusterGap(int clusterIndex, int gap) throws IOException {
+        modificationCount++;
+        if (deduplicationIndex != null) {
+            deduplicationIndex.remove(clusterIndex);
+        }
+        readerWriter.seekAndWrite(intAsFourBytes(gap), getClusterGapOffset(clusterIndex));
     }
 
     /**
-     * Reads file content and return it
-     *
-     * @param file file for reading data
-     * @return data of specified file as string (encoding specified in {@link FSConstants})
-     * @throws IOException           on any default IO error
-     * @throws FileNotFoundException if specified file was not found
-     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     * Returns cluster of file chain with specified number. If any cluster before it (or itself) is shared with
+     * another file, then it is copied to new cluster, so returned cluster can be changed in place.
+     * If cluster with specified number is not allocated, then new cluster filled by zeros is inserted into chain.
      */
-    @Override
-    public String readAsString(VirtualFile file) throws IOException {
-        return new String(read(file), FSConstants.CHARSET);
+    private int getNotSharedClusterByChainNumber(FSFileEntry file, int chainNumber) throws IOException {
+        return getNotSharedClusterByChainNumber(file, file.clusterNumber, 0, chainNumber);
     }
 
     /**
-     * creates a new file in file system and return it
-     *
-     * @param parent      directory for creating file
-     * @param newFileName name of new file
-     * @return File object of created file
-     * @throws IOException            on any default IO error
-     * @throws IncorrectNameException if name contains forbidden symbols
-     * @throws FileNotFoundException  if parent directory was not found
-     * @throws CreateFileException    if parent object is not directory
+     * Same as {@link #getNotSharedClusterByChainNumber(FSFileEntry, int)}, but chain is walked from specified
+     * not shared cluster, so sequential clusters can be got without walking chain from the beginning.
      */
-    @Override
-    public VirtualFile createFile(VirtualFile parent, String newFileName) throws IOException {
-        int parentCluster = findFileCluster(parent);
-        checkName(parentCluster, newFileName);
-        int clusterForNewFile = getFirstFreeCluster();
-        FSFileEntry parentFile = getFileEntryFromCluster(parentCluster);
-        checkThatFileIsDirectory(parentFile, parent.getPath());
-        setFATClusterValue(clusterForNewFile, FSConstants.END_OF_CHAIN);
-        FSFileEntry newFile = FSFileEntry.from(newFileName, false, clusterForNewFile);
-        int clusterDataOffset = getClusterDataOffset(clusterForNewFile);
-        readerWriter.seekAndWrite(newFile.toByteArray(), clusterDataOffset);
-        appendClusterLinkToDirectory(parentCluster, clusterForNewFile, parentFile);
-        return parent.child(newFileName);
-    }
-
-    @Override
-    public VirtualFile getRootFile() {
-        return FileImpl.rootInstance(this);
+    private int getNotSharedClusterByChainNumber(FSFileEntry file, int startCluster, int startChainNumber, int chainNumber) throws IOException {
+        int previousCluster = startCluster;
+        int previousChainNumber = startChainNumber;
+        while (previousChainNumber != chainNumber) {
+            int gap = getClusterGap(file, previousCluster);
+            int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(previousCluster));
+            OperationScope.addTraversedChainClusters(1);
+            if (nextCluster == FSConstants.END_OF_CHAIN || chainNumber <= previousChainNumber + gap) {
+                return insertClusterIntoGap(file, previousCluster, chainNumber - previousChainNumber - 1);
+            }
+            if (getClusterReferences(nextCluster) > 0) {
+                nextCluster = copySharedCluster(file, previousCluster, nextCluster);
+            }
+            previousCluster = nextCluster;
+            previousChainNumber += gap + 1;
+        }
+        return previousCluster;
     }
 
     /**
-     * @param file specified directory
-     * @return true, is specified directory exist. Otherwise return false
-     * @throws IOException on any default IO error
+     * Copies shared cluster and replaces it in chain of previous cluster by the copy.
      */
-    @Override
-    public boolean isDirectoryExist(VirtualFile file) throws IOException {
-        int fileCluster;
-        try {
-            fileCluster = findFileCluster(file);
-        } catch (FileNotFoundException e) {
-            return false;
+    private int copySharedCluster(FSFileEntry file, int previousCluster, int sharedCluster) throws IOException {
+        int copyCluster = getFirstFreeCluster(previousCluster + 1);
+        writeClusterData(copyCluster, 0, readWholeCluster(sharedCluster));
+        int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(sharedCluster));
+        if (nextCluster != FSConstants.END_OF_CHAIN) {
+            addClusterReference(nextCluster);
         }
-        return getFileEntryFromCluster(fileCluster).isDirectory;
-    }
-
-    @Override
-    boolean exist(VirtualFile file) throws IOException {
-        try {
-            findFileCluster(file);
-        } catch (FileNotFoundException e) {
-            return false;
+        setFATClusterValue(copyCluster, nextCluster);
+        if (file.isSparse) {
+            setClusterGap(copyCluster, getClusterGap(sharedCluster));
         }
-        return true;
+        setFATClusterValue(previousCluster, copyCluster);
+        setClusterReferences(sharedCluster, getClusterReferences(sharedCluster) - 1);
+        return copyCluster;
     }
 
-    private void checkName(int parentCluster, String name) throws IOException {
-        if (!FSUtils.isCorrectName(name)) {
-            throw new IncorrectNameException(String.format("File name can contains only letters, numbers, hyphen and underscore. " +
-                    "Max length is %s symbols", String.valueOf(FSConstants.FILE_NAME_LENGTH)));
+    /**
+     * Allocates new cluster filled by zeros in the gap after specified cluster. If new cluster isn't next to
+     * previous one, then file is marked as sparse.
+     *
+     * @param previousCluster not shared cluster, after which gap starts
+     * @param indexInGap      position of new cluster in the gap (0 for first not allocated cluster)
+     */
+    private int insertClusterIntoGap(FSFileEntry file, int previousCluster, int indexInGap) throws IOException {
+        int gap = getClusterGap(file, previousCluster);
+        int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(previousCluster));
+        int newCluster = getFirstFreeCluster(previousCluster + 1);
+        writeClusterData(newCluster, 0, new byte[clusterSize]);
+        setFATClusterValue(newCluster, nextCluster);
+        setFATClusterValue(previousCluster, newCluster);
+        if (indexInGap > 0) {
+            markSparse(file);
         }
-        List<Integer> childFilesClusters = getChildClusters(getFileContent(parentCluster));
-        for (int childCluster : childFilesClusters) {
-            if (name.equals(getFileEntryFromCluster(childCluster).name)) {
-                throw new IncorrectNameException(String.format("file with name %s already exist", name));
-            }
+        if (file.isSparse) {
+            setClusterGap(newCluster, nextCluster == FSConstants.END_OF_CHAIN ? 0 : gap - indexInGap - 1);
+            setClusterGap(previousCluster, indexInGap);
         }
+        return newCluster;
     }
 
-    private void appendClusterLinkToDirectory(int directoryCluster, int fileCluster, FSFileEntry directory) throws IOException {
-        byte[] currentBytes = getFileContent(directoryCluster);
-        byte[] newContent = Arrays.copyOf(currentBytes, currentBytes.length + 4);
-        byte[] pointerToNewFile = intAsFourBytes(fileCluster);
-        System.arraycopy(pointerToNewFile, 0, newContent, currentBytes.length, pointerToNewFile.length);
-        write0(newContent, 0, directory);
+    /**
+     * @return count of not allocated clusters after specified cluster of file, gaps table is read only for sparse file
+     */
+    private int getClusterGap(FSFileEntry file, int clusterIndex) throws IOException {
+        return file.isSparse ? getClusterGap(clusterIndex) : 0;
     }
 
-    private void setFATClusterValue(int clusterIndex, int clusterValue) throws IOException {
-        readerWriter.seekAndWrite(intAsFourBytes(clusterValue), getClusterFATOffset(clusterIndex));
+    private void markSparse(FSFileEntry file) throws IOException {
+        if (!file.isSparse) {
+            file.isSparse = true;
+            writeFileHeader(file);
+        }
     }
 
-    private void checkThatFileIsDirectory(FSFileEntry file, String path) {
-        if (!file.isDirectory) {
-            throw new CreateFileException(String.format("parent file %s is a file", path));
+    /**
+     * Returns clusters of file chain from first to specified number. Not allocated clusters are marked as
+     * {@link #HOLE_CLUSTER}.
+     */
+    private int[] getClusterMap(FSFileEntry file, int lastChainNumber) throws IOException {
+        int[] result = new int[lastChainNumber + 1];
+        Arrays.fill(result, HOLE_CLUSTER);
+        int cluster = file.clusterNumber;
+        int chainNumber = 0;
+        int traversedClustersCount = 0;
+        while (chainNumber <= lastChainNumber && cluster != FSConstants.END_OF_CHAIN) {
+            result[chainNumber] = cluster;
+            chainNumber += getClusterGap(file, cluster) + 1;
+            cluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(cluster));
+            traversedClustersCount++;
         }
+        OperationScope.addTraversedChainClusters(traversedClustersCount);
+        return result;
     }
 
     /**
-     * creates a new directory in file system and return it
+     * Frees all clusters of file, which data is completely inside of specified region, and fills by zeros rest
+     * of region. File size is not changed.
      *
-     * @param parent           directory for creating file
-     * @param newDirectoryName name of new directory
-     * @return File object of created file
-     * @throws IOException            on any default IO error
-     * @throws IncorrectNameException if name contains forbidden symbols
-     * @throws FileNotFoundException  if parent directory was not found
-     * @throws CreateFileException    if parent object is not directory
+     * @param file   file for changing
+     * @param from   start byte index of region
+     * @param length length of region in bytes
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
      */
     @Override
-    public VirtualFile createDirectory(VirtualFile parent, String newDirectoryName) throws IOException {
-        int parentCluster = findFileCluster(parent);
-        checkName(parentCluster, newDirectoryName);
-        int newDirectoryCluster = getFirstFreeCluster();
-        FSFileEntry parentFile = getFileEntryFromCluster(parentCluster);
-        checkThatFileIsDirectory(parentFile, parent.getPath());
-        setFATClusterValue(newDirectoryCluster, FSConstants.END_OF_CHAIN);
-        FSFileEntry newFile = FSFileEntry.from(newDirectoryName, true, newDirectoryCluster);
-        readerWriter.seekAndWrite(newFile.toByteArray(), getClusterDataOffset(newDirectoryCluster));
-        appendClusterLinkToDirectory(parentCluster, newDirectoryCluster, parentFile);
-        return parent.child(newDirectoryName);
+    public void punchHole(VirtualFile file, int from, int length) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> punchHole0(file, from, length));
     }
 
-    private int getFirstFreeCluster(int startFrom) throws IOException {
-        for (int i = startFrom; i < clusterCount; i++) {
-            int clusterOffset = getClusterFATOffset(i);
-            int nextClusterInChain = readIntFromFsOnOffset(readerWriter, clusterOffset);
-            if (nextClusterInChain == 0) {
-                return i;
+    private void punchHole0(VirtualFile file, int from, int length) throws IOException {
+        synchronized (readerWriter) {
+            if (from < 0 || length < 0) {
+                throw new WriteException(String.format("incorrect region %s-%s", from, from + length));
             }
-        }
-        //if not find from start, try find from 0
-        for (int i = 0; i < startFrom; i++) {
-            int clusterOffset = getClusterFATOffset(i);
-            int nextClusterInChain = readIntFromFsOnOffset(readerWriter, clusterOffset);
-            if (nextClusterInChain == 0) {
-                return i;
+            FSFileEntry currentFile = getRegularFileForWrite(file);
+            int to = (int) Math.min((long) from + length, currentFile.size);
+            if (from >= to) {
+                return;
+            }
+            if (currentFile.isCompressed) {
+                byte[] content = getFileContent(currentFile, 0, currentFile.size);
+                Arrays.fill(content, from, to, (byte) 0);
+                writeCompressed(content, 0, currentFile);
+                return;
+            }
+            int firstFreedChainNumber = (from + FSConstants.FILE_HEADER_LENGTH + clusterSize - 1) / clusterSize;
+            int lastFreedChainNumber = to == currentFile.size
+                    ? (to + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize
+                    : (to + FSConstants.FILE_HEADER_LENGTH) / clusterSize - 1;
+            int firstFreedOffset = firstFreedChainNumber * clusterSize - FSConstants.FILE_HEADER_LENGTH;
+            int lastFreedEnd = (lastFreedChainNumber + 1) * clusterSize - FSConstants.FILE_HEADER_LENGTH;
+            if (firstFreedChainNumber > lastFreedChainNumber) {
+                fillByZeros(currentFile, from, to);
+                return;
             }
+            fillByZeros(currentFile, from, firstFreedOffset);
+            markSparse(currentFile);
+
+            int previousCluster = currentFile.clusterNumber;
+            int previousChainNumber = 0;
+            while (true) {
+                int gap = getClusterGap(previousCluster);
+                int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(previousCluster));
+                int nextChainNumber = previousChainNumber + gap + 1;
+                if (nextCluster == FSConstants.END_OF_CHAIN || nextChainNumber > lastFreedChainNumber) {
+                    break;
+                }
+                if (nextChainNumber >= firstFreedChainNumber) {
+                    int clusterAfterNext = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(nextCluster));
+                    if (clusterAfterNext != FSConstants.END_OF_CHAIN) {
+                        addClusterReference(clusterAfterNext);
+                    }
+                    setFATClusterValue(previousCluster, clusterAfterNext);
+                    setClusterGap(previousCluster, clusterAfterNext == FSConstants.END_OF_CHAIN ? 0 : gap + 1 + getClusterGap(nextCluster));
+                    releaseFATChain(nextCluster, true);
+                    continue;
+                }
+                if (getClusterReferences(nextCluster) > 0) {
+                    nextCluster = copySharedCluster(currentFile, previousCluster, nextCluster);
+                }
+                previousCluster = nextCluster;
+                previousChainNumber = nextChainNumber;
+            }
+            fillByZeros(currentFile, Math.min(lastFreedEnd, to), to);
         }
-        throw new FSException("Don't found free cluster");
     }
 
-    private FSFileEntry getFileEntryFromCluster(int clusterNumber) throws IOException {
-        readerWriter.seek(getClusterDataOffset(clusterNumber));
-        byte[] currentClusterData = new byte[FSConstants.FILE_HEADER_LENGTH];
-        readerWriter.readBytes(currentClusterData);
-        return FSFileEntry.fromByteArray(currentClusterData);
+    /**
+     * Fills region of file by zeros in place. Not allocated clusters are skipped.
+     */
+    private void fillByZeros(FSFileEntry file, int from, int to) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        int firstChainNumber = (from + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+        int lastChainNumber = (to + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize;
+        int[] clusterMap = getClusterMap(file, lastChainNumber);
+        for (int chainNumber = firstChainNumber; chainNumber <= lastChainNumber; chainNumber++) {
+            if (clusterMap[chainNumber] == HOLE_CLUSTER) {
+                continue;
+            }
+            int clusterStart = chainNumber * clusterSize - FSConstants.FILE_HEADER_LENGTH;
+            int zerosFrom = Math.max(from, clusterStart);
+            int zerosTo = Math.min(to, clusterStart + clusterSize);
+            int cluster = getNotSharedClusterByChainNumber(file, chainNumber);
+            writeClusterData(cluster, zerosFrom - clusterStart, new byte[zerosTo - zerosFrom]);
+        }
     }
 
-    private int getFirstFreeCluster() throws IOException {
-        return getFirstFreeCluster(0);
+    private void createFATChain(List<Integer> clusterIndexes) throws IOException {
+        for (int i = 0; i < clusterIndexes.size(); i++) {
+            int currentClusterIndex = clusterIndexes.get(i);
+            boolean isLastCluster = (i == clusterIndexes.size() - 1);
+            int nextClusterIndex = isLastCluster ? FSConstants.END_OF_CHAIN : clusterIndexes.get(i + 1);
+            setFATClusterValue(currentClusterIndex, nextClusterIndex);
+        }
     }
 
     /**
-     * removes a specified file
+     * Overrides data of specified file by specified content.
      *
-     * @param file file for removing
+     * @param file    file for writing data
+     * @param content string (encoding specified in {@link FSConstants}), that must written to file
      * @throws IOException           on any default IO error
      * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
      */
     @Override
-    public void removeFile(VirtualFile file) throws IOException {
-        int fileCluster = findFileCluster(file);
-        VirtualFile parentFile = file.parent();
-        int parentCluster = findFileCluster(parentFile);
-        byte[] currentClusterData = new byte[clusterSize];
-        readerWriter.seekAndRead(currentClusterData, getClusterDataOffset(fileCluster));
-        FSFileEntry currentFile = FSFileEntry.fromByteArray(currentClusterData);
-        currentFile.remove();
-        readerWriter.seekAndWrite(currentFile.toByteArray(), getClusterDataOffset(fileCluster));
+    public void write(VirtualFile file, String content) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> writeString(file, content));
+    }
 
-        removeFileLinkFromDirectory(parentCluster, fileCluster);
-        clearFATChain(fileCluster);
+    private void writeString(VirtualFile file, String content) throws IOException {
+        write(file, content.getBytes(FSConstants.CHARSET));
     }
 
-    private void removeFileLinkFromDirectory(int parentCluster, int fileCluster) throws IOException {
-        byte[] currentContent = getFileContent(parentCluster);
-        byte[] newContent = removeFileLinkFromContent(currentContent, fileCluster);
-        write0(newContent, 0, getFileEntryFromCluster(parentCluster));
+    /**
+     * Overrides data of specified file starting from offset by specified content. Data after the written part
+     * is kept, file is extended, if content is written after the end of file.
+     *
+     * @param file    file for writing data
+     * @param content bytes, that must written to file
+     * @param offset  offset for writing bytes
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     */
+    @Override
+    public void write(VirtualFile file, int offset, byte[] content) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> writeAtOffset(file, offset, content));
     }
 
-    private byte[] removeFileLinkFromContent(byte[] currentContent, int fileCluster) {
-        int idxLink = -1;
-        for (int i = 0; i < currentContent.length; i += 4) {
-            int clusterChildLink = FSUtils.intFromFourBytes(Arrays.copyOfRange(currentContent, i, i + FSConstants.BYTE_DEPTH));
-            if (clusterChildLink == fileCluster) {
-                idxLink = i;
-                break;
+    private void writeAtOffset(VirtualFile file, int offset, byte[] content) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.WRITE_AT, file, offset, content.length);
+            if (offset < 0) {
+                throw new WriteException(String.format("incorrect offset %s", offset));
+            }
+            FSFileEntry currentFile = getRegularFileForWrite(file);
+            if (currentFile.isCompressed) {
+                writeCompressed(content, offset, currentFile);
+            } else {
+                writeInPlace(content, offset, currentFile);
             }
         }
-        if (idxLink == -1) {
-            throw new FSFormatException("");
-        }
-        byte[] newContent = new byte[currentContent.length - FSConstants.BYTE_DEPTH];
-        System.arraycopy(currentContent, 0, newContent, 0, idxLink);
-        System.arraycopy(currentContent, idxLink + FSConstants.BYTE_DEPTH, newContent, idxLink, newContent.length - idxLink);
-        return newContent;
     }
 
     /**
-     * return a list of files and directories in specify directory
+     * Changes size of specified file. Clusters after the new end of file are freed, if file is extended,
+     * then new part of file is filled by zeros and doesn't use clusters.
      *
-     * @param directory directory for get files list
-     * @return list of files and directories in specify directory
-     * @throws FileNotFoundException if directory was not found
+     * @param file    file for changing
+     * @param newSize new size of file in bytes
      * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
      */
     @Override
-    public List<String> getFilesList(VirtualFile directory) throws IOException {
-        int clusterNumber = findFileCluster(directory);
-        int nextClusterInChain = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(clusterNumber));
-        byte[] currentClusterData = new byte[clusterSize];
-        readerWriter.seekAndRead(currentClusterData, getClusterDataOffset(clusterNumber));
-        FSFileEntry currentFile = FSFileEntry.fromByteArray(currentClusterData);
-        byte[] content = getFileContent(currentFile, 0, currentFile.size);
-        if (!currentFile.isDirectory) {
-            return Collections.emptyList();
-        }
-        List<String> result = new ArrayList<>();
-        List<Integer> childFilesClusters = getChildClusters(content);
-        for (int childClusterNumber : childFilesClusters) {
-            currentClusterData = new byte[clusterSize];
-            readerWriter.seekAndRead(currentClusterData, getClusterDataOffset(childClusterNumber));
-            FSFileEntry childFile = FSFileEntry.fromByteArray(currentClusterData);
-            if (!childFile.isRemoved()) {
-                result.add(childFile.name);
+    public void truncate(VirtualFile file, int newSize) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> truncate0(file, newSize));
+    }
+
+    private void truncate0(VirtualFile file, int newSize) throws IOException {
+        synchronized (readerWriter) {
+            if (newSize < 0) {
+                throw new WriteException(String.format("incorrect size %s", newSize));
+            }
+            FSFileEntry currentFile = getRegularFileForWrite(file);
+            if (newSize == currentFile.size) {
+                return;
+            }
+            if (currentFile.isCompressed) {
+                byte[] content = Arrays.copyOf(getFileContent(currentFile, 0, currentFile.size), newSize);
+                currentFile.size = 0;
+                writeCompressed(content, 0, currentFile);
+            } else {
+                truncateRaw(currentFile, newSize);
             }
         }
-        return result;
     }
 
-    private int findFileCluster(VirtualFile file) throws IOException {
-        String[] dirNames = parseFileNames(file);
-        int rootCluster = 0;
-        if (dirNames.length == 0) {
-            return rootCluster;
+    private void truncateRaw(FSFileEntry currentFile, int newSize) throws IOException {
+        if (newSize > currentFile.size) {
+            int lastClusterEnd = ((currentFile.size + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize + 1) * clusterSize - FSConstants.FILE_HEADER_LENGTH;
+            fillByZeros(currentFile, currentFile.size, Math.min(newSize, lastClusterEnd));
+        } else {
+            int lastChainNumber = Math.max(newSize + FSConstants.FILE_HEADER_LENGTH - 1, 0) / clusterSize;
+            int lastCluster = currentFile.clusterNumber;
+            int lastClusterChainNumber = 0;
+            while (true) {
+                int gap = getClusterGap(currentFile, lastCluster);
+                int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(lastCluster));
+                if (nextCluster == FSConstants.END_OF_CHAIN || lastClusterChainNumber + gap + 1 > lastChainNumber) {
+                    break;
+                }
+                if (getClusterReferences(nextCluster) > 0) {
+                    nextCluster = copySharedCluster(currentFile, lastCluster, nextCluster);
+                }
+                lastCluster = nextCluster;
+                lastClusterChainNumber += gap + 1;
+            }
+            int releasedCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(lastCluster));
+            setFATClusterValue(lastCluster, FSConstants.END_OF_CHAIN);
+            if (currentFile.isSparse) {
+                setClusterGap(lastCluster, 0);
+            }
+            releaseFATChain(releasedCluster, currentFile.isSparse);
         }
-        return findFileCluster(rootCluster, dirNames, 0);
+        currentFile.size = newSize;
+        writeFileHeader(currentFile);
     }
 
-    private int findFileCluster(int clusterOfCurrentFile, String[] fileNames, int currentNameIdx) throws IOException {
-        if (currentNameIdx >= fileNames.length) {
-            return clusterOfCurrentFile;
+    private FSFileEntry getRegularFileForWrite(VirtualFile file) throws IOException {
+        FSFileEntry currentFile = getFileEntryFromCluster(findFileClusterForWrite(file));
+        if (currentFile.isDirectory) {
+            throw new WriteException(String.format("file %s is a directory", file.getPath()));
+        }
+        return currentFile;
+    }
+
+    /**
+     * Writes content into existing clusters of file. Shared clusters are copied and clusters are allocated only
+     * for not allocated part of written region, clusters after written region are not changed.
+     */
+    private void writeInPlace(byte[] content, int offset, FSFileEntry currentFile) throws IOException {
+        fillByZeros(currentFile, currentFile.size, offset);
+        int writeBytes = 0;
+        int chainNumber = (offset + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+        int cluster = content.length == 0 ? currentFile.clusterNumber : getNotSharedClusterByChainNumber(currentFile, chainNumber);
+        while (writeBytes != content.length) {
+            if (writeBytes != 0) {
+                cluster = getNotSharedClusterByChainNumber(currentFile, cluster, chainNumber, chainNumber + 1);
+                chainNumber++;
+            }
+            int writeOffsetInCurrentCluster = (writeBytes == 0) ? (offset + FSConstants.FILE_HEADER_LENGTH) % clusterSize : 0;
+            int writeBytesCount = Math.min(clusterSize - writeOffsetInCurrentCluster, content.length - writeBytes);
+            writeClusterData(cluster, writeOffsetInCurrentCluster, Arrays.copyOfRange(content, writeBytes, writeBytes + writeBytesCount));
+            writeBytes += writeBytesCount;
+        }
+        if (offset + content.length > currentFile.size) {
+            currentFile.size = offset + content.length;
+            writeFileHeader(currentFile);
+        }
+    }
+
+    /**
+     * Enables or disables compression of specified file. Current content of file is converted.
+     *
+     * @param file       file for changing
+     * @param compressed true for storing file data compressed
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     */
+    @Override
+    public void setCompressed(VirtualFile file, boolean compressed) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> setCompressed0(file, compressed));
+    }
+
+    private void setCompressed0(VirtualFile file, boolean compressed) throws IOException {
+        synchronized (readerWriter) {
+            FSFileEntry currentFile = getRegularFileForWrite(file);
+            if (currentFile.isCompressed == compressed) {
+                return;
+            }
+            byte[] content = getFileContent(currentFile, 0, currentFile.size);
+            currentFile.isCompressed = compressed;
+            if (compressed) {
+                currentFile.size = 0;
+                writeCompressed(content, 0, currentFile);
+            } else {
+                writeChain(content, 0, currentFile);
+            }
+        }
+    }
+
+    /**
+     * Writes content to compressed file. Data after the written part is kept. Chunks before the first changed
+     * chunk are not recompressed, but whole compressed data is written again, because offsets of chunks are changed.
+     */
+    private void writeCompressed(byte[] content, int offset, FSFileEntry currentFile) throws IOException {
+        int[] chunkEnds = readChunkEnds(currentFile);
+        int keptChunksCount = Math.min(offset, currentFile.size) / FSConstants.COMPRESSION_CHUNK_SIZE;
+        int newSize = Math.max(offset + content.length, currentFile.size);
+        int rewrittenPartStart = keptChunksCount * FSConstants.COMPRESSION_CHUNK_SIZE;
+        byte[] rewrittenPart = new byte[newSize - rewrittenPartStart];
+        int keptBytesCount = currentFile.size - rewrittenPartStart;
+        byte[] keptBytes = readCompressedContent(currentFile, chunkEnds, rewrittenPartStart, keptBytesCount);
+        System.arraycopy(keptBytes, 0, rewrittenPart, 0, keptBytes.length);
+        System.arraycopy(content, 0, rewrittenPart, offset - rewrittenPartStart, content.length);
+
+        List<byte[]> newChunks = new ArrayList<>();
+        for (int i = 0; i < rewrittenPart.length; i += FSConstants.COMPRESSION_CHUNK_SIZE) {
+            int chunkLength = Math.min(FSConstants.COMPRESSION_CHUNK_SIZE, rewrittenPart.length - i);
+            newChunks.add(FSCompression.compressChunk(rewrittenPart, i, chunkLength));
+        }
+        int chunksCount = keptChunksCount + newChunks.size();
+        int indexLength = FSConstants.BYTE_DEPTH * (chunksCount + 1);
+        byte[] keptChunks = keptChunksCount == 0 ? new byte[0]
+                : readRawContent(currentFile, getChunkStart(chunkEnds, 0), chunkEnds[keptChunksCount - 1] - getChunkStart(chunkEnds, 0));
+        int newChunksLength = newChunks.stream().mapToInt(chunk -> chunk.length).sum();
+        byte[] compressedContent = new byte[indexLength + keptChunks.length + newChunksLength];
+        FSUtils.writeIntAsBytesToArray(compressedContent, 0, chunksCount);
+        int chunkEnd = indexLength;
+        for (int i = 0; i < keptChunksCount; i++) {
+            chunkEnd = chunkEnds[i] - getChunkStart(chunkEnds, 0) + indexLength;
+            FSUtils.writeIntAsBytesToArray(compressedContent, FSConstants.BYTE_DEPTH * (i + 1), chunkEnd);
+        }
+        System.arraycopy(keptChunks, 0, compressedContent, indexLength, keptChunks.length);
+        for (int i = 0; i < newChunks.size(); i++) {
+            byte[] chunk = newChunks.get(i);
+            System.arraycopy(chunk, 0, compressedContent, chunkEnd, chunk.length);
+            chunkEnd += chunk.length;
+            FSUtils.writeIntAsBytesToArray(compressedContent, FSConstants.BYTE_DEPTH * (keptChunksCount + i + 1), chunkEnd);
+        }
+        writeChain(compressedContent, 0, currentFile);
+        currentFile.size = newSize;
+        writeFileHeader(currentFile);
+    }
+
+    private int[] readChunkEnds(FSFileEntry file) throws IOException {
+        if (file.size == 0) {
+            return new int[0];
+        }
+        int chunksCount = FSUtils.intFromFourBytes(readRawContent(file, 0, FSConstants.BYTE_DEPTH));
+        byte[] index = readRawContent(file, FSConstants.BYTE_DEPTH, chunksCount * FSConstants.BYTE_DEPTH);
+        int[] result = new int[chunksCount];
+        for (int i = 0; i < chunksCount; i++) {
+            result[i] = FSUtils.intFromFourBytes(Arrays.copyOfRange(index, i * FSConstants.BYTE_DEPTH, (i + 1) * FSConstants.BYTE_DEPTH));
+        }
+        return result;
+    }
+
+    private int getChunkStart(int[] chunkEnds, int chunkIndex) {
+        return chunkIndex == 0 ? FSConstants.BYTE_DEPTH * (chunkEnds.length + 1) : chunkEnds[chunkIndex - 1];
+    }
+
+    /**
+     * Reads part of uncompressed data of compressed file. Only chunks, that contain requested part, are decompressed.
+     */
+    private byte[] readCompressedContent(FSFileEntry file, int[] chunkEnds, int offset, int length) throws IOException {
+        byte[] result = new byte[length];
+        if (length == 0) {
+            return result;
+        }
+        int firstChunk = offset / FSConstants.COMPRESSION_CHUNK_SIZE;
+        int lastChunk = (offset + length - 1) / FSConstants.COMPRESSION_CHUNK_SIZE;
+        for (int chunk = firstChunk; chunk <= lastChunk; chunk++) {
+            int chunkStart = getChunkStart(chunkEnds, chunk);
+            byte[] compressedChunk = readRawContent(file, chunkStart, chunkEnds[chunk] - chunkStart);
+            int chunkOffset = chunk * FSConstants.COMPRESSION_CHUNK_SIZE;
+            int chunkLength = Math.min(FSConstants.COMPRESSION_CHUNK_SIZE, file.size - chunkOffset);
+            byte[] chunkData = FSCompression.decompressChunk(compressedChunk, chunkLength);
+            int copyFrom = Math.max(offset, chunkOffset);
+            int copyTo = Math.min(offset + length, chunkOffset + chunkLength);
+            System.arraycopy(chunkData, copyFrom - chunkOffset, result, copyFrom - offset, copyTo - copyFrom);
+        }
+        return result;
+    }
+
+    /**
+     * Overrides data of specified file by specified content.
+     *
+     * @param file    file for writing data
+     * @param content bytes, that must written to file
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     */
+    @Override
+    public void write(VirtualFile file, byte[] content) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> replaceContent(file, content));
+    }
+
+    private void replaceContent(VirtualFile file, byte[] content) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.WRITE, file, 0, content.length);
+            FSFileEntry currentFile = getRegularFileForWrite(file);
+            if (currentFile.isCompressed) {
+                currentFile.size = 0;
+                writeCompressed(content, 0, currentFile);
+            } else {
+                writeChain(content, 0, currentFile);
+            }
+        }
+    }
+
+    /**
+     * Makes target file a copy of source file. Data clusters are not copied, but shared between both files
+     * until one of them is changed. Only the first cluster (it contains file header) is copied.
+     * If target file doesn't exist, it will be created.
+     *
+     * @param source file for copying
+     * @param target file, that will contain data of source file
+     * @throws IOException            on any default IO error
+     * @throws FileNotFoundException  if source file or target parent directory was not found
+     * @throws WriteException         if source or target file is a directory
+     * @throws IncorrectNameException if target file name contains forbidden symbols
+     */
+    @Override
+    public void clone(VirtualFile source, VirtualFile target) throws IOException {
+        inScope(FileSystemOperation.WRITE, () -> clone0(source, target));
+    }
+
+    private void clone0(VirtualFile source, VirtualFile target) throws IOException {
+        synchronized (readerWriter) {
+            FSFileEntry sourceFile = getFileEntryFromCluster(findFileCluster(source));
+            if (sourceFile.isDirectory) {
+                throw new WriteException(String.format("file %s is a directory", source.getPath()));
+            }
+            if (!exist(target)) {
+                createFile(target.parent(), target.getName());
+            }
+            int targetCluster = findFileClusterForWrite(target);
+            int sourceCluster = findFileCluster(source);
+            if (targetCluster == sourceCluster) {
+                return;
+            }
+            FSFileEntry targetFile = getFileEntryFromCluster(targetCluster);
+            if (targetFile.isDirectory) {
+                throw new WriteException(String.format("file %s is a directory", target.getPath()));
+            }
+            byte[] firstClusterData = new byte[clusterSize - FSConstants.FILE_HEADER_LENGTH];
+            readClusterData(sourceCluster, FSConstants.FILE_HEADER_LENGTH, firstClusterData);
+            writeClusterData(targetCluster, FSConstants.FILE_HEADER_LENGTH, firstClusterData);
+            targetFile.size = sourceFile.size;
+            targetFile.isCompressed = sourceFile.isCompressed;
+            boolean isTargetSparse = targetFile.isSparse;
+            targetFile.isSparse = sourceFile.isSparse;
+            writeFileHeader(targetFile);
+
+            int sharedCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(sourceCluster));
+            int previousTargetCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(targetCluster));
+            if (sharedCluster != FSConstants.END_OF_CHAIN) {
+                addClusterReference(sharedCluster);
+            }
+            setFATClusterValue(targetCluster, sharedCluster);
+            if (sourceFile.isSparse || isTargetSparse) {
+                setClusterGap(targetCluster, getClusterGap(sourceFile, sourceCluster));
+            }
+            releaseFATChain(previousTargetCluster, isTargetSparse);
+        }
+    }
+
+    private void writeChain(byte[] content, int offset, FSFileEntry currentFile) throws IOException {
+        fillByZeros(currentFile, currentFile.size, offset);
+        int firstChainNumberForWrite = (offset + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+        int firstClusterForWrite = getNotSharedClusterByChainNumber(currentFile, firstChainNumberForWrite);
+        int firstIndexForWrite = (offset + FSConstants.FILE_HEADER_LENGTH) % clusterSize;
+        boolean isSparse = currentFile.isSparse;
+        // chain written from the first cluster doesn't contain gaps
+        currentFile.isSparse = isSparse && firstChainNumberForWrite > 0;
+        currentFile.size = content.length + offset;
+        writeFileHeader(currentFile);
+        int clusterAfterWrittenPart = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(firstClusterForWrite));
+        setFATClusterValue(firstClusterForWrite, FSConstants.END_OF_CHAIN);
+        if (isSparse) {
+            setClusterGap(firstClusterForWrite, 0);
+        }
+        releaseFATChain(clusterAfterWrittenPart, isSparse);
+        if (deduplicationIndex != null && !currentFile.isDirectory) {
+            writeDeduplicated(content, firstClusterForWrite, firstIndexForWrite);
+            return;
+        }
+        int writeBytes = Math.min(clusterSize - firstIndexForWrite, content.length);
+        writeClusterData(firstClusterForWrite, firstIndexForWrite, Arrays.copyOf(content, writeBytes));
+        List<Integer> usedClusterIndexes = new ArrayList<>();
+        usedClusterIndexes.add(firstClusterForWrite);
+        // free clusters are not marked in FAT until the chain is created, so all of them are found by one search
+        for (int clusterForWrite : allocateClusters((content.length - writeBytes + clusterSize - 1) / clusterSize)) {
+            int writeBytesCount = Math.min(clusterSize, content.length - writeBytes);
+            writeClusterData(clusterForWrite, 0, Arrays.copyOfRange(content, writeBytes, writeBytes + writeBytesCount));
+            usedClusterIndexes.add(clusterForWrite);
+            writeBytes += writeBytesCount;
+        }
+        createFATChain(usedClusterIndexes);
+    }
+
+    /**
+     * Writes content starting from specified cluster. Rest of content is divided into clusters, that are written
+     * from the end of chain. If the same cluster with the same next cluster already exists, it is shared
+     * instead of writing a new one.
+     */
+    private void writeDeduplicated(byte[] content, int firstClusterForWrite, int firstIndexForWrite) throws IOException {
+        int firstClusterBytesCount = Math.min(clusterSize - firstIndexForWrite, content.length);
+        writeClusterData(firstClusterForWrite, firstIndexForWrite, Arrays.copyOf(content, firstClusterBytesCount));
+        int nextCluster = FSConstants.END_OF_CHAIN;
+        boolean isNextClusterShared = false;
+        int clustersCount = (content.length - firstClusterBytesCount + clusterSize - 1) / clusterSize;
+        for (int i = clustersCount - 1; i >= 0; i--) {
+            int from = firstClusterBytesCount + i * clusterSize;
+            byte[] clusterData = Arrays.copyOfRange(content, from, from + clusterSize);
+            long hashingStart = System.nanoTime();
+            long key = DeduplicationIndex.key(calculateChecksum(clusterData, 0, clusterSize), nextCluster);
+            Integer existingCluster = deduplicationIndex.find(key);
+            boolean isDuplicate = existingCluster != null && Arrays.equals(clusterData, readWholeCluster(existingCluster));
+            deduplicationIndex.registerWrite(isDuplicate, System.nanoTime() - hashingStart);
+            if (isDuplicate) {
+                nextCluster = existingCluster;
+                isNextClusterShared = true;
+                continue;
+            }
+            int newCluster = getFirstFreeCluster(firstClusterForWrite + 1);
+            writeClusterData(newCluster, 0, clusterData);
+            linkToChain(newCluster, nextCluster, isNextClusterShared);
+            deduplicationIndex.put(key, newCluster);
+            nextCluster = newCluster;
+            isNextClusterShared = false;
+        }
+        linkToChain(firstClusterForWrite, nextCluster, isNextClusterShared);
+    }
+
+    /**
+     * Sets next cluster of specified cluster. Existing chain gets one more reference, links between
+     * reused clusters already exist, so only the first reused cluster is referenced.
+     */
+    private void linkToChain(int cluster, int nextCluster, boolean isNextClusterShared) throws IOException {
+        if (isNextClusterShared) {
+            addClusterReference(nextCluster);
+        }
+        setFATClusterValue(cluster, nextCluster);
+    }
+
+    private byte[] readWholeCluster(int clusterNumber) throws IOException {
+        byte[] clusterData = new byte[clusterSize];
+        readClusterData(clusterNumber, 0, clusterData);
+        return clusterData;
+    }
+
+    /**
+     * Adds all clusters of files (except first clusters, that contain headers) from live root and snapshots to
+     * deduplication index.
+     */
+    private void rebuildDeduplicationIndex() throws IOException {
+        List<Integer> directories = new ArrayList<>();
+        directories.add(rootCluster);
+        for (int i = 0; i < FSConstants.MAX_SNAPSHOTS_COUNT; i++) {
+            FSFileEntry snapshot = readSnapshotEntry(i);
+            if (!snapshot.name.isEmpty()) {
+                directories.add(snapshot.clusterNumber);
+            }
+        }
+        Set<Integer> visitedClusters = new HashSet<>();
+        while (!directories.isEmpty()) {
+            FSFileEntry directory = getFileEntryFromCluster(directories.remove(directories.size() - 1));
+            for (int childCluster : getChildClusters(getFileContent(directory, 0, directory.size))) {
+                if (!visitedClusters.add(childCluster)) {
+                    continue;
+                }
+                FSFileEntry child = getFileEntryFromCluster(childCluster);
+                if (child.isDirectory) {
+                    directories.add(childCluster);
+                    continue;
+                }
+                int cluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(childCluster));
+                while (cluster != FSConstants.END_OF_CHAIN && visitedClusters.add(cluster)) {
+                    int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(cluster));
+                    if (getClusterGap(child, cluster) == 0) {
+                        byte[] clusterData = readWholeCluster(cluster);
+                        deduplicationIndex.put(DeduplicationIndex.key(calculateChecksum(clusterData, 0, clusterSize), nextCluster), cluster);
+                    }
+                    cluster = nextCluster;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return statistics of deduplication since file system opening
+     * @throws FSException if deduplication is disabled for this file system
+     */
+    @Override
+    public DeduplicationStatistics getDeduplicationStatistics() {
+        synchronized (readerWriter) {
+            if (deduplicationIndex == null) {
+                throw new FSException("deduplication is disabled for this file system");
+            }
+            return deduplicationIndex.getStatistics(clusterSize);
+        }
+    }
+
+    /**
+     * @return statistics of placement of files clusters in storage
+     * @throws IOException on any default IO error
+     */
+    @Override
+    public FragmentationStatistics getFragmentationStatistics() throws IOException {
+        return inScope(FileSystemOperation.MAINTENANCE, this::getFragmentationStatistics0);
+    }
+
+    private FragmentationStatistics getFragmentationStatistics0() throws IOException {
+        synchronized (readerWriter) {
+            int[] fat = readFATTable();
+            int usedClustersCount = 0;
+            int highestUsedCluster = -1;
+            for (int i = 0; i < fat.length; i++) {
+                if (fat[i] != 0) {
+                    usedClustersCount++;
+                    highestUsedCluster = i;
+                }
+            }
+            int filesCount = 0;
+            int fragmentedFilesCount = 0;
+            int extentsCount = 0;
+            List<Integer> files = new ArrayList<>();
+            files.add(rootCluster);
+            Set<Integer> visitedFiles = new HashSet<>();
+            while (!files.isEmpty()) {
+                int fileCluster = files.remove(files.size() - 1);
+                if (!visitedFiles.add(fileCluster)) {
+                    continue;
+                }
+                int[] chain = getFileChain(fat, fileCluster);
+                int fileExtentsCount = 1;
+                for (int i = 1; i < chain.length; i++) {
+                    if (chain[i] != chain[i - 1] + 1) {
+                        fileExtentsCount++;
+                    }
+                }
+                filesCount++;
+                extentsCount += fileExtentsCount;
+                if (fileExtentsCount > 1) {
+                    fragmentedFilesCount++;
+                }
+                FSFileEntry file = getFileEntryFromCluster(fileCluster);
+                if (file.isDirectory) {
+                    files.addAll(getChildClusters(getFileContent(file, 0, file.size)));
+                }
+            }
+            return new FragmentationStatistics(filesCount, fragmentedFilesCount, extentsCount, usedClustersCount,
+                    getClusterCount(), highestUsedCluster);
+        }
+    }
+
+    /**
+     * Makes one step of defragmentation: fragmented files are moved into contiguous runs of free clusters and
+     * files are moved closer to the beginning of storage. Files shared with snapshots are not moved.
+     * Every step walks tree from root, so files changed between steps are handled by next steps.
+     *
+     * @param maxMovedClustersCount limit of moved clusters for this step (at least one file is moved anyway)
+     * @return count of moved clusters, 0 if nothing can be improved
+     * @throws IOException    on any default IO error
+     * @throws WriteException if file system is read-only snapshot
+     */
+    @Override
+    public int defragment(int maxMovedClustersCount) throws IOException {
+        return inScope(FileSystemOperation.MAINTENANCE, () -> defragment0(maxMovedClustersCount));
+    }
+
+    private int defragment0(int maxMovedClustersCount) throws IOException {
+        checkWritable();
+        synchronized (readerWriter) {
+            int[] fat = readFATTable();
+            int movedClustersCount = 0;
+            List<Integer> directories = new ArrayList<>();
+            directories.add(rootCluster);
+            while (!directories.isEmpty()) {
+                FSFileEntry directory = getFileEntryFromCluster(directories.remove(directories.size() - 1));
+                List<Integer> childClusters = getChildClusters(getFileContent(directory, 0, directory.size));
+                for (int linkIndex = 0; linkIndex < childClusters.size(); linkIndex++) {
+                    int[] chain = getFileChain(fat, childClusters.get(linkIndex));
+                    if (isChainShared(chain)) {
+                        continue;
+                    }
+                    int target = findRelocationTarget(fat, chain);
+                    if (target != -1) {
+                        if (movedClustersCount > 0 && movedClustersCount + chain.length > maxMovedClustersCount) {
+                            return movedClustersCount;
+                        }
+                        relocateFile(fat, chain, target, directory, linkIndex);
+                        movedClustersCount += chain.length;
+                        chain = getFileChain(fat, target);
+                    }
+                    if (getFileEntryFromCluster(chain[0]).isDirectory) {
+                        directories.add(chain[0]);
+                    }
+                }
+            }
+            return movedClustersCount;
+        }
+    }
+
+    /**
+     * Cuts free clusters from the end of storage. Clusters can't be allocated beyond the new end, until storage
+     * grows back by {@link #reserveClusters(int)}.
+     *
+     * @return count of released clusters
+     * @throws IOException    on any default IO error
+     * @throws WriteException if file system is read-only snapshot
+     */
+    @Override
+    public int shrink() throws IOException {
+        return inScope(FileSystemOperation.MAINTENANCE, this::shrink0);
+    }
+
+    private int shrink0() throws IOException {
+        checkWritable();
+        synchronized (readerWriter) {
+            int[] fat = readFATTable();
+            int newClusterCount = fat.length;
+            while (newClusterCount > 1 && fat[newClusterCount - 1] == 0) {
+                newClusterCount--;
+            }
+            int releasedClustersCount = fat.length - newClusterCount;
+            if (releasedClustersCount > 0) {
+                resize(newClusterCount);
+            }
+            return releasedClustersCount;
+        }
+    }
+
+    /**
+     * Grows storage, so specified count of clusters can be allocated. It's the only way to grow storage after
+     * {@link #shrink()}: allocation never grows it, because data area and tables are moved in place. Storage doesn't
+     * grow beyond clusters count specified on formatting.
+     *
+     * @param clustersCount count of clusters, that will be allocated
+     * @return count of free clusters after growing
+     * @throws IOException    on any default IO error
+     * @throws WriteException if file system is read-only snapshot
+     */
+    @Override
+    public int reserveClusters(int clustersCount) throws IOException {
+        return inScope(FileSystemOperation.MAINTENANCE, () -> reserveClusters0(clustersCount));
+    }
+
+    private int reserveClusters0(int clustersCount) throws IOException {
+        checkWritable();
+        synchronized (readerWriter) {
+            int freeClustersCount = 0;
+            for (int value : readFATTable()) {
+                freeClustersCount += value == 0 ? 1 : 0;
+            }
+            int newClusterCount = (int) Math.min(maxClusterCount, (long) clusterCount + clustersCount - freeClustersCount);
+            if (newClusterCount > clusterCount) {
+                freeClustersCount += newClusterCount - clusterCount;
+                resize(newClusterCount);
+            }
+            return freeClustersCount;
+        }
+    }
+
+    /**
+     * @return size of one cluster in bytes
+     */
+    @Override
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    private int[] readFATTable() throws IOException {
+        return readTable(getClusterFATOffset(0));
+    }
+
+    /**
+     * Reads table of INT32 values of all clusters (FAT, references, checksums or gaps).
+     */
+    private int[] readTable(int offset) throws IOException {
+        byte[] table = new byte[getClusterCount() * FSConstants.BYTE_DEPTH];
+        readerWriter.seekAndRead(table, offset);
+        int[] result = new int[getClusterCount()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = FSUtils.intFromFourBytes(Arrays.copyOfRange(table, i * FSConstants.BYTE_DEPTH, (i + 1) * FSConstants.BYTE_DEPTH));
+        }
+        return result;
+    }
+
+    private static int[] getFileChain(int[] fat, int fileCluster) {
+        List<Integer> chain = new ArrayList<>();
+        for (int cluster = fileCluster; cluster != FSConstants.END_OF_CHAIN; cluster = fat[cluster]) {
+            chain.add(cluster);
+        }
+        OperationScope.addTraversedChainClusters(chain.size());
+        return chain.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private boolean isChainShared(int[] chain) throws IOException {
+        for (int cluster : chain) {
+            if (getClusterReferences(cluster) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the lowest run of free clusters for placing of chain. Chain is moved, if it is fragmented or
+     * the run is placed before it.
+     *
+     * @return first cluster of run or -1, if chain should stay in place
+     */
+    private static int findRelocationTarget(int[] fat, int[] chain) {
+        int runStart = 0;
+        for (int i = 0; i < fat.length; i++) {
+            if (fat[i] != 0) {
+                runStart = i + 1;
+            } else if (i - runStart + 1 == chain.length) {
+                return isFragmented(chain) || runStart < chain[0] ? runStart : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isFragmented(int[] chain) {
+        for (int i = 1; i < chain.length; i++) {
+            if (chain[i] != chain[i - 1] + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies clusters of not shared file to the run of free clusters, switches link of parent directory to copy
+     * and frees old clusters.
+     */
+    private void relocateFile(int[] fat, int[] chain, int target, FSFileEntry parent, int linkIndex) throws IOException {
+        Map<Integer, Integer> fatValues = new HashMap<>();
+        boolean isSparse = false;
+        for (int i = 0; i < chain.length; i++) {
+            byte[] clusterData = readWholeCluster(chain[i]);
+            if (i == 0) {
+                FSFileEntry file = FSFileEntry.fromByteArray(clusterData);
+                isSparse = file.isSparse;
+                byte[] header = file.withClusterNumber(target).toByteArray();
+                System.arraycopy(header, 0, clusterData, 0, header.length);
+            }
+            writeClusterData(target + i, 0, clusterData);
+            if (isSparse) {
+                setClusterGap(target + i, getClusterGap(chain[i]));
+            }
+            fatValues.put(target + i, i == chain.length - 1 ? FSConstants.END_OF_CHAIN : target + i + 1);
+        }
+        writeFATValues(fatValues);
+        rewriteDirectoryLink(parent, linkIndex, target);
+        for (int cluster : chain) {
+            setFATClusterValue(cluster, 0);
+            if (isSparse) {
+                setClusterGap(cluster, 0);
+            }
+            fat[cluster] = 0;
+        }
+        fatValues.forEach((cluster, value) -> fat[cluster] = value);
+    }
+
+    private void writeFileHeader(FSFileEntry file) throws IOException {
+        modificationCount++;
+        writeClusterData(file.clusterNumber, 0, file.toByteArray());
+    }
+
+    /**
+     * Reads file content and return it
+     *
+     * @param file file for reading data
+     * @return data of specified file
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    @Override
+    public byte[] read(VirtualFile file) throws IOException {
+        return inScope(FileSystemOperation.READ, () -> readWhole(file));
+    }
+
+    private byte[] readWhole(VirtualFile file) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.READ, file, 0, TraceRecord.WHOLE_FILE_LENGTH);
+            int fileCluster = findFileCluster(file);
+            FSFileEntry fileEntry = getFileEntryFromCluster(fileCluster);
+            if (fileEntry.isDirectory) {
+                throw new ReadException(String.format("file %s is a directory", file.getPath()));
+            }
+            return read(file, 0, fileEntry.size);
+        }
+    }
+
+    /**
+     * Reads file content part and return it. If bytes count is more than rest of file after start index,
+     * then result buffer size will be equals to size of that rest, not count.
+     *
+     * @param file  file for reading data
+     * @param from  start byte index for reading
+     * @param count count of bytes for reading
+     * @return part of data of specified file
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    @Override
+    public byte[] read(VirtualFile file, int from, int count) throws IOException {
+        return inScope(FileSystemOperation.READ, () -> readRange(file, from, count));
+    }
+
+    private byte[] readRange(VirtualFile file, int from, int count) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.READ, file, from, count);
+            FSFileEntry fileEntry = getFileEntryFromCluster(findFileCluster(file));
+            if (fileEntry.isDirectory) {
+                throw new ReadException(String.format("file %s is a directory", file.getPath()));
+            }
+            return getFileContent(fileEntry, from, count);
+        }
+    }
+
+    /**
+     * Opens channel for random access to data of specified file.
+     *
+     * @param file file for reading and writing data
+     * @return new channel with position at the beginning of file
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    @Override
+    public VirtualFileChannel openChannel(VirtualFile file) throws IOException {
+        return inScope(FileSystemOperation.LOOKUP, () -> openChannel0(file));
+    }
+
+    private VirtualFileChannel openChannel0(VirtualFile file) throws IOException {
+        return new VirtualFileChannel(this, file);
+    }
+
+    /**
+     * Returns clusters of specified file. Cached chain is returned, if file system was not changed after it was got.
+     *
+     * @param forWrite true, if file will be changed, then shared directories on the path to file are copied
+     */
+    FileChain getFileChain(VirtualFile file, FileChain cachedChain, boolean forWrite) throws IOException {
+        return inScope(FileSystemOperation.LOOKUP, () -> getFileChain0(file, cachedChain, forWrite));
+    }
+
+    private FileChain getFileChain0(VirtualFile file, FileChain cachedChain, boolean forWrite) throws IOException {
+        synchronized (readerWriter) {
+            if (cachedChain != null && cachedChain.modificationCount == modificationCount
+                    && (cachedChain.isResolvedForWrite || !forWrite)) {
+                return cachedChain;
+            }
+            FSFileEntry fileEntry = getFileEntryFromCluster(forWrite ? findFileClusterForWrite(file) : findFileCluster(file));
+            checkThatFileIsNotRemoved(fileEntry);
+            if (fileEntry.isDirectory) {
+                throw new ReadException(String.format("file %s is a directory", file.getPath()));
+            }
+            int[] clusters = getClusterMap(fileEntry, (fileEntry.size + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize);
+            int notSharedClustersCount = 0;
+            while (notSharedClustersCount < clusters.length && (clusters[notSharedClustersCount] == HOLE_CLUSTER
+                    || getClusterReferences(clusters[notSharedClustersCount]) == 0)) {
+                notSharedClustersCount++;
+            }
+            return new FileChain(fileEntry, clusters, notSharedClustersCount, forWrite, modificationCount);
+        }
+    }
+
+    /**
+     * Reads part of file using cached clusters of file.
+     *
+     * @return null, if file system was changed after chain was got
+     */
+    byte[] read(FileChain chain, int from, int count) throws IOException {
+        return inScope(FileSystemOperation.READ, () -> readChain(chain, from, count));
+    }
+
+    private byte[] readChain(FileChain chain, int from, int count) throws IOException {
+        synchronized (readerWriter) {
+            if (chain.modificationCount != modificationCount) {
+                return null;
+            }
+            int resultBytesCount = Math.min(count, chain.file.size - from);
+            if (chain.file.isCompressed) {
+                return readCompressedContent(chain.file, readChunkEnds(chain.file), from, resultBytesCount);
+            }
+            return readClusters(chain.clusters, from, resultBytesCount);
+        }
+    }
+
+    /**
+     * Resolves storage ranges of file part, so it can be read outside of lock of file system. Result is null, if
+     * part can't be read directly: file system is a snapshot, checksums are enabled or file is compressed.
+     *
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    ReadPlan getReadPlan(VirtualFile file, int from, int count) throws IOException {
+        return inScope(FileSystemOperation.LOOKUP, () -> getReadPlan0(file, from, count));
+    }
+
+    private ReadPlan getReadPlan0(VirtualFile file, int from, int count) throws IOException {
+        synchronized (readerWriter) {
+            if (liveFileSystem != null || checksumsEnabled) {
+                return null;
+            }
+            FSFileEntry fileEntry = getFileEntryFromCluster(findFileCluster(file));
+            if (fileEntry.isDirectory) {
+                throw new ReadException(String.format("file %s is a directory", file.getPath()));
+            }
+            int length = Math.min(count, fileEntry.size - from);
+            if (length <= 0) {
+                return new ReadPlan(0, new long[0], new int[0], new int[0], modificationCount, dataModificationCount);
+            }
+            checkThatFileIsNotRemoved(fileEntry);
+            if (fileEntry.isCompressed) {
+                return null;
+            }
+            return createReadPlan(fileEntry, from, length);
+        }
+    }
+
+    /**
+     * Resolves storage ranges of not empty part of not compressed file, adjacent clusters are merged into one range.
+     */
+    private ReadPlan createReadPlan(FSFileEntry fileEntry, int from, int length) throws IOException {
+        int firstChainNumber = (from + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+        int lastChainNumber = (from + length + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize;
+        int[] clusterMap = getClusterMap(fileEntry, lastChainNumber);
+        List<int[]> ranges = new ArrayList<>();
+        int partOffset = 0;
+        for (int chainNumber = firstChainNumber; chainNumber <= lastChainNumber; chainNumber++) {
+            int offsetInCluster = (chainNumber == firstChainNumber) ? (from + FSConstants.FILE_HEADER_LENGTH) % clusterSize : 0;
+            int bytesToRead = Math.min(clusterSize - offsetInCluster, length - partOffset);
+            int cluster = clusterMap[chainNumber];
+            if (cluster != HOLE_CLUSTER) {
+                int[] lastRange = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (lastRange != null && lastRange[0] == cluster - 1 && lastRange[1] + lastRange[2] == partOffset) {
+                    lastRange[0] = cluster;
+                    lastRange[2] += bytesToRead;
+                } else {
+                    ranges.add(new int[]{cluster, partOffset, bytesToRead, getClusterDataOffset(cluster) + offsetInCluster});
+                }
+            }
+            partOffset += bytesToRead;
+        }
+        long[] storageOffsets = new long[ranges.size()];
+        int[] partOffsets = new int[ranges.size()];
+        int[] lengths = new int[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            partOffsets[i] = ranges.get(i)[1];
+            lengths[i] = ranges.get(i)[2];
+            storageOffsets[i] = ranges.get(i)[3];
+        }
+        return new ReadPlan(length, storageOffsets, partOffsets, lengths, modificationCount, dataModificationCount);
+    }
+
+    /**
+     * Writes part of not removed file to channel. Runs of contiguous clusters are written by one call of storage,
+     * so storages in host files copy them without copying into java heap (see
+     * {@link BytesReaderWriter#transferTo(long, long, WritableByteChannel)}). Channel is written under lock of
+     * file system, so part should be small.
+     *
+     * @return count of written bytes, it is less than count, if the rest of file is shorter
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    int transferTo(VirtualFile file, int from, int count, WritableByteChannel target) throws IOException {
+        return inScope(FileSystemOperation.READ, () -> transferTo0(file, from, count, target));
+    }
+
+    private int transferTo0(VirtualFile file, int from, int count, WritableByteChannel target) throws IOException {
+        synchronized (readerWriter) {
+            FSFileEntry fileEntry = getFileEntryFromCluster(findFileCluster(file));
+            if (fileEntry.isDirectory) {
+                throw new ReadException(String.format("file %s is a directory", file.getPath()));
+            }
+            int length = Math.min(count, fileEntry.size - from);
+            if (length <= 0) {
+                return 0;
+            }
+            checkThatFileIsNotRemoved(fileEntry);
+            if (checksumsEnabled || fileEntry.isCompressed) {
+                FSUtils.writeFully(target, ByteBuffer.wrap(getFileContent(fileEntry, from, length)));
+                return length;
+            }
+            ReadPlan plan = createReadPlan(fileEntry, from, length);
+            int writtenBytesCount = 0;
+            for (int i = 0; i < plan.lengths.length; i++) {
+                writeZeros(target, plan.partOffsets[i] - writtenBytesCount);
+                readerWriter.transferTo(plan.storageOffsets[i], plan.lengths[i], target);
+                writtenBytesCount = plan.partOffsets[i] + plan.lengths[i];
+            }
+            writeZeros(target, length - writtenBytesCount);
+            return length;
+        }
+    }
+
+    private void writeZeros(WritableByteChannel target, int count) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(Math.min(count, clusterSize));
+        for (int writtenBytesCount = 0; writtenBytesCount < count; writtenBytesCount += zeros.capacity()) {
+            zeros.clear().limit(Math.min(zeros.capacity(), count - writtenBytesCount));
+            FSUtils.writeFully(target, zeros);
+        }
+    }
+
+    /**
+     * @return true, if neither chains nor data of file system were changed after plan was got, so data read
+     * by plan is consistent
+     */
+    boolean isReadPlanValid(ReadPlan plan) {
+        synchronized (readerWriter) {
+            return plan.modificationCount == modificationCount && plan.dataModificationCount == dataModificationCount;
+        }
+    }
+
+    /**
+     * Writes content into cached clusters of file without changing of any chain.
+     *
+     * @return false, if content can't be written in place (some clusters are shared or not allocated,
+     * file size is changed or file is compressed), then nothing is written
+     */
+    boolean writeInPlace(FileChain chain, int offset, byte[] content) throws IOException {
+        return inScope(FileSystemOperation.WRITE, () -> writeInPlace0(chain, offset, content));
+    }
+
+    private boolean writeInPlace0(FileChain chain, int offset, byte[] content) throws IOException {
+        synchronized (readerWriter) {
+            if (!chain.isResolvedForWrite || chain.modificationCount != modificationCount || chain.file.isCompressed
+                    || offset + content.length > chain.file.size) {
+                return false;
+            }
+            if (content.length == 0) {
+                return true;
+            }
+            int firstChainNumber = (offset + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+            int lastChainNumber = (offset + content.length + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize;
+            if (lastChainNumber >= chain.notSharedClustersCount) {
+                return false;
+            }
+            for (int chainNumber = firstChainNumber; chainNumber <= lastChainNumber; chainNumber++) {
+                if (chain.clusters[chainNumber] == HOLE_CLUSTER) {
+                    return false;
+                }
+            }
+            int writeBytes = 0;
+            for (int chainNumber = firstChainNumber; chainNumber <= lastChainNumber; chainNumber++) {
+                int offsetInCluster = (chainNumber == firstChainNumber) ? (offset + FSConstants.FILE_HEADER_LENGTH) % clusterSize : 0;
+                int writeBytesCount = Math.min(clusterSize - offsetInCluster, content.length - writeBytes);
+                writeClusterData(chain.clusters[chainNumber], offsetInCluster, Arrays.copyOfRange(content, writeBytes, writeBytes + writeBytesCount));
+                writeBytes += writeBytesCount;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads file content and return it
+     *
+     * @param file file for reading data
+     * @return data of specified file as string (encoding specified in {@link FSConstants})
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    @Override
+    public String readAsString(VirtualFile file) throws IOException {
+        return inScope(FileSystemOperation.READ, () -> readAsString0(file));
+    }
+
+    private String readAsString0(VirtualFile file) throws IOException {
+        return new String(read(file), FSConstants.CHARSET);
+    }
+
+    /**
+     * creates a new file in file system and return it
+     *
+     * @param parent      directory for creating file
+     * @param newFileName name of new file
+     * @return File object of created file
+     * @throws IOException            on any default IO error
+     * @throws IncorrectNameException if name contains forbidden symbols
+     * @throws FileNotFoundException  if parent directory was not found
+     * @throws CreateFileException    if parent object is not directory
+     */
+    @Override
+    public VirtualFile createFile(VirtualFile parent, String newFileName) throws IOException {
+        return inScope(FileSystemOperation.CREATE, () -> createFile0(parent, newFileName));
+    }
+
+    private VirtualFile createFile0(VirtualFile parent, String newFileName) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.CREATE_FILE, parent.child(newFileName), 0, 0);
+            int parentCluster = findFileClusterForWrite(parent);
+            checkName(parentCluster, newFileName);
+            int clusterForNewFile = getFirstFreeCluster();
+            FSFileEntry parentFile = getFileEntryFromCluster(parentCluster);
+            checkThatFileIsDirectory(parentFile, parent.getPath());
+            setFATClusterValue(clusterForNewFile, FSConstants.END_OF_CHAIN);
+            FSFileEntry newFile = FSFileEntry.from(newFileName, false, clusterForNewFile);
+            writeClusterData(clusterForNewFile, 0, newFile.toByteArray());
+            appendClusterLinkToDirectory(parentCluster, clusterForNewFile, parentFile);
+            return parent.child(newFileName);
+        }
+    }
+
+    @Override
+    public VirtualFile getRootFile() {
+        return FileImpl.rootInstance(this);
+    }
+
+    /**
+     * @param file specified directory
+     * @return true, is specified directory exist. Otherwise return false
+     * @throws IOException on any default IO error
+     */
+    @Override
+    public boolean isDirectoryExist(VirtualFile file) throws IOException {
+        return inScope(FileSystemOperation.LOOKUP, () -> isDirectoryExist0(file));
+    }
+
+    private boolean isDirectoryExist0(VirtualFile file) throws IOException {
+        synchronized (readerWriter) {
+            int fileCluster;
+            try {
+                fileCluster = findFileCluster(file);
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+            return getFileEntryFromCluster(fileCluster).isDirectory;
+        }
+    }
+
+    @Override
+    boolean exist(VirtualFile file) throws IOException {
+        return inScope(FileSystemOperation.LOOKUP, () -> exist0(file));
+    }
+
+    private boolean exist0(VirtualFile file) throws IOException {
+        synchronized (readerWriter) {
+            try {
+                findFileCluster(file);
+            } catch (FileNotFoundException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void checkName(int parentCluster, String name) throws IOException {
+        if (!FSUtils.isCorrectName(name)) {
+            throw new IncorrectNameException(String.format("File name can contains only letters, numbers, hyphen and underscore. " +
+                    "Max length is %s symbols", String.valueOf(FSConstants.FILE_NAME_LENGTH)));
+        }
+        List<Integer> childFilesClusters = getChildClusters(getFileContent(parentCluster));
+        for (int childCluster : childFilesClusters) {
+            if (name.equals(getFileEntryFromCluster(childCluster).name)) {
+                throw new IncorrectNameException(String.format("file with name %s already exist", name));
+            }
+        }
+    }
+
+    private void appendClusterLinkToDirectory(int directoryCluster, int fileCluster, FSFileEntry directory) throws IOException {
+        writeInPlace(intAsFourBytes(fileCluster), directory.size, directory);
+    }
+
+    private void setFATClusterValue(int clusterIndex, int clusterValue) throws IOException {
+        modificationCount++;
+        if (clusterValue == 0) {
+            OperationScope.addFreedClusters(1);
+        }
+        if (deduplicationIndex != null) {
+            deduplicationIndex.remove(clusterIndex);
+        }
+        readerWriter.seekAndWrite(intAsFourBytes(clusterValue), getClusterFATOffset(clusterIndex));
+    }
+
+    private void checkThatFileIsDirectory(FSFileEntry file, String path) {
+        if (!file.isDirectory) {
+            throw new CreateFileException(String.format("parent file %s is a file", path));
+        }
+    }
+
+    /**
+     * creates a new directory in file system and return it
+     *
+     * @param parent           directory for creating file
+     * @param newDirectoryName name of new directory
+     * @return File object of created file
+     * @throws IOException            on any default IO error
+     * @throws IncorrectNameException if name contains forbidden symbols
+     * @throws FileNotFoundException  if parent directory was not found
+     * @throws CreateFileException    if parent object is not directory
+     */
+    @Override
+    public VirtualFile createDirectory(VirtualFile parent, String newDirectoryName) throws IOException {
+        return inScope(FileSystemOperation.CREATE, () -> createDirectory0(parent, newDirectoryName));
+    }
+
+    private VirtualFile createDirectory0(VirtualFile parent, String newDirectoryName) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.CREATE_DIRECTORY, parent.child(newDirectoryName), 0, 0);
+            int parentCluster = findFileClusterForWrite(parent);
+            checkName(parentCluster, newDirectoryName);
+            int newDirectoryCluster = getFirstFreeCluster();
+            FSFileEntry parentFile = getFileEntryFromCluster(parentCluster);
+            checkThatFileIsDirectory(parentFile, parent.getPath());
+            setFATClusterValue(newDirectoryCluster, FSConstants.END_OF_CHAIN);
+            FSFileEntry newFile = FSFileEntry.from(newDirectoryName, true, newDirectoryCluster);
+            writeClusterData(newDirectoryCluster, 0, newFile.toByteArray());
+            appendClusterLinkToDirectory(parentCluster, newDirectoryCluster, parentFile);
+            return parent.child(newDirectoryName);
+        }
+    }
+
+    private int getFirstFreeCluster(int startFrom) throws IOException {
+        long startTime = System.nanoTime();
+        int result = findFirstFreeCluster(startFrom);
+        OperationScope.addAllocation(1, System.nanoTime() - startTime);
+        return result;
+    }
+
+    private int findFirstFreeCluster(int startFrom) throws IOException {
+        for (int i = startFrom; i < getClusterCount(); i++) {
+            int clusterOffset = getClusterFATOffset(i);
+            int nextClusterInChain = readIntFromFsOnOffset(readerWriter, clusterOffset);
+            if (nextClusterInChain == 0) {
+                return i;
+            }
+        }
+        //if not find from start, try find from 0
+        for (int i = 0; i < startFrom; i++) {
+            int clusterOffset = getClusterFATOffset(i);
+            int nextClusterInChain = readIntFromFsOnOffset(readerWriter, clusterOffset);
+            if (nextClusterInChain == 0) {
+                return i;
+            }
+        }
+        throw new FSException("Don't found free cluster");
+    }
+
+    /**
+     * Changes clusters count of file system. Data clusters and all tables after them are moved, because their offsets
+     * depend on clusters count, so storage is rewritten in place and resizing must not be interrupted.
+     * All clusters after the new end must be free.
+     */
+    private void resize(int newClusterCount) throws IOException {
+        StorageResizeEvent event = new StorageResizeEvent();
+        event.begin();
+        int oldClusterCount = clusterCount;
+        int keptClustersCount = Math.min(oldClusterCount, newClusterCount);
+        byte[] references = new byte[newClusterCount * FSConstants.BYTE_DEPTH];
+        byte[] snapshots = new byte[FSConstants.MAX_SNAPSHOTS_COUNT * FSConstants.FILE_HEADER_LENGTH];
+        byte[] checksums = new byte[newClusterCount * FSConstants.BYTE_DEPTH];
+        byte[] gaps = new byte[newClusterCount * FSConstants.BYTE_DEPTH];
+        readStorage(references, getClusterReferencesOffset(0), keptClustersCount * FSConstants.BYTE_DEPTH);
+        readStorage(snapshots, getSnapshotEntryOffset(0), snapshots.length);
+        readStorage(checksums, getClusterChecksumOffset(0), keptClustersCount * FSConstants.BYTE_DEPTH);
+        readStorage(gaps, getClusterGapOffset(0), keptClustersCount * FSConstants.BYTE_DEPTH);
+
+        long dataOffset = getClusterDataOffset(0);
+        long dataShift = (long) (newClusterCount - oldClusterCount) * FSConstants.BYTE_DEPTH;
+        moveStorageBytes(dataOffset, (long) keptClustersCount * clusterSize, dataShift);
+        clusterCount = newClusterCount;
+        modificationCount++;
+        readerWriter.seekAndWrite(intAsFourBytes(newClusterCount), FSConstants.Offsets.CLUSTERS_COUNT);
+        if (newClusterCount > oldClusterCount) {
+            fillStorageByZeros(getClusterFATOffset(oldClusterCount), (long) (newClusterCount - oldClusterCount) * FSConstants.BYTE_DEPTH);
+            fillStorageByZeros(getClusterDataOffset(oldClusterCount), (long) (newClusterCount - oldClusterCount) * clusterSize);
+        }
+        readerWriter.seekAndWrite(references, getClusterReferencesOffset(0));
+        readerWriter.seekAndWrite(snapshots, getSnapshotEntryOffset(0));
+        readerWriter.seekAndWrite(checksums, getClusterChecksumOffset(0));
+        readerWriter.seekAndWrite(gaps, getClusterGapOffset(0));
+        readerWriter.setLength(getClusterGapOffset(newClusterCount));
+        event.end();
+        if (event.shouldCommit()) {
+            event.oldClusterCount = oldClusterCount;
+            event.newClusterCount = newClusterCount;
+            event.commit();
+        }
+    }
+
+    private void readStorage(byte[] data, long offset, int length) throws IOException {
+        byte[] part = new byte[length];
+        readerWriter.seekAndRead(part, offset);
+        System.arraycopy(part, 0, data, 0, length);
+    }
+
+    /**
+     * Moves bytes of storage by specified shift. Blocks are copied in such order, that not copied bytes are
+     * never overwritten.
+     */
+    private void moveStorageBytes(long offset, long length, long shift) throws IOException {
+        if (shift == 0) {
+            return;
+        }
+        byte[] block = new byte[(int) Math.min(length, STORAGE_BLOCK_SIZE)];
+        for (long moved = 0; moved < length; moved += block.length) {
+            int blockLength = (int) Math.min(block.length, length - moved);
+            long blockOffset = shift > 0 ? offset + length - moved - blockLength : offset + moved;
+            byte[] data = blockLength == block.length ? block : new byte[blockLength];
+            readerWriter.seekAndRead(data, blockOffset);
+            readerWriter.seekAndWrite(data, blockOffset + shift);
+        }
+    }
+
+    private void fillStorageByZeros(long offset, long length) throws IOException {
+        byte[] zeros = new byte[(int) Math.min(length, STORAGE_BLOCK_SIZE)];
+        for (long written = 0; written < length; written += zeros.length) {
+            int blockLength = (int) Math.min(zeros.length, length - written);
+            readerWriter.seekAndWrite(blockLength == zeros.length ? zeros : new byte[blockLength], offset + written);
+        }
+    }
+
+    private FSFileEntry getFileEntryFromCluster(int clusterNumber) throws IOException {
+        byte[] currentClusterData = new byte[FSConstants.FILE_HEADER_LENGTH];
+        readClusterData(clusterNumber, 0, currentClusterData);
+        return FSFileEntry.fromByteArray(currentClusterData);
+    }
+
+    private int getFirstFreeCluster() throws IOException {
+        return getFirstFreeCluster(0);
+    }
+
+    /**
+     * Applies changes collected by specified action at once. Names of all created files are checked before
+     * any change, clusters for all created files are allocated by one pass over FAT table, FAT values are written
+     * once and every existing parent directory is changed once. Writes of existing files are applied after
+     * creation of files.
+     *
+     * @param action action, that collects changes
+     * @throws IOException            on any default IO error
+     * @throws IncorrectNameException if name contains forbidden symbols or file with this name already exist
+     * @throws FileNotFoundException  if parent directory was not found
+     * @throws CreateFileException    if parent object is not directory
+     * @throws FSException            if there are not enough free clusters for created files
+     */
+    @Override
+    public void batch(BatchAction action) throws IOException {
+        inScope(FileSystemOperation.CREATE, () -> batch0(action));
+    }
+
+    private void batch0(BatchAction action) throws IOException {
+        checkWritable();
+        FileSystemBatch batch = new FileSystemBatch();
+        action.run(batch);
+        synchronized (readerWriter) {
+            applyBatch(batch);
+        }
+    }
+
+    private void applyBatch(FileSystemBatch batch) throws IOException {
+        for (Map.Entry<String, List<FileSystemBatch.NewFile>> entry : batch.newFilesOfExistingDirectories.entrySet()) {
+            VirtualFile parent = FileImpl.fromPath(entry.getKey(), this);
+            FSFileEntry parentFile = getFileEntryFromCluster(findFileCluster(parent));
+            checkThatFileIsDirectory(parentFile, parent.getPath());
+            Set<String> existingNames = new HashSet<>();
+            for (int childCluster : getChildClusters(getFileContent(parentFile, 0, parentFile.size))) {
+                existingNames.add(getFileEntryFromCluster(childCluster).name);
+            }
+            for (FileSystemBatch.NewFile newFile : entry.getValue()) {
+                if (existingNames.contains(newFile.name)) {
+                    throw new IncorrectNameException(String.format("file with name %s already exist", newFile.name));
+                }
+            }
+        }
+        // directories shared with snapshots are copied only after all parents are checked
+        Map<Integer, List<FileSystemBatch.NewFile>> newFilesByParentCluster = new LinkedHashMap<>();
+        for (Map.Entry<String, List<FileSystemBatch.NewFile>> entry : batch.newFilesOfExistingDirectories.entrySet()) {
+            int parentCluster = findFileClusterForWrite(FileImpl.fromPath(entry.getKey(), this));
+            newFilesByParentCluster.computeIfAbsent(parentCluster, cluster -> new ArrayList<>()).addAll(entry.getValue());
+        }
+
+        boolean isContentDeduplicated = deduplicationIndex != null;
+        int clustersCount = 0;
+        for (FileSystemBatch.NewFile newFile : batch.newFiles.values()) {
+            clustersCount += getClustersCountForBatchFile(newFile, isContentDeduplicated);
+        }
+        int[] allocatedClusters = allocateClusters(clustersCount);
+        int allocatedClustersIndex = 0;
+        for (FileSystemBatch.NewFile newFile : batch.newFiles.values()) {
+            int fileClustersCount = getClustersCountForBatchFile(newFile, isContentDeduplicated);
+            newFile.clusters = Arrays.copyOfRange(allocatedClusters, allocatedClustersIndex, allocatedClustersIndex + fileClustersCount);
+            allocatedClustersIndex += fileClustersCount;
+        }
+
+        Map<Integer, Integer> fatValues = new LinkedHashMap<>();
+        for (FileSystemBatch.NewFile newFile : batch.newFiles.values()) {
+            byte[] content = newFile.isDirectory ? getLinksContent(newFile.children)
+                    : isContentDeduplicated ? new byte[0] : newFile.content;
+            FSFileEntry fileEntry = FSFileEntry.from(newFile.name, newFile.isDirectory, newFile.clusters[0]);
+            fileEntry.size = content.length;
+            byte[] data = Arrays.copyOf(fileEntry.toByteArray(), newFile.clusters.length * clusterSize);
+            System.arraycopy(content, 0, data, FSConstants.FILE_HEADER_LENGTH, content.length);
+            for (int i = 0; i < newFile.clusters.length; i++) {
+                writeClusterData(newFile.clusters[i], 0, Arrays.copyOfRange(data, i * clusterSize, (i + 1) * clusterSize));
+                fatValues.put(newFile.clusters[i], i == newFile.clusters.length - 1 ? FSConstants.END_OF_CHAIN : newFile.clusters[i + 1]);
+            }
+        }
+        writeFATValues(fatValues);
+
+        for (Map.Entry<Integer, List<FileSystemBatch.NewFile>> entry : newFilesByParentCluster.entrySet()) {
+            FSFileEntry parentFile = getFileEntryFromCluster(entry.getKey());
+            writeInPlace(getLinksContent(entry.getValue()), parentFile.size, parentFile);
+        }
+        if (isContentDeduplicated) {
+            for (FileSystemBatch.NewFile newFile : batch.newFiles.values()) {
+                if (!newFile.isDirectory && newFile.content.length > 0) {
+                    writeChain(newFile.content, 0, getFileEntryFromCluster(newFile.clusters[0]));
+                }
+            }
+        }
+        for (int i = 0; i < batch.writtenExistingFiles.size(); i++) {
+            write(batch.writtenExistingFiles.get(i), batch.writtenExistingFilesContent.get(i));
+        }
+    }
+
+    private int getClustersCountForBatchFile(FileSystemBatch.NewFile newFile, boolean isContentDeduplicated) {
+        int contentLength = newFile.isDirectory ? newFile.children.size() * FSConstants.BYTE_DEPTH
+                : isContentDeduplicated ? 0 : newFile.content.length;
+        return Math.max(1, (contentLength + FSConstants.FILE_HEADER_LENGTH + clusterSize - 1) / clusterSize);
+    }
+
+    private byte[] getLinksContent(List<FileSystemBatch.NewFile> files) {
+        byte[] result = new byte[files.size() * FSConstants.BYTE_DEPTH];
+        for (int i = 0; i < files.size(); i++) {
+            FSUtils.writeIntAsBytesToArray(result, i * FSConstants.BYTE_DEPTH, files.get(i).clusters[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Finds specified count of free clusters by one read of FAT table.
+     */
+    private int[] allocateClusters(int count) throws IOException {
+        int[] result = new int[count];
+        if (count == 0) {
+            return result;
+        }
+        long startTime = System.nanoTime();
+        byte[] fatTable = new byte[getClusterCount() * FSConstants.BYTE_DEPTH];
+        readerWriter.seekAndRead(fatTable, FSConstants.Offsets.FAT_TABLE);
+        int foundCount = 0;
+        for (int i = 0; i < getClusterCount() && foundCount < count; i++) {
+            if (FSUtils.intFromFourBytes(Arrays.copyOfRange(fatTable, i * FSConstants.BYTE_DEPTH, (i + 1) * FSConstants.BYTE_DEPTH)) == 0) {
+                result[foundCount++] = i;
+            }
+        }
+        if (foundCount < count) {
+            throw new FSException("Don't found free cluster");
+        }
+        OperationScope.addAllocation(count, System.nanoTime() - startTime);
+        return result;
+    }
+
+    /**
+     * Writes FAT values of specified clusters by one write of FAT table range, which contains all of them.
+     */
+    private void writeFATValues(Map<Integer, Integer> fatValues) throws IOException {
+        if (fatValues.isEmpty()) {
+            return;
+        }
+        modificationCount++;
+        int firstCluster = Collections.min(fatValues.keySet());
+        int lastCluster = Collections.max(fatValues.keySet());
+        byte[] fatRange = new byte[(lastCluster - firstCluster + 1) * FSConstants.BYTE_DEPTH];
+        readerWriter.seekAndRead(fatRange, getClusterFATOffset(firstCluster));
+        for (Map.Entry<Integer, Integer> entry : fatValues.entrySet()) {
+            if (deduplicationIndex != null) {
+                deduplicationIndex.remove(entry.getKey());
+            }
+            FSUtils.writeIntAsBytesToArray(fatRange, (entry.getKey() - firstCluster) * FSConstants.BYTE_DEPTH, entry.getValue());
+        }
+        readerWriter.seekAndWrite(fatRange, getClusterFATOffset(firstCluster));
+    }
+
+    /**
+     * removes a specified file
+     *
+     * @param file file for removing
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     */
+    @Override
+    public void removeFile(VirtualFile file) throws IOException {
+        inScope(FileSystemOperation.REMOVE, () -> removeFile0(file));
+    }
+
+    private void removeFile0(VirtualFile file) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.REMOVE, file, 0, 0);
+            VirtualFile parentFile = file.parent();
+            int parentCluster = findFileClusterForWrite(parentFile);
+            int fileCluster = findFileCluster(file);
+            byte[] currentClusterData = new byte[clusterSize];
+            readClusterData(fileCluster, 0, currentClusterData);
+            FSFileEntry currentFile = FSFileEntry.fromByteArray(currentClusterData);
+            if (getClusterReferences(fileCluster) == 0) {
+                currentFile.remove();
+                writeClusterData(fileCluster, 0, currentFile.toByteArray());
+            }
+
+            removeFileLinkFromDirectory(parentCluster, fileCluster);
+            releaseFile(fileCluster);
+        }
+    }
+
+    /**
+     * Removes specified file or directory with all it's content. File is unlinked from parent directory immediately,
+     * clusters of file and all it's children are freed later by background thread with limited rate.
+     *
+     * @param file file or directory for removing
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is root directory
+     */
+    @Override
+    public void removeRecursive(VirtualFile file) throws IOException {
+        inScope(FileSystemOperation.REMOVE, () -> removeRecursive0(file));
+    }
+
+    private void removeRecursive0(VirtualFile file) throws IOException {
+        if (parseFileNames(file).length == 0) {
+            throw new WriteException("root directory can't be removed");
+        }
+        synchronized (readerWriter) {
+            trace(TraceOperation.REMOVE_RECURSIVE, file, 0, 0);
+            int parentCluster = findFileClusterForWrite(file.parent());
+            int fileCluster = findFileCluster(file);
+            removeFileLinkFromDirectory(parentCluster, fileCluster);
+            if (getClusterReferences(fileCluster) == 0) {
+                FSFileEntry currentFile = getFileEntryFromCluster(fileCluster);
+                currentFile.remove();
+                writeFileHeader(currentFile);
+            }
+            filesForReclaim.add(fileCluster);
+        }
+        reclaimer.wakeUp();
+    }
+
+    /**
+     * Frees clusters of all files removed by {@link #removeRecursive(VirtualFile)} immediately in current thread.
+     *
+     * @throws IOException on any default IO error
+     */
+    @Override
+    public void reclaimRemovedFiles() throws IOException {
+        inScope(FileSystemOperation.RECLAIM, this::reclaimRemovedFiles0);
+    }
+
+    private void reclaimRemovedFiles0() throws IOException {
+        checkWritable();
+        synchronized (readerWriter) {
+            reclaimClusters(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Frees clusters of removed files in the same way as {@link #releaseFile(int)}, but not more than specified
+     * count of clusters, so large files can be freed step by step.
+     *
+     * @return count of freed clusters
+     */
+    private int reclaimClusters(int maxClustersCount) throws IOException {
+        return inScope(FileSystemOperation.RECLAIM, () -> reclaimClusters0(maxClustersCount));
+    }
+
+    private int reclaimClusters0(int maxClustersCount) throws IOException {
+        synchronized (readerWriter) {
+            int reclaimedClustersCount = 0;
+            while (reclaimedClustersCount < maxClustersCount) {
+                if (!chainsForReclaim.isEmpty()) {
+                    int cluster = chainsForReclaim.pop();
+                    int references = getClusterReferences(cluster);
+                    if (references > 0) {
+                        setClusterReferences(cluster, references - 1);
+                        continue;
+                    }
+                    int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(cluster));
+                    setFATClusterValue(cluster, 0);
+                    setClusterGap(cluster, 0);
+                    reclaimedClustersCount++;
+                    if (nextCluster != FSConstants.END_OF_CHAIN) {
+                        chainsForReclaim.push(nextCluster);
+                    }
+                } else if (!filesForReclaim.isEmpty()) {
+                    int fileCluster = filesForReclaim.poll();
+                    int references = getClusterReferences(fileCluster);
+                    if (references > 0) {
+                        setClusterReferences(fileCluster, references - 1);
+                        continue;
+                    }
+                    FSFileEntry file = getFileEntryFromCluster(fileCluster);
+                    if (file.isDirectory) {
+                        filesForReclaim.addAll(getChildClusters(readRawContent(file, 0, file.size)));
+                    }
+                    chainsForReclaim.push(fileCluster);
+                } else {
+                    break;
+                }
+            }
+            return reclaimedClustersCount;
+        }
+    }
+
+    /**
+     * Creates a snapshot of whole file system with specified name. Only root directory is copied, all other
+     * files are shared with snapshot and copied on change, so creation time doesn't depend on file system size.
+     *
+     * @param name name of new snapshot
+     * @throws IOException            on any default IO error
+     * @throws IncorrectNameException if name contains forbidden symbols or snapshot with this name already exist
+     * @throws WriteException         if current file system is a snapshot
+     * @throws FSException            if snapshots limit is reached
+     */
+    @Override
+    public void createSnapshot(String name) throws IOException {
+        inScope(FileSystemOperation.SNAPSHOT, () -> createSnapshot0(name));
+    }
+
+    private void createSnapshot0(String name) throws IOException {
+        synchronized (readerWriter) {
+            checkWritable();
+            if (!FSUtils.isCorrectName(name)) {
+                throw new IncorrectNameException(String.format("Snapshot name can contains only letters, numbers, hyphen and underscore. " +
+                        "Max length is %s symbols", String.valueOf(FSConstants.FILE_NAME_LENGTH)));
+            }
+            if (findSnapshotIndex(name) != -1) {
+                throw new IncorrectNameException(String.format("snapshot with name %s already exist", name));
+            }
+            int freeIndex = findSnapshotIndex("");
+            if (freeIndex == -1) {
+                throw new FSException(String.format("snapshots limit %s is reached", FSConstants.MAX_SNAPSHOTS_COUNT));
+            }
+            int snapshotRootCluster = copyDirectory(rootCluster);
+            FSFileEntry snapshot = FSFileEntry.from(name, true, snapshotRootCluster);
+            readerWriter.seekAndWrite(snapshot.toByteArray(), getSnapshotEntryOffset(freeIndex));
+        }
+    }
+
+    /**
+     * Removes snapshot with specified name. Clusters, that are not used by live root or other snapshots, are freed.
+     * Opened file system of this snapshot must not be used after removing.
+     *
+     * @param name name of snapshot
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if snapshot was not found
+     * @throws WriteException        if current file system is a snapshot
+     */
+    @Override
+    public void removeSnapshot(String name) throws IOException {
+        inScope(FileSystemOperation.SNAPSHOT, () -> removeSnapshot0(name));
+    }
+
+    private void removeSnapshot0(String name) throws IOException {
+        synchronized (readerWriter) {
+            checkWritable();
+            int index = getExistingSnapshotIndex(name);
+            FSFileEntry snapshot = readSnapshotEntry(index);
+            readerWriter.seekAndWrite(new byte[FSConstants.FILE_HEADER_LENGTH], getSnapshotEntryOffset(index));
+            releaseFile(snapshot.clusterNumber);
+        }
+    }
+
+    /**
+     * @return names of all snapshots
+     * @throws IOException on any default IO error
+     */
+    @Override
+    public List<String> getSnapshotsList() throws IOException {
+        return inScope(FileSystemOperation.SNAPSHOT, this::getSnapshotsList0);
+    }
+
+    private List<String> getSnapshotsList0() throws IOException {
+        synchronized (readerWriter) {
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < FSConstants.MAX_SNAPSHOTS_COUNT; i++) {
+                String name = readSnapshotEntry(i).name;
+                if (!name.isEmpty()) {
+                    result.add(name);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Opens read-only file system, that contains data of snapshot with specified name.
+     * Live file system can be changed while snapshot is opened. Closing of snapshot doesn't close live file system.
+     *
+     * @param name name of snapshot
+     * @return read-only file system of snapshot
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if snapshot was not found
+     */
+    @Override
+    public VirtualFileSystem openSnapshot(String name) throws IOException {
+        return inScope(FileSystemOperation.SNAPSHOT, () -> openSnapshot0(name));
+    }
+
+    private VirtualFileSystem openSnapshot0(String name) throws IOException {
+        synchronized (readerWriter) {
+            FSFileEntry snapshot = readSnapshotEntry(getExistingSnapshotIndex(name));
+            return new FileSystemImpl(this, name, snapshot.clusterNumber);
+        }
+    }
+
+    private int getSnapshotEntryOffset(int snapshotIndex) {
+        return getClusterReferencesOffset(getClusterCount()) + snapshotIndex * FSConstants.FILE_HEADER_LENGTH;
+    }
+
+    private FSFileEntry readSnapshotEntry(int snapshotIndex) throws IOException {
+        byte[] entryBytes = new byte[FSConstants.FILE_HEADER_LENGTH];
+        readerWriter.seekAndRead(entryBytes, getSnapshotEntryOffset(snapshotIndex));
+        return FSFileEntry.fromByteArray(entryBytes);
+    }
+
+    private int findSnapshotIndex(String name) throws IOException {
+        for (int i = 0; i < FSConstants.MAX_SNAPSHOTS_COUNT; i++) {
+            if (name.equals(readSnapshotEntry(i).name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getExistingSnapshotIndex(String name) throws IOException {
+        int index = name.isEmpty() ? -1 : findSnapshotIndex(name);
+        if (index == -1) {
+            throw new FileNotFoundException(String.format("snapshot %s was not found", name));
+        }
+        return index;
+    }
+
+    private void checkWritable() {
+        if (snapshotName != null) {
+            throw new WriteException(String.format("snapshot %s is read-only", snapshotName));
+        }
+    }
+
+    /**
+     * Copies directory chain to new clusters. All child files become shared between both directories.
+     */
+    private int copyDirectory(int directoryCluster) throws IOException {
+        FSFileEntry directory = getFileEntryFromCluster(directoryCluster);
+        byte[] content = getFileContent(directory, 0, directory.size);
+        int copyCluster = getFirstFreeCluster();
+        setFATClusterValue(copyCluster, FSConstants.END_OF_CHAIN);
+        writeChain(content, 0, directory.withClusterNumber(copyCluster));
+        for (int childCluster : getChildClusters(content)) {
+            addClusterReference(childCluster);
+        }
+        return copyCluster;
+    }
+
+    /**
+     * Makes not shared copy of file, that is shared with snapshot. Directories are copied completely,
+     * for files only first cluster is copied, other clusters are shared until change.
+     */
+    private int copySharedFile(int fileCluster) throws IOException {
+        FSFileEntry file = getFileEntryFromCluster(fileCluster);
+        int copyCluster;
+        if (file.isDirectory) {
+            copyCluster = copyDirectory(fileCluster);
+        } else {
+            copyCluster = getFirstFreeCluster();
+            byte[] clusterData = new byte[clusterSize];
+            readClusterData(fileCluster, 0, clusterData);
+            writeClusterData(copyCluster, 0, clusterData);
+            writeFileHeader(file.withClusterNumber(copyCluster));
+            int nextCluster = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(fileCluster));
+            if (nextCluster != FSConstants.END_OF_CHAIN) {
+                addClusterReference(nextCluster);
+            }
+            setFATClusterValue(copyCluster, nextCluster);
+            if (file.isSparse) {
+                setClusterGap(copyCluster, getClusterGap(fileCluster));
+            }
+        }
+        setClusterReferences(fileCluster, getClusterReferences(fileCluster) - 1);
+        return copyCluster;
+    }
+
+    /**
+     * Removes link to file from directory. The last link of directory is moved into the slot of removed link,
+     * so only two slots are changed.
+     */
+    private void removeFileLinkFromDirectory(int parentCluster, int fileCluster) throws IOException {
+        FSFileEntry directory = getFileEntryFromCluster(parentCluster);
+        byte[] currentContent = getFileContent(directory, 0, directory.size);
+        int idxLink = -1;
+        for (int i = 0; i < currentContent.length; i += 4) {
+            int clusterChildLink = FSUtils.intFromFourBytes(Arrays.copyOfRange(currentContent, i, i + FSConstants.BYTE_DEPTH));
+            if (clusterChildLink == fileCluster) {
+                idxLink = i;
+                break;
+            }
+        }
+        if (idxLink == -1) {
+            throw new FSFormatException("");
+        }
+        int lastLinkIdx = currentContent.length - FSConstants.BYTE_DEPTH;
+        if (idxLink != lastLinkIdx) {
+            writeInPlace(Arrays.copyOfRange(currentContent, lastLinkIdx, currentContent.length), idxLink, directory);
+        }
+        truncateRaw(directory, lastLinkIdx);
+    }
+
+    /**
+     * return a list of files and directories in specify directory
+     *
+     * @param directory directory for get files list
+     * @return list of files and directories in specify directory
+     * @throws FileNotFoundException if directory was not found
+     * @throws IOException           on any default IO error
+     */
+    @Override
+    public List<String> getFilesList(VirtualFile directory) throws IOException {
+        return inScope(FileSystemOperation.LIST, () -> getFilesList0(directory));
+    }
+
+    private List<String> getFilesList0(VirtualFile directory) throws IOException {
+        synchronized (readerWriter) {
+            trace(TraceOperation.LIST, directory, 0, 0);
+            int clusterNumber = findFileCluster(directory);
+            int nextClusterInChain = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(clusterNumber));
+            byte[] currentClusterData = new byte[clusterSize];
+            readClusterData(clusterNumber, 0, currentClusterData);
+            FSFileEntry currentFile = FSFileEntry.fromByteArray(currentClusterData);
+            byte[] content = getFileContent(currentFile, 0, currentFile.size);
+            if (!currentFile.isDirectory) {
+                return Collections.emptyList();
+            }
+            List<String> result = new ArrayList<>();
+            List<Integer> childFilesClusters = getChildClusters(content);
+            for (int childClusterNumber : childFilesClusters) {
+                currentClusterData = new byte[clusterSize];
+                readClusterData(childClusterNumber, 0, currentClusterData);
+                FSFileEntry childFile = FSFileEntry.fromByteArray(currentClusterData);
+                if (!childFile.isRemoved()) {
+                    result.add(childFile.name);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Finds file for changing. All shared directories on the path to file (and file itself) are copied before,
+     * so snapshots are not changed.
+     */
+    private int findFileClusterForWrite(VirtualFile file) throws IOException {
+        checkWritable();
+        long startTime = System.nanoTime();
+        String[] fileNames = parseFileNames(file);
+        int currentCluster = rootCluster;
+        for (String name : fileNames) {
+            FSFileEntry directory = getFileEntryFromCluster(currentCluster);
+            checkThatFileIsNotRemoved(directory);
+            if (!directory.isDirectory) {
+                throw new FileNotFoundException(String.format("file %s was not found", name));
+            }
+            List<Integer> childFilesClusters = getChildClusters(getFileContent(directory, 0, directory.size));
+            int linkIndex = -1;
+            for (int i = 0; i < childFilesClusters.size() && linkIndex == -1; i++) {
+                if (name.equals(getFileEntryFromCluster(childFilesClusters.get(i)).name)) {
+                    linkIndex = i;
+                }
+            }
+            if (linkIndex == -1) {
+                throw new FileNotFoundException(String.format("file %s was not found", name));
+            }
+            currentCluster = childFilesClusters.get(linkIndex);
+            if (getClusterReferences(currentCluster) > 0) {
+                currentCluster = copySharedFile(currentCluster);
+                rewriteDirectoryLink(directory, linkIndex, currentCluster);
+            }
+        }
+        OperationScope.addPathResolution(fileNames.length, System.nanoTime() - startTime);
+        return currentCluster;
+    }
+
+    private void rewriteDirectoryLink(FSFileEntry directory, int linkIndex, int fileCluster) throws IOException {
+        int linkOffset = FSConstants.FILE_HEADER_LENGTH + linkIndex * FSConstants.BYTE_DEPTH;
+        int linkCluster = getClusterNumberByChainNumber(directory, linkOffset / clusterSize);
+        writeClusterData(linkCluster, linkOffset % clusterSize, intAsFourBytes(fileCluster));
+    }
+
+    private int findFileCluster(VirtualFile file) throws IOException {
+        String[] dirNames = parseFileNames(file);
+        if (dirNames.length == 0) {
+            return rootCluster;
+        }
+        long startTime = System.nanoTime();
+        int result = findFileCluster(rootCluster, dirNames, 0);
+        OperationScope.addPathResolution(dirNames.length, System.nanoTime() - startTime);
+        return result;
+    }
+
+    private int findFileCluster(int clusterOfCurrentFile, String[] fileNames, int currentNameIdx) throws IOException {
+        if (currentNameIdx >= fileNames.length) {
+            return clusterOfCurrentFile;
         }
         String currentName = fileNames[currentNameIdx];
         int clusterOffset = getClusterFATOffset(clusterOfCurrentFile);
         int nextClusterInChain = readIntFromFsOnOffset(readerWriter, clusterOffset);
         byte[] currentClusterData = new byte[clusterSize];
-        readerWriter.seekAndRead(currentClusterData, getClusterDataOffset(clusterOfCurrentFile));
+        readClusterData(clusterOfCurrentFile, 0, currentClusterData);
         FSFileEntry currentFile = FSFileEntry.fromByteArray(currentClusterData);
         checkThatFileIsNotRemoved(currentFile);
         byte[] content = getFileContent(currentFile, 0, currentFile.size);
         List<Integer> childFilesClusters = getChildClusters(content);
         for (int clusterNum : childFilesClusters) {
             currentClusterData = new byte[clusterSize];
-            readerWriter.seekAndRead(currentClusterData, getClusterDataOffset(clusterNum));
+            readClusterData(clusterNum, 0, currentClusterData);
             FSFileEntry childFile = FSFileEntry.fromByteArray(currentClusterData);
             checkThatFileIsNotRemoved(childFile);
             if (childFile.name.equals(currentName)) {
@@ -487,51 +2426,473 @@ public class FileSystemImpl extends VirtualFileSystem {
     }
 
     private int getClusterNumberByChainNumber(FSFileEntry file, int chainNumber) throws IOException {
-        int result = file.clusterNumber;
-        while (chainNumber > 0) {
-            result = readIntFromFsOnOffset(readerWriter, getClusterFATOffset(result));
-            chainNumber--;
-
-        }
-        return result;
+        return getClusterMap(file, chainNumber)[chainNumber];
     }
 
     private byte[] getFileContent(FSFileEntry file, int offset, int count) throws IOException {
-        int resultBytesCount = Math.min(count - offset, file.size - offset);
+        int resultBytesCount = Math.min(count, file.size - offset);
         if (resultBytesCount < 0) {
             return new byte[0];
         }
-        int firstClusterForRead = getClusterNumberByChainNumber(file, (offset + FSConstants.FILE_HEADER_LENGTH) / clusterSize);
-        int firstIndexForRead = (offset + FSConstants.FILE_HEADER_LENGTH) % clusterSize;
-        byte[] result = new byte[resultBytesCount];
         checkThatFileIsNotRemoved(file);
+        if (file.isCompressed) {
+            return readCompressedContent(file, readChunkEnds(file), offset, resultBytesCount);
+        }
+        return readRawContent(file, offset, resultBytesCount);
+    }
+
+    /**
+     * Reads bytes of file chain as they are stored, without decompression.
+     */
+    private byte[] readRawContent(FSFileEntry file, int offset, int length) throws IOException {
+        if (length == 0) {
+            return new byte[0];
+        }
+        return readClusters(getClusterMap(file, (offset + length + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize), offset, length);
+    }
+
+    private byte[] readClusters(int[] clusterMap, int offset, int length) throws IOException {
+        byte[] result = new byte[length];
+        if (length == 0) {
+            return result;
+        }
+        int firstChainNumber = (offset + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+        int lastChainNumber = (offset + length + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize;
         int readBytesCount = 0;
-        int clusterIdx = firstClusterForRead;
-        do {
-            if (clusterIdx == FSConstants.END_OF_CHAIN) {
-                throw new FSFormatException("");
-            }
-            int nextClusterOffset = getClusterDataOffset(clusterIdx);
-            int fatClusterOffset = getClusterFATOffset(clusterIdx);
-            clusterIdx = readIntFromFsOnOffset(readerWriter, fatClusterOffset);
-            boolean isFirstIteration = (readBytesCount == 0);
-            int availableBytesInCluster = clusterSize - (isFirstIteration ? firstIndexForRead : 0);
-            int bytesToRead = Math.min(availableBytesInCluster, result.length - readBytesCount);
-            byte[] currentClusterData = new byte[bytesToRead];
-            readerWriter.seekAndRead(currentClusterData,
-                    nextClusterOffset + (isFirstIteration ? firstIndexForRead : 0));
-            System.arraycopy(currentClusterData, 0, result, readBytesCount, bytesToRead);
+        for (int chainNumber = firstChainNumber; chainNumber <= lastChainNumber; chainNumber++) {
+            int offsetInCluster = (chainNumber == firstChainNumber) ? (offset + FSConstants.FILE_HEADER_LENGTH) % clusterSize : 0;
+            int bytesToRead = Math.min(clusterSize - offsetInCluster, result.length - readBytesCount);
+            if (clusterMap[chainNumber] != HOLE_CLUSTER) {
+                byte[] currentClusterData = new byte[bytesToRead];
+                readClusterData(clusterMap[chainNumber], offsetInCluster, currentClusterData);
+                System.arraycopy(currentClusterData, 0, result, readBytesCount, bytesToRead);
+            }
             readBytesCount += bytesToRead;
-        } while (readBytesCount != result.length);
+        }
         return result;
     }
 
     private int getClusterDataOffset(int clusterNumber) {
-        return FSConstants.Offsets.FAT_TABLE + FSConstants.BYTE_DEPTH * clusterCount + clusterNumber * clusterSize;
+        return FSConstants.Offsets.FAT_TABLE + FSConstants.BYTE_DEPTH * getClusterCount() + clusterNumber * clusterSize;
+    }
+
+    private int getClusterChecksumOffset(int clusterNumber) {
+        return getSnapshotEntryOffset(FSConstants.MAX_SNAPSHOTS_COUNT) + clusterNumber * FSConstants.BYTE_DEPTH;
+    }
+
+    /**
+     * Reads part of cluster data. If checksums are enabled, then whole cluster is read and verified.
+     *
+     * @throws ChecksumException if checksum of cluster doesn't match it's data
+     */
+    private void readClusterData(int clusterNumber, int offsetInCluster, byte[] data) throws IOException {
+        if (!checksumsEnabled) {
+            readerWriter.seekAndRead(data, getClusterDataOffset(clusterNumber) + offsetInCluster);
+            return;
+        }
+        byte[] clusterData = new byte[clusterSize];
+        readerWriter.seekAndRead(clusterData, getClusterDataOffset(clusterNumber));
+        int expectedChecksum = readIntFromFsOnOffset(readerWriter, getClusterChecksumOffset(clusterNumber));
+        if (expectedChecksum != calculateChecksum(clusterData, 0, clusterSize)) {
+            throw new ChecksumException(String.format("checksum of cluster %s doesn't match", clusterNumber));
+        }
+        System.arraycopy(clusterData, offsetInCluster, data, 0, data.length);
+    }
+
+    /**
+     * Writes part of cluster data. If checksums are enabled, then rest of cluster is read for calculating
+     * checksum of whole cluster.
+     */
+    private void writeClusterData(int clusterNumber, int offsetInCluster, byte[] data) throws IOException {
+        if (deduplicationIndex != null) {
+            deduplicationIndex.remove(clusterNumber);
+        }
+        dataModificationCount++;
+        if (!checksumsEnabled) {
+            readerWriter.seekAndWrite(data, getClusterDataOffset(clusterNumber) + offsetInCluster);
+            return;
+        }
+        byte[] clusterData = data;
+        if (data.length != clusterSize) {
+            clusterData = new byte[clusterSize];
+            readerWriter.seekAndRead(clusterData, getClusterDataOffset(clusterNumber));
+            System.arraycopy(data, 0, clusterData, offsetInCluster, data.length);
+        }
+        readerWriter.seekAndWrite(clusterData, getClusterDataOffset(clusterNumber));
+        readerWriter.seekAndWrite(intAsFourBytes(calculateChecksum(clusterData, 0, clusterSize)), getClusterChecksumOffset(clusterNumber));
+    }
+
+    private static int calculateChecksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Starts writing of public operations (creating, writing, reading, listing and removing of files) to trace.
+     * Operation is written once, even if it calls other public operations. Recorder isn't closed by file system.
+     *
+     * @param recorder recorder of trace or null to stop recording
+     */
+    @Override
+    public void setTraceRecorder(TraceRecorder recorder) {
+        this.traceRecorder = recorder;
+    }
+
+    /**
+     * Writes current operation to trace, if trace is recorded. It's called under lock, so order of records is
+     * the order of execution.
+     */
+    private void trace(TraceOperation operation, VirtualFile file, long offset, long length) {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null && OperationScope.markTraced()) {
+            recorder.record(operation, file.getPath(), offset, length);
+        }
+    }
+
+    /**
+     * Executes public operation in it's {@link OperationScope}, every public operation enters scope only here.
+     */
+    private static <T, E extends Exception> T inScope(FileSystemOperation operation, ScopedOperation<T, E> body) throws E {
+        OperationScope scope = OperationScope.enter(operation);
+        try {
+            return body.perform();
+        } finally {
+            scope.close();
+        }
+    }
+
+    private static <E extends Exception> void inScope(FileSystemOperation operation, ScopedAction<E> body) throws E {
+        inScope(operation, () -> {
+            body.perform();
+            return null;
+        });
+    }
+
+    /**
+     * Executes part of operation by worker thread in scope of {@link OperationScope#enterPart(FileSystemOperation)}
+     */
+    private static <T, E extends Exception> T inPartScope(FileSystemOperation operation, ScopedOperation<T, E> body) throws E {
+        OperationScope scope = OperationScope.enterPart(operation);
+        try {
+            return body.perform();
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Saves image of whole file system to host file. Clusters of files removed by
+     * {@link #removeRecursive(VirtualFile)} are freed before saving, free clusters aren't written.
+     * Saved image can be loaded by {@link FileSystemFactory#loadImage(Path)} or opened as file storage.
+     * For snapshot image of live file system is saved.
+     *
+     * @param target path of host file, existing file is replaced
+     * @throws IOException on any default IO error
+     */
+    @Override
+    public void saveImage(Path target) throws IOException {
+        inScope(FileSystemOperation.MAINTENANCE, () -> saveImage0(target));
+    }
+
+    private void saveImage0(Path target) throws IOException {
+        if (liveFileSystem != null) {
+            liveFileSystem.saveImage(target);
+            return;
+        }
+        synchronized (readerWriter) {
+            reclaimClusters(Integer.MAX_VALUE);
+            ImageFile.save(readerWriter, target);
+        }
+    }
+
+    /**
+     * Verifies checksums of all used clusters. Clusters are read by large sequential blocks
+     * and verified in parallel using all available processors.
+     *
+     * @return result of verification
+     * @throws IOException on any default IO error
+     * @throws FSException if checksums are disabled for this file system
+     */
+    @Override
+    public ScrubResult scrub() throws IOException {
+        return inScope(FileSystemOperation.MAINTENANCE, this::scrub0);
+    }
+
+    private ScrubResult scrub0() throws IOException {
+        if (!checksumsEnabled) {
+            throw new FSException("checksums are disabled for this file system");
+        }
+        long startTime = System.nanoTime();
+        byte[] fatTable;
+        synchronized (readerWriter) {
+            fatTable = new byte[getClusterCount() * FSConstants.BYTE_DEPTH];
+            readerWriter.seekAndRead(fatTable, getClusterFATOffset(0));
+        }
+        int scrubbedClusterCount = fatTable.length / FSConstants.BYTE_DEPTH;
+        int blocksCount = (scrubbedClusterCount + SCRUB_BLOCK_CLUSTERS - 1) / SCRUB_BLOCK_CLUSTERS;
+        List<Integer> corruptedClusters;
+        try {
+            corruptedClusters = IntStream.range(0, blocksCount).parallel()
+                    .mapToObj(block -> scrubBlock(fatTable, block))
+                    .flatMap(List::stream)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int usedClustersCount = 0;
+        for (int i = 0; i < scrubbedClusterCount; i++) {
+            if (FSUtils.intFromFourBytes(Arrays.copyOfRange(fatTable, i * FSConstants.BYTE_DEPTH, (i + 1) * FSConstants.BYTE_DEPTH)) != 0) {
+                usedClustersCount++;
+            }
+        }
+        return new ScrubResult(usedClustersCount, corruptedClusters, (long) usedClustersCount * clusterSize,
+                System.nanoTime() - startTime);
+    }
+
+    /**
+     * Checks consistency of file system: FAT chains against file sizes, references counts against links,
+     * directory links and headers. Orphaned and cross-linked clusters are found too. Tables are copied to memory
+     * and checked in parallel, so other operations are not blocked; if file system is changed during check,
+     * then check is repeated. Repair is done by several passes: at first chains, headers and links are repaired,
+     * then references counts are fixed and orphaned clusters (e.g. left by interrupted reclaim) are freed.
+     *
+     * @param repair if true, then found problems are repaired, when it is possible
+     * @return result of check
+     * @throws IOException    on any default IO error
+     * @throws WriteException if repair is requested for read-only snapshot
+     */
+    @Override
+    public FsckResult fsck(boolean repair) throws IOException {
+        return inScope(FileSystemOperation.MAINTENANCE, () -> fsck0(repair));
+    }
+
+    private FsckResult fsck0(boolean repair) throws IOException {
+        if (repair) {
+            checkWritable();
+        }
+        if (liveFileSystem != null) {
+            return liveFileSystem.fsck(false);
+        }
+        long startTime = System.nanoTime();
+        ConsistencyChecker checker = checkConsistency();
+        List<FsckProblem> problems = checker.getProblems();
+        int repairedProblemsCount = 0;
+        for (int pass = 0; repair && pass < MAX_REPAIR_PASSES; ) {
+            List<FsckProblem> repairableProblems = checker.getProblems().stream()
+                    .filter(FsckProblem::isRepairable)
+                    .collect(Collectors.toList());
+            if (repairableProblems.isEmpty()) {
+                break;
+            }
+            synchronized (readerWriter) {
+                if (checker.modificationCount == modificationCount) {
+                    repairedProblemsCount += repairProblems(repairableProblems);
+                    pass++;
+                }
+            }
+            checker = checkConsistency();
+        }
+        return new FsckResult(checker.getFilesCount(), checker.getUsedClustersCount(), problems, repairedProblemsCount,
+                checker.getProblems(), System.nanoTime() - startTime);
+    }
+
+    /**
+     * Copies tables to memory and checks them. Check is repeated until file system is not changed during it, but not
+     * more than {@link #MAX_CHECK_ATTEMPTS} times, then file system is checked once under lock.
+     */
+    private ConsistencyChecker checkConsistency() throws IOException {
+        for (int attempt = 0; attempt < MAX_CHECK_ATTEMPTS; attempt++) {
+            ConsistencyChecker checker;
+            FSFileEntry[] snapshots = new FSFileEntry[FSConstants.MAX_SNAPSHOTS_COUNT];
+            List<Integer> removedFiles;
+            List<Integer> removedChains;
+            synchronized (readerWriter) {
+                checker = createConsistencyChecker(false);
+                for (int i = 0; i < snapshots.length; i++) {
+                    snapshots[i] = readSnapshotEntry(i);
+                }
+                removedFiles = new ArrayList<>(filesForReclaim);
+                removedChains = new ArrayList<>(chainsForReclaim);
+            }
+            checker.check(rootCluster, snapshots, removedFiles, removedChains);
+            synchronized (readerWriter) {
+                if (!checker.isChangeDetected() && checker.modificationCount == modificationCount) {
+                    return checker;
+                }
+            }
+        }
+        synchronized (readerWriter) {
+            ConsistencyChecker checker = createConsistencyChecker(true);
+            FSFileEntry[] snapshots = new FSFileEntry[FSConstants.MAX_SNAPSHOTS_COUNT];
+            for (int i = 0; i < snapshots.length; i++) {
+                snapshots[i] = readSnapshotEntry(i);
+            }
+            checker.check(rootCluster, snapshots, filesForReclaim, chainsForReclaim);
+            return checker;
+        }
+    }
+
+    private ConsistencyChecker createConsistencyChecker(boolean isLocked) throws IOException {
+        return new ConsistencyChecker(readFATTable(), readTable(getClusterReferencesOffset(0)),
+                readTable(getClusterGapOffset(0)), clusterSize, this::readClusterForCheck, modificationCount, isLocked);
+    }
+
+    private byte[] readClusterForCheck(int cluster, int offsetInCluster, int length) throws IOException {
+        return inPartScope(FileSystemOperation.MAINTENANCE,
+                () -> readClusterForCheck0(cluster, offsetInCluster, length));
+    }
+
+    private byte[] readClusterForCheck0(int cluster, int offsetInCluster, int length) throws IOException {
+        byte[] data = new byte[length];
+        synchronized (readerWriter) {
+            readClusterData(cluster, offsetInCluster, data);
+        }
+        return data;
+    }
+
+    /**
+     * Repairs problems found by one check. If there are problems of chains, headers or links, then only they
+     * are repaired, because links and references counts must be checked again after it.
+     *
+     * @return count of repaired problems
+     */
+    private int repairProblems(List<FsckProblem> problems) throws IOException {
+        List<FsckProblem> structureProblems = problems.stream()
+                .filter(problem -> !LINKS_COUNT_PROBLEMS.contains(problem.getType()))
+                .collect(Collectors.toList());
+        if (structureProblems.isEmpty()) {
+            for (FsckProblem problem : problems) {
+                int cluster = problem.getCluster();
+                if (problem.getType() == FsckProblem.Type.ORPHANED_CLUSTER) {
+                    setFATClusterValue(cluster, 0);
+                }
+                if (problem.getType() == FsckProblem.Type.CROSS_LINKED_CLUSTER || problem.getType() == FsckProblem.Type.WRONG_REFERENCES) {
+                    setClusterReferences(cluster, problem.expectedReferences);
+                } else {
+                    setClusterReferences(cluster, 0);
+                    setClusterGap(cluster, 0);
+                }
+            }
+            return problems.size();
+        }
+        Map<Integer, Set<Integer>> badLinks = new HashMap<>();
+        for (FsckProblem problem : structureProblems) {
+            int cluster = problem.getCluster();
+            switch (problem.getType()) {
+                case INVALID_FAT_VALUE:
+                case CHAIN_LOOP:
+                case CHAIN_LONGER_THAN_FILE:
+                    setFATClusterValue(cluster, FSConstants.END_OF_CHAIN);
+                    setClusterGap(cluster, 0);
+                    break;
+                case WRONG_HEADER_CLUSTER:
+                    writeFileHeader(getFileEntryFromCluster(cluster).withClusterNumber(cluster));
+                    break;
+                case INVALID_DIRECTORY_SIZE:
+                    FSFileEntry directory = getFileEntryFromCluster(cluster);
+                    directory.size -= directory.size % FSConstants.BYTE_DEPTH;
+                    writeFileHeader(directory);
+                    break;
+                case BAD_DIRECTORY_LINK:
+                case REMOVED_FILE_LINKED:
+                    badLinks.computeIfAbsent(problem.directoryCluster, key -> new HashSet<>()).add(problem.linkIndex);
+                    break;
+                case BAD_SNAPSHOT:
+                    modificationCount++;
+                    readerWriter.seekAndWrite(new byte[FSConstants.FILE_HEADER_LENGTH], getSnapshotEntryOffset(problem.directoryCluster));
+                    break;
+            }
+        }
+        for (Map.Entry<Integer, Set<Integer>> directoryLinks : badLinks.entrySet()) {
+            removeDirectoryLinks(directoryLinks.getKey(), directoryLinks.getValue());
+        }
+        return structureProblems.size();
+    }
+
+    /**
+     * Removes links with specified indexes from directory. Directory is changed in place, even if it is shared,
+     * rest of chain is cut off by next check.
+     */
+    private void removeDirectoryLinks(int directoryCluster, Set<Integer> linkIndexes) throws IOException {
+        FSFileEntry directory = getFileEntryFromCluster(directoryCluster);
+        byte[] content = readRawContent(directory, 0, directory.size);
+        byte[] newContent = new byte[content.length - linkIndexes.size() * FSConstants.BYTE_DEPTH];
+        int newLength = 0;
+        for (int i = 0; i < content.length / FSConstants.BYTE_DEPTH; i++) {
+            if (!linkIndexes.contains(i)) {
+                System.arraycopy(content, i * FSConstants.BYTE_DEPTH, newContent, newLength, FSConstants.BYTE_DEPTH);
+                newLength += FSConstants.BYTE_DEPTH;
+            }
+        }
+        if (newContent.length > 0) {
+            int[] clusterMap = getClusterMap(directory, (newContent.length + FSConstants.FILE_HEADER_LENGTH - 1) / clusterSize);
+            for (int written = 0; written < newContent.length; ) {
+                int chainNumber = (written + FSConstants.FILE_HEADER_LENGTH) / clusterSize;
+                int offsetInCluster = (written + FSConstants.FILE_HEADER_LENGTH) % clusterSize;
+                int bytesCount = Math.min(clusterSize - offsetInCluster, newContent.length - written);
+                if (clusterMap[chainNumber] != HOLE_CLUSTER) {
+                    writeClusterData(clusterMap[chainNumber], offsetInCluster, Arrays.copyOfRange(newContent, written, written + bytesCount));
+                }
+                written += bytesCount;
+            }
+        }
+        directory.size = newContent.length;
+        writeFileHeader(directory);
+    }
+
+    private List<Integer> scrubBlock(byte[] fatTable, int block) {
+        return inPartScope(FileSystemOperation.MAINTENANCE, () -> scrubBlock0(fatTable, block));
+    }
+
+    private List<Integer> scrubBlock0(byte[] fatTable, int block) {
+        int firstCluster = block * SCRUB_BLOCK_CLUSTERS;
+        int clustersInBlock = Math.min(SCRUB_BLOCK_CLUSTERS, fatTable.length / FSConstants.BYTE_DEPTH - firstCluster);
+        byte[] data = new byte[clustersInBlock * clusterSize];
+        byte[] checksums = new byte[clustersInBlock * FSConstants.BYTE_DEPTH];
+        try {
+            synchronized (readerWriter) {
+                if (firstCluster + clustersInBlock > getClusterCount()) {
+                    return Collections.emptyList();
+                }
+                readerWriter.seekAndRead(data, getClusterDataOffset(firstCluster));
+                readerWriter.seekAndRead(checksums, getClusterChecksumOffset(firstCluster));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < clustersInBlock; i++) {
+            int cluster = firstCluster + i;
+            int fatOffset = cluster * FSConstants.BYTE_DEPTH;
+            boolean isUsed = FSUtils.intFromFourBytes(Arrays.copyOfRange(fatTable, fatOffset, fatOffset + FSConstants.BYTE_DEPTH)) != 0;
+            int expectedChecksum = FSUtils.intFromFourBytes(Arrays.copyOfRange(checksums, i * FSConstants.BYTE_DEPTH, (i + 1) * FSConstants.BYTE_DEPTH));
+            if (isUsed && expectedChecksum != calculateChecksum(data, i * clusterSize, clusterSize)) {
+                result.add(cluster);
+            }
+        }
+        return result;
     }
 
     @Override
     public void close() throws IOException {
-        readerWriter.close();
+        if (snapshotName == null) {
+            reclaimer.stop();
+            synchronized (readerWriter) {
+                reclaimClusters(Integer.MAX_VALUE);
+                readerWriter.close();
+            }
+        }
+    }
+
+    private interface ScopedOperation<T, E extends Exception> {
+
+        T perform() throws E;
+    }
+
+    private interface ScopedAction<E extends Exception> {
+
+        void perform() throws E;
     }
 }
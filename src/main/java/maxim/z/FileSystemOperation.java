@@ -0,0 +1,38 @@
+package maxim.z;
+
+/**
+ * Kinds of file system operations, to which storage I/O is attributed (see {@link InstrumentedReaderWriter})
+ */
+public enum FileSystemOperation {
+    /**
+     * creation of files and directories
+     */
+    CREATE,
+    /**
+     * resolving of path (check of existence, opening of channel)
+     */
+    LOOKUP,
+    /**
+     * listing of directory
+     */
+    LIST,
+    READ,
+    /**
+     * writing, truncating, cloning and other changes of file content
+     */
+    WRITE,
+    REMOVE,
+    /**
+     * freeing of clusters of removed files
+     */
+    RECLAIM,
+    SNAPSHOT,
+    /**
+     * checks, statistics, defragmentation
+     */
+    MAINTENANCE,
+    /**
+     * I/O outside of file system operations (e.g. opening of file system)
+     */
+    OTHER
+}
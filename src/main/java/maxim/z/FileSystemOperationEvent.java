@@ -0,0 +1,40 @@
+package maxim.z;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of one public file system operation. Counters show where the time of operation was spent:
+ * in walking of directories, in search of free clusters or in the rest (mostly data I/O).
+ */
+@Name("maxim.z.FileSystemOperation")
+@Label("File System Operation")
+@Category("File System")
+@StackTrace(false)
+class FileSystemOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Path Depth")
+    @Description("Count of directories walked for resolving of paths")
+    int pathDepth;
+
+    @Label("Path Resolution Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long pathResolutionNanos;
+
+    @Label("Allocated Clusters")
+    int allocatedClustersCount;
+
+    @Label("Allocation Time")
+    @Description("Time of search of free clusters")
+    @Timespan(Timespan.NANOSECONDS)
+    long allocationNanos;
+
+    @Label("Freed Clusters")
+    int freedClustersCount;
+
+    @Label("Traversed Chain Clusters")
+    @Description("Count of FAT entries followed while walking chains of clusters")
+    long traversedChainClustersCount;
+}
@@ -0,0 +1,228 @@
+package maxim.z;
+
+import maxim.z.exceptions.FileNotFoundException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server, that shares one file system between clients connected by TCP to loopback address. Every connection has
+ * it's own current directory and is served by it's own thread: virtual thread, if JVM supports them, otherwise
+ * platform thread. Operations of file system are synchronized on it's storage, so connections wait for each other
+ * during storage IO. On JDK 21-23 virtual thread, that holds or waits for this monitor, is pinned to it's carrier
+ * thread, so under load all carriers may be blocked by file system and connections doing only socket IO wait for
+ * them. JDK 24 and later unmount such threads.
+ * Protocol is described in {@link ServerProtocol}, client is {@link FileSystemClient}.
+ */
+public class FileSystemServer implements Closeable {
+
+    private final static int BACKLOG = 128;
+
+    private final VirtualFileSystem fileSystem;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptThread;
+
+    /**
+     * Starts accepting of connections
+     *
+     * @param fileSystem served file system, it isn't closed with server
+     * @param port       port of loopback address, 0 for any free port
+     * @throws IOException if socket can't be bound
+     */
+    public FileSystemServer(VirtualFileSystem fileSystem, int port) throws IOException {
+        this.fileSystem = fileSystem;
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.connectionExecutor = newConnectionExecutor();
+        this.acceptThread = new Thread(this::acceptConnections, "fs-server-acceptor");
+        acceptThread.start();
+    }
+
+    /**
+     * @return port, on which server accepts connections
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return executor, that starts new virtual thread for every connection, or new platform thread on JVM
+     * without virtual threads. Before JDK 24 virtual threads are pinned to carriers inside operations of file system
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "fs-server-connection-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                continue;
+            }
+            connections.add(socket);
+            try {
+                connectionExecutor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                closeConnection(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            VirtualFile currentDirectory = fileSystem.getRootFile();
+            while (true) {
+                byte command;
+                try {
+                    command = input.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                currentDirectory = executeCommand(command, input, output, currentDirectory);
+                output.flush();
+                if (currentDirectory == null) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // connection is broken, nothing to answer
+        } finally {
+            closeConnection(socket);
+        }
+    }
+
+    /**
+     * Reads arguments of command, executes it and writes response. Errors of file system are sent to client,
+     * errors of connection are thrown.
+     *
+     * @return current directory after command or null, if connection must be closed
+     */
+    private VirtualFile executeCommand(byte command, DataInputStream input, DataOutputStream output,
+                                       VirtualFile currentDirectory) throws IOException {
+        String name = null;
+        byte[] content = null;
+        switch (command) {
+            case ServerProtocol.LS:
+                break;
+            case ServerProtocol.WRITE:
+                name = input.readUTF();
+                content = ServerProtocol.readContent(input);
+                break;
+            case ServerProtocol.CD:
+            case ServerProtocol.MKDIR:
+            case ServerProtocol.MKFILE:
+            case ServerProtocol.READ:
+            case ServerProtocol.RM:
+                name = input.readUTF();
+                break;
+            default:
+                writeError(output, String.format("unsupported command %d", command));
+                return null;
+        }
+        ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+        DataOutputStream response = new DataOutputStream(responseBytes);
+        VirtualFile result = currentDirectory;
+        try {
+            response.writeByte(ServerProtocol.STATUS_OK);
+            switch (command) {
+                case ServerProtocol.CD:
+                    VirtualFile newDirectory = name.equals("..") ? currentDirectory.parent() : currentDirectory.child(name);
+                    if (!fileSystem.isDirectoryExist(newDirectory)) {
+                        throw new FileNotFoundException(String.format("directory %s is not exist", newDirectory.getPath()));
+                    }
+                    response.writeUTF(newDirectory.getPath());
+                    result = newDirectory;
+                    break;
+                case ServerProtocol.MKDIR:
+                    fileSystem.createDirectory(currentDirectory, name);
+                    break;
+                case ServerProtocol.MKFILE:
+                    fileSystem.createFile(currentDirectory, name);
+                    break;
+                case ServerProtocol.WRITE:
+                    fileSystem.write(currentDirectory.child(name), content);
+                    break;
+                case ServerProtocol.READ:
+                    ServerProtocol.writeContent(response, fileSystem.read(currentDirectory.child(name)));
+                    break;
+                case ServerProtocol.LS:
+                    List<String> names = fileSystem.getFilesList(currentDirectory);
+                    response.writeInt(names.size());
+                    for (String childName : names) {
+                        response.writeUTF(childName);
+                    }
+                    break;
+                case ServerProtocol.RM:
+                    fileSystem.removeRecursive(currentDirectory.child(name));
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            writeError(output, e.getMessage() == null ? e.toString() : e.getMessage());
+            return currentDirectory;
+        }
+        responseBytes.writeTo(output);
+        return result;
+    }
+
+    private static void writeError(DataOutputStream output, String message) throws IOException {
+        output.writeByte(ServerProtocol.STATUS_ERROR);
+        output.writeUTF(message);
+    }
+
+    private void closeConnection(Socket socket) {
+        connections.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // socket is already unusable
+        }
+    }
+
+    /**
+     * Stops accepting of connections and closes all opened connections. File system is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connectionExecutor.shutdown();
+        for (Socket socket : connections) {
+            closeConnection(socket);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package maxim.z;
+
+/**
+ * Options of new file system. They are used only when storage doesn't contain file system yet,
+ * for existing file system options are read from it's header.
+ */
+public class FormatOptions {
+
+    private int features;
+
+    private FormatOptions() {
+    }
+
+    public static FormatOptions defaults() {
+        return new FormatOptions();
+    }
+
+    /**
+     * Enables CRC32C checksums of clusters. Checksum is verified on every cluster reading.
+     *
+     * @return current options instance
+     */
+    public FormatOptions withChecksums() {
+        features |= FSConstants.Features.CHECKSUMS;
+        return this;
+    }
+
+    /**
+     * Enables deduplication of clusters. Clusters of files with the same data are stored once.
+     *
+     * @return current options instance
+     */
+    public FormatOptions withDeduplication() {
+        features |= FSConstants.Features.DEDUPLICATION;
+        return this;
+    }
+
+    int getFeatures() {
+        return features;
+    }
+}
@@ -0,0 +1,74 @@
+package maxim.z;
+
+/**
+ * Statistics of placement of files clusters in storage (see {@link VirtualFileSystem#getFragmentationStatistics()})
+ */
+public class FragmentationStatistics {
+
+    private final int filesCount;
+    private final int fragmentedFilesCount;
+    private final int extentsCount;
+    private final int usedClustersCount;
+    private final int clusterCount;
+    private final int highestUsedCluster;
+
+    FragmentationStatistics(int filesCount, int fragmentedFilesCount, int extentsCount, int usedClustersCount,
+                            int clusterCount, int highestUsedCluster) {
+        this.filesCount = filesCount;
+        this.fragmentedFilesCount = fragmentedFilesCount;
+        this.extentsCount = extentsCount;
+        this.usedClustersCount = usedClustersCount;
+        this.clusterCount = clusterCount;
+        this.highestUsedCluster = highestUsedCluster;
+    }
+
+    /**
+     * @return count of files and directories (including root directory)
+     */
+    public int getFilesCount() {
+        return filesCount;
+    }
+
+    /**
+     * @return count of files, which clusters are not placed one after another
+     */
+    public int getFragmentedFilesCount() {
+        return fragmentedFilesCount;
+    }
+
+    /**
+     * @return total count of contiguous runs of clusters of all files
+     */
+    public int getExtentsCount() {
+        return extentsCount;
+    }
+
+    public int getUsedClustersCount() {
+        return usedClustersCount;
+    }
+
+    /**
+     * @return current clusters count of file system, storage length depends on it
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public int getHighestUsedCluster() {
+        return highestUsedCluster;
+    }
+
+    /**
+     * @return part of clusters before the last used cluster, that are free (0 for compacted file system)
+     */
+    public double getFreeSpaceFragmentation() {
+        return highestUsedCluster < 0 ? 0 : 1.0 - (double) usedClustersCount / (highestUsedCluster + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files: %s, fragmented files: %s, extents: %s, used clusters: %s, clusters: %s, " +
+                        "highest used cluster: %s", filesCount, fragmentedFilesCount, extentsCount, usedClustersCount,
+                clusterCount, highestUsedCluster);
+    }
+}
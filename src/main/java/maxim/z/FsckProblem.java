@@ -0,0 +1,123 @@
+package maxim.z;
+
+/**
+ * Inconsistency of file system structures, found by {@link VirtualFileSystem#fsck(boolean)}
+ */
+public class FsckProblem {
+
+    public enum Type {
+        /**
+         * FAT value of cluster points outside of FAT table or to free cluster
+         */
+        INVALID_FAT_VALUE,
+        /**
+         * chain returns to one of it's own clusters
+         */
+        CHAIN_LOOP,
+        /**
+         * chain contains clusters after the end of file
+         */
+        CHAIN_LONGER_THAN_FILE,
+        /**
+         * header contains number of another cluster
+         */
+        WRONG_HEADER_CLUSTER,
+        /**
+         * directory size is not a multiple of link size
+         */
+        INVALID_DIRECTORY_SIZE,
+        /**
+         * directory size exceeds length of it's chain
+         */
+        DIRECTORY_LONGER_THAN_CHAIN,
+        /**
+         * directory link points to free cluster or to root directory
+         */
+        BAD_DIRECTORY_LINK,
+        /**
+         * directory link points to file with removed attribute
+         */
+        REMOVED_FILE_LINKED,
+        /**
+         * directory contains several files with the same name
+         */
+        DUPLICATE_NAME,
+        /**
+         * cluster can't be read (e.g. it's checksum doesn't match)
+         */
+        UNREADABLE_CLUSTER,
+        /**
+         * snapshot points to free cluster or to file, that is not a directory
+         */
+        BAD_SNAPSHOT,
+        /**
+         * used cluster is not reachable from root directory, snapshots and removed files waiting for reclaim
+         */
+        ORPHANED_CLUSTER,
+        /**
+         * cluster is linked more times than it's references count allows
+         */
+        CROSS_LINKED_CLUSTER,
+        /**
+         * references count of cluster is greater than count of links, so cluster is never freed
+         */
+        WRONG_REFERENCES,
+        /**
+         * free cluster has not zero references count or gap
+         */
+        DIRTY_FREE_CLUSTER
+    }
+
+    private final Type type;
+    private final int cluster;
+    private final String description;
+    private final boolean isRepairable;
+    /**
+     * cluster of directory, that contains bad link (or index of snapshot for {@link Type#BAD_SNAPSHOT})
+     */
+    final int directoryCluster;
+    final int linkIndex;
+    /**
+     * correct value for {@link Type#CROSS_LINKED_CLUSTER} and {@link Type#WRONG_REFERENCES}
+     */
+    final int expectedReferences;
+
+    FsckProblem(Type type, int cluster, String description, boolean isRepairable) {
+        this(type, cluster, description, isRepairable, -1, -1, 0);
+    }
+
+    FsckProblem(Type type, int cluster, String description, boolean isRepairable, int directoryCluster, int linkIndex,
+                int expectedReferences) {
+        this.type = type;
+        this.cluster = cluster;
+        this.description = description;
+        this.isRepairable = isRepairable;
+        this.directoryCluster = directoryCluster;
+        this.linkIndex = linkIndex;
+        this.expectedReferences = expectedReferences;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getCluster() {
+        return cluster;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return true, if problem can be repaired automatically
+     */
+    public boolean isRepairable() {
+        return isRepairable;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s", type, description);
+    }
+}
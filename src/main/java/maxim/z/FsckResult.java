@@ -0,0 +1,76 @@
+package maxim.z;
+
+import java.util.List;
+
+/**
+ * Result of consistency check of file system (see {@link VirtualFileSystem#fsck(boolean)})
+ */
+public class FsckResult {
+
+    private final int checkedFilesCount;
+    private final int checkedClustersCount;
+    private final List<FsckProblem> problems;
+    private final int repairedProblemsCount;
+    private final List<FsckProblem> remainingProblems;
+    private final long durationNanos;
+
+    FsckResult(int checkedFilesCount, int checkedClustersCount, List<FsckProblem> problems, int repairedProblemsCount,
+               List<FsckProblem> remainingProblems, long durationNanos) {
+        this.checkedFilesCount = checkedFilesCount;
+        this.checkedClustersCount = checkedClustersCount;
+        this.problems = problems;
+        this.repairedProblemsCount = repairedProblemsCount;
+        this.remainingProblems = remainingProblems;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * @return count of files and directories of live file system and snapshots
+     */
+    public int getCheckedFilesCount() {
+        return checkedFilesCount;
+    }
+
+    public int getCheckedClustersCount() {
+        return checkedClustersCount;
+    }
+
+    /**
+     * @return problems found by the first check
+     */
+    public List<FsckProblem> getProblems() {
+        return problems;
+    }
+
+    /**
+     * @return count of repair actions (0 if repair was not requested)
+     */
+    public int getRepairedProblemsCount() {
+        return repairedProblemsCount;
+    }
+
+    /**
+     * @return problems found by the last check, the same as {@link #getProblems()} if repair was not requested
+     */
+    public List<FsckProblem> getRemainingProblems() {
+        return remainingProblems;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return true, if file system is consistent after check (and repair)
+     */
+    public boolean isConsistent() {
+        return remainingProblems.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files: %s, clusters: %s, problems: %s, repaired: %s, remaining problems: %s, elapsed: %s ms",
+                checkedFilesCount, checkedClustersCount, problems.size(), repairedProblemsCount, remainingProblems.size(),
+                durationNanos / 1_000_000);
+    }
+}
@@ -0,0 +1,376 @@
+package maxim.z;
+
+import maxim.z.exceptions.FileNotFoundException;
+import maxim.z.exceptions.IncorrectNameException;
+import maxim.z.exceptions.WriteException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Copies trees of files between host file system and virtual file system by several worker threads.
+ * <p>
+ * On import host tree is walked first, storage is grown at once for all needed clusters (see
+ * {@link VirtualFileSystem#reserveClusters(int)}) and all directories are created by one batch. Small files are
+ * created together with their content by batches (see {@link VirtualFileSystem#batch(BatchAction)}), while workers
+ * read content of files of the next batch. Files larger than {@link #CHUNK_SIZE} are streamed by workers chunk by
+ * chunk, so they are never loaded into memory completely.
+ * <p>
+ * On export directories are created by walking of virtual tree, files are streamed by workers chunk by chunk.
+ */
+public class HostTransfer {
+
+    /**
+     * size of chunk of streamed files, files that are not larger are copied by batches
+     */
+    final static int CHUNK_SIZE = 1024 * 1024;
+    private final static int MAX_BATCH_BYTES = 8 * 1024 * 1024;
+    private final static int MAX_BATCH_FILES = 1024;
+
+    private final VirtualFileSystem fs;
+    private final int threadsCount;
+
+    /**
+     * @param fs           file system for import and export
+     * @param threadsCount count of worker threads
+     */
+    public HostTransfer(VirtualFileSystem fs, int threadsCount) {
+        if (threadsCount <= 0) {
+            throw new IllegalArgumentException(String.format("incorrect threads count %s", threadsCount));
+        }
+        this.fs = fs;
+        this.threadsCount = threadsCount;
+    }
+
+    /**
+     * Copies content of host directory into existing directory of file system. Only directories and regular files
+     * are copied.
+     *
+     * @param source           host directory
+     * @param target           existing directory of file system
+     * @param progressListener receives progress after every copied file or chunk of large file, it is called by
+     *                         several threads, but one call at a time
+     * @return final progress
+     * @throws IOException            on any default IO error
+     * @throws FileNotFoundException  if source or target directory was not found
+     * @throws IncorrectNameException if name of some host file is not allowed in file system, then nothing is copied
+     * @throws WriteException         if some host file is too large, then nothing is copied
+     */
+    public TransferProgress importTree(Path source, VirtualFile target, Consumer<TransferProgress> progressListener) throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new FileNotFoundException(String.format("host directory %s was not found", source));
+        }
+        if (!fs.isDirectoryExist(target)) {
+            throw new FileNotFoundException(String.format("directory %s was not found", target.getPath()));
+        }
+        List<TransferredFile> directories = new ArrayList<>();
+        List<TransferredFile> files = new ArrayList<>();
+        Map<Path, Integer> childrenCounts = new HashMap<>();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                if (!directory.equals(source)) {
+                    directories.add(new TransferredFile(directory, toVirtualFile(source, target, directory), 0));
+                    childrenCounts.merge(directory.getParent(), 1, Integer::sum);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    if (attributes.size() > Integer.MAX_VALUE) {
+                        throw new WriteException(String.format("host file %s is larger than %s bytes", file, Integer.MAX_VALUE));
+                    }
+                    files.add(new TransferredFile(file, toVirtualFile(source, target, file), attributes.size()));
+                    childrenCounts.merge(file.getParent(), 1, Integer::sum);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        long clustersCount = 0;
+        long totalBytesCount = 0;
+        for (TransferredFile directory : directories) {
+            clustersCount += getClustersCount(childrenCounts.getOrDefault(directory.hostPath, 0) * FSConstants.BYTE_DEPTH);
+        }
+        List<TransferredFile> smallFiles = new ArrayList<>();
+        List<TransferredFile> largeFiles = new ArrayList<>();
+        for (TransferredFile file : files) {
+            clustersCount += getClustersCount(file.size);
+            totalBytesCount += file.size;
+            (file.size > CHUNK_SIZE ? largeFiles : smallFiles).add(file);
+        }
+        fs.reserveClusters((int) Math.min(Integer.MAX_VALUE, clustersCount));
+
+        Progress progress = new Progress(directories.size() + files.size(), totalBytesCount, progressListener);
+        fs.batch(batch -> {
+            for (TransferredFile directory : directories) {
+                batch.createDirectory(directory.file.parent(), directory.file.getName());
+            }
+            for (TransferredFile file : largeFiles) {
+                batch.createFile(file.file.parent(), file.file.getName());
+            }
+        });
+        progress.add(directories.size(), 0);
+
+        ExecutorService executor = newExecutor();
+        try {
+            List<List<TransferredFile>> batches = splitToBatches(smallFiles);
+            List<Future<byte[]>> nextContents = batches.isEmpty() ? null : readContents(executor, batches.get(0));
+            for (int i = 0; i < batches.size(); i++) {
+                List<Future<byte[]>> contents = nextContents;
+                nextContents = i + 1 < batches.size() ? readContents(executor, batches.get(i + 1)) : null;
+                List<TransferredFile> batchFiles = batches.get(i);
+                List<byte[]> batchContents = new ArrayList<>();
+                long batchBytesCount = 0;
+                for (Future<byte[]> content : contents) {
+                    batchContents.add(await(content));
+                    batchBytesCount += batchContents.get(batchContents.size() - 1).length;
+                }
+                fs.batch(batch -> {
+                    for (int j = 0; j < batchFiles.size(); j++) {
+                        VirtualFile file = batchFiles.get(j).file;
+                        batch.write(batch.createFile(file.parent(), file.getName()), batchContents.get(j));
+                    }
+                });
+                progress.add(batchFiles.size(), batchBytesCount);
+            }
+
+            List<Future<?>> streams = new ArrayList<>();
+            for (TransferredFile file : largeFiles) {
+                streams.add(executor.submit(() -> {
+                    importLargeFile(file, progress);
+                    return null;
+                }));
+            }
+            for (Future<?> stream : streams) {
+                await(stream);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return progress.get();
+    }
+
+    /**
+     * Copies content of directory of file system into host directory, which is created if it doesn't exist.
+     * Existing host files are overwritten.
+     *
+     * @param source           existing directory of file system
+     * @param target           host directory
+     * @param progressListener receives progress after every copied file or chunk of large file, it is called by
+     *                         several threads, but one call at a time
+     * @return final progress
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if source directory was not found
+     */
+    public TransferProgress exportTree(VirtualFile source, Path target, Consumer<TransferProgress> progressListener) throws IOException {
+        if (!fs.isDirectoryExist(source)) {
+            throw new FileNotFoundException(String.format("directory %s was not found", source.getPath()));
+        }
+        Files.createDirectories(target);
+        List<TransferredFile> directories = new ArrayList<>();
+        List<TransferredFile> files = new ArrayList<>();
+        List<TransferredFile> notWalkedDirectories = new ArrayList<>();
+        notWalkedDirectories.add(new TransferredFile(target, source, 0));
+        while (!notWalkedDirectories.isEmpty()) {
+            TransferredFile directory = notWalkedDirectories.remove(notWalkedDirectories.size() - 1);
+            for (String name : fs.getFilesList(directory.file)) {
+                VirtualFile child = directory.file.child(name);
+                Path hostChild = directory.hostPath.resolve(name);
+                if (fs.isDirectoryExist(child)) {
+                    Files.createDirectories(hostChild);
+                    TransferredFile childDirectory = new TransferredFile(hostChild, child, 0);
+                    directories.add(childDirectory);
+                    notWalkedDirectories.add(childDirectory);
+                } else {
+                    try (VirtualFileChannel channel = fs.openChannel(child)) {
+                        files.add(new TransferredFile(hostChild, child, channel.size()));
+                    }
+                }
+            }
+        }
+
+        long totalBytesCount = files.stream().mapToLong(file -> file.size).sum();
+        Progress progress = new Progress(directories.size() + files.size(), totalBytesCount, progressListener);
+        progress.add(directories.size(), 0);
+        ExecutorService executor = newExecutor();
+        try {
+            List<Future<?>> streams = new ArrayList<>();
+            for (TransferredFile file : files) {
+                streams.add(executor.submit(() -> {
+                    exportFile(file, progress);
+                    return null;
+                }));
+            }
+            for (Future<?> stream : streams) {
+                await(stream);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return progress.get();
+    }
+
+    private void importLargeFile(TransferredFile file, Progress progress) throws IOException {
+        try (FileChannel input = FileChannel.open(file.hostPath, StandardOpenOption.READ);
+             VirtualFileChannel output = fs.openChannel(file.file)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            while (input.read(buffer) >= 0) {
+                buffer.flip();
+                int chunkLength = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                buffer.clear();
+                progress.add(0, chunkLength);
+            }
+        }
+        progress.add(1, 0);
+    }
+
+    private void exportFile(TransferredFile file, Progress progress) throws IOException {
+        try (VirtualFileChannel input = fs.openChannel(file.file);
+             FileChannel output = FileChannel.open(file.hostPath, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(1, Math.min(CHUNK_SIZE, file.size)));
+            while (input.read(buffer) >= 0) {
+                buffer.flip();
+                int chunkLength = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                buffer.clear();
+                progress.add(0, chunkLength);
+            }
+        }
+        progress.add(1, 0);
+    }
+
+    private List<Future<byte[]>> readContents(ExecutorService executor, List<TransferredFile> files) {
+        List<Future<byte[]>> result = new ArrayList<>();
+        for (TransferredFile file : files) {
+            result.add(executor.submit(() -> Files.readAllBytes(file.hostPath)));
+        }
+        return result;
+    }
+
+    private static List<List<TransferredFile>> splitToBatches(List<TransferredFile> files) {
+        List<List<TransferredFile>> result = new ArrayList<>();
+        List<TransferredFile> batch = new ArrayList<>();
+        long batchBytesCount = 0;
+        for (TransferredFile file : files) {
+            if (!batch.isEmpty() && (batch.size() == MAX_BATCH_FILES || batchBytesCount + file.size > MAX_BATCH_BYTES)) {
+                result.add(batch);
+                batch = new ArrayList<>();
+                batchBytesCount = 0;
+            }
+            batch.add(file);
+            batchBytesCount += file.size;
+        }
+        if (!batch.isEmpty()) {
+            result.add(batch);
+        }
+        return result;
+    }
+
+    private long getClustersCount(long contentLength) {
+        int clusterSize = fs.getClusterSize();
+        return Math.max(1, (contentLength + FSConstants.FILE_HEADER_LENGTH + clusterSize - 1) / clusterSize);
+    }
+
+    private static VirtualFile toVirtualFile(Path source, VirtualFile target, Path hostFile) {
+        VirtualFile result = target;
+        for (Path name : source.relativize(hostFile)) {
+            if (!FSUtils.isCorrectName(name.toString())) {
+                throw new IncorrectNameException(String.format("name of host file %s is not allowed", hostFile));
+            }
+            result = result.child(name.toString());
+        }
+        return result;
+    }
+
+    private ExecutorService newExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threadsCount, runnable -> {
+            Thread thread = new Thread(runnable, "fs-transfer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("transfer was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static class TransferredFile {
+
+        private final Path hostPath;
+        private final VirtualFile file;
+        private final long size;
+
+        private TransferredFile(Path hostPath, VirtualFile file, long size) {
+            this.hostPath = hostPath;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private static class Progress {
+
+        private final int totalFilesCount;
+        private final long totalBytesCount;
+        private final Consumer<TransferProgress> listener;
+        private final long startTime = System.nanoTime();
+        private int filesCount;
+        private long bytesCount;
+
+        private Progress(int totalFilesCount, long totalBytesCount, Consumer<TransferProgress> listener) {
+            this.totalFilesCount = totalFilesCount;
+            this.totalBytesCount = totalBytesCount;
+            this.listener = listener;
+        }
+
+        private synchronized void add(int filesCount, long bytesCount) {
+            this.filesCount += filesCount;
+            this.bytesCount += bytesCount;
+            listener.accept(get());
+        }
+
+        private synchronized TransferProgress get() {
+            return new TransferProgress(filesCount, totalFilesCount, bytesCount, totalBytesCount, System.nanoTime() - startTime);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package maxim.z;
+
+/**
+ * Snapshot of storage I/O counters collected by {@link InstrumentedReaderWriter}. Calls and bytes are attributed
+ * to the file system operation, which caused them.
+ */
+public class IOStatistics {
+
+    private final long[][] callsCounts;
+    private final long[][] bytes;
+    private final LatencyHistogram[] latencies;
+
+    IOStatistics(long[][] callsCounts, long[][] bytes, LatencyHistogram[] latencies) {
+        this.callsCounts = callsCounts;
+        this.bytes = bytes;
+        this.latencies = latencies;
+    }
+
+    public long getCallsCount(FileSystemOperation operation, StorageCall call) {
+        return callsCounts[operation.ordinal()][call.ordinal()];
+    }
+
+    /**
+     * @return count of bytes transferred by specified calls ({@link StorageCall#READ} or {@link StorageCall#WRITE})
+     */
+    public long getBytes(FileSystemOperation operation, StorageCall call) {
+        return bytes[operation.ordinal()][call.ordinal()];
+    }
+
+    public long getCallsCount(StorageCall call) {
+        long result = 0;
+        for (long[] operationCallsCounts : callsCounts) {
+            result += operationCallsCounts[call.ordinal()];
+        }
+        return result;
+    }
+
+    public long getBytes(StorageCall call) {
+        long result = 0;
+        for (long[] operationBytes : bytes) {
+            result += operationBytes[call.ordinal()];
+        }
+        return result;
+    }
+
+    /**
+     * @return latencies of specified calls for all operations, seek of combined seekAndRead/seekAndWrite calls
+     * is included in latency of read/write
+     */
+    public LatencyHistogram getLatency(StorageCall call) {
+        return latencies[call.ordinal()];
+    }
+}
@@ -0,0 +1,37 @@
+package maxim.z;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link InstrumentedReaderWriter}, maps are keyed by names of {@link FileSystemOperation}
+ */
+public interface IOStatisticsMXBean {
+
+    long getSeeksCount();
+
+    long getReadsCount();
+
+    long getWritesCount();
+
+    long getReadBytes();
+
+    long getWrittenBytes();
+
+    Map<String, Long> getReadBytesByOperation();
+
+    Map<String, Long> getWrittenBytesByOperation();
+
+    /**
+     * @return count of all storage calls per operation
+     */
+    Map<String, Long> getCallsCountByOperation();
+
+    long getReadLatency99PercentileNanos();
+
+    long getWriteLatency99PercentileNanos();
+
+    /**
+     * Zeroes all counters
+     */
+    void reset();
+}
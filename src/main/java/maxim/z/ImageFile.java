@@ -0,0 +1,166 @@
+package maxim.z;
+
+import maxim.z.exceptions.FSFormatException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies file system image between storage and host file. Header, FAT table and tables after data area are copied
+ * completely, data area only by runs of used clusters, so free clusters are left as holes of host file and
+ * aren't read on loading. Saved file is a valid image, that can be opened by {@link RAFWrapper} too.
+ * <p>
+ * Layout of image (see {@link FileSystemImpl}): header, FAT table, data area, references, snapshots, checksums
+ * and gaps tables.
+ */
+class ImageFile {
+
+    /**
+     * max size of one copied run of clusters
+     */
+    private final static int COPY_BLOCK_SIZE = 8 * 1024 * 1024;
+    private final static int HEADER_LENGTH = FSConstants.Offsets.FAT_TABLE;
+
+    private final int clusterCount;
+    private final int clusterSize;
+
+    private ImageFile(byte[] header) {
+        this.clusterCount = ByteBuffer.wrap(header).getInt(FSConstants.Offsets.CLUSTERS_COUNT);
+        this.clusterSize = ByteBuffer.wrap(header).getInt(FSConstants.Offsets.CLUSTER_SIZE);
+        if (clusterCount <= 0 || clusterSize <= 0) {
+            throw new FSFormatException(String.format("incorrect image header: clusters count %d, cluster size %d",
+                    clusterCount, clusterSize));
+        }
+    }
+
+    private long getDataOffset() {
+        return FSConstants.Offsets.FAT_TABLE + (long) clusterCount * FSConstants.BYTE_DEPTH;
+    }
+
+    private long getTablesOffset() {
+        return getDataOffset() + (long) clusterCount * clusterSize;
+    }
+
+    private long getLength() {
+        return getTablesOffset() + 3L * clusterCount * FSConstants.BYTE_DEPTH
+                + FSConstants.MAX_SNAPSHOTS_COUNT * FSConstants.FILE_HEADER_LENGTH;
+    }
+
+    /**
+     * Writes image from storage to host file. File is written to temporary file and moved to target path, so target
+     * file is either old or completely written. Storage must not be changed during saving.
+     *
+     * @param storage storage, that contains file system
+     * @param target  path of host file
+     * @throws IOException on any default IO error
+     */
+    static void save(BytesReaderWriter storage, Path target) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        storage.seekAndRead(header, 0);
+        ImageFile image = new ImageFile(header);
+        byte[] fatTable = new byte[(int) (image.getDataOffset() - HEADER_LENGTH)];
+        storage.seekAndRead(fatTable, HEADER_LENGTH);
+
+        Path absoluteTarget = target.toAbsolutePath();
+        Path temporaryFile = Files.createTempFile(absoluteTarget.getParent(), absoluteTarget.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                write(channel, header, 0);
+                write(channel, fatTable, HEADER_LENGTH);
+                for (long[] run : image.getUsedClusterRuns(fatTable)) {
+                    byte[] data = new byte[(int) run[1]];
+                    storage.seekAndRead(data, run[0]);
+                    write(channel, data, run[0]);
+                }
+                for (long offset = image.getTablesOffset(); offset < image.getLength(); offset += COPY_BLOCK_SIZE) {
+                    byte[] data = new byte[(int) Math.min(COPY_BLOCK_SIZE, image.getLength() - offset)];
+                    storage.seekAndRead(data, offset);
+                    write(channel, data, offset);
+                }
+                channel.force(false);
+            }
+            Files.move(temporaryFile, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Reads image from host file to storage. Not used clusters aren't written, so storage must be empty.
+     *
+     * @param source  path of host file
+     * @param storage empty storage
+     * @throws IOException        on any default IO error
+     * @throws FSFormatException if host file doesn't contain file system image
+     */
+    static void load(Path source, BytesReaderWriter storage) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH) {
+                throw new FSFormatException(String.format("file %s is too short for file system image", source));
+            }
+            byte[] header = read(channel, HEADER_LENGTH, 0);
+            ImageFile image = new ImageFile(header);
+            if (channel.size() < image.getLength()) {
+                throw new FSFormatException(String.format("file %s is shorter than file system image of %d bytes",
+                        source, image.getLength()));
+            }
+            byte[] fatTable = read(channel, (int) (image.getDataOffset() - HEADER_LENGTH), HEADER_LENGTH);
+            storage.seekAndWrite(header, 0);
+            storage.seekAndWrite(fatTable, HEADER_LENGTH);
+            for (long[] run : image.getUsedClusterRuns(fatTable)) {
+                storage.seekAndWrite(read(channel, (int) run[1], run[0]), run[0]);
+            }
+            for (long offset = image.getTablesOffset(); offset < image.getLength(); offset += COPY_BLOCK_SIZE) {
+                int length = (int) Math.min(COPY_BLOCK_SIZE, image.getLength() - offset);
+                storage.seekAndWrite(read(channel, length, offset), offset);
+            }
+            storage.setLength(image.getLength());
+        }
+    }
+
+    /**
+     * @return offsets and lengths of runs of used clusters in data area, runs are not longer than
+     * {@link #COPY_BLOCK_SIZE} (or one cluster, if cluster is larger)
+     */
+    private List<long[]> getUsedClusterRuns(byte[] fatTable) {
+        int maxRunClustersCount = Math.max(1, COPY_BLOCK_SIZE / clusterSize);
+        ByteBuffer fat = ByteBuffer.wrap(fatTable);
+        List<long[]> result = new ArrayList<>();
+        int runStart = -1;
+        for (int cluster = 0; cluster <= clusterCount; cluster++) {
+            boolean isUsed = cluster < clusterCount && fat.getInt(cluster * FSConstants.BYTE_DEPTH) != 0;
+            if (runStart != -1 && (!isUsed || cluster - runStart == maxRunClustersCount)) {
+                result.add(new long[]{getDataOffset() + (long) runStart * clusterSize, (long) (cluster - runStart) * clusterSize});
+                runStart = -1;
+            }
+            if (isUsed && runStart == -1) {
+                runStart = cluster;
+            }
+        }
+        return result;
+    }
+
+    private static void write(FileChannel channel, byte[] data, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+    }
+
+    private static byte[] read(FileChannel channel, int length, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new FSFormatException(String.format("unexpected end of image file at offset %d", offset + buffer.position()));
+            }
+        }
+        return buffer.array();
+    }
+}
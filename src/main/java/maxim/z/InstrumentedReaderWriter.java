@@ -0,0 +1,254 @@
+package maxim.z;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decorator of storage, that counts calls and transferred bytes and measures latencies of calls. Calls are
+ * attributed to the file system operation executed by current thread (see {@link FileSystemOperation}), so I/O
+ * amplification of operations can be found. Counters are available by {@link #getStatistics()} and via JMX
+ * after {@link #registerMBean(String)}.
+ */
+public class InstrumentedReaderWriter implements BytesReaderWriter, IOStatisticsMXBean {
+
+    private final static int OPERATIONS_COUNT = FileSystemOperation.values().length;
+    private final static int CALLS_COUNT = StorageCall.values().length;
+
+    private final BytesReaderWriter readerWriter;
+    private final AtomicLongArray callsCounts = new AtomicLongArray(OPERATIONS_COUNT * CALLS_COUNT);
+    private final AtomicLongArray bytes = new AtomicLongArray(OPERATIONS_COUNT * CALLS_COUNT);
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(CALLS_COUNT * LatencyHistogram.BUCKETS_COUNT);
+    private final AtomicLongArray latencyNanos = new AtomicLongArray(CALLS_COUNT);
+    private ObjectName objectName;
+
+    public InstrumentedReaderWriter(BytesReaderWriter readerWriter) {
+        this.readerWriter = readerWriter;
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.write(bytes);
+        record(StorageCall.WRITE, bytes.length, start);
+    }
+
+    @Override
+    public void readBytes(byte[] data) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.readBytes(data);
+        record(StorageCall.READ, data.length, start);
+    }
+
+    @Override
+    public void seekAndRead(byte[] data, long pos) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.seekAndRead(data, pos);
+        count(OperationScope.current(), StorageCall.SEEK, 0);
+        record(StorageCall.READ, data.length, start);
+    }
+
+    @Override
+    public void seekAndWrite(byte[] bytes, long pos) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.seekAndWrite(bytes, pos);
+        count(OperationScope.current(), StorageCall.SEEK, 0);
+        record(StorageCall.WRITE, bytes.length, start);
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.seek(pos);
+        record(StorageCall.SEEK, 0, start);
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.setLength(length);
+        record(StorageCall.SET_LENGTH, 0, start);
+    }
+
+    /**
+     * Transfer is counted as positional read of transferred bytes.
+     */
+    @Override
+    public void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        long start = System.nanoTime();
+        readerWriter.transferTo(pos, count, target);
+        count(OperationScope.current(), StorageCall.SEEK, 0);
+        record(StorageCall.READ, count, start);
+    }
+
+    private void record(StorageCall call, long bytesCount, long start) {
+        long nanos = System.nanoTime() - start;
+        count(OperationScope.current(), call, bytesCount);
+        latencyBuckets.incrementAndGet(call.ordinal() * LatencyHistogram.BUCKETS_COUNT + LatencyHistogram.getBucketIndex(nanos));
+        latencyNanos.addAndGet(call.ordinal(), nanos);
+    }
+
+    private void count(FileSystemOperation operation, StorageCall call, long bytesCount) {
+        int index = operation.ordinal() * CALLS_COUNT + call.ordinal();
+        callsCounts.incrementAndGet(index);
+        if (bytesCount != 0) {
+            bytes.addAndGet(index, bytesCount);
+        }
+    }
+
+    /**
+     * @return snapshot of counters, it isn't changed by following calls
+     */
+    public IOStatistics getStatistics() {
+        long[][] callsCountsSnapshot = new long[OPERATIONS_COUNT][CALLS_COUNT];
+        long[][] bytesSnapshot = new long[OPERATIONS_COUNT][CALLS_COUNT];
+        for (int operation = 0; operation < OPERATIONS_COUNT; operation++) {
+            for (int call = 0; call < CALLS_COUNT; call++) {
+                callsCountsSnapshot[operation][call] = callsCounts.get(operation * CALLS_COUNT + call);
+                bytesSnapshot[operation][call] = bytes.get(operation * CALLS_COUNT + call);
+            }
+        }
+        LatencyHistogram[] latencies = new LatencyHistogram[CALLS_COUNT];
+        for (int call = 0; call < CALLS_COUNT; call++) {
+            latencies[call] = getLatency(call);
+        }
+        return new IOStatistics(callsCountsSnapshot, bytesSnapshot, latencies);
+    }
+
+    private LatencyHistogram getLatency(int call) {
+        long[] buckets = new long[LatencyHistogram.BUCKETS_COUNT];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = latencyBuckets.get(call * LatencyHistogram.BUCKETS_COUNT + i);
+        }
+        return new LatencyHistogram(buckets, latencyNanos.get(call));
+    }
+
+    /**
+     * Registers counters in platform MBean server, registration is removed on closing of storage.
+     *
+     * @param name name of storage, that distinguishes it from other registered storages
+     * @return name of registered MBean
+     * @throws IOException if MBean can't be registered (e.g. storage with the same name is already registered)
+     */
+    public synchronized ObjectName registerMBean(String name) throws IOException {
+        if (objectName != null) {
+            throw new IOException(String.format("Storage is already registered as %s", objectName));
+        }
+        try {
+            ObjectName newObjectName = new ObjectName(String.format("maxim.z:type=IOStatistics,name=%s", ObjectName.quote(name)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+            objectName = newObjectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new IOException(String.format("Unable to register storage %s", name), e);
+        }
+    }
+
+    @Override
+    public long getSeeksCount() {
+        return sumCalls(callsCounts, StorageCall.SEEK);
+    }
+
+    @Override
+    public long getReadsCount() {
+        return sumCalls(callsCounts, StorageCall.READ);
+    }
+
+    @Override
+    public long getWritesCount() {
+        return sumCalls(callsCounts, StorageCall.WRITE);
+    }
+
+    @Override
+    public long getReadBytes() {
+        return sumCalls(bytes, StorageCall.READ);
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return sumCalls(bytes, StorageCall.WRITE);
+    }
+
+    private static long sumCalls(AtomicLongArray counters, StorageCall call) {
+        long result = 0;
+        for (int operation = 0; operation < OPERATIONS_COUNT; operation++) {
+            result += counters.get(operation * CALLS_COUNT + call.ordinal());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getReadBytesByOperation() {
+        return getByOperation(bytes, StorageCall.READ);
+    }
+
+    @Override
+    public Map<String, Long> getWrittenBytesByOperation() {
+        return getByOperation(bytes, StorageCall.WRITE);
+    }
+
+    @Override
+    public Map<String, Long> getCallsCountByOperation() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            long count = 0;
+            for (int call = 0; call < CALLS_COUNT; call++) {
+                count += callsCounts.get(operation.ordinal() * CALLS_COUNT + call);
+            }
+            result.put(operation.name(), count);
+        }
+        return result;
+    }
+
+    private static Map<String, Long> getByOperation(AtomicLongArray counters, StorageCall call) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (FileSystemOperation operation : FileSystemOperation.values()) {
+            result.put(operation.name(), counters.get(operation.ordinal() * CALLS_COUNT + call.ordinal()));
+        }
+        return result;
+    }
+
+    @Override
+    public long getReadLatency99PercentileNanos() {
+        return getLatency(StorageCall.READ.ordinal()).getPercentileNanos(99);
+    }
+
+    @Override
+    public long getWriteLatency99PercentileNanos() {
+        return getLatency(StorageCall.WRITE.ordinal()).getPercentileNanos(99);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < callsCounts.length(); i++) {
+            callsCounts.set(i, 0);
+            bytes.set(i, 0);
+        }
+        for (int i = 0; i < latencyBuckets.length(); i++) {
+            latencyBuckets.set(i, 0);
+        }
+        for (int i = 0; i < latencyNanos.length(); i++) {
+            latencyNanos.set(i, 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException ignored) {
+                    // MBean was unregistered outside
+                }
+                objectName = null;
+            }
+        }
+        readerWriter.close();
+    }
+}
@@ -0,0 +1,71 @@
+package maxim.z;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies of storage calls or file system operations. Bucket with index i contains calls, that took
+ * from 2^(i-1) (inclusive) to 2^i (exclusive) nanoseconds, bucket 0 contains calls, that took 0 nanoseconds.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS_COUNT = 64;
+
+    private final long[] buckets;
+    private final long count;
+    private final long totalNanos;
+
+    LatencyHistogram(long[] buckets, long totalNanos) {
+        this.buckets = buckets;
+        this.totalNanos = totalNanos;
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        this.count = count;
+    }
+
+    static int getBucketIndex(long nanos) {
+        return nanos <= 0 ? 0 : BUCKETS_COUNT - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * @param percentile percentile from 0 to 100
+     * @return upper bound of bucket, that contains specified percentile of calls, 0 if there were no calls
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(String.format("Percentile %s is out of range [0, 100]", percentile));
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long passed = 0;
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            passed += buckets[i];
+            if (passed >= rank) {
+                return i == 0 ? 0 : i == BUCKETS_COUNT - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return copy of counts of calls in buckets
+     */
+    public long[] getBuckets() {
+        return Arrays.copyOf(buckets, buckets.length);
+    }
+}
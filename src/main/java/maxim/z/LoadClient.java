@@ -0,0 +1,94 @@
+package maxim.z;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Load generator for {@link FileSystemServer}. Every connection works in it's own directory and repeats write, read
+ * and ls commands, throughput is measured for growing count of connections.
+ */
+class LoadClient {
+
+    private final static int FILE_SIZE = FSConstants.DEFAULT_CLUSTER_SIZE;
+
+    private final int port;
+
+    LoadClient(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Measures throughput for 1, 2, 4 and so on connections up to specified count
+     *
+     * @param maxConnectionsCount max count of connections
+     * @param durationMillis      duration of measurement for one count of connections
+     * @param out                 stream for results
+     */
+    void run(int maxConnectionsCount, long durationMillis, PrintStream out) throws IOException, InterruptedException {
+        for (int connectionsCount = 1; ; connectionsCount = Math.min(connectionsCount * 2, maxConnectionsCount)) {
+            long operationsCount = measure(connectionsCount, durationMillis);
+            out.println(String.format("connections %d: %d operations, %.0f operations per second", connectionsCount,
+                    operationsCount, operationsCount * 1000.0 / durationMillis));
+            if (connectionsCount == maxConnectionsCount) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return count of commands completed by all connections during specified time
+     */
+    long measure(int connectionsCount, long durationMillis) throws IOException, InterruptedException {
+        AtomicLong operationsCount = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        CountDownLatch started = new CountDownLatch(connectionsCount);
+        String runName = "load" + System.nanoTime() % 1_000_000 + "-";
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connectionsCount; i++) {
+            String directory = runName + i;
+            Thread thread = new Thread(() -> {
+                boolean isStarted = false;
+                try (FileSystemClient client = new FileSystemClient(port)) {
+                    client.mkdir(directory);
+                    client.cd(directory);
+                    client.mkfile("file");
+                    byte[] content = new byte[FILE_SIZE];
+                    isStarted = true;
+                    started.countDown();
+                    started.await();
+                    long deadline = System.nanoTime() + durationMillis * 1_000_000;
+                    while (System.nanoTime() < deadline) {
+                        client.write("file", content);
+                        client.read("file");
+                        client.ls();
+                        operationsCount.addAndGet(3);
+                    }
+                    client.cd("..");
+                    client.rm(directory);
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (!isStarted) {
+                        started.countDown();
+                    }
+                }
+            }, "fs-load-client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IOException("load client failed", failure.get());
+        }
+        return operationsCount.get();
+    }
+}
@@ -1,95 +1,223 @@
 package maxim.z;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.stream.Collectors;
 
 public class Main {
 
+    private final static int DEFAULT_SERVER_PORT = 7070;
+    private final static int DEFAULT_LOAD_CONNECTIONS_COUNT = 16;
+    private final static int DEFAULT_LOAD_SECONDS = 5;
+
     public static void main(String[] args) throws IOException {
         Scanner scanner = new Scanner(System.in);
         if (args.length == 0 || args[0].equals("--help")) {
             System.out.println("to start program execute 'java -jar [jar_file] [absolute_path_to_fs_file_storage]'");
+            System.out.println("to check file system execute 'java -jar [jar_file] [absolute_path_to_fs_file_storage] --fsck [--repair]'");
+            System.out.println("to execute scripts execute 'java -jar [jar_file] [absolute_path_to_fs_file_storage] --batch [--parallel threads] [script_file...]'");
+            System.out.println("to serve file system execute 'java -jar [jar_file] [absolute_path_to_fs_file_storage] --serve [port]'");
+            System.out.println("to generate workload execute 'java -jar [jar_file] [absolute_path_to_fs_file_storage] --workload [operations] [threads]'");
+            System.out.println("to replay trace execute 'java -jar [jar_file] [absolute_path_to_fs_file_storage] --replay [trace_file] [--timed]'");
+            System.out.println("to record trace of operations add '--record [trace_file]' to any command except --fsck");
+            System.out.println("to measure served file system execute 'java -jar [jar_file] --load [port] [max_connections] [seconds]'");
+            return;
+        }
+        if (args[0].equals("--load")) {
+            if (args.length < 2) {
+                System.out.println("port of server is not specified");
+                System.exit(1);
+            }
+            int maxConnectionsCount = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_LOAD_CONNECTIONS_COUNT;
+            long durationMillis = (args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_LOAD_SECONDS) * 1000;
+            try {
+                new LoadClient(Integer.parseInt(args[1])).run(maxConnectionsCount, durationMillis, System.out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             return;
         }
         String pathToFile = args[0];
-        Map<String, Commands> commandsMap = new HashMap<>();
-        commandsMap.put("cd", Commands.CD);
-        commandsMap.put("mkdir", Commands.MKDIR);
-        commandsMap.put("mkfile", Commands.MKFILE);
-        commandsMap.put("write", Commands.WRITE);
-        commandsMap.put("read", Commands.READ);
-        commandsMap.put("ls", Commands.LS);
-        commandsMap.put("rm", Commands.RM);
+        if (args.length > 1 && args[1].equals("--fsck")) {
+            boolean repair = args.length > 2 && args[2].equals("--repair");
+            if (!checkFileSystem(pathToFile, repair)) {
+                System.exit(1);
+            }
+            return;
+        }
+        Path traceFile = null;
+        int recordIndex = Arrays.asList(args).indexOf("--record");
+        if (recordIndex > 0) {
+            if (recordIndex + 1 == args.length) {
+                System.out.println("trace file is not specified");
+                System.exit(1);
+            }
+            traceFile = Paths.get(args[recordIndex + 1]);
+            String[] restArgs = new String[args.length - 2];
+            System.arraycopy(args, 0, restArgs, 0, recordIndex);
+            System.arraycopy(args, recordIndex + 2, restArgs, recordIndex, args.length - recordIndex - 2);
+            args = restArgs;
+        }
+        boolean isSucceeded = true;
+        try (TraceRecorder traceRecorder = traceFile == null ? null : new TraceRecorder(traceFile);
+             VirtualFileSystem fs = FileSystemFactory.getFileSystem(pathToFile)) {
+            fs.setTraceRecorder(traceRecorder);
+            String mode = args.length > 1 ? args[1] : "";
+            switch (mode) {
+                case "--serve":
+                    int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SERVER_PORT;
+                    serveFileSystem(fs, port, scanner);
+                    break;
+                case "--batch":
+                    isSucceeded = runBatch(fs, args);
+                    break;
+                case "--workload":
+                    isSucceeded = runWorkload(fs, args);
+                    break;
+                case "--replay":
+                    isSucceeded = replayTrace(fs, args);
+                    break;
+                default:
+                    runShell(fs, scanner);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            isSucceeded = false;
+        }
+        if (!isSucceeded) {
+            System.exit(1);
+        }
+    }
+
+    private static void runShell(VirtualFileSystem fs, Scanner scanner) {
         printHelpMessage();
-        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(pathToFile)) {
-            VirtualFile curFile = fs.getRootFile();
-            while (true) {
-                printCurrentDirectory(curFile);
-                String line = scanner.nextLine();
-                if ("exit".equals(line)) {
+        CommandInterpreter interpreter = new CommandInterpreter(fs, System.out);
+        while (true) {
+            printCurrentDirectory(interpreter.getCurrentDirectory());
+            String line = scanner.nextLine();
+            if ("exit".equals(line)) {
+                break;
+            }
+            if ("help".equals(line)) {
+                printHelpMessage();
+                continue;
+            }
+            String[] arg = line.split(" ");
+            if (arg.length == 0) {
+                printHelpMessage();
+                continue;
+            }
+            CommandInterpreter.Commands command = interpreter.parse(arg);
+            if (command == null) {
+                continue;
+            }
+            try {
+                interpreter.execute(command, arg);
+            } catch (Exception e) {
+                System.out.println("command execution failed");
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Executes script files or standard input, if files are not specified, and prints report
+     *
+     * @param args arguments of program: path to storage, --batch, optional --parallel with count of threads and paths of scripts
+     * @return true, if all commands succeeded
+     */
+    private static boolean runBatch(VirtualFileSystem fs, String[] args) throws IOException, InterruptedException {
+        int threadsCount = 1;
+        int scriptsStart = 2;
+        if (args.length > 3 && args[2].equals("--parallel")) {
+            threadsCount = Integer.parseInt(args[3]);
+            scriptsStart = 4;
+        }
+        Map<String, List<String>> scripts = new LinkedHashMap<>();
+        if (scriptsStart == args.length) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            scripts.put("stdin", reader.lines().collect(Collectors.toList()));
+        }
+        for (int i = scriptsStart; i < args.length; i++) {
+            scripts.put(args[i], Files.readAllLines(Paths.get(args[i]), StandardCharsets.UTF_8));
+        }
+        return new BatchRunner(fs, threadsCount, System.out).run(scripts) == 0;
+    }
+
+    /**
+     * Generates workload with default mix and prints latencies
+     *
+     * @param args arguments of program: path to storage, --workload, optional count of operations and count of threads
+     * @return true, if file system is consistent after workload
+     */
+    private static boolean runWorkload(VirtualFileSystem fs, String[] args) throws IOException, InterruptedException {
+        WorkloadOptions options = WorkloadOptions.defaults();
+        if (args.length > 2) {
+            options.withOperationsCount(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            options.withThreadsCount(Integer.parseInt(args[3]));
+        }
+        WorkloadResult result = new WorkloadGenerator(fs).generate(options);
+        System.out.println(result);
+        return result.getFsckResult().isConsistent();
+    }
+
+    /**
+     * Replays trace and prints latencies
+     *
+     * @param args arguments of program: path to storage, --replay, path of trace file and optional --timed
+     * @return true, if all operations succeeded and file system is consistent after replay
+     */
+    private static boolean replayTrace(VirtualFileSystem fs, String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.out.println("trace file is not specified");
+            return false;
+        }
+        boolean keepTiming = args.length > 3 && args[3].equals("--timed");
+        WorkloadResult result = new WorkloadGenerator(fs).replay(Paths.get(args[2]), keepTiming);
+        System.out.println(result);
+        return result.getFailedCount() == 0 && result.getFsckResult().isConsistent();
+    }
+
+    /**
+     * Serves file system until "exit" line or end of standard input
+     */
+    private static void serveFileSystem(VirtualFileSystem fs, int port, Scanner scanner) throws IOException {
+        try (FileSystemServer server = new FileSystemServer(fs, port)) {
+            System.out.println(String.format("serving on port %d, type exit to stop", server.getPort()));
+            while (scanner.hasNextLine()) {
+                if ("exit".equals(scanner.nextLine())) {
                     break;
                 }
-                if ("help".equals(line)) {
-                    printHelpMessage();
-                    continue;
-                }
-                String[] arg = line.split(" ");
-                if (arg.length == 0) {
-                    printHelpMessage();
-                    continue;
-                }
-                Commands command = commandsMap.get(arg[0]);
-                if (command == null) {
-                    System.out.println(String.format("unsupported command %s, type help", arg[0]));
-                    continue;
-                }
-                if (!command.isCorrectArgsCount(arg.length)) {
-                    System.out.println("incorrect args count, use --help for check commands parameters");
-                    continue;
-                }
-                try {
-                    switch (command) {
-                        case CD:
-                            String dir = arg[1];
-                            VirtualFile newCurFile = dir.equals("..") ? curFile.parent() : curFile.child(dir);
-                            if (!fs.isDirectoryExist(newCurFile)) {
-                                System.out.println(String.format("directory %s is not exist", newCurFile.getPath()));
-                                break;
-                            }
-                            curFile = newCurFile;
-                            break;
-                        case LS: {
-                            System.out.println(String.join(" ", fs.getFilesList(curFile)));
-                            break;
-                        }
-                        case MKDIR:
-                            fs.createDirectory(curFile, arg[1]);
-                            break;
-                        case MKFILE:
-                            fs.createFile(curFile, arg[1]);
-                            break;
-                        case READ:
-                            System.out.println(fs.readAsString(curFile.child(arg[1])));
-                            break;
-                        case WRITE:
-                            String content = Arrays.stream(arg).skip(2).reduce((s1, s2) -> s1 + " " + s2).orElse("");
-                            fs.write(curFile.child(arg[1]), content);
-                            break;
-                        case RM:
-                            fs.removeFile(curFile.child(arg[1]));
-                            break;
-                    }
-                } catch (Exception e) {
-                    System.out.println("command execution failed");
-                    System.out.println(e.getMessage());
-                }
             }
         }
     }
 
+    /**
+     * @return true, if file system is consistent (after repair)
+     */
+    private static boolean checkFileSystem(String pathToFile, boolean repair) throws IOException {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(pathToFile)) {
+            FsckResult result = fs.fsck(repair);
+            for (FsckProblem problem : result.getProblems()) {
+                System.out.println(problem);
+            }
+            System.out.println(result);
+            return result.isConsistent();
+        }
+    }
+
     private static void printHelpMessage() {
         System.out.println("commands:");
         System.out.println("cd [dir_name] - to change current directory");
@@ -98,32 +226,16 @@ public class Main {
         System.out.println("mkfile [file_name] - to create new file");
         System.out.println("write [file_name] [content] - to write content to file");
         System.out.println("read [file_name] - to read file content");
-        System.out.println("rm [file_name] - to remove file");
+        System.out.println("rm [file_name] - to remove file or directory with all content");
+        System.out.println("defrag - to defragment and compact file system");
+        System.out.println("import [host_dir] [dir_name] - to copy content of host directory into directory");
+        System.out.println("export [dir_name] [host_dir] - to copy content of directory into host directory");
+        System.out.println("tar [dir_name] [host_file] - to write content of directory to tar archive");
+        System.out.println("untar [host_file] [dir_name] - to extract tar archive into directory");
         System.out.println("help - show help");
     }
 
     private static void printCurrentDirectory(VirtualFile directory) {
         System.out.print(directory.getPath() + " >");
     }
-
-    enum Commands {
-        CD,
-        MKDIR,
-        MKFILE,
-        LS,
-        WRITE,
-        READ,
-        RM;
-
-        boolean isCorrectArgsCount(int argsCount) {
-            if (this == LS) {
-                return argsCount == 1;
-            }
-            if (this == WRITE) {
-                return argsCount >= 3;
-            }
-            return argsCount == 2;
-        }
-    }
-
 }
@@ -1,6 +1,7 @@
 package maxim.z;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Implementation of bytes storage, that use for store data byte array
@@ -31,8 +32,11 @@ class MemoryReaderWriter implements BytesReaderWriter {
 
     @Override
     public void readBytes(byte[] data) throws IOException {
-        ensureCapacityForLength(data.length);
-        System.arraycopy(storage, position, data, 0, data.length);
+        int availableLength = Math.max(0, Math.min(data.length, storage.length - position));
+        if (availableLength > 0) {
+            System.arraycopy(storage, position, data, 0, availableLength);
+        }
+        Arrays.fill(data, availableLength, data.length, (byte) 0);
     }
 
     @Override
@@ -52,6 +56,11 @@ class MemoryReaderWriter implements BytesReaderWriter {
         write(bytes);
     }
 
+    @Override
+    public void setLength(long length) throws IOException {
+        storage = Arrays.copyOf(storage, (int) length);
+    }
+
     @Override
     public void close() throws IOException {
 
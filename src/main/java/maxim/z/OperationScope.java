@@ -0,0 +1,143 @@
+package maxim.z;
+
+/**
+ * Marks current thread as executing specified file system operation, so storage I/O can be attributed to it.
+ * Nested scopes keep operation of the outer scope, e.g. reading of file by {@link FileSystemImpl#readAsString}
+ * is attributed to {@link FileSystemOperation#READ} as whole.
+ * <p>
+ * Outer scope of public operation emits {@link FileSystemOperationEvent}, while it's recorded by flight recorder.
+ * Counters of event are collected only then, so disabled recording costs one check per counter.
+ */
+class OperationScope implements AutoCloseable {
+
+    private final static ThreadLocal<OperationScope> CURRENT_SCOPE = new ThreadLocal<>();
+    private final static OperationScope NESTED_SCOPE = new OperationScope(null, null);
+
+    private final FileSystemOperation operation;
+    private final FileSystemOperationEvent event;
+    private int pathDepth;
+    private long pathResolutionNanos;
+    private int allocatedClustersCount;
+    private long allocationNanos;
+    private int freedClustersCount;
+    private long traversedChainClustersCount;
+    private boolean isTraced;
+
+    private OperationScope(FileSystemOperation operation, FileSystemOperationEvent event) {
+        this.operation = operation;
+        this.event = event;
+    }
+
+    /**
+     * Enters scope of public operation
+     */
+    static OperationScope enter(FileSystemOperation operation) {
+        if (CURRENT_SCOPE.get() != null) {
+            return NESTED_SCOPE;
+        }
+        FileSystemOperationEvent event = new FileSystemOperationEvent();
+        event.begin();
+        return enter(operation, event.isEnabled() ? event : null);
+    }
+
+    /**
+     * Enters scope of part of operation executed by worker thread. I/O is attributed to operation, but no event
+     * is emitted, because it is covered by event of whole operation.
+     */
+    static OperationScope enterPart(FileSystemOperation operation) {
+        if (CURRENT_SCOPE.get() != null) {
+            return NESTED_SCOPE;
+        }
+        return enter(operation, null);
+    }
+
+    private static OperationScope enter(FileSystemOperation operation, FileSystemOperationEvent event) {
+        OperationScope scope = new OperationScope(operation, event);
+        CURRENT_SCOPE.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return operation of current thread or {@link FileSystemOperation#OTHER}, if thread is outside of any scope
+     */
+    static FileSystemOperation current() {
+        OperationScope scope = CURRENT_SCOPE.get();
+        return scope == null ? FileSystemOperation.OTHER : scope.operation;
+    }
+
+    /**
+     * @return scope of current thread, which event is recorded, otherwise null
+     */
+    private static OperationScope recorded() {
+        OperationScope scope = CURRENT_SCOPE.get();
+        return scope == null || scope.event == null ? null : scope;
+    }
+
+    /**
+     * Marks current operation as written to trace, so nested public operations are not written
+     *
+     * @return true, if operation was not written to trace yet
+     */
+    static boolean markTraced() {
+        OperationScope scope = CURRENT_SCOPE.get();
+        if (scope == null) {
+            return true;
+        }
+        if (scope.isTraced) {
+            return false;
+        }
+        scope.isTraced = true;
+        return true;
+    }
+
+    static void addPathResolution(int depth, long nanos) {
+        OperationScope scope = recorded();
+        if (scope != null) {
+            scope.pathDepth += depth;
+            scope.pathResolutionNanos += nanos;
+        }
+    }
+
+    static void addAllocation(int clustersCount, long nanos) {
+        OperationScope scope = recorded();
+        if (scope != null) {
+            scope.allocatedClustersCount += clustersCount;
+            scope.allocationNanos += nanos;
+        }
+    }
+
+    static void addFreedClusters(int clustersCount) {
+        OperationScope scope = recorded();
+        if (scope != null) {
+            scope.freedClustersCount += clustersCount;
+        }
+    }
+
+    static void addTraversedChainClusters(int clustersCount) {
+        OperationScope scope = recorded();
+        if (scope != null) {
+            scope.traversedChainClustersCount += clustersCount;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this == NESTED_SCOPE) {
+            return;
+        }
+        CURRENT_SCOPE.remove();
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.name();
+                event.pathDepth = pathDepth;
+                event.pathResolutionNanos = pathResolutionNanos;
+                event.allocatedClustersCount = allocatedClustersCount;
+                event.allocationNanos = allocationNanos;
+                event.freedClustersCount = freedClustersCount;
+                event.traversedChainClustersCount = traversedChainClustersCount;
+                event.commit();
+            }
+        }
+    }
+}
@@ -13,9 +13,16 @@ public class OutputStreamImpl implements VirtualOutputStream {
         this.file = file;
     }
 
+    /**
+     * First write replaces content of file, next writes append bytes after previously written ones.
+     */
     @Override
     public void write(byte[] bytes) throws IOException {
-        fs.write(file, offset, bytes);
+        if (offset == 0) {
+            fs.write(file, bytes);
+        } else {
+            fs.write(file, offset, bytes);
+        }
         offset += bytes.length;
     }
 }
@@ -3,6 +3,8 @@ package maxim.z;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Implementation of bytes storage, that use for store file in real file system
@@ -30,6 +32,23 @@ public class RAFWrapper implements BytesReaderWriter {
         randomAccessFile.seek(pos);
     }
 
+    @Override
+    public void setLength(long length) throws IOException {
+        randomAccessFile.setLength(length);
+    }
+
+    /**
+     * Bytes are copied by {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so operating system
+     * can copy them without copying into java heap.
+     */
+    @Override
+    public void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        long transferred = FSUtils.transferFully(randomAccessFile.getChannel(), pos, count, target);
+        if (transferred < count) {
+            BytesReaderWriter.super.transferTo(pos + transferred, count - transferred, target);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         randomAccessFile.close();
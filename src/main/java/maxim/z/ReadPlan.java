@@ -0,0 +1,36 @@
+package maxim.z;
+
+/**
+ * Storage ranges of file part, that can be read without lock of file system (see {@link AsyncFileSystem}).
+ * Adjacent clusters are merged into one range, not allocated clusters have no range and are read as zeros.
+ * Data read by plan is valid only if file system was not changed during reading, it is checked by
+ * {@link FileSystemImpl#isReadPlanValid(ReadPlan)}.
+ */
+class ReadPlan {
+
+    /**
+     * count of bytes of read part
+     */
+    final int length;
+    /**
+     * offsets of ranges in storage
+     */
+    final long[] storageOffsets;
+    /**
+     * offsets of ranges in read part
+     */
+    final int[] partOffsets;
+    final int[] lengths;
+    final int modificationCount;
+    final int dataModificationCount;
+
+    ReadPlan(int length, long[] storageOffsets, int[] partOffsets, int[] lengths, int modificationCount,
+             int dataModificationCount) {
+        this.length = length;
+        this.storageOffsets = storageOffsets;
+        this.partOffsets = partOffsets;
+        this.lengths = lengths;
+        this.modificationCount = modificationCount;
+        this.dataModificationCount = dataModificationCount;
+    }
+}
@@ -0,0 +1,47 @@
+package maxim.z;
+
+import java.util.List;
+
+/**
+ * Result of verification of clusters checksums (see {@link VirtualFileSystem#scrub()})
+ */
+public class ScrubResult {
+
+    private final int checkedClustersCount;
+    private final List<Integer> corruptedClusters;
+    private final long checkedBytesCount;
+    private final long durationNanos;
+
+    ScrubResult(int checkedClustersCount, List<Integer> corruptedClusters, long checkedBytesCount, long durationNanos) {
+        this.checkedClustersCount = checkedClustersCount;
+        this.corruptedClusters = corruptedClusters;
+        this.checkedBytesCount = checkedBytesCount;
+        this.durationNanos = durationNanos;
+    }
+
+    public int getCheckedClustersCount() {
+        return checkedClustersCount;
+    }
+
+    /**
+     * @return indexes of clusters, which checksums don't match their data
+     */
+    public List<Integer> getCorruptedClusters() {
+        return corruptedClusters;
+    }
+
+    public long getCheckedBytesCount() {
+        return checkedBytesCount;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return verification speed in megabytes per second
+     */
+    public double getThroughputMBps() {
+        return durationNanos == 0 ? 0 : checkedBytesCount * 1000.0 / durationNanos;
+    }
+}
@@ -0,0 +1,229 @@
+package maxim.z;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Implementation of bytes storage in memory outside of java heap. Data is stored in direct buffers of fixed size
+ * (segments), so storage grows without copying of existing data and isn't limited by size of array. Segments are
+ * allocated on first write, not written regions are read as zeros. Memory of segments is freed on closing.
+ */
+public class SegmentedMemoryReaderWriter implements BytesReaderWriter {
+
+    private final static int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * Unsafe.invokeCleaner bound to Unsafe instance, null if it isn't available
+     */
+    private final static MethodHandle INVOKE_CLEANER = getInvokeCleaner();
+
+    private final int segmentSize;
+    /**
+     * segments by index, null for not allocated segments
+     */
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private long position;
+    private long length;
+    private boolean isClosed;
+
+    public SegmentedMemoryReaderWriter() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size of one segment in bytes
+     */
+    public SegmentedMemoryReaderWriter(int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException(String.format("Segment size must be positive, but was %d", segmentSize));
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+        checkNotClosed();
+        for (int written = 0; written < bytes.length; ) {
+            long offset = position + written;
+            int offsetInSegment = (int) (offset % segmentSize);
+            int count = Math.min(bytes.length - written, segmentSize - offsetInSegment);
+            getSegmentForWrite(getSegmentIndex(offset)).position(offsetInSegment).put(bytes, written, count);
+            written += count;
+        }
+        position += bytes.length;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public void readBytes(byte[] data) throws IOException {
+        checkNotClosed();
+        for (int read = 0; read < data.length; ) {
+            long offset = position + read;
+            int segmentIndex = getSegmentIndex(offset);
+            int offsetInSegment = (int) (offset % segmentSize);
+            int count = Math.min(data.length - read, segmentSize - offsetInSegment);
+            ByteBuffer segment = segmentIndex < segments.size() ? segments.get(segmentIndex) : null;
+            if (segment == null) {
+                Arrays.fill(data, read, read + count, (byte) 0);
+            } else {
+                segment.position(offsetInSegment).get(data, read, count);
+            }
+            read += count;
+        }
+        position += data.length;
+    }
+
+    /**
+     * Segments are written to channel directly, not allocated segments are written as zeros.
+     */
+    @Override
+    public void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+        checkNotClosed();
+        for (long transferred = 0; transferred < count; ) {
+            long offset = pos + transferred;
+            int segmentIndex = getSegmentIndex(offset);
+            int offsetInSegment = (int) (offset % segmentSize);
+            int length = (int) Math.min(count - transferred, segmentSize - offsetInSegment);
+            ByteBuffer segment = segmentIndex < segments.size() ? segments.get(segmentIndex) : null;
+            ByteBuffer part;
+            if (segment == null) {
+                part = ByteBuffer.allocate(length);
+            } else {
+                part = segment.duplicate().limit(offsetInSegment + length).position(offsetInSegment);
+            }
+            FSUtils.writeFully(target, part);
+            transferred += length;
+        }
+    }
+
+    @Override
+    public void seekAndRead(byte[] data, long pos) throws IOException {
+        seek(pos);
+        readBytes(data);
+    }
+
+    @Override
+    public void seekAndWrite(byte[] bytes, long pos) throws IOException {
+        seek(pos);
+        write(bytes);
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        checkNotClosed();
+        if (pos < 0) {
+            throw new IOException(String.format("Negative position %d", pos));
+        }
+        this.position = pos;
+    }
+
+    /**
+     * Segments after the new end are freed, rest of the last segment is filled by zeros.
+     */
+    @Override
+    public void setLength(long length) throws IOException {
+        checkNotClosed();
+        if (length < this.length) {
+            int keptSegmentsCount = getSegmentIndex(length + segmentSize - 1);
+            while (segments.size() > keptSegmentsCount) {
+                free(segments.remove(segments.size() - 1));
+            }
+            int offsetInSegment = (int) (length % segmentSize);
+            ByteBuffer lastSegment = offsetInSegment == 0 || segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (lastSegment != null) {
+                lastSegment.position(offsetInSegment).put(new byte[segmentSize - offsetInSegment]);
+            }
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return length of storage: end of the last written byte or length set by {@link #setLength(long)}
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return size of memory used by allocated segments in bytes
+     */
+    public long getAllocatedBytes() {
+        return segments.stream().filter(Objects::nonNull).count() * segmentSize;
+    }
+
+    private int getSegmentIndex(long offset) throws IOException {
+        long segmentIndex = offset / segmentSize;
+        if (segmentIndex >= Integer.MAX_VALUE) {
+            throw new IOException(String.format("Offset %d is too large for segments of %d bytes", offset, segmentSize));
+        }
+        return (int) segmentIndex;
+    }
+
+    private ByteBuffer getSegmentForWrite(int segmentIndex) {
+        while (segments.size() <= segmentIndex) {
+            segments.add(null);
+        }
+        ByteBuffer segment = segments.get(segmentIndex);
+        if (segment == null) {
+            segment = ByteBuffer.allocateDirect(segmentSize);
+            segments.set(segmentIndex, segment);
+        }
+        return segment;
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (isClosed) {
+            throw new IOException("Storage is closed");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        for (ByteBuffer segment : segments) {
+            free(segment);
+        }
+        segments.clear();
+    }
+
+    /**
+     * Frees memory of direct buffer immediately, if it's possible. Otherwise memory is freed, when buffer is collected.
+     */
+    private static void free(ByteBuffer segment) {
+        if (segment == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(segment);
+        } catch (Throwable e) {
+            // memory is freed by garbage collector
+        }
+    }
+
+    /**
+     * Unsafe is looked up by reflection, so compilation doesn't depend on internal API.
+     */
+    private static MethodHandle getInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package maxim.z;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol of {@link FileSystemServer}. Request is a command code and it's arguments, response is a status
+ * code and result of command. Names and paths are written by {@link DataOutputStream#writeUTF(String)}, contents
+ * of files are written as INT32 length and bytes. Results of commands:
+ * <ul>
+ * <li>{@link #CD} - path of new current directory</li>
+ * <li>{@link #READ} - content of file</li>
+ * <li>{@link #LS} - INT32 count of names and names</li>
+ * <li>other commands - nothing</li>
+ * </ul>
+ * If command failed, then status is {@link #STATUS_ERROR} and result is error message.
+ */
+class ServerProtocol {
+
+    /**
+     * argument is a directory name or ".."
+     */
+    final static byte CD = 1;
+    /**
+     * argument is a name of new directory
+     */
+    final static byte MKDIR = 2;
+    /**
+     * argument is a name of new file
+     */
+    final static byte MKFILE = 3;
+    /**
+     * arguments are a file name and content
+     */
+    final static byte WRITE = 4;
+    /**
+     * argument is a file name
+     */
+    final static byte READ = 5;
+    /**
+     * no arguments
+     */
+    final static byte LS = 6;
+    /**
+     * argument is a name of removed file or directory
+     */
+    final static byte RM = 7;
+
+    final static byte STATUS_OK = 0;
+    final static byte STATUS_ERROR = 1;
+
+    /**
+     * max length of content of file, that is accepted in request or response
+     */
+    final static int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+
+    static void writeContent(DataOutputStream output, byte[] content) throws IOException {
+        output.writeInt(content.length);
+        output.write(content);
+    }
+
+    static byte[] readContent(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_CONTENT_LENGTH) {
+            throw new IOException(String.format("incorrect content length %d", length));
+        }
+        byte[] content = new byte[length];
+        input.readFully(content);
+        return content;
+    }
+}
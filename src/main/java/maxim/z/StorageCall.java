@@ -0,0 +1,14 @@
+package maxim.z;
+
+/**
+ * Kinds of calls to {@link BytesReaderWriter}, that are counted by {@link InstrumentedReaderWriter}
+ */
+public enum StorageCall {
+    SEEK,
+    READ,
+    WRITE,
+    /**
+     * truncating or extending of storage
+     */
+    SET_LENGTH
+}
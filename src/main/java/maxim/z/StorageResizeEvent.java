@@ -0,0 +1,18 @@
+package maxim.z;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event of changing of clusters count, during which data area and tables of storage are moved
+ */
+@Name("maxim.z.StorageResize")
+@Label("Storage Resize")
+@Category("File System")
+class StorageResizeEvent extends Event {
+
+    @Label("Old Clusters Count")
+    int oldClusterCount;
+
+    @Label("New Clusters Count")
+    int newClusterCount;
+}
@@ -0,0 +1,348 @@
+package maxim.z;
+
+import maxim.z.exceptions.FSFormatException;
+import maxim.z.exceptions.FileNotFoundException;
+import maxim.z.exceptions.IncorrectNameException;
+import maxim.z.exceptions.WriteException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Streams subtrees of file system to and from archives in tar (ustar) format. Content of files is copied by parts
+ * of {@link #CHUNK_SIZE} bytes, so memory usage doesn't depend on size of files. On export contiguous clusters are
+ * written to channel by one call of storage (see {@link FileSystemImpl#transferTo(VirtualFile, int, int, WritableByteChannel)}).
+ * Only directories and regular files are supported, other entries of archive are skipped on import.
+ */
+public class TarArchive {
+
+    final static int BLOCK_SIZE = 512;
+    /**
+     * size of part of file, that is copied by one operation of file system
+     */
+    private final static int CHUNK_SIZE = 256 * 1024;
+    private final static int NAME_LENGTH = 100;
+    private final static int PREFIX_LENGTH = 155;
+    private final static int SIZE_OFFSET = 124;
+    private final static int CHECKSUM_OFFSET = 148;
+    private final static int TYPE_OFFSET = 156;
+    private final static int MAGIC_OFFSET = 257;
+    private final static int PREFIX_OFFSET = 345;
+    private final static byte REGULAR_FILE_TYPE = '0';
+    private final static byte OLD_REGULAR_FILE_TYPE = 0;
+    private final static byte DIRECTORY_TYPE = '5';
+
+    private final FileSystemImpl fs;
+
+    /**
+     * @param fs file system for export and import
+     */
+    public TarArchive(VirtualFileSystem fs) {
+        this.fs = (FileSystemImpl) fs;
+    }
+
+    /**
+     * Writes directories and files of specified directory to archive. Paths in archive are relative to directory.
+     *
+     * @param source directory of file system
+     * @param target channel for archive, it isn't closed
+     * @return count of written files and directories and bytes of files content
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if source directory was not found
+     * @throws WriteException        if path of some file is too long for archive
+     */
+    public TransferProgress exportTree(VirtualFile source, WritableByteChannel target) throws IOException {
+        if (!fs.isDirectoryExist(source)) {
+            throw new FileNotFoundException(String.format("directory %s was not found", source.getPath()));
+        }
+        long startTime = System.nanoTime();
+        long modificationTime = System.currentTimeMillis() / 1000;
+        int filesCount = 0;
+        long bytesCount = 0;
+        Deque<VirtualFile> notWalkedDirectories = new ArrayDeque<>();
+        Deque<String> notWalkedDirectoryPaths = new ArrayDeque<>();
+        notWalkedDirectories.push(source);
+        notWalkedDirectoryPaths.push("");
+        while (!notWalkedDirectories.isEmpty()) {
+            VirtualFile directory = notWalkedDirectories.pop();
+            String directoryPath = notWalkedDirectoryPaths.pop();
+            if (!directoryPath.isEmpty()) {
+                FSUtils.writeFully(target, ByteBuffer.wrap(createHeader(directoryPath, DIRECTORY_TYPE, 0, modificationTime)));
+                filesCount++;
+            }
+            List<String> childDirectoryNames = new ArrayList<>();
+            for (String name : fs.getFilesList(directory)) {
+                VirtualFile child = directory.child(name);
+                if (fs.isDirectoryExist(child)) {
+                    childDirectoryNames.add(name);
+                } else {
+                    bytesCount += exportFile(child, directoryPath + name, target, modificationTime);
+                    filesCount++;
+                }
+            }
+            for (int i = childDirectoryNames.size() - 1; i >= 0; i--) {
+                notWalkedDirectories.push(directory.child(childDirectoryNames.get(i)));
+                notWalkedDirectoryPaths.push(directoryPath + childDirectoryNames.get(i) + "/");
+            }
+        }
+        writeZeros(target, 2 * BLOCK_SIZE);
+        return new TransferProgress(filesCount, filesCount, bytesCount, bytesCount, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Writes header and content of file. If file is changed during writing, then archive contains size from header,
+     * missing bytes are written as zeros.
+     *
+     * @return size of file
+     */
+    private long exportFile(VirtualFile file, String path, WritableByteChannel target, long modificationTime) throws IOException {
+        long size;
+        try (VirtualFileChannel channel = fs.openChannel(file)) {
+            size = channel.size();
+        }
+        FSUtils.writeFully(target, ByteBuffer.wrap(createHeader(path, REGULAR_FILE_TYPE, size, modificationTime)));
+        long writtenBytesCount = 0;
+        while (writtenBytesCount < size) {
+            int count = (int) Math.min(CHUNK_SIZE, size - writtenBytesCount);
+            int writtenNow = fs.transferTo(file, (int) writtenBytesCount, count, target);
+            writtenBytesCount += writtenNow;
+            if (writtenNow < count) {
+                break;
+            }
+        }
+        writeZeros(target, size - writtenBytesCount + getPaddingLength(size));
+        return size;
+    }
+
+    /**
+     * Creates directories and files from archive in specified directory. Missing parent directories are created,
+     * existing files are overwritten.
+     *
+     * @param source channel of archive, it isn't closed
+     * @param target existing directory of file system
+     * @return count of created files and directories and bytes of files content
+     * @throws IOException            on any default IO error
+     * @throws FileNotFoundException  if target directory was not found
+     * @throws FSFormatException      if archive is damaged
+     * @throws IncorrectNameException if name of some file in archive is not allowed in file system
+     */
+    public TransferProgress importTree(ReadableByteChannel source, VirtualFile target) throws IOException {
+        if (!fs.isDirectoryExist(target)) {
+            throw new FileNotFoundException(String.format("directory %s was not found", target.getPath()));
+        }
+        long startTime = System.nanoTime();
+        int filesCount = 0;
+        long bytesCount = 0;
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        while (true) {
+            header.clear();
+            if (!readFully(source, header)) {
+                throw new FSFormatException("unexpected end of archive");
+            }
+            byte[] headerBytes = header.array();
+            if (isZeroBlock(headerBytes)) {
+                break;
+            }
+            checkHeader(headerBytes);
+            long size = parseOctal(headerBytes, SIZE_OFFSET, 12);
+            byte type = headerBytes[TYPE_OFFSET];
+            if (type == DIRECTORY_TYPE) {
+                createDirectories(toVirtualFile(target, getPath(headerBytes)));
+                filesCount++;
+            } else if (type == REGULAR_FILE_TYPE || type == OLD_REGULAR_FILE_TYPE) {
+                if (size > Integer.MAX_VALUE) {
+                    throw new WriteException(String.format("file %s is larger than %s bytes", getPath(headerBytes), Integer.MAX_VALUE));
+                }
+                VirtualFile file = toVirtualFile(target, getPath(headerBytes));
+                importFile(source, file, size, chunk);
+                filesCount++;
+                bytesCount += size;
+            } else {
+                skip(source, size + getPaddingLength(size), chunk);
+                continue;
+            }
+            skip(source, getPaddingLength(size), chunk);
+        }
+        return new TransferProgress(filesCount, filesCount, bytesCount, bytesCount, System.nanoTime() - startTime);
+    }
+
+    private void importFile(ReadableByteChannel source, VirtualFile file, long size, ByteBuffer chunk) throws IOException {
+        createDirectories(file.parent());
+        // shrunk storage doesn't grow on allocation, one more cluster is for growth of parent directory
+        int clusterSize = fs.getClusterSize();
+        fs.reserveClusters((int) Math.min(Integer.MAX_VALUE, (size + FSConstants.FILE_HEADER_LENGTH + clusterSize - 1) / clusterSize + 1));
+        if (!fs.exist(file)) {
+            fs.createFile(file.parent(), file.getName());
+        }
+        try (VirtualFileChannel channel = fs.openChannel(file)) {
+            channel.truncate(0);
+            for (long readBytesCount = 0; readBytesCount < size; ) {
+                chunk.clear().limit((int) Math.min(chunk.capacity(), size - readBytesCount));
+                if (!readFully(source, chunk)) {
+                    throw new FSFormatException(String.format("unexpected end of archive in file %s", file.getPath()));
+                }
+                chunk.flip();
+                readBytesCount += chunk.remaining();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        }
+    }
+
+    private void createDirectories(VirtualFile directory) throws IOException {
+        if (fs.isDirectoryExist(directory)) {
+            return;
+        }
+        createDirectories(directory.parent());
+        fs.createDirectory(directory.parent(), directory.getName());
+    }
+
+    private static VirtualFile toVirtualFile(VirtualFile target, String path) {
+        VirtualFile result = target;
+        for (String name : path.split("/")) {
+            if (name.isEmpty() || name.equals(".")) {
+                continue;
+            }
+            if (!FSUtils.isCorrectName(name)) {
+                throw new IncorrectNameException(String.format("name of archive entry %s is not allowed", path));
+            }
+            result = result.child(name);
+        }
+        return result;
+    }
+
+    private static byte[] createHeader(String path, byte type, long size, long modificationTime) {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        int nameStart = 0;
+        if (pathBytes.length > NAME_LENGTH) {
+            nameStart = path.indexOf('/', path.length() - NAME_LENGTH - 1) + 1;
+            if (nameStart == 0 || nameStart == path.length() || nameStart - 1 > PREFIX_LENGTH) {
+                throw new WriteException(String.format("path %s is too long for archive", path));
+            }
+            System.arraycopy(pathBytes, 0, header, PREFIX_OFFSET, nameStart - 1);
+        }
+        System.arraycopy(pathBytes, nameStart, header, 0, pathBytes.length - nameStart);
+        writeOctal(header, 100, 8, type == DIRECTORY_TYPE ? 0755 : 0644);
+        writeOctal(header, 108, 8, 0);
+        writeOctal(header, 116, 8, 0);
+        writeOctal(header, SIZE_OFFSET, 12, size);
+        writeOctal(header, 136, 12, modificationTime);
+        header[TYPE_OFFSET] = type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, MAGIC_OFFSET, 8);
+        writeOctal(header, CHECKSUM_OFFSET, 7, calculateChecksum(header));
+        header[CHECKSUM_OFFSET + 7] = ' ';
+        return header;
+    }
+
+    private static void checkHeader(byte[] header) {
+        long expectedChecksum = parseOctal(header, CHECKSUM_OFFSET, 8);
+        if (expectedChecksum != calculateChecksum(header)) {
+            throw new FSFormatException("checksum of archive entry header doesn't match");
+        }
+    }
+
+    /**
+     * @return sum of header bytes, where checksum field is counted as spaces
+     */
+    private static long calculateChecksum(byte[] header) {
+        long result = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            result += (i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + 8) ? ' ' : header[i] & 0xFF;
+        }
+        return result;
+    }
+
+    private static String getPath(byte[] header) {
+        String name = parseString(header, 0, NAME_LENGTH);
+        boolean isUstar = parseString(header, MAGIC_OFFSET, 6).equals("ustar") && header[MAGIC_OFFSET + 5] == 0;
+        String prefix = isUstar ? parseString(header, PREFIX_OFFSET, PREFIX_LENGTH) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String parseString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes value as octal digits with leading zeros and terminating zero byte
+     */
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) {
+            throw new WriteException(String.format("value %s is too large for archive header", value));
+        }
+        for (int i = 0; i < length - 1; i++) {
+            int digitIndex = i - (length - 1 - digits.length());
+            header[offset + i] = (byte) (digitIndex < 0 ? '0' : digits.charAt(digitIndex));
+        }
+        header[offset + length - 1] = 0;
+    }
+
+    private static long parseOctal(byte[] header, int offset, int length) {
+        long result = 0;
+        for (int i = offset; i < offset + length && header[i] != 0 && header[i] != ' '; i++) {
+            if (header[i] < '0' || header[i] > '7') {
+                throw new FSFormatException(String.format("incorrect number in archive entry header at %d", i));
+            }
+            result = result * 8 + (header[i] - '0');
+        }
+        return result;
+    }
+
+    private static void writeZeros(WritableByteChannel target, long count) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(count, CHUNK_SIZE));
+        for (long writtenBytesCount = 0; writtenBytesCount < count; writtenBytesCount += zeros.limit()) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), count - writtenBytesCount));
+            FSUtils.writeFully(target, zeros);
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getPaddingLength(long size) {
+        return (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    /**
+     * @return false, if channel ended before buffer was filled
+     */
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skip(ReadableByteChannel channel, long count, ByteBuffer buffer) throws IOException {
+        for (long skipped = 0; skipped < count; ) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - skipped));
+            if (!readFully(channel, buffer)) {
+                throw new FSFormatException("unexpected end of archive");
+            }
+            skipped += buffer.limit();
+        }
+    }
+}
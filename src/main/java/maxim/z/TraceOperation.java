@@ -0,0 +1,27 @@
+package maxim.z;
+
+/**
+ * Operations of file system, that are recorded by {@link TraceRecorder} and generated by {@link WorkloadGenerator}
+ */
+public enum TraceOperation {
+    CREATE_FILE,
+    CREATE_DIRECTORY,
+    /**
+     * replacing of whole content of file
+     */
+    WRITE,
+    /**
+     * writing of part of file starting from offset
+     */
+    WRITE_AT,
+    READ,
+    LIST,
+    /**
+     * removing of file
+     */
+    REMOVE,
+    /**
+     * removing of file or directory with all content
+     */
+    REMOVE_RECURSIVE
+}
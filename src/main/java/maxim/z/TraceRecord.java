@@ -0,0 +1,92 @@
+package maxim.z;
+
+import maxim.z.exceptions.FSFormatException;
+
+/**
+ * One operation of trace. In trace file every record is a line
+ * "elapsed_nanos thread_id operation offset length path", path is the last, because names may contain spaces.
+ * Content of written data isn't recorded, only it's length.
+ */
+public class TraceRecord {
+
+    /**
+     * length of reading of whole file
+     */
+    final static long WHOLE_FILE_LENGTH = -1;
+
+    private final long elapsedNanos;
+    private final long threadId;
+    private final TraceOperation operation;
+    private final long offset;
+    private final long length;
+    private final String path;
+
+    TraceRecord(long elapsedNanos, long threadId, TraceOperation operation, long offset, long length, String path) {
+        this.elapsedNanos = elapsedNanos;
+        this.threadId = threadId;
+        this.operation = operation;
+        this.offset = offset;
+        this.length = length;
+        this.path = path;
+    }
+
+    /**
+     * @param line line of trace file
+     * @return parsed record
+     * @throws FSFormatException if line has incorrect format
+     */
+    static TraceRecord parse(String line) {
+        String[] parts = line.split(" ", 6);
+        if (parts.length != 6) {
+            throw new FSFormatException(String.format("incorrect trace record '%s'", line));
+        }
+        try {
+            return new TraceRecord(Long.parseLong(parts[0]), Long.parseLong(parts[1]), TraceOperation.valueOf(parts[2]),
+                    Long.parseLong(parts[3]), Long.parseLong(parts[4]), parts[5]);
+        } catch (IllegalArgumentException e) {
+            throw new FSFormatException(String.format("incorrect trace record '%s'", line), e);
+        }
+    }
+
+    /**
+     * @return time from start of recording to start of operation
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return id of thread, that executed operation
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public TraceOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return offset of written or read part of file, 0 for other operations
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return count of written or requested for reading bytes, {@link #WHOLE_FILE_LENGTH} for reading of whole file,
+     * 0 for other operations
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return elapsedNanos + " " + threadId + " " + operation + " " + offset + " " + length + " " + path;
+    }
+}
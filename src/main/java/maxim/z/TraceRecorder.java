@@ -0,0 +1,65 @@
+package maxim.z;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes trace of operations of file system to host file (see {@link VirtualFileSystem#setTraceRecorder(TraceRecorder)}).
+ * Records are written in order of execution, trace can be replayed by {@link WorkloadGenerator#replay(Path, boolean)}.
+ * Failure of writing doesn't break operations of file system, it's thrown on closing of recorder.
+ */
+public class TraceRecorder implements Closeable {
+
+    private final BufferedWriter writer;
+    private final long startTime = System.nanoTime();
+    private long recordsCount;
+    private IOException failure;
+
+    /**
+     * @param target path of trace file, existing file is replaced
+     * @throws IOException if file can't be created
+     */
+    public TraceRecorder(Path target) throws IOException {
+        this.writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8);
+    }
+
+    synchronized void record(TraceOperation operation, String path, long offset, long length) {
+        if (failure != null) {
+            return;
+        }
+        TraceRecord record = new TraceRecord(System.nanoTime() - startTime, Thread.currentThread().getId(), operation,
+                offset, length, path);
+        try {
+            writer.write(record.toString());
+            writer.newLine();
+            recordsCount++;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    public synchronized long getRecordsCount() {
+        return recordsCount;
+    }
+
+    /**
+     * @throws IOException if some record was not written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
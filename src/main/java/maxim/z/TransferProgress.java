@@ -0,0 +1,60 @@
+package maxim.z;
+
+/**
+ * Progress of {@link HostTransfer}, that is reported after every transferred file
+ */
+public class TransferProgress {
+
+    private final int filesCount;
+    private final int totalFilesCount;
+    private final long bytesCount;
+    private final long totalBytesCount;
+    private final long elapsedNanos;
+
+    TransferProgress(int filesCount, int totalFilesCount, long bytesCount, long totalBytesCount, long elapsedNanos) {
+        this.filesCount = filesCount;
+        this.totalFilesCount = totalFilesCount;
+        this.bytesCount = bytesCount;
+        this.totalBytesCount = totalBytesCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return count of transferred files and directories
+     */
+    public int getFilesCount() {
+        return filesCount;
+    }
+
+    public int getTotalFilesCount() {
+        return totalFilesCount;
+    }
+
+    /**
+     * @return count of transferred bytes of files content
+     */
+    public long getBytesCount() {
+        return bytesCount;
+    }
+
+    public long getTotalBytesCount() {
+        return totalBytesCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return average throughput since the beginning of transfer
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytesCount * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files: %s/%s, bytes: %s/%s, elapsed: %s ms, throughput: %.1f MB/s", filesCount,
+                totalFilesCount, bytesCount, totalBytesCount, elapsedNanos / 1_000_000, getBytesPerSecond() / (1024 * 1024));
+    }
+}
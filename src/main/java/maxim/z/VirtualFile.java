@@ -75,6 +75,15 @@ public interface VirtualFile {
      */
     VirtualOutputStream getOutputStream();
 
+    /**
+     * open channel for random access to data of this file
+     *
+     * @return new channel with position at the beginning of file
+     * @throws FileNotFoundException if file was not found
+     * @throws IOException           on any default IO error
+     */
+    VirtualFileChannel openChannel() throws IOException;
+
     /**
      * @return true, if this file exist, otherwise false
      * @throws IOException on any default IO error
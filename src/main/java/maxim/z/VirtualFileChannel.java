@@ -0,0 +1,113 @@
+package maxim.z;
+
+import maxim.z.exceptions.WriteException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Channel for random access to data of virtual file. Clusters of file are cached between operations, so
+ * sequential reads and overwrites of existing data don't resolve file path and walk cluster chain again.
+ * Cache is dropped after any change of file system structure. Channel is not thread safe.
+ */
+public class VirtualFileChannel implements SeekableByteChannel {
+
+    private final FileSystemImpl fs;
+    private final VirtualFile file;
+    private FileChain chain;
+    private long position = 0;
+    private boolean isOpen = true;
+
+    VirtualFileChannel(FileSystemImpl fs, VirtualFile file) throws IOException {
+        this.fs = fs;
+        this.file = file;
+        this.chain = fs.getFileChain(file, null, false);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        byte[] data;
+        do {
+            chain = fs.getFileChain(file, chain, false);
+            if (position >= chain.file.size) {
+                return -1;
+            }
+            data = fs.read(chain, (int) position, dst.remaining());
+        } while (data == null);
+        dst.put(data);
+        position += data.length;
+        return data.length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        if (position + src.remaining() > Integer.MAX_VALUE) {
+            throw new WriteException(String.format("file %s can't be larger than %s bytes", file.getPath(), Integer.MAX_VALUE));
+        }
+        byte[] content = new byte[src.remaining()];
+        src.get(content);
+        chain = fs.getFileChain(file, chain, true);
+        if (!fs.writeInPlace(chain, (int) position, content)) {
+            fs.write(file, (int) position, content);
+        }
+        position += content.length;
+        return content.length;
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public VirtualFileChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException(String.format("incorrect position %s", newPosition));
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        chain = fs.getFileChain(file, chain, false);
+        return chain.file.size;
+    }
+
+    @Override
+    public VirtualFileChannel truncate(long size) throws IOException {
+        checkOpen();
+        if (size < 0) {
+            throw new IllegalArgumentException(String.format("incorrect size %s", size));
+        }
+        if (size < size()) {
+            fs.truncate(file, (int) size);
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    @Override
+    public void close() {
+        isOpen = false;
+        chain = null;
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!isOpen) {
+            throw new ClosedChannelException();
+        }
+    }
+}
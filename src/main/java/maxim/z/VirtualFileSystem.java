@@ -4,6 +4,7 @@ import maxim.z.exceptions.*;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 public abstract class VirtualFileSystem implements Closeable {
@@ -31,7 +32,8 @@ public abstract class VirtualFileSystem implements Closeable {
     abstract void write(VirtualFile file, byte[] content) throws IOException;
 
     /**
-     * Overrides data of specified file starting from offset by specified content.
+     * Overrides data of specified file starting from offset by specified content. Data after the written part
+     * is kept, file is extended, if content is written after the end of file.
      *
      * @param file    file for writing data
      * @param content bytes, that must written to file
@@ -42,6 +44,69 @@ public abstract class VirtualFileSystem implements Closeable {
      */
     abstract void write(VirtualFile file, int offset, byte[] content) throws IOException;
 
+    /**
+     * Changes size of specified file. Clusters after the new end of file are freed, if file is extended,
+     * then new part of file is filled by zeros and doesn't use clusters.
+     *
+     * @param file    file for changing
+     * @param newSize new size of file in bytes
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     */
+    abstract void truncate(VirtualFile file, int newSize) throws IOException;
+
+    /**
+     * Makes target file a copy of source file. Data clusters are not copied, but shared between both files
+     * until one of them is changed. If target file doesn't exist, it will be created.
+     *
+     * @param source file for copying
+     * @param target file, that will contain data of source file
+     * @throws IOException            on any default IO error
+     * @throws FileNotFoundException  if source file or target parent directory was not found
+     * @throws WriteException         if source or target file is a directory
+     * @throws IncorrectNameException if target file name contains forbidden symbols
+     */
+    abstract void clone(VirtualFile source, VirtualFile target) throws IOException;
+
+    /**
+     * Frees all clusters of file, which data is completely inside of specified region, and fills by zeros rest
+     * of region. Freed region is read as zeros. File size is not changed.
+     *
+     * @param file   file for changing
+     * @param from   start byte index of region
+     * @param length length of region in bytes
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     */
+    abstract void punchHole(VirtualFile file, int from, int length) throws IOException;
+
+    /**
+     * Applies changes collected by specified action at once. Names of all created files are checked before
+     * any change, clusters for all created files are allocated together and every parent directory is changed once.
+     * Writes of existing files are applied after creation of files.
+     *
+     * @param action action, that collects changes
+     * @throws IOException            on any default IO error
+     * @throws IncorrectNameException if name contains forbidden symbols or file with this name already exist
+     * @throws FileNotFoundException  if parent directory was not found
+     * @throws CreateFileException    if parent object is not directory
+     * @throws FSException            if there are not enough free clusters for created files
+     */
+    abstract void batch(BatchAction action) throws IOException;
+
+    /**
+     * Enables or disables compression of specified file. Current content of file is converted.
+     *
+     * @param file       file for changing
+     * @param compressed true for storing file data compressed
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is not available for writing (e.g. file is a directory)
+     */
+    abstract void setCompressed(VirtualFile file, boolean compressed) throws IOException;
+
     /**
      * Reads file content and return it
      *
@@ -54,17 +119,30 @@ public abstract class VirtualFileSystem implements Closeable {
     abstract byte[] read(VirtualFile file) throws IOException;
 
     /**
-     * Reads file content part and return it. If bytes count is more than file size,
-     * then result buffer size will be equals to file size, not count.
+     * Reads file content part and return it. If bytes count is more than rest of file after start index,
+     * then result buffer size will be equals to size of that rest, not count.
      *
      * @param file  file for reading data
      * @param from  start byte index for reading
      * @param count count of bytes for reading
-     * @return data of specified file. Byte array have array equals count, but
-     * @throws IOException on any default IO error
+     * @return part of data of specified file
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
      */
     abstract byte[] read(VirtualFile file, int from, int count) throws IOException;
 
+    /**
+     * Opens channel for random access to data of specified file.
+     *
+     * @param file file for reading and writing data
+     * @return new channel with position at the beginning of file
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws ReadException         if specified file is not available for reading (e.g. file is a directory)
+     */
+    abstract VirtualFileChannel openChannel(VirtualFile file) throws IOException;
+
     /**
      * Reads file content and return it
      *
@@ -111,6 +189,151 @@ public abstract class VirtualFileSystem implements Closeable {
      */
     abstract void removeFile(VirtualFile file) throws IOException;
 
+    /**
+     * Removes specified file or directory with all it's content. File is unlinked from parent directory immediately,
+     * clusters of file and all it's children are freed later by background thread with limited rate.
+     *
+     * @param file file or directory for removing
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if specified file was not found
+     * @throws WriteException        if specified file is root directory
+     */
+    abstract void removeRecursive(VirtualFile file) throws IOException;
+
+    /**
+     * Frees clusters of all files removed by {@link #removeRecursive(VirtualFile)} immediately in current thread.
+     *
+     * @throws IOException on any default IO error
+     */
+    abstract void reclaimRemovedFiles() throws IOException;
+
+    /**
+     * Creates a snapshot of whole file system with specified name. Creation time doesn't depend on file system size,
+     * files are copied only when they are changed after snapshot creation.
+     *
+     * @param name name of new snapshot
+     * @throws IOException            on any default IO error
+     * @throws IncorrectNameException if name contains forbidden symbols or snapshot with this name already exist
+     * @throws WriteException         if current file system is a snapshot
+     * @throws FSException            if snapshots limit is reached
+     */
+    abstract void createSnapshot(String name) throws IOException;
+
+    /**
+     * Removes snapshot with specified name. Opened file system of this snapshot must not be used after removing.
+     *
+     * @param name name of snapshot
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if snapshot was not found
+     * @throws WriteException        if current file system is a snapshot
+     */
+    abstract void removeSnapshot(String name) throws IOException;
+
+    /**
+     * @return names of all snapshots
+     * @throws IOException on any default IO error
+     */
+    abstract List<String> getSnapshotsList() throws IOException;
+
+    /**
+     * Opens read-only file system, that contains data of snapshot with specified name.
+     * Closing of snapshot doesn't close current file system.
+     *
+     * @param name name of snapshot
+     * @return read-only file system of snapshot
+     * @throws IOException           on any default IO error
+     * @throws FileNotFoundException if snapshot was not found
+     */
+    abstract VirtualFileSystem openSnapshot(String name) throws IOException;
+
+    /**
+     * Verifies checksums of all used clusters.
+     *
+     * @return result of verification
+     * @throws IOException on any default IO error
+     * @throws FSException if checksums are disabled for this file system
+     */
+    abstract ScrubResult scrub() throws IOException;
+
+    /**
+     * Checks consistency of file system: FAT chains against file sizes, references counts against links,
+     * directory links and headers. Orphaned and cross-linked clusters are found too.
+     *
+     * @param repair if true, then found problems are repaired, when it is possible
+     * @return result of check
+     * @throws IOException    on any default IO error
+     * @throws WriteException if repair is requested for read-only snapshot
+     */
+    abstract FsckResult fsck(boolean repair) throws IOException;
+
+    /**
+     * @return statistics of clusters deduplication since file system opening
+     * @throws FSException if deduplication is disabled for this file system
+     */
+    abstract DeduplicationStatistics getDeduplicationStatistics();
+
+    /**
+     * @return statistics of placement of files clusters in storage
+     * @throws IOException on any default IO error
+     */
+    abstract FragmentationStatistics getFragmentationStatistics() throws IOException;
+
+    /**
+     * Makes one step of defragmentation: fragmented files are moved into contiguous runs of free clusters and
+     * files are moved closer to the beginning of storage. Files shared with snapshots are not moved.
+     *
+     * @param maxMovedClustersCount limit of moved clusters for this step (at least one file is moved anyway)
+     * @return count of moved clusters, 0 if nothing can be improved
+     * @throws IOException    on any default IO error
+     * @throws WriteException if file system is read-only snapshot
+     */
+    abstract int defragment(int maxMovedClustersCount) throws IOException;
+
+    /**
+     * Cuts free clusters from the end of storage. Clusters can't be allocated beyond the new end, until storage
+     * grows back by {@link #reserveClusters(int)}.
+     *
+     * @return count of released clusters
+     * @throws IOException    on any default IO error
+     * @throws WriteException if file system is read-only snapshot
+     */
+    abstract int shrink() throws IOException;
+
+    /**
+     * Grows storage, so specified count of clusters can be allocated. It's the only way to grow storage after
+     * {@link #shrink()}: allocation never grows it, because data area and tables are moved in place. Storage doesn't
+     * grow beyond clusters count specified on formatting.
+     *
+     * @param clustersCount count of clusters, that will be allocated
+     * @return count of free clusters after growing
+     * @throws IOException    on any default IO error
+     * @throws WriteException if file system is read-only snapshot
+     */
+    abstract int reserveClusters(int clustersCount) throws IOException;
+
+    /**
+     * @return size of one cluster in bytes
+     */
+    abstract int getClusterSize();
+
+    /**
+     * Starts writing of public operations (creating, writing, reading, listing and removing of files) to trace.
+     * Operation is written once, even if it calls other public operations. Recorder isn't closed by file system.
+     *
+     * @param recorder recorder of trace or null to stop recording
+     */
+    abstract void setTraceRecorder(TraceRecorder recorder);
+
+    /**
+     * Saves image of whole file system to host file. Clusters of files removed by
+     * {@link #removeRecursive(VirtualFile)} are freed before saving, free clusters aren't written.
+     * Saved image can be loaded by {@link FileSystemFactory#loadImage(Path)} or opened as file storage.
+     *
+     * @param target path of host file, existing file is replaced
+     * @throws IOException on any default IO error
+     */
+    abstract void saveImage(Path target) throws IOException;
+
     /**
      * @param file specified directory
      * @return true, is specified directory exist. Otherwise return false
@@ -0,0 +1,388 @@
+package maxim.z;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives file system by generated workload or by replay of recorded trace (see {@link TraceRecorder}) and measures
+ * latencies of operations. After workload consistency of file system is checked.
+ * <p>
+ * Generated workload works in new directory "workload" (or "workload-N", if it exists) with tree of directories
+ * created before measurement. Every thread creates, writes, reads and removes it's own files in leaf directories
+ * and lists all directories, so operations fail only because of errors of file system or lack of free space.
+ */
+public class WorkloadGenerator {
+
+    private final static String ROOT_NAME = "workload";
+
+    private final VirtualFileSystem fs;
+
+    /**
+     * @param fs file system for workload
+     */
+    public WorkloadGenerator(VirtualFileSystem fs) {
+        this.fs = fs;
+    }
+
+    /**
+     * @param options options of workload
+     * @return latencies of operations and result of consistency check
+     * @throws IOException          on any default IO error while creating of directories or checking of file system
+     * @throws InterruptedException if current thread was interrupted while waiting for workload threads
+     */
+    public WorkloadResult generate(WorkloadOptions options) throws IOException, InterruptedException {
+        int totalWeight = 0;
+        for (TraceOperation operation : TraceOperation.values()) {
+            totalWeight += options.getWeight(operation);
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Mix of operations is empty");
+        }
+        List<VirtualFile> directories = new ArrayList<>();
+        List<VirtualFile> leafDirectories = createTree(options, directories);
+
+        int threadsCount = options.getThreadsCount();
+        OperationStatistics[] statistics = new OperationStatistics[threadsCount];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            int threadIndex = i;
+            int operationsCount = options.getOperationsCount() / threadsCount
+                    + (i < options.getOperationsCount() % threadsCount ? 1 : 0);
+            statistics[i] = new OperationStatistics();
+            Worker worker = new Worker(options, totalWeight, threadIndex, directories, leafDirectories, statistics[i]);
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.run(operationsCount);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "fs-workload-" + i);
+            threads.add(thread);
+        }
+        long startTime = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        if (failure.get() != null) {
+            throw new IllegalStateException("workload thread failed", failure.get());
+        }
+        return createResult(statistics, elapsedNanos);
+    }
+
+    /**
+     * Replays trace on file system. Trace should be replayed on copy of image, that was recorded, otherwise
+     * operations fail because of missing files, failed operations are counted in result.
+     *
+     * @param trace      path of trace file
+     * @param keepTiming if false, operations are executed by one thread in recorded order as fast as possible,
+     *                   if true, operations of every recorded thread are executed by separate thread at recorded time
+     *                   since start of replay, so concurrency of original load is reproduced, but operations may
+     *                   fail, if replay is slower than original load and dependent operations of different threads
+     *                   are reordered
+     * @return latencies of operations and result of consistency check
+     * @throws IOException          on any default IO error while reading of trace or checking of file system
+     * @throws InterruptedException if current thread was interrupted while waiting for replay threads
+     */
+    public WorkloadResult replay(Path trace, boolean keepTiming) throws IOException, InterruptedException {
+        List<TraceRecord> records = new ArrayList<>();
+        for (String line : Files.readAllLines(trace, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                records.add(TraceRecord.parse(line));
+            }
+        }
+        if (!keepTiming) {
+            OperationStatistics statistics = new OperationStatistics();
+            Random random = new Random(0);
+            long startTime = System.nanoTime();
+            for (TraceRecord record : records) {
+                replay(record, statistics, random);
+            }
+            return createResult(new OperationStatistics[]{statistics}, System.nanoTime() - startTime);
+        }
+
+        Map<Long, List<TraceRecord>> recordsByThreads = new LinkedHashMap<>();
+        for (TraceRecord record : records) {
+            recordsByThreads.computeIfAbsent(record.getThreadId(), k -> new ArrayList<>()).add(record);
+        }
+        OperationStatistics[] statistics = new OperationStatistics[recordsByThreads.size()];
+        List<Thread> threads = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (List<TraceRecord> threadRecords : recordsByThreads.values()) {
+            OperationStatistics threadStatistics = new OperationStatistics();
+            statistics[threads.size()] = threadStatistics;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(threadRecords.get(0).getThreadId());
+                try {
+                    for (TraceRecord record : threadRecords) {
+                        long delay = startTime + record.getElapsedNanos() - System.nanoTime();
+                        if (delay > 0) {
+                            TimeUnit.NANOSECONDS.sleep(delay);
+                        }
+                        replay(record, threadStatistics, random);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "fs-replay-" + threads.size());
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return createResult(statistics, System.nanoTime() - startTime);
+    }
+
+    private void replay(TraceRecord record, OperationStatistics statistics, Random random) {
+        VirtualFile file = FileImpl.fromPath(record.getPath(), fs);
+        byte[] content = null;
+        if (record.getOperation() == TraceOperation.WRITE || record.getOperation() == TraceOperation.WRITE_AT) {
+            content = new byte[(int) record.getLength()];
+            random.nextBytes(content);
+        }
+        long startTime = System.nanoTime();
+        boolean isFailed = false;
+        try {
+            switch (record.getOperation()) {
+                case CREATE_FILE:
+                    fs.createFile(file.parent(), file.getName());
+                    break;
+                case CREATE_DIRECTORY:
+                    fs.createDirectory(file.parent(), file.getName());
+                    break;
+                case WRITE:
+                    fs.write(file, content);
+                    break;
+                case WRITE_AT:
+                    fs.write(file, (int) record.getOffset(), content);
+                    break;
+                case READ:
+                    if (record.getLength() == TraceRecord.WHOLE_FILE_LENGTH) {
+                        fs.read(file);
+                    } else {
+                        fs.read(file, (int) record.getOffset(), (int) record.getLength());
+                    }
+                    break;
+                case LIST:
+                    fs.getFilesList(file);
+                    break;
+                case REMOVE:
+                    fs.removeFile(file);
+                    break;
+                case REMOVE_RECURSIVE:
+                    fs.removeRecursive(file);
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            isFailed = true;
+        }
+        statistics.add(record.getOperation(), System.nanoTime() - startTime, isFailed);
+    }
+
+    /**
+     * Creates root directory of workload and tree of directories in it
+     *
+     * @param directories list for all created directories including root
+     * @return directories of the last level
+     */
+    private List<VirtualFile> createTree(WorkloadOptions options, List<VirtualFile> directories) throws IOException {
+        String rootName = ROOT_NAME;
+        for (int i = 1; fs.exist(fs.getRootFile().child(rootName)); i++) {
+            rootName = ROOT_NAME + "-" + i;
+        }
+        List<VirtualFile> level = new ArrayList<>();
+        level.add(fs.createDirectory(fs.getRootFile(), rootName));
+        directories.addAll(level);
+        for (int depth = 0; depth < options.getDepth(); depth++) {
+            List<VirtualFile> nextLevel = new ArrayList<>();
+            for (VirtualFile directory : level) {
+                for (int i = 0; i < options.getDirectoriesCount(); i++) {
+                    nextLevel.add(fs.createDirectory(directory, "d" + i));
+                }
+            }
+            directories.addAll(nextLevel);
+            level = nextLevel;
+        }
+        return level;
+    }
+
+    private WorkloadResult createResult(OperationStatistics[] statistics, long elapsedNanos) throws IOException {
+        Map<TraceOperation, LatencyHistogram> latencies = new EnumMap<>(TraceOperation.class);
+        Map<TraceOperation, Long> failedCounts = new EnumMap<>(TraceOperation.class);
+        for (TraceOperation operation : TraceOperation.values()) {
+            long[] buckets = new long[LatencyHistogram.BUCKETS_COUNT];
+            long totalNanos = 0;
+            long failedCount = 0;
+            for (OperationStatistics threadStatistics : statistics) {
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] += threadStatistics.buckets[operation.ordinal()][i];
+                }
+                totalNanos += threadStatistics.totalNanos[operation.ordinal()];
+                failedCount += threadStatistics.failedCounts[operation.ordinal()];
+            }
+            latencies.put(operation, new LatencyHistogram(buckets, totalNanos));
+            failedCounts.put(operation, failedCount);
+        }
+        return new WorkloadResult(latencies, failedCounts, elapsedNanos, fs.fsck(false));
+    }
+
+    /**
+     * Generates operations of one thread
+     */
+    private class Worker {
+
+        private final WorkloadOptions options;
+        private final int totalWeight;
+        private final int threadIndex;
+        private final List<VirtualFile> directories;
+        private final List<VirtualFile> leafDirectories;
+        private final OperationStatistics statistics;
+        private final int maxFilesCount;
+        private final Random random;
+        private final byte[] data;
+        private final List<VirtualFile> files = new ArrayList<>();
+        private final List<Integer> sizes = new ArrayList<>();
+        private int createdFilesCount;
+
+        private Worker(WorkloadOptions options, int totalWeight, int threadIndex, List<VirtualFile> directories,
+                       List<VirtualFile> leafDirectories, OperationStatistics statistics) {
+            this.options = options;
+            this.totalWeight = totalWeight;
+            this.threadIndex = threadIndex;
+            this.directories = directories;
+            this.leafDirectories = leafDirectories;
+            this.statistics = statistics;
+            this.maxFilesCount = Math.max(1, options.getMaxFilesCount() / options.getThreadsCount());
+            this.random = new Random(options.getSeed() + threadIndex);
+            this.data = new byte[options.getMaxFileSize()];
+            random.nextBytes(data);
+        }
+
+        private void run(int operationsCount) {
+            for (int i = 0; i < operationsCount; i++) {
+                TraceOperation operation = chooseOperation();
+                if (files.isEmpty() && operation != TraceOperation.LIST) {
+                    operation = TraceOperation.CREATE_FILE;
+                } else if (operation == TraceOperation.CREATE_FILE && files.size() >= maxFilesCount) {
+                    operation = TraceOperation.REMOVE;
+                }
+                int index = files.isEmpty() ? -1 : random.nextInt(files.size());
+                VirtualFile file = index < 0 ? null : files.get(index);
+                byte[] content = null;
+                int offset = 0;
+                if (operation == TraceOperation.CREATE_FILE) {
+                    VirtualFile parent = leafDirectories.get(random.nextInt(leafDirectories.size()));
+                    file = parent.child("t" + threadIndex + "-" + createdFilesCount++);
+                } else if (operation == TraceOperation.WRITE || operation == TraceOperation.WRITE_AT) {
+                    content = Arrays.copyOf(data, nextSize());
+                    offset = operation == TraceOperation.WRITE ? 0 : random.nextInt(sizes.get(index) + 1);
+                } else if (operation == TraceOperation.LIST) {
+                    file = directories.get(random.nextInt(directories.size()));
+                }
+
+                long startTime = System.nanoTime();
+                boolean isFailed = false;
+                try {
+                    switch (operation) {
+                        case CREATE_FILE:
+                            fs.createFile(file.parent(), file.getName());
+                            break;
+                        case WRITE:
+                            fs.write(file, content);
+                            break;
+                        case WRITE_AT:
+                            fs.write(file, offset, content);
+                            break;
+                        case READ:
+                            fs.read(file);
+                            break;
+                        case LIST:
+                            fs.getFilesList(file);
+                            break;
+                        case REMOVE:
+                            fs.removeFile(file);
+                            break;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    isFailed = true;
+                }
+                statistics.add(operation, System.nanoTime() - startTime, isFailed);
+                if (!isFailed) {
+                    update(operation, file, index, offset, content);
+                }
+            }
+        }
+
+        private void update(TraceOperation operation, VirtualFile file, int index, int offset, byte[] content) {
+            if (operation == TraceOperation.CREATE_FILE) {
+                files.add(file);
+                sizes.add(0);
+            } else if (operation == TraceOperation.WRITE) {
+                sizes.set(index, content.length);
+            } else if (operation == TraceOperation.WRITE_AT) {
+                sizes.set(index, Math.max(sizes.get(index), offset + content.length));
+            } else if (operation == TraceOperation.REMOVE) {
+                int lastIndex = files.size() - 1;
+                files.set(index, files.get(lastIndex));
+                sizes.set(index, sizes.get(lastIndex));
+                files.remove(lastIndex);
+                sizes.remove(lastIndex);
+            }
+        }
+
+        private TraceOperation chooseOperation() {
+            int value = random.nextInt(totalWeight);
+            for (TraceOperation operation : TraceOperation.values()) {
+                value -= options.getWeight(operation);
+                if (value < 0) {
+                    return operation;
+                }
+            }
+            throw new IllegalStateException("operation was not chosen");
+        }
+
+        /**
+         * @return size with log-uniform distribution in range of options
+         */
+        private int nextSize() {
+            double logMin = Math.log(options.getMinFileSize() + 1);
+            double logMax = Math.log(options.getMaxFileSize() + 1);
+            int size = (int) Math.exp(logMin + random.nextDouble() * (logMax - logMin)) - 1;
+            return Math.max(options.getMinFileSize(), Math.min(options.getMaxFileSize(), size));
+        }
+    }
+
+    /**
+     * Latencies and failures of operations of one thread
+     */
+    private static class OperationStatistics {
+
+        private final long[][] buckets = new long[TraceOperation.values().length][LatencyHistogram.BUCKETS_COUNT];
+        private final long[] totalNanos = new long[TraceOperation.values().length];
+        private final long[] failedCounts = new long[TraceOperation.values().length];
+
+        private void add(TraceOperation operation, long nanos, boolean isFailed) {
+            buckets[operation.ordinal()][LatencyHistogram.getBucketIndex(nanos)]++;
+            totalNanos[operation.ordinal()] += nanos;
+            if (isFailed) {
+                failedCounts[operation.ordinal()]++;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package maxim.z;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Options of workload of {@link WorkloadGenerator}
+ */
+public class WorkloadOptions {
+
+    private int operationsCount = 10_000;
+    private int threadsCount = 4;
+    private final Map<TraceOperation, Integer> weights = new EnumMap<>(TraceOperation.class);
+    private int minFileSize = 0;
+    private int maxFileSize = 16 * 1024;
+    private int maxFilesCount = 200;
+    private int directoriesCount = 8;
+    private int depth = 2;
+    private long seed = 1;
+
+    private WorkloadOptions() {
+        weights.put(TraceOperation.CREATE_FILE, 20);
+        weights.put(TraceOperation.WRITE, 25);
+        weights.put(TraceOperation.READ, 40);
+        weights.put(TraceOperation.LIST, 10);
+        weights.put(TraceOperation.REMOVE, 5);
+    }
+
+    /**
+     * @return options of 10000 operations by 4 threads: 20% of creating, 25% of writing, 40% of reading, 10% of
+     * listing and 5% of removing of up to 200 files up to 16 KB in tree of 8 directories with 8 subdirectories each,
+     * so workload fits to file system of default size
+     */
+    public static WorkloadOptions defaults() {
+        return new WorkloadOptions();
+    }
+
+    /**
+     * @param operationsCount count of operations of all threads
+     * @return current options instance
+     */
+    public WorkloadOptions withOperationsCount(int operationsCount) {
+        if (operationsCount <= 0) {
+            throw new IllegalArgumentException(String.format("Operations count must be positive, but was %d", operationsCount));
+        }
+        this.operationsCount = operationsCount;
+        return this;
+    }
+
+    /**
+     * @param threadsCount count of threads executing operations at the same time
+     * @return current options instance
+     */
+    public WorkloadOptions withThreadsCount(int threadsCount) {
+        if (threadsCount <= 0) {
+            throw new IllegalArgumentException(String.format("Threads count must be positive, but was %d", threadsCount));
+        }
+        this.threadsCount = threadsCount;
+        return this;
+    }
+
+    /**
+     * Sets relative weight of operation in mix. Directories are created before measurement only, so
+     * {@link TraceOperation#CREATE_DIRECTORY} and {@link TraceOperation#REMOVE_RECURSIVE} are not supported.
+     *
+     * @param operation operation of mix
+     * @param weight    weight of operation, 0 to exclude operation from mix
+     * @return current options instance
+     */
+    public WorkloadOptions withWeight(TraceOperation operation, int weight) {
+        if (operation == TraceOperation.CREATE_DIRECTORY || operation == TraceOperation.REMOVE_RECURSIVE) {
+            throw new IllegalArgumentException(String.format("Operation %s is not supported in mix", operation));
+        }
+        if (weight < 0) {
+            throw new IllegalArgumentException(String.format("Weight must not be negative, but was %d", weight));
+        }
+        weights.put(operation, weight);
+        return this;
+    }
+
+    /**
+     * Sets range of sizes of written content. Sizes have log-uniform distribution, so small files are more often
+     * than large, as in most real file systems.
+     *
+     * @param minFileSize min size in bytes
+     * @param maxFileSize max size in bytes
+     * @return current options instance
+     */
+    public WorkloadOptions withFileSizes(int minFileSize, int maxFileSize) {
+        if (minFileSize < 0 || maxFileSize < minFileSize) {
+            throw new IllegalArgumentException(String.format("Incorrect range of file sizes [%d, %d]", minFileSize, maxFileSize));
+        }
+        this.minFileSize = minFileSize;
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    /**
+     * Limits count of existing files, so workload comes to steady state instead of filling of file system.
+     * When thread has it's share of files, creating of file is replaced by removing.
+     *
+     * @param maxFilesCount max count of files of all threads
+     * @return current options instance
+     */
+    public WorkloadOptions withMaxFilesCount(int maxFilesCount) {
+        if (maxFilesCount <= 0) {
+            throw new IllegalArgumentException(String.format("Max files count must be positive, but was %d", maxFilesCount));
+        }
+        this.maxFilesCount = maxFilesCount;
+        return this;
+    }
+
+    /**
+     * @param directoriesCount count of subdirectories of every not leaf directory
+     * @param depth            count of levels of directories, files are created in directories of the last level
+     * @return current options instance
+     */
+    public WorkloadOptions withFanOut(int directoriesCount, int depth) {
+        if (directoriesCount <= 0 || depth < 0) {
+            throw new IllegalArgumentException(String.format("Incorrect fan-out %d with depth %d", directoriesCount, depth));
+        }
+        this.directoriesCount = directoriesCount;
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * @param seed seed of random choice of operations, files and sizes
+     * @return current options instance
+     */
+    public WorkloadOptions withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    int getOperationsCount() {
+        return operationsCount;
+    }
+
+    int getThreadsCount() {
+        return threadsCount;
+    }
+
+    int getWeight(TraceOperation operation) {
+        return weights.getOrDefault(operation, 0);
+    }
+
+    int getMinFileSize() {
+        return minFileSize;
+    }
+
+    int getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    int getMaxFilesCount() {
+        return maxFilesCount;
+    }
+
+    int getDirectoriesCount() {
+        return directoriesCount;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+}
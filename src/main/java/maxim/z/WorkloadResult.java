@@ -0,0 +1,88 @@
+package maxim.z;
+
+import java.util.Map;
+
+/**
+ * Result of generated or replayed workload (see {@link WorkloadGenerator}): latencies of operations and
+ * consistency check of file system after workload
+ */
+public class WorkloadResult {
+
+    private final Map<TraceOperation, LatencyHistogram> latencies;
+    private final Map<TraceOperation, Long> failedCounts;
+    private final long elapsedNanos;
+    private final FsckResult fsckResult;
+
+    WorkloadResult(Map<TraceOperation, LatencyHistogram> latencies, Map<TraceOperation, Long> failedCounts,
+                   long elapsedNanos, FsckResult fsckResult) {
+        this.latencies = latencies;
+        this.failedCounts = failedCounts;
+        this.elapsedNanos = elapsedNanos;
+        this.fsckResult = fsckResult;
+    }
+
+    /**
+     * @return latencies of executed operations of specified kind, including failed ones
+     */
+    public LatencyHistogram getLatency(TraceOperation operation) {
+        return latencies.get(operation);
+    }
+
+    public long getOperationsCount() {
+        long result = 0;
+        for (LatencyHistogram latency : latencies.values()) {
+            result += latency.getCount();
+        }
+        return result;
+    }
+
+    /**
+     * @return count of operations, that threw exception
+     */
+    public long getFailedCount() {
+        long result = 0;
+        for (long failedCount : failedCounts.values()) {
+            result += failedCount;
+        }
+        return result;
+    }
+
+    public long getFailedCount(TraceOperation operation) {
+        return failedCounts.get(operation);
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getOperationsPerSecond() {
+        return elapsedNanos == 0 ? 0 : getOperationsCount() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return result of consistency check after workload
+     */
+    public FsckResult getFsckResult() {
+        return fsckResult;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<TraceOperation, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram latency = entry.getValue();
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            result.append(String.format("%-16s count %d, failed %d, mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us%n",
+                    entry.getKey().name().toLowerCase(), latency.getCount(), failedCounts.get(entry.getKey()),
+                    latency.getMeanNanos() / 1e3, latency.getPercentileNanos(50) / 1e3,
+                    latency.getPercentileNanos(90) / 1e3, latency.getPercentileNanos(99) / 1e3,
+                    latency.getPercentileNanos(99.9) / 1e3));
+        }
+        result.append(String.format("total: %d operations, %d failed, %d ms, %.0f operations per second%n",
+                getOperationsCount(), getFailedCount(), elapsedNanos / 1_000_000, getOperationsPerSecond()));
+        result.append("fsck: ").append(fsckResult);
+        return result.toString();
+    }
+}
@@ -0,0 +1,8 @@
+package maxim.z.exceptions;
+
+public class ChecksumException extends FSFormatException {
+
+    public ChecksumException(String message) {
+        super(message);
+    }
+}
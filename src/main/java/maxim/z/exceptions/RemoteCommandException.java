@@ -0,0 +1,11 @@
+package maxim.z.exceptions;
+
+/**
+ * Command was rejected by file system server, message is the message of error on server side
+ */
+public class RemoteCommandException extends FSException {
+
+    public RemoteCommandException(String message) {
+        super(message);
+    }
+}
@@ -4,8 +4,39 @@ import maxim.z.exceptions.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -19,6 +50,7 @@ public class FileSystemTest {
         FSUtils.writeIntAsBytesToArray(emptyRootDirFS, FSConstants.Offsets.CLUSTERS_COUNT, FSConstants.DEFAULT_CLUSTER_COUNT);
         FSUtils.writeIntAsBytesToArray(emptyRootDirFS, FSConstants.Offsets.LAST_USED_CLUSTER, 0);
         FSUtils.writeIntAsBytesToArray(emptyRootDirFS, FSConstants.Offsets.CLUSTER_SIZE, FSConstants.DEFAULT_CLUSTER_SIZE);
+        FSUtils.writeIntAsBytesToArray(emptyRootDirFS, FSConstants.Offsets.MAX_CLUSTERS_COUNT, FSConstants.DEFAULT_CLUSTER_COUNT);
         FSUtils.writeIntAsBytesToArray(emptyRootDirFS, FSConstants.Offsets.FAT_TABLE, FSConstants.END_OF_CHAIN);
         byte spaceByte = " ".getBytes(FSConstants.CHARSET)[0];
         byte[] rootDirectoryHeader = new byte[FSConstants.FILE_HEADER_LENGTH];
@@ -195,6 +227,1294 @@ public class FileSystemTest {
         }
     }
 
+    @Test
+    public void cloneTest() throws IOException {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile source = fs.createFile(root, "source");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 4];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) i;
+            }
+            fs.write(source, content);
+
+            VirtualFile target = root.child("target");
+            fs.clone(source, target);
+            assertEquals(2, fs.getFilesList(root).size());
+            assertArrayEquals(content, fs.read(target));
+
+            byte[] changedPart = new byte[]{7, 7, 7};
+            int changeOffset = FSConstants.DEFAULT_CLUSTER_SIZE * 2 + 10;
+            fs.write(target, changeOffset, changedPart);
+            assertArrayEquals(content, fs.read(source));
+            byte[] expectedTarget = content.clone();
+            System.arraycopy(changedPart, 0, expectedTarget, changeOffset, changedPart.length);
+            assertArrayEquals(expectedTarget, fs.read(target));
+
+            VirtualFile secondTarget = root.child("secondTarget");
+            fs.clone(source, secondTarget);
+            fs.removeFile(source);
+            assertArrayEquals(content, fs.read(secondTarget));
+            assertArrayEquals(expectedTarget, fs.read(target));
+            fs.write(secondTarget, "abcd");
+            assertEquals("abcd", fs.readAsString(secondTarget));
+            assertArrayEquals(expectedTarget, fs.read(target));
+
+            try {
+                fs.clone(root, root.child("dirCopy"));
+                fail();
+            } catch (WriteException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void snapshotTest() throws IOException {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile directory = fs.createDirectory(root, "dir");
+            VirtualFile file = fs.createFile(directory, "file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3];
+            content[FSConstants.DEFAULT_CLUSTER_SIZE * 2] = 5;
+            fs.write(file, content);
+            fs.createSnapshot("first");
+            assertEquals(Arrays.asList("first"), fs.getSnapshotsList());
+
+            fs.write(file, FSConstants.DEFAULT_CLUSTER_SIZE * 2, new byte[]{1, 2});
+            fs.createFile(directory, "newFile");
+            fs.removeFile(root.child("dir").child("file"));
+            fs.createDirectory(root, "newDir");
+
+            try (VirtualFileSystem snapshot = FileSystemFactory.getSnapshotFileSystem(fs, "first")) {
+                VirtualFile snapshotFile = snapshot.getRootFile().child("dir").child("file");
+                assertArrayEquals(content, snapshot.read(snapshotFile));
+                assertEquals(Arrays.asList("dir"), snapshot.getFilesList(snapshot.getRootFile()));
+                assertEquals(Arrays.asList("file"), snapshot.getFilesList(snapshotFile.parent()));
+                try {
+                    snapshot.write(snapshotFile, "abcd");
+                    fail();
+                } catch (WriteException ignored) {
+                }
+                try {
+                    snapshot.createFile(snapshot.getRootFile(), "abcd");
+                    fail();
+                } catch (WriteException ignored) {
+                }
+            }
+            assertEquals(2, fs.getFilesList(root).size());
+            assertEquals(Arrays.asList("newFile"), fs.getFilesList(directory));
+
+            try {
+                fs.createSnapshot("first");
+                fail();
+            } catch (IncorrectNameException ignored) {
+            }
+            fs.removeSnapshot("first");
+            assertEquals(0, fs.getSnapshotsList().size());
+            try {
+                FileSystemFactory.getSnapshotFileSystem(fs, "first");
+                fail();
+            } catch (FileNotFoundException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void checksumsTest() throws IOException {
+        BytesReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw, FormatOptions.defaults().withChecksums())) {
+            VirtualFile file = fs.createFile(fs.getRootFile(), "file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 2];
+            content[100] = 1;
+            fs.write(file, content);
+            fs.write(file, 10, new byte[]{2, 3});
+            content[10] = 2;
+            content[11] = 3;
+            assertArrayEquals(content, fs.read(file));
+            ScrubResult result = fs.scrub();
+            assertEquals(4, result.getCheckedClustersCount());
+            assertEquals(0, result.getCorruptedClusters().size());
+
+            fs.write(file, content);
+            int secondFileCluster = 2;
+            int corruptedByteOffset = FSConstants.Offsets.FAT_TABLE + FSConstants.DEFAULT_CLUSTER_COUNT * FSConstants.BYTE_DEPTH
+                    + secondFileCluster * FSConstants.DEFAULT_CLUSTER_SIZE + 10;
+            brw.seekAndWrite(new byte[]{9}, corruptedByteOffset);
+            try {
+                fs.read(file);
+                fail();
+            } catch (ChecksumException ignored) {
+            }
+            assertEquals(Arrays.asList(secondFileCluster), fs.scrub().getCorruptedClusters());
+        }
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            fs.scrub();
+            fail();
+        } catch (FSException ignored) {
+        }
+    }
+
+    @Test
+    public void compressionTest() throws IOException {
+        BytesReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; text.length() < FSConstants.COMPRESSION_CHUNK_SIZE * 5; i++) {
+                text.append("line number ").append(i).append(" of compressed text file\n");
+            }
+            byte[] content = text.toString().getBytes(FSConstants.CHARSET);
+            VirtualFile file = fs.createFile(fs.getRootFile(), "text");
+            fs.write(file, content);
+            int uncompressedClustersCount = countUsedClusters(brw);
+            fs.setCompressed(file, true);
+            assertTrue(countUsedClusters(brw) < uncompressedClustersCount);
+            assertArrayEquals(content, fs.read(file));
+            int from = FSConstants.COMPRESSION_CHUNK_SIZE * 2 - 10;
+            assertArrayEquals(Arrays.copyOfRange(content, from, from + 30), fs.read(file, from, 30));
+
+            byte[] changedPart = "changed".getBytes(FSConstants.CHARSET);
+            int changeOffset = FSConstants.COMPRESSION_CHUNK_SIZE * 3 + 5;
+            fs.write(file, changeOffset, changedPart);
+            byte[] expected = content.clone();
+            System.arraycopy(changedPart, 0, expected, changeOffset, changedPart.length);
+            assertArrayEquals(expected, fs.read(file));
+
+            fs.write(file, expected.length + 100, changedPart);
+            byte[] expectedWithGap = Arrays.copyOf(expected, expected.length + 100 + changedPart.length);
+            System.arraycopy(changedPart, 0, expectedWithGap, expected.length + 100, changedPart.length);
+            assertArrayEquals(expectedWithGap, fs.read(file));
+
+            VirtualFile plainClone = fs.createFile(fs.getRootFile(), "plainClone");
+            fs.write(plainClone, "plain content");
+            fs.clone(file, plainClone);
+            assertArrayEquals(expectedWithGap, fs.read(plainClone));
+            VirtualFile compressedClone = fs.createFile(fs.getRootFile(), "compressedClone");
+            fs.write(compressedClone, content);
+            fs.setCompressed(compressedClone, true);
+            fs.clone(plainClone, compressedClone);
+            fs.setCompressed(plainClone, false);
+            fs.clone(plainClone, compressedClone);
+            assertArrayEquals(expectedWithGap, fs.read(compressedClone));
+            fs.write(compressedClone, 0, changedPart);
+            assertArrayEquals(expectedWithGap, fs.read(plainClone));
+
+            byte[] randomContent = new byte[FSConstants.COMPRESSION_CHUNK_SIZE + 100];
+            new java.util.Random(1).nextBytes(randomContent);
+            fs.write(file, randomContent);
+            assertArrayEquals(randomContent, fs.read(file));
+
+            fs.setCompressed(file, false);
+            assertArrayEquals(randomContent, fs.read(file));
+        }
+    }
+
+    @Test
+    public void deduplicationTest() throws IOException {
+        BytesReaderWriter brw = new MemoryReaderWriter(0);
+        byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 5];
+        new java.util.Random(2).nextBytes(content);
+        int filesCount = 10;
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw, FormatOptions.defaults().withDeduplication())) {
+            VirtualFile root = fs.getRootFile();
+            for (int i = 0; i < filesCount; i++) {
+                fs.write(fs.createFile(root, "file" + i), content);
+            }
+            int clustersPerFile = 6;
+            assertEquals(1 + filesCount + clustersPerFile - 1, countUsedClusters(brw));
+            DeduplicationStatistics statistics = fs.getDeduplicationStatistics();
+            assertEquals((filesCount - 1) * (clustersPerFile - 1), statistics.getDeduplicatedClustersCount());
+            assertEquals(statistics.getDeduplicatedClustersCount() * FSConstants.DEFAULT_CLUSTER_SIZE, statistics.getSavedBytes());
+
+            fs.write(root.child("file3"), FSConstants.DEFAULT_CLUSTER_SIZE * 3, new byte[]{1, 2, 3});
+            for (int i = 0; i < filesCount; i++) {
+                if (i != 3) {
+                    assertArrayEquals(content, fs.read(root.child("file" + i)));
+                }
+            }
+        }
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            int usedClustersCount = countUsedClusters(brw);
+            fs.write(fs.createFile(root, "newFile"), content);
+            assertEquals(usedClustersCount + 1, countUsedClusters(brw));
+            for (String name : fs.getFilesList(root)) {
+                fs.removeFile(root.child(name));
+            }
+            assertEquals(1, countUsedClusters(brw));
+        }
+    }
+
+    @Test
+    public void sparseTest() throws IOException {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile sparse = fs.createFile(root, "sparse");
+            int dataOffset = FSConstants.DEFAULT_CLUSTER_SIZE * 100;
+            byte[] data = new byte[]{1, 2, 3};
+            fs.write(sparse, dataOffset, data);
+            assertEquals(3, countUsedClusters(brw));
+            byte[] expected = new byte[dataOffset + data.length];
+            System.arraycopy(data, 0, expected, dataOffset, data.length);
+            assertArrayEquals(expected, fs.read(sparse));
+
+            fs.write(sparse, FSConstants.DEFAULT_CLUSTER_SIZE * 50, data);
+            System.arraycopy(data, 0, expected, FSConstants.DEFAULT_CLUSTER_SIZE * 50, data.length);
+            assertArrayEquals(expected, fs.read(sparse));
+            assertEquals(4, countUsedClusters(brw));
+
+            VirtualFile dense = fs.createFile(root, "dense");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 8];
+            Arrays.fill(content, (byte) 5);
+            fs.write(dense, content);
+            VirtualFile clone = root.child("clone");
+            fs.clone(dense, clone);
+            int usedClustersCount = countUsedClusters(brw);
+
+            int holeOffset = 100;
+            int holeLength = FSConstants.DEFAULT_CLUSTER_SIZE * 4;
+            fs.punchHole(dense, holeOffset, holeLength);
+            byte[] expectedDense = content.clone();
+            Arrays.fill(expectedDense, holeOffset, holeOffset + holeLength, (byte) 0);
+            assertArrayEquals(expectedDense, fs.read(dense));
+            assertArrayEquals(content, fs.read(clone));
+
+            fs.removeFile(clone);
+            assertEquals(usedClustersCount - 4, countUsedClusters(brw));
+            fs.write(dense, holeOffset + 10, data);
+            System.arraycopy(data, 0, expectedDense, holeOffset + 10, data.length);
+            assertArrayEquals(expectedDense, fs.read(dense));
+
+            fs.removeFile(dense);
+            fs.removeFile(sparse);
+            assertEquals(1, countUsedClusters(brw));
+        }
+    }
+
+    @Test
+    public void sparseAttributeTest() throws IOException {
+        int count = FSConstants.DEFAULT_CLUSTER_COUNT;
+        long gapsOffset = FSConstants.Offsets.FAT_TABLE + count * (3L * FSConstants.BYTE_DEPTH + FSConstants.DEFAULT_CLUSTER_SIZE)
+                + FSConstants.MAX_SNAPSHOTS_COUNT * FSConstants.FILE_HEADER_LENGTH;
+        int[] gapReadsCount = new int[1];
+        MemoryReaderWriter brw = new MemoryReaderWriter(0) {
+
+            private long position;
+
+            @Override
+            public void seek(long pos) throws IOException {
+                position = pos;
+                super.seek(pos);
+            }
+
+            @Override
+            public void readBytes(byte[] data) throws IOException {
+                if (position >= gapsOffset) {
+                    gapReadsCount[0]++;
+                }
+                super.readBytes(data);
+            }
+
+            @Override
+            public void seekAndRead(byte[] data, long pos) throws IOException {
+                if (pos >= gapsOffset) {
+                    gapReadsCount[0]++;
+                }
+                super.seekAndRead(data, pos);
+            }
+        };
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile file = fs.createFile(root, "file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 8];
+            Arrays.fill(content, (byte) 3);
+            fs.write(file, content);
+            fs.write(file, FSConstants.DEFAULT_CLUSTER_SIZE * 3, new byte[]{1});
+            fs.truncate(file, FSConstants.DEFAULT_CLUSTER_SIZE * 6);
+            fs.clone(file, root.child("clone"));
+            fs.write(root.child("clone"), FSConstants.DEFAULT_CLUSTER_SIZE * 5, new byte[]{2});
+            fs.read(file);
+            fs.removeFile(root.child("clone"));
+            assertEquals(0, gapReadsCount[0]);
+
+            fs.punchHole(file, 0, FSConstants.DEFAULT_CLUSTER_SIZE * 3);
+            fs.read(file);
+            assertTrue(gapReadsCount[0] > 0);
+
+            fs.write(file, content);
+            gapReadsCount[0] = 0;
+            assertArrayEquals(content, fs.read(file));
+            assertEquals(0, gapReadsCount[0]);
+            assertTrue(fs.fsck(false).isConsistent());
+        }
+    }
+
+    @Test
+    public void overwriteAndTruncateTest() throws IOException {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile file = fs.createFile(fs.getRootFile(), "file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 10];
+            new java.util.Random(3).nextBytes(content);
+            fs.write(file, content);
+            int usedClustersCount = countUsedClusters(brw);
+
+            byte[] changedPart = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+            int changeOffset = FSConstants.DEFAULT_CLUSTER_SIZE * 5 - 3;
+            fs.write(file, changeOffset, changedPart);
+            System.arraycopy(changedPart, 0, content, changeOffset, changedPart.length);
+            assertArrayEquals(content, fs.read(file));
+            assertEquals(usedClustersCount, countUsedClusters(brw));
+
+            fs.write(file, content.length - 2, changedPart);
+            byte[] extended = Arrays.copyOf(content, content.length - 2 + changedPart.length);
+            System.arraycopy(changedPart, 0, extended, content.length - 2, changedPart.length);
+            assertArrayEquals(extended, fs.read(file));
+
+            int newSize = FSConstants.DEFAULT_CLUSTER_SIZE * 2 + 100;
+            fs.truncate(file, newSize);
+            assertArrayEquals(Arrays.copyOf(content, newSize), fs.read(file));
+            assertEquals(1 + 3, countUsedClusters(brw));
+            fs.truncate(file, newSize + FSConstants.DEFAULT_CLUSTER_SIZE * 20);
+            assertArrayEquals(Arrays.copyOf(Arrays.copyOf(content, newSize), newSize + FSConstants.DEFAULT_CLUSTER_SIZE * 20), fs.read(file));
+            assertEquals(1 + 3, countUsedClusters(brw));
+
+            fs.setCompressed(file, true);
+            fs.truncate(file, 10);
+            assertArrayEquals(Arrays.copyOf(content, 10), fs.read(file));
+
+            VirtualOutputStream outputStream = file.getOutputStream();
+            outputStream.write(new byte[]{1, 2});
+            outputStream.write(new byte[]{3});
+            assertArrayEquals(new byte[]{1, 2, 3}, fs.read(file));
+            try {
+                fs.truncate(fs.getRootFile(), 0);
+                fail();
+            } catch (WriteException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void channelTest() throws IOException {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            VirtualFile file = fs.createFile(fs.getRootFile(), "file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3];
+            new java.util.Random(4).nextBytes(content);
+            fs.write(file, content);
+            fs.createSnapshot("snapshot");
+            byte[] snapshotContent = content.clone();
+
+            try (VirtualFileChannel channel = file.openChannel()) {
+                assertEquals(content.length, channel.size());
+                ByteBuffer buffer = ByteBuffer.allocate(100);
+                channel.position(FSConstants.DEFAULT_CLUSTER_SIZE - 50);
+                assertEquals(100, channel.read(buffer));
+                assertArrayEquals(Arrays.copyOfRange(content, FSConstants.DEFAULT_CLUSTER_SIZE - 50, FSConstants.DEFAULT_CLUSTER_SIZE + 50), buffer.array());
+
+                channel.position(10);
+                assertEquals(3, channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+                assertEquals(13, channel.position());
+                channel.write(ByteBuffer.wrap(new byte[]{4, 5}));
+                content[10] = 1;
+                content[11] = 2;
+                content[12] = 3;
+                content[13] = 4;
+                content[14] = 5;
+                assertArrayEquals(content, fs.read(file));
+
+                channel.position(content.length - 1);
+                channel.write(ByteBuffer.wrap(new byte[]{6, 7}));
+                content = Arrays.copyOf(content, content.length + 1);
+                content[content.length - 2] = 6;
+                content[content.length - 1] = 7;
+                assertEquals(content.length, channel.size());
+                buffer = ByteBuffer.allocate(10);
+                assertEquals(-1, channel.read(buffer));
+
+                channel.truncate(20);
+                assertEquals(20, channel.position());
+                assertArrayEquals(Arrays.copyOf(content, 20), fs.read(file));
+            }
+            try (VirtualFileSystem snapshot = FileSystemFactory.getSnapshotFileSystem(fs, "snapshot");
+                 VirtualFileChannel channel = snapshot.getRootFile().child("file").openChannel()) {
+                assertEquals(snapshotContent.length, channel.size());
+                ByteBuffer buffer = ByteBuffer.allocate(snapshotContent.length);
+                channel.read(buffer);
+                assertArrayEquals(snapshotContent, buffer.array());
+                try {
+                    channel.write(ByteBuffer.wrap(new byte[]{1}));
+                    fail();
+                } catch (WriteException ignored) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void directoryLinksTest() throws IOException {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile directory = fs.createDirectory(fs.getRootFile(), "dir");
+            Set<String> expectedNames = new HashSet<>();
+            for (int i = 0; i < 50; i++) {
+                fs.createFile(directory, "file" + i);
+                expectedNames.add("file" + i);
+            }
+            for (int i = 0; i < 50; i += 3) {
+                fs.removeFile(directory.child("file" + i));
+                expectedNames.remove("file" + i);
+            }
+            assertEquals(expectedNames, new HashSet<>(fs.getFilesList(directory)));
+            for (String name : expectedNames) {
+                assertTrue(fs.exist(directory.child(name)));
+                fs.removeFile(directory.child(name));
+            }
+            assertEquals(0, fs.getFilesList(directory).size());
+            assertEquals(2, countUsedClusters(brw));
+        }
+    }
+
+    @Test
+    public void batchTest() throws IOException {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile existingFile = fs.createFile(root, "existing");
+            fs.createSnapshot("snapshot");
+            byte[] largeContent = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 2];
+            Arrays.fill(largeContent, (byte) 7);
+            fs.batch(batch -> {
+                VirtualFile directory = batch.createDirectory(root, "dir");
+                for (int i = 0; i < 100; i++) {
+                    batch.write(batch.createFile(directory, "file" + i), "content" + i);
+                }
+                VirtualFile subdirectory = batch.createDirectory(directory, "subdir");
+                batch.write(batch.createFile(subdirectory, "large"), largeContent);
+                batch.createFile(root, "empty");
+                batch.write(existingFile, "changed");
+            });
+            VirtualFile directory = root.child("dir");
+            assertEquals(101, fs.getFilesList(directory).size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("content" + i, fs.readAsString(directory.child("file" + i)));
+            }
+            assertArrayEquals(largeContent, fs.read(directory.child("subdir").child("large")));
+            assertEquals(0, fs.read(root.child("empty")).length);
+            assertEquals("changed", fs.readAsString(existingFile));
+            try (VirtualFileSystem snapshot = FileSystemFactory.getSnapshotFileSystem(fs, "snapshot")) {
+                assertEquals(Arrays.asList("existing"), snapshot.getFilesList(snapshot.getRootFile()));
+            }
+
+            fs.createSnapshot("beforeRejectedBatch");
+            int usedClustersCount = countUsedClusters(brw);
+            try {
+                fs.batch(batch -> {
+                    batch.createFile(root, "newFile");
+                    batch.createFile(directory, "file5");
+                });
+                fail();
+            } catch (IncorrectNameException ignored) {
+            }
+            assertEquals(usedClustersCount, countUsedClusters(brw));
+            assertFalse(fs.exist(root.child("newFile")));
+            try {
+                fs.batch(batch -> batch.createFile(batch.createFile(root, "file"), "child"));
+                fail();
+            } catch (CreateFileException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void removeRecursiveTest() throws IOException {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile directory = fs.createDirectory(root, "dir");
+            VirtualFile subdirectory = fs.createDirectory(directory, "subdir");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 50];
+            Arrays.fill(content, (byte) 1);
+            for (int i = 0; i < 5; i++) {
+                fs.write(fs.createFile(subdirectory, "file" + i), content);
+            }
+            fs.createSnapshot("snapshot");
+            fs.write(subdirectory.child("file0"), "changed");
+            fs.removeRecursive(directory);
+            assertFalse(fs.exist(directory));
+            assertEquals(0, fs.getFilesList(root).size());
+            try (VirtualFileSystem snapshot = FileSystemFactory.getSnapshotFileSystem(fs, "snapshot")) {
+                assertArrayEquals(content, snapshot.read(snapshot.getRootFile().child("dir").child("subdir").child("file0")));
+            }
+            fs.removeSnapshot("snapshot");
+
+            fs.createDirectory(root, "dir");
+            fs.write(fs.createFile(root.child("dir"), "file"), content);
+            fs.removeRecursive(root.child("dir"));
+            fs.reclaimRemovedFiles();
+            assertEquals(1, countUsedClusters(brw));
+            try {
+                fs.removeRecursive(root);
+                fail();
+            } catch (WriteException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void defragmentTest() throws IOException {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile directory = fs.createDirectory(root, "dir");
+            byte[][] contents = new byte[10][];
+            for (int i = 0; i < contents.length; i++) {
+                fs.createFile(directory, "file" + i);
+                fs.write(fs.createFile(root, "temp" + i), new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3]);
+                contents[i] = new byte[0];
+            }
+            for (int step = 0; step < 5; step++) {
+                for (int i = 0; i < contents.length; i++) {
+                    int offset = FSConstants.DEFAULT_CLUSTER_SIZE * step;
+                    contents[i] = Arrays.copyOf(contents[i], offset + FSConstants.DEFAULT_CLUSTER_SIZE + i);
+                    Arrays.fill(contents[i], offset, contents[i].length, (byte) (i + step));
+                    fs.write(directory.child("file" + i), offset, Arrays.copyOfRange(contents[i], offset, contents[i].length));
+                }
+            }
+            for (int i = 0; i < contents.length; i++) {
+                fs.removeFile(root.child("temp" + i));
+            }
+
+            FragmentationStatistics before = fs.getFragmentationStatistics();
+            assertTrue(before.getFragmentedFilesCount() > 0);
+            assertTrue(fs.defragment(1) > 0);
+            while (fs.defragment(16) > 0) {
+            }
+            FragmentationStatistics after = fs.getFragmentationStatistics();
+            assertEquals(0, after.getFragmentedFilesCount());
+            assertEquals(before.getFilesCount(), after.getFilesCount());
+            assertEquals(before.getUsedClustersCount(), after.getUsedClustersCount());
+            assertTrue(after.getHighestUsedCluster() < before.getHighestUsedCluster());
+            for (int i = 0; i < contents.length; i++) {
+                assertArrayEquals(contents[i], fs.read(directory.child("file" + i)));
+            }
+
+            assertEquals(FSConstants.DEFAULT_CLUSTER_COUNT - after.getHighestUsedCluster() - 1, fs.shrink());
+            assertEquals(after.getHighestUsedCluster() + 1, fs.getFragmentationStatistics().getClusterCount());
+            fs.createSnapshot("snapshot");
+            fs.removeFile(directory.child("file0"));
+            assertEquals(0, fs.defragment(16));
+            try (VirtualFileSystem snapshot = FileSystemFactory.getSnapshotFileSystem(fs, "snapshot")) {
+                assertArrayEquals(contents[0], snapshot.read(snapshot.getRootFile().child("dir").child("file0")));
+            }
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 100];
+            Arrays.fill(content, (byte) 7);
+            VirtualFile big = fs.createFile(root, "big");
+            int clusterCount = fs.getFragmentationStatistics().getClusterCount();
+            try {
+                fs.write(big, content);
+                fail("shrunk storage must not grow on allocation");
+            } catch (FSException e) {
+                assertEquals(clusterCount, fs.getFragmentationStatistics().getClusterCount());
+            }
+            fs.reserveClusters(101);
+            fs.write(big, content);
+            assertArrayEquals(content, fs.read(root.child("big")));
+            assertTrue(fs.getFragmentationStatistics().getClusterCount() > after.getHighestUsedCluster() + 1);
+        }
+    }
+
+    @Test
+    public void fsckTest() throws IOException {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw, FormatOptions.defaults().withChecksums())) {
+            VirtualFile root = fs.getRootFile();
+            VirtualFile directory = fs.createDirectory(root, "dir");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3];
+            Arrays.fill(content, (byte) 5);
+            fs.write(fs.createFile(root, "a"), content);
+            fs.write(fs.createFile(root, "b"), content);
+            VirtualFile c = fs.createFile(root, "c");
+            fs.clone(root.child("a"), directory.child("clone"));
+            fs.createSnapshot("snapshot");
+            fs.punchHole(root.child("b"), FSConstants.DEFAULT_CLUSTER_SIZE, FSConstants.DEFAULT_CLUSTER_SIZE);
+            fs.write(fs.createFile(directory, "compressed"), content);
+            fs.setCompressed(directory.child("compressed"), true);
+            FsckResult result = fs.fsck(false);
+            assertTrue(result.getProblems().toString(), result.isConsistent());
+            assertEquals(10, result.getCheckedFilesCount());
+
+            int directoryCluster = 1;
+            int fileCCluster = 10;
+            int dataOffset = FSConstants.Offsets.FAT_TABLE + FSConstants.DEFAULT_CLUSTER_COUNT * FSConstants.BYTE_DEPTH;
+            byte[] header = new byte[FSConstants.FILE_HEADER_LENGTH];
+            brw.seekAndRead(header, dataOffset + fileCCluster * FSConstants.DEFAULT_CLUSTER_SIZE);
+            assertEquals("c", FSFileEntry.fromByteArray(header).name);
+            int referencesOffset = dataOffset + FSConstants.DEFAULT_CLUSTER_COUNT * FSConstants.DEFAULT_CLUSTER_SIZE;
+            brw.seekAndWrite(FSUtils.intAsFourBytes(501), FSConstants.Offsets.FAT_TABLE + 500 * FSConstants.BYTE_DEPTH);
+            brw.seekAndWrite(FSUtils.intAsFourBytes(FSConstants.END_OF_CHAIN), FSConstants.Offsets.FAT_TABLE + 501 * FSConstants.BYTE_DEPTH);
+            brw.seekAndWrite(FSUtils.intAsFourBytes(0), FSConstants.Offsets.FAT_TABLE + fileCCluster * FSConstants.BYTE_DEPTH);
+            brw.seekAndWrite(FSUtils.intAsFourBytes(3), referencesOffset + directoryCluster * FSConstants.BYTE_DEPTH);
+
+            result = fs.fsck(false);
+            assertFalse(result.isConsistent());
+            Set<FsckProblem.Type> types = new HashSet<>();
+            result.getProblems().forEach(problem -> types.add(problem.getType()));
+            assertEquals(EnumSet.of(FsckProblem.Type.ORPHANED_CLUSTER, FsckProblem.Type.BAD_DIRECTORY_LINK,
+                    FsckProblem.Type.WRONG_REFERENCES, FsckProblem.Type.DIRTY_FREE_CLUSTER), types);
+            assertEquals(0, result.getRepairedProblemsCount());
+
+            result = fs.fsck(true);
+            assertEquals(6, result.getProblems().size());
+            assertTrue(result.getRemainingProblems().toString(), result.isConsistent());
+            assertTrue(fs.fsck(false).isConsistent());
+            assertFalse(fs.exist(c));
+            assertArrayEquals(content, fs.read(root.child("a")));
+            assertArrayEquals(content, fs.read(directory.child("clone")));
+            assertArrayEquals(content, fs.read(directory.child("compressed")));
+            fs.removeRecursive(directory);
+            fs.reclaimRemovedFiles();
+            fs.removeSnapshot("snapshot");
+            fs.removeFile(root.child("a"));
+            fs.removeFile(root.child("b"));
+            assertEquals(1, countUsedClusters(brw));
+        }
+    }
+
+    @Test
+    public void concurrentFsckTest() throws Exception {
+        MemoryReaderWriter brw = new MemoryReaderWriter(0);
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            AtomicBoolean isStopped = new AtomicBoolean();
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            List<CompletableFuture<Void>> writers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                VirtualFile directory = fs.createDirectory(root, "dir" + i);
+                writers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        for (int j = 0; !isStopped.get(); j++) {
+                            // clusters of removed directories are reused by files, which content looks like huge sizes
+                            fs.createDirectory(directory, "directory" + j);
+                            byte[] content = new byte[j % 3 * FSConstants.DEFAULT_CLUSTER_SIZE + j % 100];
+                            Arrays.fill(content, (byte) 0x7f);
+                            fs.write(fs.createFile(directory, "file" + j), content);
+                            if (j >= 20) {
+                                fs.removeRecursive(directory.child("directory" + (j - 20)));
+                                fs.removeFile(directory.child("file" + (j - 20)));
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+            try {
+                for (int i = 0; i < 50; i++) {
+                    FsckResult result = fs.fsck(false);
+                    assertTrue(result.getProblems().toString(), result.isConsistent());
+                }
+                isStopped.set(true);
+                for (CompletableFuture<Void> writer : writers) {
+                    writer.get();
+                }
+            } finally {
+                isStopped.set(true);
+                executor.shutdown();
+            }
+            assertTrue(fs.fsck(false).isConsistent());
+        }
+    }
+
+    @Test
+    public void instrumentedReaderWriterTest() throws Exception {
+        InstrumentedReaderWriter brw = new InstrumentedReaderWriter(new MemoryReaderWriter(0));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name;
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw)) {
+            VirtualFile root = fs.getRootFile();
+            brw.reset();
+            VirtualFile file = fs.createFile(root, "file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3];
+            Arrays.fill(content, (byte) 7);
+            fs.write(file, content);
+            assertArrayEquals(content, fs.read(file));
+            assertTrue(fs.exist(file));
+
+            IOStatistics statistics = brw.getStatistics();
+            assertTrue(statistics.getCallsCount(FileSystemOperation.CREATE, StorageCall.WRITE) > 0);
+            assertTrue(statistics.getBytes(FileSystemOperation.WRITE, StorageCall.WRITE) >= content.length);
+            assertTrue(statistics.getBytes(FileSystemOperation.READ, StorageCall.READ) >= content.length);
+            assertEquals(0, statistics.getBytes(FileSystemOperation.READ, StorageCall.WRITE));
+            assertTrue(statistics.getCallsCount(FileSystemOperation.LOOKUP, StorageCall.READ) > 0);
+            assertEquals(0, statistics.getCallsCount(FileSystemOperation.OTHER, StorageCall.READ));
+            assertEquals(statistics.getCallsCount(StorageCall.READ), statistics.getLatency(StorageCall.READ).getCount());
+            assertTrue(statistics.getLatency(StorageCall.WRITE).getPercentileNanos(100)
+                    >= statistics.getLatency(StorageCall.WRITE).getPercentileNanos(50));
+
+            fs.read(file);
+            assertEquals(statistics.getBytes(FileSystemOperation.READ, StorageCall.READ) * 2,
+                    brw.getStatistics().getBytes(FileSystemOperation.READ, StorageCall.READ));
+
+            name = brw.registerMBean("instrumentedReaderWriterTest");
+            assertEquals(brw.getWrittenBytes(), server.getAttribute(name, "WrittenBytes"));
+            brw.reset();
+            assertEquals(0L, server.getAttribute(name, "ReadsCount"));
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void flightRecorderEventsTest() throws IOException {
+        Path recordingFile = Files.createTempFile("fs-events", ".jfr");
+        try (Recording recording = new Recording();
+             VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            recording.enable("maxim.z.FileSystemOperation");
+            recording.enable("maxim.z.StorageResize");
+            recording.start();
+            VirtualFile directory = fs.createDirectory(fs.getRootFile(), "dir");
+            VirtualFile file = fs.createFile(directory, "file");
+            fs.write(file, new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3]);
+            fs.read(file);
+            fs.removeFile(file);
+            recording.stop();
+            recording.dump(recordingFile);
+
+            Map<String, RecordedEvent> events = new HashMap<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+                if (event.getEventType().getName().equals("maxim.z.FileSystemOperation")) {
+                    events.putIfAbsent(event.getString("operation"), event);
+                }
+            }
+            assertEquals(EnumSet.of(FileSystemOperation.CREATE, FileSystemOperation.WRITE, FileSystemOperation.READ,
+                    FileSystemOperation.REMOVE), events.keySet().stream().map(FileSystemOperation::valueOf)
+                    .collect(Collectors.toCollection(() -> EnumSet.noneOf(FileSystemOperation.class))));
+            assertEquals(1, events.get("CREATE").getInt("allocatedClustersCount"));
+            assertEquals(3, events.get("WRITE").getInt("allocatedClustersCount"));
+            assertEquals(2, events.get("WRITE").getInt("pathDepth"));
+            assertTrue(events.get("READ").getLong("traversedChainClustersCount") >= 4);
+            assertEquals(4, events.get("REMOVE").getInt("freedClustersCount"));
+        } finally {
+            Files.delete(recordingFile);
+        }
+    }
+
+    @Test
+    public void cachingReaderWriterTest() throws IOException {
+        for (CacheOptions options : Arrays.asList(CacheOptions.defaults().withCapacity(FSConstants.DEFAULT_CLUSTER_SIZE * 16),
+                CacheOptions.defaults().withCapacity(FSConstants.DEFAULT_CLUSTER_SIZE * 16).withWriteBack())) {
+            MemoryReaderWriter storage = new MemoryReaderWriter(0);
+            CachingReaderWriter brw = new CachingReaderWriter(storage, options);
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 40];
+            new Random(1).nextBytes(content);
+            VirtualFileSystem fs = FileSystemFactory.getFileSystem(brw);
+            VirtualFile root = fs.getRootFile();
+            VirtualFile directory = fs.createDirectory(root, "dir");
+            for (int i = 0; i < 10; i++) {
+                fs.write(fs.createFile(directory, "file" + i), Arrays.copyOf(content, FSConstants.DEFAULT_CLUSTER_SIZE * i));
+            }
+            fs.write(fs.createFile(root, "big"), content);
+            fs.write(directory.child("file3"), 100, new byte[]{1, 2, 3});
+            fs.removeFile(directory.child("file5"));
+            for (int i = 0; i < 10; i++) {
+                if (i != 5) {
+                    assertEquals(FSConstants.DEFAULT_CLUSTER_SIZE * i, fs.read(directory.child("file" + i)).length);
+                }
+            }
+            assertArrayEquals(content, fs.read(root.child("big")));
+            CacheStatistics statistics = brw.getStatistics();
+            assertTrue(statistics.toString(), statistics.getHitsCount() > statistics.getMissesCount());
+            assertTrue(statistics.getEvictedBlocksCount() > 0);
+            assertTrue(statistics.getCachedBlocksCount() <= 16);
+            byte[] expected = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3];
+            brw.seekAndRead(expected, 100);
+            byte original = expected[FSConstants.DEFAULT_CLUSTER_SIZE];
+            expected[FSConstants.DEFAULT_CLUSTER_SIZE] = (byte) ~original;
+            brw.seekAndWrite(new byte[]{(byte) ~original}, 100 + FSConstants.DEFAULT_CLUSTER_SIZE);
+            ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+            brw.transferTo(100, expected.length, Channels.newChannel(transferred));
+            assertArrayEquals(expected, transferred.toByteArray());
+            brw.seekAndWrite(new byte[]{original}, 100 + FSConstants.DEFAULT_CLUSTER_SIZE);
+            fs.close();
+            assertEquals(0, brw.getStatistics().getDirtyBlocksCount());
+
+            try (VirtualFileSystem reopenedFS = FileSystemFactory.getFileSystem(storage)) {
+                assertArrayEquals(content, reopenedFS.read(root.child("big")));
+                assertArrayEquals(new byte[]{1, 2, 3}, reopenedFS.read(directory.child("file3"), 100, 3));
+                assertFalse(reopenedFS.exist(directory.child("file5")));
+            }
+        }
+    }
+
+    @Test
+    public void decoratorsTransferTest() throws IOException {
+        int[] transfersCount = new int[1];
+        MemoryReaderWriter storage = new MemoryReaderWriter(0) {
+            @Override
+            public void transferTo(long pos, long count, WritableByteChannel target) throws IOException {
+                transfersCount[0]++;
+                super.transferTo(pos, count, target);
+            }
+        };
+        InstrumentedReaderWriter instrumented = new InstrumentedReaderWriter(storage);
+        CachingReaderWriter brw = new CachingReaderWriter(instrumented, CacheOptions.defaults().withWriteBack());
+        byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 2];
+        new Random(3).nextBytes(content);
+        brw.seekAndWrite(content, 10);
+        assertEquals(0, instrumented.getWrittenBytes());
+        instrumented.reset();
+
+        ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+        brw.transferTo(10, content.length, Channels.newChannel(transferred));
+        assertArrayEquals(content, transferred.toByteArray());
+        assertEquals(1, transfersCount[0]);
+        assertEquals(content.length, instrumented.getWrittenBytes());
+        assertEquals(content.length, instrumented.getReadBytes());
+        assertEquals(1, instrumented.getReadsCount());
+        brw.close();
+    }
+
+    @Test
+    public void cacheScanResistanceTest() throws IOException {
+        int blockSize = 16;
+        MemoryReaderWriter storage = new MemoryReaderWriter(0);
+        try (CachingReaderWriter brw = new CachingReaderWriter(storage,
+                CacheOptions.defaults().withBlockSize(blockSize).withCapacity(blockSize * 8).withWriteBack())) {
+            byte[] block = new byte[blockSize];
+            for (int i = 0; i < 14; i++) {
+                brw.seekAndRead(block, i * blockSize);
+            }
+            brw.seekAndWrite(new byte[]{7}, 2 * blockSize);
+            brw.seekAndRead(block, 3 * blockSize);
+            for (int i = 100; i < 200; i++) {
+                brw.seekAndRead(block, i * blockSize);
+            }
+            long missesCount = brw.getStatistics().getMissesCount();
+            brw.seekAndRead(block, 2 * blockSize);
+            assertEquals(7, block[0]);
+            brw.seekAndRead(block, 3 * blockSize);
+            assertEquals(missesCount, brw.getStatistics().getMissesCount());
+            assertEquals(1, brw.getStatistics().getDirtyBlocksCount());
+
+            byte[] stored = new byte[1];
+            storage.seekAndRead(stored, 2 * blockSize);
+            assertEquals(0, stored[0]);
+            brw.flush();
+            storage.seekAndRead(stored, 2 * blockSize);
+            assertEquals(7, stored[0]);
+        }
+    }
+
+    @Test
+    public void segmentedMemoryReaderWriterTest() throws IOException {
+        int segmentSize = 1024;
+        SegmentedMemoryReaderWriter brw = new SegmentedMemoryReaderWriter(segmentSize);
+        byte[] data = new byte[segmentSize * 3 + 100];
+        new Random(2).nextBytes(data);
+        long farOffset = 5L * Integer.MAX_VALUE;
+        brw.seekAndWrite(data, farOffset - 10);
+        assertEquals(farOffset - 10 + data.length, brw.getLength());
+        assertEquals(segmentSize * 5, brw.getAllocatedBytes());
+        byte[] read = new byte[data.length + 20];
+        brw.seekAndRead(read, farOffset - 20);
+        assertArrayEquals(data, Arrays.copyOfRange(read, 10, 10 + data.length));
+        assertArrayEquals(new byte[10], Arrays.copyOf(read, 10));
+        brw.seekAndRead(read, 12345);
+        assertArrayEquals(new byte[read.length], read);
+
+        brw.setLength(farOffset + 5);
+        brw.setLength(farOffset + segmentSize);
+        brw.seekAndRead(read, farOffset - 10);
+        assertArrayEquals(Arrays.copyOf(data, 15), Arrays.copyOf(read, 15));
+        assertArrayEquals(new byte[read.length - 15], Arrays.copyOfRange(read, 15, read.length));
+
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new SegmentedMemoryReaderWriter(segmentSize))) {
+            VirtualFile file = fs.createFile(fs.getRootFile(), "file");
+            fs.write(file, data);
+            assertArrayEquals(data, fs.read(file));
+        }
+        brw.close();
+        assertEquals(0, brw.getAllocatedBytes());
+        try {
+            brw.seekAndRead(read, 0);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Storage is closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void saveAndLoadImageTest() throws IOException {
+        Path image = Files.createTempFile("fs-image", ".fs");
+        try {
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 5 + 7];
+            new Random(3).nextBytes(content);
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new SegmentedMemoryReaderWriter(),
+                    FormatOptions.defaults().withChecksums())) {
+                VirtualFile root = fs.getRootFile();
+                VirtualFile directory = fs.createDirectory(root, "dir");
+                fs.write(fs.createFile(directory, "file"), content);
+                fs.createSnapshot("snapshot");
+                fs.write(directory.child("file"), 0, new byte[]{1, 2, 3});
+                VirtualFile removed = fs.createDirectory(root, "removed");
+                fs.write(fs.createFile(removed, "file"), content);
+                fs.removeRecursive(removed);
+                fs.saveImage(image);
+            }
+
+            InstrumentedReaderWriter storage = new InstrumentedReaderWriter(new MemoryReaderWriter(0));
+            try (VirtualFileSystem fs = FileSystemFactory.loadImage(image, storage)) {
+                assertTrue(storage.getWrittenBytes() < Files.size(image) / 2);
+                VirtualFile file = fs.getRootFile().child("dir").child("file");
+                assertArrayEquals(new byte[]{1, 2, 3}, fs.read(file, 0, 3));
+                assertArrayEquals(content, fs.openSnapshot("snapshot").read(file));
+                assertEquals(Arrays.asList("dir"), fs.getFilesList(fs.getRootFile()));
+                FsckResult result = fs.fsck(false);
+                assertTrue(result.getProblems().toString(), result.isConsistent());
+            }
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(image.toString())) {
+                assertEquals(content.length, fs.read(fs.getRootFile().child("dir").child("file")).length);
+            }
+        } finally {
+            Files.delete(image);
+        }
+    }
+
+    @Test
+    public void asyncFileSystemTest() throws Exception {
+        Path storage = Files.createTempFile("fs-async", ".fs");
+        Files.delete(storage);
+        try (AsyncFileSystem fs = AsyncFileSystem.open(storage, FormatOptions.defaults(), 2, 4)) {
+            VirtualFileSystem syncFs = fs.getFileSystem();
+            VirtualFile root = syncFs.getRootFile();
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 6 + 11];
+            new Random(5).nextBytes(content);
+            VirtualFile file = syncFs.createFile(root, "file");
+            fs.writeAsync(file, content).get();
+            syncFs.punchHole(file, FSConstants.DEFAULT_CLUSTER_SIZE * 2, FSConstants.DEFAULT_CLUSTER_SIZE * 2);
+            Arrays.fill(content, FSConstants.DEFAULT_CLUSTER_SIZE * 2, FSConstants.DEFAULT_CLUSTER_SIZE * 4, (byte) 0);
+            VirtualFile uniform = syncFs.createFile(root, "uniform");
+            syncFs.write(uniform, new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3]);
+
+            List<CompletableFuture<byte[]>> reads = new ArrayList<>();
+            List<CompletableFuture<byte[]>> uniformReads = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                reads.add(fs.readAsync(file, i * 97, FSConstants.DEFAULT_CLUSTER_SIZE * 3));
+                uniformReads.add(fs.readAsync(uniform));
+                byte[] uniformContent = new byte[FSConstants.DEFAULT_CLUSTER_SIZE * 3];
+                Arrays.fill(uniformContent, (byte) i);
+                fs.writeAsync(uniform, 0, uniformContent);
+            }
+            for (int i = 0; i < reads.size(); i++) {
+                int from = i * 97;
+                assertArrayEquals(Arrays.copyOfRange(content, from, from + FSConstants.DEFAULT_CLUSTER_SIZE * 3), reads.get(i).get());
+                byte[] uniformContent = uniformReads.get(i).get();
+                for (byte b : uniformContent) {
+                    assertEquals(uniformContent[0], b);
+                }
+            }
+            assertArrayEquals(content, fs.readAsync(file).get());
+            assertEquals(0, fs.readAsync(file, content.length, 10).get().length);
+            assertEquals(Arrays.asList("file", "uniform"), fs.listAsync(root).get());
+            try {
+                fs.readAsync(root).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ReadException);
+            }
+        } finally {
+            Files.deleteIfExists(storage);
+        }
+    }
+
+    @Test
+    public void asyncFileChannelReaderWriterTest() throws Exception {
+        Path storage = Files.createTempFile("fs-async-storage", ".fs");
+        try {
+            AsyncFileChannelReaderWriter readerWriter = new AsyncFileChannelReaderWriter(storage, 1, 1);
+            try {
+                readerWriter.seekAndWrite(new byte[]{1, 2, 3}, 0);
+                byte[] data = {9, 9, 9, 9, 9};
+                readerWriter.seekAndRead(data, 1);
+                assertArrayEquals(new byte[]{2, 3, 0, 0, 0}, data);
+                ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+                readerWriter.transferTo(1, 2, Channels.newChannel(transferred));
+                assertArrayEquals(new byte[]{2, 3}, transferred.toByteArray());
+            } finally {
+                readerWriter.close();
+            }
+            try {
+                readerWriter.readAsync(new byte[3], 0, 3, 0).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ClosedChannelException);
+            }
+        } finally {
+            Files.deleteIfExists(storage);
+        }
+    }
+
+    @Test
+    public void serverTest() throws Exception {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0));
+             FileSystemServer server = new FileSystemServer(fs, 0);
+             FileSystemClient first = new FileSystemClient(server.getPort());
+             FileSystemClient second = new FileSystemClient(server.getPort())) {
+            first.mkdir("dir");
+            assertEquals("/dir", first.cd("dir"));
+            first.mkfile("file");
+            byte[] content = new byte[FSConstants.DEFAULT_CLUSTER_SIZE + 3];
+            new Random(7).nextBytes(content);
+            first.write("file", content);
+
+            assertEquals(Arrays.asList("dir"), second.ls());
+            second.cd("dir");
+            assertArrayEquals(content, second.read("file"));
+            try {
+                second.cd("missing");
+                fail();
+            } catch (RemoteCommandException e) {
+                assertTrue(e.getMessage().contains("missing"));
+            }
+            try {
+                second.read("missing");
+                fail();
+            } catch (RemoteCommandException e) {
+                // file doesn't exist, connection is still usable
+            }
+            assertEquals("/", second.cd(".."));
+            second.rm("dir");
+            assertEquals("/", first.cd(".."));
+            assertTrue(first.ls().isEmpty());
+
+            assertTrue(new LoadClient(server.getPort()).measure(4, 200) > 0);
+            assertTrue(fs.getFilesList(fs.getRootFile()).isEmpty());
+        }
+    }
+
+    @Test
+    public void importExportTest() throws IOException {
+        Path source = Files.createTempDirectory("fs-import");
+        Path target = Files.createTempDirectory("fs-export");
+        try {
+            Random random = new Random(11);
+            Map<String, byte[]> contents = new HashMap<>();
+            Files.createDirectories(source.resolve("a").resolve("b"));
+            Files.createDirectories(source.resolve("empty"));
+            for (int i = 0; i < 20; i++) {
+                byte[] content = new byte[random.nextInt(3 * FSConstants.DEFAULT_CLUSTER_SIZE)];
+                random.nextBytes(content);
+                contents.put((i % 2 == 0 ? "a/" : "a/b/") + "file" + i, content);
+            }
+            byte[] largeContent = new byte[HostTransfer.CHUNK_SIZE + HostTransfer.CHUNK_SIZE / 2];
+            random.nextBytes(largeContent);
+            contents.put("large", largeContent);
+            contents.put("a/b/emptyFile", new byte[0]);
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                Files.write(source.resolve(entry.getKey()), entry.getValue());
+            }
+
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+                VirtualFile imported = fs.createDirectory(fs.getRootFile(), "imported");
+                HostTransfer transfer = new HostTransfer(fs, 3);
+                TransferProgress progress = transfer.importTree(source, imported, p -> {
+                });
+                assertEquals(contents.size() + 3, progress.getFilesCount());
+                assertEquals(progress.getTotalBytesCount(), progress.getBytesCount());
+                for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                    VirtualFile file = FileImpl.fromPath("/imported/" + entry.getKey(), fs);
+                    assertArrayEquals(entry.getValue(), fs.read(file));
+                }
+                assertTrue(fs.isDirectoryExist(imported.child("empty")));
+                try {
+                    transfer.importTree(source, imported, p -> {
+                    });
+                    fail();
+                } catch (IncorrectNameException e) {
+                    // files already exist
+                }
+
+                transfer.exportTree(imported, target, p -> {
+                });
+                for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                    assertArrayEquals(entry.getValue(), Files.readAllBytes(target.resolve(entry.getKey())));
+                }
+                assertTrue(Files.isDirectory(target.resolve("empty")));
+                FsckResult result = fs.fsck(false);
+                assertTrue(result.getProblems().toString(), result.isConsistent());
+            }
+        } finally {
+            deleteHostTree(source);
+            deleteHostTree(target);
+        }
+    }
+
+    @Test
+    public void tarArchiveTest() throws IOException {
+        Path storage = Files.createTempFile("fs-tar", ".img");
+        try {
+            Random random = new Random(13);
+            Map<String, byte[]> contents = new HashMap<>();
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new RAFWrapper(storage.toFile()))) {
+                VirtualFile source = fs.createDirectory(fs.getRootFile(), "source");
+                VirtualFile a = fs.createDirectory(source, "a");
+                VirtualFile b = fs.createDirectory(a, "b");
+                fs.createDirectory(source, "empty");
+                for (int i = 0; i < 10; i++) {
+                    byte[] content = new byte[random.nextInt(3 * FSConstants.DEFAULT_CLUSTER_SIZE)];
+                    random.nextBytes(content);
+                    fs.write(fs.createFile(i % 2 == 0 ? a : b, "file" + i), content);
+                    contents.put((i % 2 == 0 ? "a/" : "a/b/") + "file" + i, content);
+                }
+                byte[] sparseContent = new byte[4 * FSConstants.DEFAULT_CLUSTER_SIZE];
+                random.nextBytes(sparseContent);
+                VirtualFile sparse = fs.createFile(source, "sparse");
+                fs.write(sparse, sparseContent);
+                fs.punchHole(sparse, FSConstants.DEFAULT_CLUSTER_SIZE, 2 * FSConstants.DEFAULT_CLUSTER_SIZE);
+                Arrays.fill(sparseContent, FSConstants.DEFAULT_CLUSTER_SIZE, 3 * FSConstants.DEFAULT_CLUSTER_SIZE, (byte) 0);
+                contents.put("sparse", sparseContent);
+                fs.createFile(b, "emptyFile");
+                contents.put("a/b/emptyFile", new byte[0]);
+
+                TransferProgress progress = new TarArchive(fs).exportTree(source, Channels.newChannel(archive));
+                assertEquals(contents.size() + 3, progress.getFilesCount());
+                assertEquals(0, archive.size() % TarArchive.BLOCK_SIZE);
+            }
+
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+                VirtualFile target = fs.createDirectory(fs.getRootFile(), "target");
+                TransferProgress progress = new TarArchive(fs).importTree(
+                        Channels.newChannel(new ByteArrayInputStream(archive.toByteArray())), target);
+                assertEquals(contents.size() + 3, progress.getFilesCount());
+                for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                    assertArrayEquals(entry.getValue(), fs.read(FileImpl.fromPath("/target/" + entry.getKey(), fs)));
+                }
+                assertTrue(fs.isDirectoryExist(target.child("empty")));
+                FsckResult result = fs.fsck(false);
+                assertTrue(result.getProblems().toString(), result.isConsistent());
+
+                byte[] damaged = archive.toByteArray();
+                damaged[0] ^= 1;
+                try {
+                    new TarArchive(fs).importTree(Channels.newChannel(new ByteArrayInputStream(damaged)), target);
+                    fail();
+                } catch (FSFormatException e) {
+                    // checksum of header doesn't match
+                }
+            }
+        } finally {
+            Files.delete(storage);
+        }
+    }
+
+    @Test
+    public void batchRunnerTest() throws InterruptedException, IOException {
+        try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+            Map<String, List<String>> scripts = new HashMap<>();
+            for (int i = 0; i < 4; i++) {
+                scripts.put("script" + i, Arrays.asList(
+                        "# independent directory for every script",
+                        "mkdir dir" + i,
+                        "cd dir" + i,
+                        "",
+                        "mkfile file",
+                        "write file content of script " + i,
+                        "read file",
+                        "ls"));
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertEquals(0, new BatchRunner(fs, 4, new PrintStream(output)).run(scripts));
+            for (int i = 0; i < 4; i++) {
+                assertEquals("content of script " + i, fs.readAsString(FileImpl.fromPath("/dir" + i + "/file", fs)));
+            }
+            assertTrue(output.toString().contains("total: 24 commands, 0 failed"));
+
+            output.reset();
+            Map<String, List<String>> failingScript = new HashMap<>();
+            failingScript.put("failing", Arrays.asList("cd missing", "unknown", "mkdir dir0", "ls"));
+            assertEquals(3, new BatchRunner(fs, 1, new PrintStream(output)).run(failingScript));
+            assertTrue(output.toString().contains("failing:1: cd missing failed"));
+        }
+    }
+
+    @Test
+    public void workloadTest() throws IOException, InterruptedException {
+        Path trace = Files.createTempFile("fs-trace", ".txt");
+        try {
+            WorkloadOptions options = WorkloadOptions.defaults()
+                    .withOperationsCount(600)
+                    .withThreadsCount(3)
+                    .withWeight(TraceOperation.WRITE_AT, 10)
+                    .withFileSizes(0, 3 * FSConstants.DEFAULT_CLUSTER_SIZE)
+                    .withFanOut(3, 2);
+            Map<String, Integer> sizes;
+            long recordsCount;
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0));
+                 TraceRecorder recorder = new TraceRecorder(trace)) {
+                fs.setTraceRecorder(recorder);
+                WorkloadResult result = new WorkloadGenerator(fs).generate(options);
+                fs.setTraceRecorder(null);
+                recordsCount = recorder.getRecordsCount();
+                assertEquals(600, result.getOperationsCount());
+                assertEquals(0, result.getFailedCount());
+                assertTrue(result.getLatency(TraceOperation.READ).getCount() > 0);
+                assertTrue(result.getFsckResult().isConsistent());
+                assertEquals(600 + 3 + 9 + 1, recordsCount);
+                sizes = getFileSizes(fs, fs.getRootFile().child("workload"));
+            }
+
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+                WorkloadResult result = new WorkloadGenerator(fs).replay(trace, false);
+                assertEquals(recordsCount, result.getOperationsCount());
+                assertEquals(0, result.getFailedCount());
+                assertTrue(result.getFsckResult().isConsistent());
+                assertEquals(sizes, getFileSizes(fs, fs.getRootFile().child("workload")));
+            }
+            try (VirtualFileSystem fs = FileSystemFactory.getFileSystem(new MemoryReaderWriter(0))) {
+                WorkloadResult result = new WorkloadGenerator(fs).replay(trace, true);
+                assertEquals(recordsCount, result.getOperationsCount());
+                assertTrue(result.getFsckResult().isConsistent());
+            }
+        } finally {
+            Files.delete(trace);
+        }
+    }
+
+    private static Map<String, Integer> getFileSizes(VirtualFileSystem fs, VirtualFile directory) throws IOException {
+        Map<String, Integer> result = new HashMap<>();
+        for (String name : fs.getFilesList(directory)) {
+            VirtualFile child = directory.child(name);
+            if (fs.isDirectoryExist(child)) {
+                result.putAll(getFileSizes(fs, child));
+            } else {
+                result.put(child.getPath(), fs.read(child).length);
+            }
+        }
+        return result;
+    }
+
+    private static void deleteHostTree(Path root) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(java.util.Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static int countUsedClusters(BytesReaderWriter brw) throws IOException {
+        byte[] fatTable = new byte[FSConstants.DEFAULT_CLUSTER_COUNT * FSConstants.BYTE_DEPTH];
+        synchronized (brw) {
+            brw.seekAndRead(fatTable, FSConstants.Offsets.FAT_TABLE);
+        }
+        int result = 0;
+        for (int i = 0; i < fatTable.length; i += FSConstants.BYTE_DEPTH) {
+            if (FSUtils.intFromFourBytes(Arrays.copyOfRange(fatTable, i, i + FSConstants.BYTE_DEPTH)) != 0) {
+                result++;
+            }
+        }
+        return result;
+    }
+
     private byte[] getCopyOfEmptyRootArray() {
         byte[] result = new byte[emptyRootDirFS.length];
         System.arraycopy(emptyRootDirFS, 0, result, 0, result.length);